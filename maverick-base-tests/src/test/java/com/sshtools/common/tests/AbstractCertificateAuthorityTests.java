@@ -39,6 +39,7 @@ import com.sshtools.common.publickey.SshKeyUtils;
 import com.sshtools.common.publickey.SshPrivateKeyFileFactory;
 import com.sshtools.common.publickey.SshPublicKeyFileFactory;
 import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.ssh.components.SshCertificate;
 import com.sshtools.common.ssh.components.SshKeyPair;
 import com.sshtools.common.ssh.components.SshPublicKey;
@@ -81,6 +82,32 @@ public abstract class AbstractCertificateAuthorityTests extends AbstractPublicKe
 		}
 	}
 	
+	public void testTamperedCertificate(String algorithm, int bits, String passphrase) throws IOException, SshException, InvalidPassphraseException {
+		
+		SshKeyPair ca = testKeyGeneration(algorithm, bits, passphrase, "CA", SshPrivateKeyFileFactory.OPENSSH_FORMAT);
+	
+		SshKeyPair userKey = testKeyGeneration(algorithm, bits, passphrase, "User Key", SshPrivateKeyFileFactory.OPENSSH_FORMAT);
+	
+		SshCertificate cert = SshCertificateAuthority.generateCertificate(userKey,
+				1L, SshCertificate.SSH_CERT_TYPE_USER,
+				"id", "john", 365, ca);
+		
+		byte[] encoded = cert.getCertificate().getEncoded();
+		
+		/* Decode twice so the second is answered from the verified certificate cache */
+		SshPublicKeyFileFactory.decodeSSH2PublicKey(encoded);
+		SshPublicKeyFileFactory.decodeSSH2PublicKey(encoded);
+		
+		byte[] tampered = Arrays.copyOf(encoded, encoded.length);
+		tampered[tampered.length - 1] ^= 0x01;
+		
+		try {
+			SshPublicKeyFileFactory.decodeSSH2PublicKey(tampered);
+			fail("Certificate with a modified signature was accepted");
+		} catch (SshIOException e) {
+		}
+	}
+	
 	public void testCertificateGenerationsWithExtensions(String algorithm, int bits, String passphrase) throws IOException, SshException, InvalidPassphraseException, InterruptedException {
 		
 		
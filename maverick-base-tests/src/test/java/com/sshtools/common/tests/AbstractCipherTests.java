@@ -30,10 +30,12 @@ import org.junit.Ignore;
 import com.sshtools.common.ssh.components.AbstractSshCipher;
 import com.sshtools.common.ssh.components.jce.AES128Cbc;
 import com.sshtools.common.ssh.components.jce.AES128Ctr;
+import com.sshtools.common.ssh.components.jce.AES128Gcm;
 import com.sshtools.common.ssh.components.jce.AES192Cbc;
 import com.sshtools.common.ssh.components.jce.AES192Ctr;
 import com.sshtools.common.ssh.components.jce.AES256Cbc;
 import com.sshtools.common.ssh.components.jce.AES256Ctr;
+import com.sshtools.common.ssh.components.jce.AES256Gcm;
 import com.sshtools.common.ssh.components.jce.ArcFour128;
 import com.sshtools.common.ssh.components.jce.ArcFour256;
 import com.sshtools.common.ssh.components.jce.BlowfishCbc;
@@ -75,6 +77,44 @@ public abstract class AbstractCipherTests extends TestCase {
 		
 	}
 	
+	protected void testAEADCipher(AbstractSshCipher encrypt, AbstractSshCipher decrypt) throws IOException, NoSuchAlgorithmException {
+		
+		assertEquals("Cipher not using correct JCE", getTestingJCE(), encrypt.getProviderName());
+		assertEquals("Cipher not using correct JCE", getTestingJCE(), decrypt.getProviderName());
+		
+		byte[] key = new byte[encrypt.getKeyLength()];
+		byte[] iv = new byte[12];
+		
+		JCEComponentManager.getSecureRandom().nextBytes(key);
+		JCEComponentManager.getSecureRandom().nextBytes(iv);
+		
+		encrypt.init(AbstractSshCipher.ENCRYPT_MODE, iv, key);
+		decrypt.init(AbstractSshCipher.DECRYPT_MODE, iv, key);
+		
+		for(int i=0;i<10000;i++) {
+			/* Packet length field, then the packet, with room for the tag */
+			int msglen = 4 + (16 * (1 + (i % 64)));
+			byte[] data = new byte[msglen];
+			JCEComponentManager.getSecureRandom().nextBytes(data);
+			
+			byte[] packet = new byte[msglen + encrypt.getMacLength()];
+			System.arraycopy(data, 0, packet, 0, msglen);
+			
+			encrypt.transform(packet, 0, packet, 0, msglen);
+			decrypt.transform(packet, 0, packet, 0, msglen + decrypt.getMacLength());
+			assertTrue("Encrypt/Decrypt failure", Arrays.areEqual(data, Arrays.copy(packet, msglen)));
+		}
+		
+		byte[] packet = new byte[20 + encrypt.getMacLength()];
+		encrypt.transform(packet, 0, packet, 0, 20);
+		packet[10] ^= 1;
+		try {
+			decrypt.transform(packet, 0, packet, 0, packet.length);
+			fail("Tampered packet should not decrypt");
+		} catch(IOException e) {
+		}
+	}
+	
 	public void testAES128bitCBC() throws NoSuchAlgorithmException, IOException {
 		testCipher(new AES128Cbc(), new AES128Cbc());
 	}
@@ -99,13 +139,13 @@ public abstract class AbstractCipherTests extends TestCase {
 		testCipher(new AES256Ctr(), new AES256Ctr());
 	}
 	
-//	public void testAES128bitGCCM() throws NoSuchAlgorithmException, IOException {
-//		testCipher(new AES128Gcm(), new AES128Gcm());
-//	}
-//	
-//	public void testAES256bitGCCM() throws NoSuchAlgorithmException, IOException {
-//		testCipher(new AES256Gcm(), new AES256Gcm());
-//	}
+	public void testAES128bitGCM() throws NoSuchAlgorithmException, IOException {
+		testAEADCipher(new AES128Gcm(), new AES128Gcm());
+	}
+	
+	public void testAES256bitGCM() throws NoSuchAlgorithmException, IOException {
+		testAEADCipher(new AES256Gcm(), new AES256Gcm());
+	}
 	
 	public void testArcfour128() throws NoSuchAlgorithmException, IOException {
 		testCipher(new ArcFour128(), new ArcFour128());
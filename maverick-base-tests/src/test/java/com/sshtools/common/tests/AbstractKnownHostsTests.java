@@ -32,6 +32,7 @@ import com.sshtools.common.knownhosts.HostKeyVerification;
 import com.sshtools.common.knownhosts.KnownHostsKeyVerification;
 import com.sshtools.common.publickey.SshKeyUtils;
 import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshPublicKey;
 
 import junit.framework.TestCase;
 
@@ -156,4 +157,27 @@ public abstract class AbstractKnownHostsTests extends TestCase {
 		assertFalse(k.verifyHost("[127.0.0.1]:4022", SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/rsa1024.pub"))));
 		
 	}
+	
+	public void testChangesAfterVerification() throws SshException, IOException {
+		
+		KnownHostsKeyVerification k = loadKnownHosts(getClass().getResourceAsStream("/known_hosts"));
+		k.setUseReverseDNS(false);
+		k.setUseCanonicalHostnames(false);
+		
+		SshPublicKey key = SshKeyUtils.getPublicKey(getClass().getResourceAsStream("/openssh/dsa1024.pub"));
+		
+		assertFalse(k.isKnownHost("host1.example", key));
+		
+		k.addEntry(key, "", "host1.example");
+		assertTrue(k.isKnownHost("host1.example", key));
+		
+		k.setHashHosts(true);
+		k.addEntry(key, "", "host2.example");
+		assertTrue(k.isKnownHost("host2.example", key));
+		assertFalse(k.isKnownHost("host3.example", key));
+		
+		k.removeEntries(key);
+		assertFalse(k.isKnownHost("host1.example", key));
+		assertFalse(k.isKnownHost("host2.example", key));
+	}
 }
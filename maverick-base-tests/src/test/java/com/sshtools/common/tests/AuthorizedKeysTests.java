@@ -0,0 +1,138 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+
+import com.sshtools.common.auth.AuthorizedKeysPublicKeyAuthenticationProvider;
+import com.sshtools.common.files.direct.NioFileFactory.NioFileFactoryBuilder;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.publickey.SshKeyUtils;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.components.SshPublicKey;
+
+import junit.framework.TestCase;
+
+public class AuthorizedKeysTests extends TestCase {
+
+	Path home;
+	Path authorizedKeys;
+	SshConnection con;
+	AuthorizedKeysPublicKeyAuthenticationProvider provider;
+
+	@Override
+	protected void setUp() throws Exception {
+		home = Files.createTempDirectory("authorized");
+		Files.createDirectories(home.resolve(".ssh"));
+		authorizedKeys = home.resolve(".ssh/authorized_keys");
+		con = new MockConnection("lee", 
+				UUID.randomUUID().toString(),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new InetSocketAddress(InetAddress.getLocalHost(), 22),
+				new MockContext());
+		con.getContext().getPolicy(FileSystemPolicy.class).setFileFactory((c) -> 
+			NioFileFactoryBuilder.create().withHome(home).withoutSandbox().build());
+		provider = new AuthorizedKeysPublicKeyAuthenticationProvider();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(authorizedKeys);
+		Files.deleteIfExists(home.resolve(".ssh"));
+		Files.deleteIfExists(home);
+	}
+
+	private SshPublicKey generate() throws Exception {
+		return SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519).getPublicKey();
+	}
+
+	private void write(String content, long age) throws IOException {
+		Files.write(authorizedKeys, content.getBytes(StandardCharsets.US_ASCII), 
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		Files.setLastModifiedTime(authorizedKeys, FileTime.fromMillis(System.currentTimeMillis() - age));
+	}
+
+	public void testFindsKey() throws Exception {
+		SshPublicKey key1 = generate();
+		SshPublicKey key2 = generate();
+		write("# comment\n\n" + SshKeyUtils.getOpenSSHFormattedKey(key1) + "\n"
+				+ "no-pty " + SshKeyUtils.getOpenSSHFormattedKey(key2) + " user@host\n", 60000);
+		
+		assertTrue(provider.isAuthorizedKey(key1, con));
+		assertTrue(provider.isAuthorizedKey(key2, con));
+		assertFalse(provider.isAuthorizedKey(generate(), con));
+	}
+
+	public void testUnreadableLineIsSkipped() throws Exception {
+		SshPublicKey key = generate();
+		write("ssh-ed25519 AAAAnotakey\n" + SshKeyUtils.getOpenSSHFormattedKey(key) + "\n", 60000);
+		
+		assertTrue(provider.isAuthorizedKey(key, con));
+	}
+
+	public void testChangeIsDetected() throws Exception {
+		SshPublicKey key1 = generate();
+		SshPublicKey key2 = generate();
+		write(SshKeyUtils.getOpenSSHFormattedKey(key1) + "\n", 60000);
+		assertTrue(provider.isAuthorizedKey(key1, con));
+		assertFalse(provider.isAuthorizedKey(key2, con));
+		
+		write(SshKeyUtils.getOpenSSHFormattedKey(key2) + "\n", 30000);
+		assertFalse(provider.isAuthorizedKey(key1, con));
+		assertTrue(provider.isAuthorizedKey(key2, con));
+	}
+
+	public void testRecentChangeIsReadAgain() throws Exception {
+		SshPublicKey key1 = generate();
+		SshPublicKey key2 = generate();
+		write(SshKeyUtils.getOpenSSHFormattedKey(key1) + "\n", 0);
+		long modified = Files.getLastModifiedTime(authorizedKeys).toMillis();
+		assertTrue(provider.isAuthorizedKey(key1, con));
+		
+		/* Same length and modification time, only noticed because the first read was too soon after the change */
+		write(SshKeyUtils.getOpenSSHFormattedKey(key2) + "\n", 0);
+		Files.setLastModifiedTime(authorizedKeys, FileTime.fromMillis(modified));
+		assertTrue(provider.isAuthorizedKey(key2, con));
+	}
+
+	public void testAddAndRemove() throws Exception {
+		SshPublicKey key = generate();
+		write("", 60000);
+		assertFalse(provider.isAuthorizedKey(key, con));
+		
+		provider.add(key, "test", con);
+		assertTrue(provider.isAuthorizedKey(key, con));
+		
+		provider.remove(key, con);
+		assertFalse(provider.isAuthorizedKey(key, con));
+	}
+}
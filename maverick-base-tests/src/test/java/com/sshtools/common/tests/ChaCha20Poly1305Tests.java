@@ -0,0 +1,152 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import com.sshtools.common.ssh.components.SshCipher;
+import com.sshtools.common.ssh.components.jce.ChaCha20Poly1305;
+import com.sshtools.common.ssh.components.jce.JCEComponentManager;
+import com.sshtools.common.util.Arrays;
+import com.sshtools.common.util.UnsignedInteger64;
+
+import junit.framework.TestCase;
+
+public class ChaCha20Poly1305Tests extends TestCase {
+
+	/**
+	 * Packet of 100 bytes, sequence number 7, key bytes 0..63, payload byte i = i * 7.
+	 * Encrypted length followed by ciphertext and tag.
+	 */
+	static final String KNOWN_ANSWER = "a39afcce28411b5652a0006f5452fdbd83d4b14544c54eb3f270a722e8c5ad62"
+			+ "4498d18d44b01f50e961fea8b4cd40032709493e27fbcebaf3503272f26bb027"
+			+ "7705e548c5052beffda1be17dc1789ee725edfd958fa2df9b166ae93aefb4b86"
+			+ "e2b0e3af0032feeda8c51013a352ed138bc05e8643b0c622";
+	
+	public void testKnownAnswer() throws IOException {
+		assertKnownAnswer();
+	}
+	
+	public void testKnownAnswerPureJava() throws IOException {
+		withPureJava(this::assertKnownAnswer);
+	}
+	
+	public void testRoundTrip() throws IOException {
+		assertRoundTrip();
+	}
+	
+	public void testRoundTripPureJava() throws IOException {
+		withPureJava(this::assertRoundTrip);
+	}
+	
+	public void testRepeatedSequenceNumber() throws IOException {
+		ChaCha20Poly1305 cipher = createCipher(SshCipher.ENCRYPT_MODE, new byte[64]);
+		byte[] first = cipher.writePacketLength(100, UnsignedInteger64.ZERO);
+		byte[] second = cipher.writePacketLength(100, UnsignedInteger64.ZERO);
+		assertTrue(Arrays.areEqual(first, second));
+	}
+	
+	private void assertKnownAnswer() throws IOException {
+		byte[] key = new byte[64];
+		for(int i = 0; i < key.length; i++) {
+			key[i] = (byte) i;
+		}
+		int len = 100;
+		UnsignedInteger64 seq = new UnsignedInteger64(7);
+		byte[] packet = new byte[4 + len + 16];
+		for(int i = 0; i < len; i++) {
+			packet[4 + i] = (byte) (i * 7);
+		}
+		
+		ChaCha20Poly1305 encrypt = createCipher(SshCipher.ENCRYPT_MODE, key);
+		System.arraycopy(encrypt.writePacketLength(len, seq), 0, packet, 0, 4);
+		encrypt.transform(packet, 4, packet, 4, len + 16);
+		assertEquals(KNOWN_ANSWER, toHex(packet));
+		
+		ChaCha20Poly1305 decrypt = createCipher(SshCipher.DECRYPT_MODE, key);
+		assertEquals(len, decrypt.readPacketLength(packet, seq));
+		decrypt.transform(packet, 4, packet, 4, len + 16);
+		for(int i = 0; i < len; i++) {
+			assertEquals((byte) (i * 7), packet[4 + i]);
+		}
+	}
+	
+	private void assertRoundTrip() throws IOException {
+		byte[] key = new byte[64];
+		JCEComponentManager.getSecureRandom().nextBytes(key);
+		ChaCha20Poly1305 encrypt = createCipher(SshCipher.ENCRYPT_MODE, key);
+		ChaCha20Poly1305 decrypt = createCipher(SshCipher.DECRYPT_MODE, key);
+		
+		for(int i = 0; i < 1000; i++) {
+			UnsignedInteger64 seq = new UnsignedInteger64(i);
+			int len = 8 * (1 + (i % 300));
+			byte[] data = new byte[len];
+			JCEComponentManager.getSecureRandom().nextBytes(data);
+			
+			byte[] packet = new byte[4 + len + 16];
+			System.arraycopy(data, 0, packet, 4, len);
+			System.arraycopy(encrypt.writePacketLength(len, seq), 0, packet, 0, 4);
+			encrypt.transform(packet, 4, packet, 4, len + 16);
+			
+			assertEquals(len, decrypt.readPacketLength(packet, seq));
+			if(i % 10 == 0) {
+				packet[4 + (i % (len + 16))] ^= 1;
+				try {
+					decrypt.transform(packet, 4, packet, 4, len + 16);
+					fail("Tampered packet should not decrypt");
+				} catch(IOException e) {
+				}
+				continue;
+			}
+			decrypt.transform(packet, 4, packet, 4, len + 16);
+			assertTrue("Encrypt/Decrypt failure", Arrays.areEqual(data, Arrays.copy(packet, 4, len)));
+		}
+	}
+	
+	private ChaCha20Poly1305 createCipher(int mode, byte[] key) throws IOException {
+		ChaCha20Poly1305 cipher = new ChaCha20Poly1305();
+		cipher.init(mode, new byte[0], key);
+		return cipher;
+	}
+	
+	interface IOTask {
+		void run() throws IOException;
+	}
+	
+	private void withPureJava(IOTask task) throws IOException {
+		System.setProperty(ChaCha20Poly1305.DISABLE_JCE_CHACHA20, "true");
+		try {
+			task.run();
+		} finally {
+			System.clearProperty(ChaCha20Poly1305.DISABLE_JCE_CHACHA20);
+		}
+	}
+	
+	private static String toHex(byte[] data) {
+		StringBuilder buf = new StringBuilder();
+		for(byte b : data) {
+			buf.append(String.format("%02x", b & 0xFF));
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,141 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.ssh.SecureComponent;
+import com.sshtools.common.ssh.SecurityLevel;
+import com.sshtools.common.ssh.components.ComponentFactory;
+import com.sshtools.common.ssh.components.ComponentInstanceFactory;
+
+import junit.framework.TestCase;
+
+public class ComponentFactoryTests extends TestCase {
+
+	static class TestComponent implements SecureComponent {
+		final String name;
+		final SecurityLevel level;
+		final int priority;
+		
+		TestComponent(String name, SecurityLevel level, int priority) {
+			this.name = name;
+			this.level = level;
+			this.priority = priority;
+		}
+
+		@Override
+		public SecurityLevel getSecurityLevel() {
+			return level;
+		}
+
+		@Override
+		public String getAlgorithm() {
+			return name;
+		}
+
+		@Override
+		public int getPriority() {
+			return priority;
+		}
+	}
+	
+	static class TestFactory implements ComponentInstanceFactory<TestComponent> {
+		final String name;
+		final SecurityLevel level;
+		final int priority;
+		final AtomicInteger created = new AtomicInteger();
+		
+		TestFactory(String name, SecurityLevel level, int priority) {
+			this.name = name;
+			this.level = level;
+			this.priority = priority;
+		}
+		
+		@Override
+		public TestComponent create() {
+			created.incrementAndGet();
+			return new TestComponent(name, level, priority);
+		}
+
+		@Override
+		public String[] getKeys() {
+			return new String[] { name };
+		}
+	}
+	
+	TestFactory weak = new TestFactory("weak", SecurityLevel.WEAK, 100);
+	TestFactory strong = new TestFactory("strong", SecurityLevel.STRONG, 200);
+	TestFactory paranoid = new TestFactory("paranoid", SecurityLevel.PARANOID, 300);
+	
+	ComponentFactory<TestComponent> create() {
+		ComponentFactory<TestComponent> factory = new ComponentFactory<>(null);
+		factory.add(weak);
+		factory.add(strong);
+		factory.add(paranoid);
+		return factory;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testClonesAreIndependent() throws Exception {
+		ComponentFactory<TestComponent> original = create();
+		ComponentFactory<TestComponent> clone = (ComponentFactory<TestComponent>) original.clone();
+		
+		clone.remove("weak");
+		assertEquals("strong,paranoid", clone.list());
+		assertEquals("weak,strong,paranoid", original.list());
+		
+		original.add(new TestFactory("other", SecurityLevel.STRONG, 1));
+		assertTrue(original.contains("other"));
+		assertFalse(clone.contains("other"));
+		
+		ComponentFactory<TestComponent> second = (ComponentFactory<TestComponent>) original.clone();
+		second.order("paranoid,weak");
+		assertEquals("paranoid,weak", second.list());
+		assertEquals("weak,strong,paranoid,other", original.list());
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testConfigureSecurityLevel() throws Exception {
+		ComponentFactory<TestComponent> original = create();
+		
+		ComponentFactory<TestComponent> clone = (ComponentFactory<TestComponent>) original.clone();
+		clone.configureSecurityLevel(SecurityLevel.STRONG);
+		assertEquals("paranoid,strong", clone.list());
+		assertEquals("weak,strong,paranoid", original.list());
+		
+		/* Component details are looked up once per factory, not per configuration */
+		int created = weak.created.get() + strong.created.get() + paranoid.created.get();
+		for(int i = 0; i < 10; i++) {
+			clone = (ComponentFactory<TestComponent>) original.clone();
+			clone.configureSecurityLevel(SecurityLevel.WEAK);
+			assertEquals(Arrays.asList("paranoid", "strong", "weak"), Arrays.asList(clone.toArray()));
+		}
+		assertEquals(created, weak.created.get() + strong.created.get() + paranoid.created.get());
+		
+		assertEquals("paranoid", original.selectStrongestComponent(new String[] { "weak", "paranoid", "unknown" }));
+		assertEquals("strong", original.selectStrongestComponent(new String[] { "strong", "weak" }));
+	}
+}
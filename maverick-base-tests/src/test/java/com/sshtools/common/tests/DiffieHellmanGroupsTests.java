@@ -0,0 +1,112 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import com.sshtools.common.ssh.components.DiffieHellmanGroups;
+import com.sshtools.common.ssh.components.DiffieHellmanGroups.DHGroup;
+import com.sshtools.common.util.UnsignedInteger32;
+
+import junit.framework.TestCase;
+
+public class DiffieHellmanGroupsTests extends TestCase {
+
+	@Override
+	protected void tearDown() throws Exception {
+		DiffieHellmanGroups.clearGroups();
+	}
+
+	static String line(int type, int tests, int tries, int size, String g, BigInteger p) {
+		return String.format("20240101000000 %d %d %d %d %s %s%n", type, tests, tries, size, g, p.toString(16).toUpperCase());
+	}
+
+	static String line(BigInteger p) {
+		return line(2, 6, 100, p.bitLength() - 1, "2", p);
+	}
+
+	static int load(String moduli) throws Exception {
+		return DiffieHellmanGroups.loadGroups(new ByteArrayInputStream(moduli.getBytes(StandardCharsets.US_ASCII)), false);
+	}
+
+	public void testDefaultGroups() {
+		assertEquals(DiffieHellmanGroups.group14, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(2048)).getP());
+		assertEquals(DiffieHellmanGroups.group14, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(3000)).getP());
+		assertEquals(DiffieHellmanGroups.group18, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(10000)).getP());
+		assertEquals(DiffieHellmanGroups.group1, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(512)).getP());
+	}
+
+	public void testLoadedGroupsAreIndexedBySize() throws Exception {
+		assertEquals(3, load("# comment\n\n" 
+				+ line(DiffieHellmanGroups.group14)
+				+ line(DiffieHellmanGroups.group15)
+				+ line(DiffieHellmanGroups.group16)));
+
+		DHGroup group = DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(4000));
+		assertEquals(DiffieHellmanGroups.group15, group.getP());
+		assertEquals(3072, group.getSize().intValue());
+		assertEquals(BigInteger.valueOf(2), group.getG());
+		assertEquals(DiffieHellmanGroups.group16, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(8192)).getP());
+		
+		/* Nothing loaded small enough, so fall back to the built in groups */
+		assertEquals(DiffieHellmanGroups.group5, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(2000)).getP());
+	}
+
+	public void testGroupsAreMerged() throws Exception {
+		load(line(DiffieHellmanGroups.group14));
+		load(line(DiffieHellmanGroups.group16));
+		assertEquals(DiffieHellmanGroups.group14, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(3000)).getP());
+		assertEquals(DiffieHellmanGroups.group16, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(5000)).getP());
+	}
+
+	public void testInvalidEntriesAreSkipped() throws Exception {
+		BigInteger p = DiffieHellmanGroups.group14;
+		assertEquals(0, load(
+				/* not a safe prime */
+				line(4, 6, 100, 2047, "2", p)
+				/* composite */
+				+ line(2, 7, 100, 2047, "2", p)
+				/* untested */
+				+ line(2, 0, 100, 2047, "2", p)
+				/* no tries */
+				+ line(2, 6, 0, 2047, "2", p)
+				/* size does not match modulus */
+				+ line(2, 6, 100, 3071, "2", p)
+				/* bad generator */
+				+ line(2, 6, 100, 2047, "1", p)
+				+ line(2, 6, 100, 2047, p.subtract(BigInteger.ONE).toString(16), p)
+				/* malformed */
+				+ "20240101000000 2 6 100 2047 2\n"
+				+ "20240101000000 2 6 100 2047 2 XYZ\n"));
+		assertEquals(DiffieHellmanGroups.group14, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(2048)).getP());
+	}
+
+	public void testVerifyPrimes() throws Exception {
+		BigInteger notSafe = DiffieHellmanGroups.group14.add(BigInteger.TWO);
+		assertEquals(0, DiffieHellmanGroups.loadGroups(new ByteArrayInputStream(line(notSafe).getBytes(StandardCharsets.US_ASCII)), true));
+		assertEquals(1, DiffieHellmanGroups.loadGroups(new ByteArrayInputStream(line(DiffieHellmanGroups.group14).getBytes(StandardCharsets.US_ASCII)), true));
+	}
+}
@@ -0,0 +1,116 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshHmac;
+import com.sshtools.common.ssh.components.jce.HmacSha1;
+import com.sshtools.common.ssh.components.jce.HmacSha196;
+import com.sshtools.common.ssh.components.jce.HmacSha256;
+import com.sshtools.common.ssh.components.jce.HmacSha256_96;
+import com.sshtools.common.ssh.components.jce.HmacSha512;
+import com.sshtools.common.util.Arrays;
+import com.sshtools.common.util.ByteArrayWriter;
+
+import junit.framework.TestCase;
+
+public class HmacTests extends TestCase {
+
+	public void testHmacSha1() throws Exception {
+		assertHmac(new HmacSha1(), "HmacSHA1");
+	}
+	
+	public void testHmacSha196() throws Exception {
+		assertHmac(new HmacSha196(), "HmacSHA1");
+	}
+	
+	public void testHmacSha256() throws Exception {
+		assertHmac(new HmacSha256(), "HmacSHA256");
+	}
+	
+	public void testHmacSha256_96() throws Exception {
+		assertHmac(new HmacSha256_96(), "HmacSHA256");
+	}
+	
+	public void testHmacSha512() throws Exception {
+		assertHmac(new HmacSha512(), "HmacSHA512");
+	}
+	
+	private void assertHmac(SshHmac hmac, String jceAlgorithm) throws Exception {
+		
+		byte[] key = new byte[hmac.getMacSize()];
+		for(int i = 0; i < key.length; i++) {
+			key[i] = (byte) i;
+		}
+		hmac.init(key);
+		
+		Mac reference = Mac.getInstance(jceAlgorithm);
+		reference.init(new SecretKeySpec(key, jceAlgorithm));
+		
+		byte[] data = new byte[1000];
+		for(int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		
+		for(long seq = 0; seq < 100; seq++) {
+			int len = 10 * (int) seq;
+			
+			reference.update(ByteArrayWriter.encodeInt((int) seq));
+			reference.update(data, 0, len);
+			byte[] expected = Arrays.copy(reference.doFinal(), hmac.getMacLength());
+			
+			/* The MAC follows the packet, and nothing beyond it may be written */
+			byte[] packet = new byte[len + hmac.getMacLength() + 8];
+			java.util.Arrays.fill(packet, len + hmac.getMacLength(), packet.length, (byte) 0x55);
+			System.arraycopy(data, 0, packet, 0, len);
+			hmac.generate(seq, packet, 0, len, packet, len);
+			
+			assertTrue(Arrays.areEqual(expected, Arrays.copy(packet, len, hmac.getMacLength())));
+			for(int i = len + hmac.getMacLength(); i < packet.length; i++) {
+				assertEquals((byte) 0x55, packet[i]);
+			}
+			
+			assertTrue(hmac.verify(seq, packet, 0, len, packet, len));
+			assertFalse(hmac.verify(seq + 1, packet, 0, len, packet, len));
+			packet[len + hmac.getMacLength() - 1] ^= 1;
+			assertFalse(hmac.verify(seq, packet, 0, len, packet, len));
+		}
+	}
+	
+	public void testDoFinalIntoBuffer() throws SshException {
+		HmacSha196 hmac = new HmacSha196();
+		hmac.init(new byte[20]);
+		hmac.update("hello".getBytes());
+		byte[] expected = Arrays.copy(hmac.doFinal(), hmac.getMacLength());
+		
+		byte[] output = new byte[hmac.getMacLength() + 2];
+		hmac.update("hello".getBytes());
+		hmac.doFinal(output, 1);
+		assertEquals(0, output[0]);
+		assertEquals(0, output[output.length - 1]);
+		assertTrue(Arrays.areEqual(expected, Arrays.copy(output, 1, hmac.getMacLength())));
+	}
+}
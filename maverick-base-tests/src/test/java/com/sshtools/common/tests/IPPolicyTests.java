@@ -0,0 +1,181 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.sshtools.common.net.CIDRNetwork;
+import com.sshtools.common.net.CIDRTrie;
+import com.sshtools.common.permissions.IPPolicy;
+import com.sshtools.common.permissions.IPStore;
+
+import junit.framework.TestCase;
+
+public class IPPolicyTests extends TestCase {
+
+	static InetAddress address(String addr) throws UnknownHostException {
+		return InetAddress.getByName(addr);
+	}
+
+	/**
+	 * A random network of the given family, with prefixes biased towards the lengths
+	 * used in real block lists.
+	 */
+	static String network(Random r, boolean ipv6) throws UnknownHostException {
+		byte[] addr = new byte[ipv6 ? 16 : 4];
+		r.nextBytes(addr);
+		/* Keep to a few top level blocks so that networks overlap */
+		addr[0] = (byte) (r.nextInt(4) + (ipv6 ? 0x20 : 10));
+		int max = addr.length * 8;
+		int bits = r.nextInt(4) == 0 ? max : Math.max(0, max - r.nextInt(max / 2) - r.nextInt(8));
+		return InetAddress.getByAddress(addr).getHostAddress() + "/" + bits;
+	}
+
+	static boolean linear(List<CIDRNetwork> networks, InetAddress addr) {
+		for(CIDRNetwork network : networks) {
+			if(network.isValidAddressForNetwork(addr)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void testNetworkRange() throws UnknownHostException {
+		CIDRNetwork network = new CIDRNetwork("192.168.10.77/22");
+		assertEquals(22, network.getNetworkBits());
+		assertEquals(address("192.168.8.0"), network.getStartAddress());
+		assertEquals(address("192.168.11.255"), network.getEndAddress());
+		assertTrue(network.isValidAddressForNetwork("192.168.9.1"));
+		assertFalse(network.isValidAddressForNetwork("192.168.12.0"));
+		assertTrue(network.isValidAddressForNetwork(address("192.168.11.255")));
+		assertFalse(network.isValidAddressForNetwork(address("192.168.7.255")));
+
+		network = new CIDRNetwork("2001:db8::1/33");
+		assertEquals(address("2001:db8::"), network.getStartAddress());
+		assertEquals(address("2001:db8:7fff:ffff:ffff:ffff:ffff:ffff"), network.getEndAddress());
+		assertTrue(network.isValidAddressForNetwork(address("2001:db8:1234::1")));
+		assertFalse(network.isValidAddressForNetwork(address("2001:db8:8000::")));
+
+		assertEquals(32, new CIDRNetwork("10.0.0.1").getNetworkBits());
+		assertEquals(128, new CIDRNetwork("::1").getNetworkBits());
+		try {
+			new CIDRNetwork("10.0.0.0/33");
+			fail("Prefix longer than the address was accepted");
+		} catch(IllegalArgumentException e) {
+		}
+	}
+
+	public void testTrie() throws UnknownHostException {
+		CIDRTrie trie = CIDRTrie.EMPTY
+				.with(new CIDRNetwork("10.1.0.0/16"))
+				.with(new CIDRNetwork("10.1.2.3"))
+				.with(new CIDRNetwork("192.168.0.0/24"))
+				.with(new CIDRNetwork("2001:db8::/32"));
+		assertEquals(4, trie.size());
+		assertTrue(trie.contains(address("10.1.200.1")));
+		assertTrue(trie.contains(address("10.1.2.3")));
+		assertFalse(trie.contains(address("10.2.0.0")));
+		assertTrue(trie.contains(address("192.168.0.255")));
+		assertFalse(trie.contains(address("192.168.1.0")));
+		assertTrue(trie.contains(address("2001:db8:ffff::")));
+		assertFalse(trie.contains(address("2001:db9::")));
+		/* IPv4 mapped addresses are resolved as IPv4 */
+		assertTrue(trie.contains(address("::ffff:10.1.0.1")));
+
+		/* A wider network replaces the narrower ones inside it */
+		CIDRTrie wider = trie.with(new CIDRNetwork("8.0.0.0/6"));
+		assertTrue(wider.contains(address("11.255.255.255")));
+		assertFalse(wider.contains(address("12.0.0.0")));
+		assertFalse(trie.contains(address("11.0.0.0")));
+
+		CIDRTrie all = CIDRTrie.EMPTY.with(new CIDRNetwork("0.0.0.0/0"));
+		assertTrue(all.contains(address("255.255.255.255")));
+		assertFalse(all.contains(address("::1")));
+	}
+
+	public void testTrieMatchesLinearScan() throws UnknownHostException {
+		Random r = new Random(1);
+		for(boolean ipv6 : new boolean[] { false, true }) {
+			List<CIDRNetwork> networks = new ArrayList<>();
+			CIDRTrie trie = CIDRTrie.EMPTY;
+			for(int i = 0; i < 2000; i++) {
+				CIDRNetwork network = new CIDRNetwork(network(r, ipv6));
+				networks.add(network);
+				trie = trie.with(network);
+			}
+			for(int i = 0; i < 20000; i++) {
+				InetAddress addr = i % 2 == 0 
+						/* Start from a listed network so that around half of lookups match */
+						? address(network(r, ipv6).split("/")[0]) 
+						: networks.get(r.nextInt(networks.size())).getStartAddress();
+				assertEquals(addr.toString(), linear(networks, addr), trie.contains(addr));
+			}
+		}
+	}
+
+	public void testPolicy() throws UnknownHostException {
+		IPPolicy policy = new IPPolicy();
+		InetAddress local = address("127.0.0.1");
+		assertTrue(policy.checkConnection(address("10.0.0.1"), local));
+
+		policy.blacklist("10.0.0.0/8");
+		policy.blacklist("2001:db8::/32");
+		assertFalse(policy.checkConnection(address("10.0.0.1"), local));
+		assertFalse(policy.checkConnection(address("2001:db8::1"), local));
+		assertTrue(policy.checkConnection(address("11.0.0.1"), local));
+
+		policy.whitelist("11.0.0.0/16");
+		assertTrue(policy.checkConnection(address("11.0.0.1"), local));
+		assertFalse(policy.checkConnection(address("11.1.0.1"), local));
+		assertFalse(policy.checkConnection(address("::1"), local));
+	}
+
+	public void testReset() throws UnknownHostException {
+		IPStore store = new IPStore();
+		store.add("10.0.0.0/8");
+		assertTrue(store.contains(address("10.1.1.1")));
+
+		store.reset(Arrays.asList("192.168.0.0/16", "::1"));
+		assertFalse(store.contains(address("10.1.1.1")));
+		assertTrue(store.contains(address("192.168.1.1")));
+		assertTrue(store.contains(address("::1")));
+		assertEquals(2, store.getIPs().size());
+
+		try {
+			store.reset(Arrays.asList("172.16.0.0/12", "172.16.0.0/99"));
+			fail("Invalid network was accepted");
+		} catch(IllegalArgumentException e) {
+		}
+		/* A failed reset leaves the list as it was */
+		assertTrue(store.contains(address("192.168.1.1")));
+		assertFalse(store.contains(address("172.16.0.1")));
+
+		store.reset(Arrays.asList());
+		assertTrue(store.isEmpty());
+		assertFalse(store.contains(address("192.168.1.1")));
+	}
+}
@@ -0,0 +1,183 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.sshtools.common.nio.IdleStateListener;
+import com.sshtools.common.nio.IdleStateManager;
+
+import junit.framework.TestCase;
+
+public class IdleStateManagerTests extends TestCase {
+
+	static class CountingListener implements IdleStateListener {
+		int count;
+		long firstIdle = -1;
+		boolean cancel;
+
+		public boolean idle() {
+			count++;
+			return cancel;
+		}
+	}
+
+	static class DeadlineListener extends CountingListener {
+		long deadline;
+		long now;
+
+		DeadlineListener(long deadline) {
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean idle() {
+			if(firstIdle < 0) {
+				firstIdle = now;
+			}
+			return super.idle();
+		}
+
+		@Override
+		public long getIdleDeadline() {
+			return count > 0 ? Long.MAX_VALUE : deadline;
+		}
+	}
+
+	public void testIdleAfterPeriod() {
+		IdleStateManager manager = new IdleStateManager(1, 5);
+		CountingListener listener = new CountingListener();
+		long start = System.currentTimeMillis();
+		manager.register(listener);
+
+		manager.service(start + 3000);
+		assertEquals(0, listener.count);
+		manager.service(start + 6000);
+		assertEquals(1, listener.count);
+		/* Still idle, so notified again every service period */
+		manager.service(start + 7000);
+		assertEquals(2, listener.count);
+	}
+
+	public void testResetDelaysIdle() throws InterruptedException {
+		IdleStateManager manager = new IdleStateManager(1, 2);
+		CountingListener listener = new CountingListener();
+		long start = System.currentTimeMillis();
+		manager.register(listener);
+		manager.service(start);
+		Thread.sleep(1100);
+		manager.reset(listener);
+		manager.service(start + 2500);
+		assertEquals(0, listener.count);
+		manager.service(start + 4500);
+		assertEquals(1, listener.count);
+	}
+
+	public void testRemovedWhenIdleReturnsTrue() {
+		IdleStateManager manager = new IdleStateManager(1, 1);
+		CountingListener listener = new CountingListener();
+		listener.cancel = true;
+		long start = System.currentTimeMillis();
+		manager.register(listener);
+		manager.service(start + 2000);
+		manager.service(start + 3000);
+		assertEquals(1, listener.count);
+		assertEquals(0, manager.getListenerCount());
+	}
+
+	public void testRemove() {
+		IdleStateManager manager = new IdleStateManager(1, 1);
+		CountingListener listener = new CountingListener();
+		long start = System.currentTimeMillis();
+		manager.register(listener);
+		manager.service(start);
+		manager.remove(listener);
+		manager.service(start + 5000);
+		assertEquals(0, listener.count);
+		assertEquals(0, manager.getListenerCount());
+	}
+
+	public void testReschedule() {
+		IdleStateManager manager = new IdleStateManager(1, 1);
+		long start = System.currentTimeMillis();
+		DeadlineListener listener = new DeadlineListener(start + 3600000);
+		manager.register(listener);
+		manager.service(start);
+		listener.deadline = start + 10000;
+		manager.service(start + 20000);
+		assertEquals(0, listener.count);
+		manager.reschedule(listener);
+		manager.service(start + 21000);
+		assertEquals(1, listener.count);
+	}
+
+	public void testRescheduleWhenClockStepsBack() {
+		IdleStateManager manager = new IdleStateManager(1, 1);
+		long start = System.currentTimeMillis();
+		long stepped = start - 3600000;
+		DeadlineListener listener = new DeadlineListener(start + 3600000);
+		manager.register(listener);
+		manager.service(start);
+		/* A reschedule queued when the clock is corrected must not put the listener on the wheel twice */
+		listener.deadline = stepped + 2000;
+		manager.reschedule(listener);
+		manager.service(stepped);
+		assertEquals(0, listener.count);
+		manager.service(stepped + 3000);
+		assertEquals(1, listener.count);
+		manager.service(stepped + 4000);
+		assertEquals(1, listener.count);
+	}
+
+	public void testDeadlinesAcrossLevels() {
+		IdleStateManager manager = new IdleStateManager(1, 1);
+		long start = System.currentTimeMillis();
+		Random random = new Random(1);
+		List<DeadlineListener> listeners = new ArrayList<>();
+		for(int i = 0; i < 2000; i++) {
+			long delay = i % 2 == 0 ? random.nextInt(100000) : random.nextInt(300000000);
+			DeadlineListener listener = new DeadlineListener(start + delay);
+			listeners.add(listener);
+			manager.register(listener);
+		}
+
+		/* Step one tick at a time through the first part, then in large jumps */
+		long now = start;
+		while(now < start + 300000000L) {
+			now += now < start + 200000 ? 1000 : 997 * 61;
+			for(DeadlineListener listener : listeners) {
+				listener.now = now;
+			}
+			manager.service(now);
+		}
+
+		for(DeadlineListener listener : listeners) {
+			assertEquals(1, listener.count);
+			assertTrue(listener.firstIdle >= listener.deadline);
+			if(listener.deadline < start + 200000) {
+				assertTrue(listener.firstIdle - listener.deadline <= 2000);
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.common.lz4.LZ4Compression;
+import com.sshtools.common.ssh.compression.SshCompression;
+
+import junit.framework.TestCase;
+
+public class LZ4CompressionTests extends TestCase {
+
+	static LZ4Compression[] create() {
+		LZ4Compression compressor = new LZ4Compression();
+		compressor.init(SshCompression.DEFLATER, 6);
+		LZ4Compression decompressor = new LZ4Compression();
+		decompressor.init(SshCompression.INFLATER, 6);
+		return new LZ4Compression[] { compressor, decompressor };
+	}
+
+	static int roundTrip(LZ4Compression[] z, byte[] payload) throws IOException {
+		ByteBuffer packet = ByteBuffer.allocate(LZ4Compression.maxCompressedLength(payload.length) + 5);
+		packet.position(5);
+		int len = z[0].compress(payload, 0, payload.length, packet);
+		assertEquals(5 + len, packet.position());
+		assertTrue(Arrays.equals(payload, z[1].uncompress(packet.array(), 5, len)));
+		return len;
+	}
+
+	public void testRoundTrip() throws IOException {
+		LZ4Compression[] z = create();
+		Random r = new Random(1);
+		for(int i = 0; i < 2000; i++) {
+			byte[] payload = r.nextBoolean() ? ZLibCompressionTests.text(r.nextInt(40000) + 1, i) 
+					: ZLibCompressionTests.random(r.nextInt(40000) + 1, i);
+			roundTrip(z, payload);
+		}
+	}
+
+	public void testSmallPayloads() throws IOException {
+		LZ4Compression[] z = create();
+		for(int i = 1; i < 64; i++) {
+			roundTrip(z, ZLibCompressionTests.text(i, i));
+			roundTrip(z, new byte[i]);
+		}
+	}
+
+	public void testCompressesText() throws IOException {
+		LZ4Compression[] z = create();
+		byte[] text = ZLibCompressionTests.text(32768, 1);
+		assertTrue(roundTrip(z, text) < text.length / 2);
+	}
+
+	public void testMatchesEarlierPackets() throws IOException {
+		LZ4Compression[] z = create();
+		byte[] random = ZLibCompressionTests.random(16384, 1);
+		int first = roundTrip(z, random);
+		assertTrue(first >= random.length);
+		/* The same data again is found in the history */
+		assertTrue(roundTrip(z, random) < 200);
+	}
+
+	public void testLongStreams() throws IOException {
+		LZ4Compression[] z = create();
+		byte[] repeat = ZLibCompressionTests.random(1000, 1);
+		for(int i = 0; i < 5000; i++) {
+			/* Mix repeated data into data of varying size, so matches cross the window slides */
+			byte[] payload = ZLibCompressionTests.random(100 + (i * 37) % 3000, i);
+			System.arraycopy(repeat, 0, payload, payload.length / 2, Math.min(repeat.length, payload.length / 2));
+			roundTrip(z, payload);
+		}
+	}
+
+	public void testLargePayload() throws IOException {
+		LZ4Compression[] z = create();
+		roundTrip(z, ZLibCompressionTests.text(500000, 1));
+		roundTrip(z, ZLibCompressionTests.random(300000, 2));
+		roundTrip(z, ZLibCompressionTests.text(1000, 3));
+	}
+
+	public void testArrayCompression() throws IOException {
+		LZ4Compression[] z = create();
+		byte[] payload = ZLibCompressionTests.text(10000, 1);
+		byte[] compressed = z[0].compress(payload, 0, payload.length);
+		assertTrue(Arrays.equals(payload, z[1].uncompress(compressed, 0, compressed.length)));
+	}
+
+	public void testCorruptData() {
+		LZ4Compression[] z = create();
+		try {
+			/* A match before the start of the stream */
+			z[1].uncompress(new byte[] { 0x10, 'a', 0x10, 0x00 }, 0, 4);
+			fail("Expected corrupt data to be rejected");
+		} catch(IOException e) {
+		}
+		try {
+			z[1].uncompress(new byte[] { (byte) 0xF0, (byte) 0xFF }, 0, 2);
+			fail("Expected truncated data to be rejected");
+		} catch(IOException e) {
+		}
+	}
+
+	public void testBufferTooSmall() {
+		LZ4Compression[] z = create();
+		byte[] payload = ZLibCompressionTests.random(10000, 1);
+		try {
+			z[0].compress(payload, 0, payload.length, ByteBuffer.allocate(1000));
+			fail("Expected compressed data to overflow the buffer");
+		} catch(IOException e) {
+		}
+	}
+}
@@ -55,6 +55,10 @@ public class OpenSSHED25519CertificateAuthorityTests extends AbstractCertificate
 		testCertificateGenerations(SshKeyPairGenerator.ED25519, 256, "1234567890");
 	}
 	
+	public void testTamperedCertificate() throws IOException, SshException, InvalidPassphraseException {
+		testTamperedCertificate(SshKeyPairGenerator.ED25519, 256, "1234567890");
+	}
+	
 	public void testHostSigningCAPrivateKey() throws IOException, InvalidPassphraseException, SshException {
 		testHostSigningCAPrivateKey("/ca/ed25519/ca_host_key", "bluemars73", "SHA256:KhD74LZJIdXrryLx79o/Z8f/eSqkpkwLHUW9UTVBIhU");
 	}
@@ -43,6 +43,10 @@ public class OpenSSHRSACertificateAuthorityTests extends AbstractCertificateAuth
 		testCertificateGenerations(SshKeyPairGenerator.SSH2_RSA, 2048, "1234567890");
 	}
 	
+	public void testTamperedCertificate() throws IOException, SshException, InvalidPassphraseException {
+		testTamperedCertificate(SshKeyPairGenerator.SSH2_RSA, 2048, "1234567890");
+	}
+	
 	public void testHostSigningCAPrivateKey() throws IOException, InvalidPassphraseException, SshException {
 		testHostSigningCAPrivateKey("/ca/rsa/ca_host_key", "bluemars73", "SHA256:mLet3p6Fwp9oEYWaLFumO9bXppgyOTc/rV28EVRp0EA");
 	}
@@ -0,0 +1,90 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.PacketPool;
+
+import junit.framework.TestCase;
+
+public class PacketPoolTests extends TestCase {
+
+	public void testReuseOnSameThread() throws IOException {
+		PacketPool pool = new PacketPool(4, 16, 1024 * 1024);
+		Packet p = pool.getPacket();
+		p.writeString("hello");
+		pool.putPacket(p);
+		
+		Packet p2 = pool.getPacket();
+		assertSame(p, p2);
+		assertEquals(4, p2.size());
+		assertEquals(1, pool.getHits());
+	}
+	
+	public void testSizeClasses() throws IOException {
+		PacketPool pool = new PacketPool(4, 16, 1024 * 1024);
+		Packet small = pool.getPacket(100);
+		pool.putPacket(small);
+		
+		Packet large = pool.getPacket(32768 + 13);
+		assertNotSame(small, large);
+		assertTrue(large.array().length >= 32768 + 13 + 4);
+		
+		assertSame(small, pool.getPacket(512));
+	}
+	
+	public void testOversizedNotPooled() throws IOException {
+		PacketPool pool = new PacketPool(4, 16, 1024 * 1024);
+		Packet huge = pool.getPacket(4 * 1024 * 1024);
+		pool.putPacket(huge);
+		assertEquals(1, pool.getDiscarded());
+	}
+	
+	public void testSharedQueueBounded() throws IOException {
+		PacketPool pool = new PacketPool(1, 2, 1024 * 1024);
+		List<Packet> packets = new ArrayList<>();
+		for(int i = 0; i < 5; i++) {
+			packets.add(pool.getPacket(1024));
+		}
+		for(Packet p : packets) {
+			pool.putPacket(p);
+		}
+		/* 1 in the thread cache, 2 in the shared queue */
+		assertEquals(2, pool.getDiscarded());
+	}
+	
+	public void testReleasedOnAnotherThread() throws Exception {
+		PacketPool pool = new PacketPool(0, 16, 1024 * 1024);
+		Packet p = pool.getPacket();
+		Thread t = new Thread(() -> pool.putPacket(p));
+		t.start();
+		t.join();
+		assertTrue(pool.getSharedBytes() > 0);
+		assertSame(p, pool.getPacket());
+		assertEquals(0, pool.getSharedBytes());
+	}
+}
@@ -0,0 +1,94 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.security.InvalidKeyException;
+
+import com.sshtools.common.ssh.components.jce.XDHKeyAgreement;
+import com.sshtools.common.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class XDHKeyAgreementTests extends TestCase {
+
+	public void testX25519() throws Exception {
+		assertAgreement(XDHKeyAgreement.generate(XDHKeyAgreement.X25519), XDHKeyAgreement.generate(XDHKeyAgreement.X25519));
+	}
+	
+	public void testX25519DefaultsToPureJava() throws Exception {
+		assertEquals("JADAPTIVE", XDHKeyAgreement.generate(XDHKeyAgreement.X25519).getProvider());
+	}
+	
+	public void testX25519JCE() throws Exception {
+		assertAgreement(jce(), jce());
+	}
+	
+	public void testX25519Interoperability() throws Exception {
+		for(int i = 0; i < 50; i++) {
+			assertAgreement(XDHKeyAgreement.generate(XDHKeyAgreement.X25519), jce());
+		}
+	}
+	
+	public void testX448() throws Exception {
+		XDHKeyAgreement a = XDHKeyAgreement.generate(XDHKeyAgreement.X448);
+		assertEquals(56, a.getPublicKey().length);
+		assertAgreement(a, XDHKeyAgreement.generate(XDHKeyAgreement.X448));
+	}
+	
+	public void testRejectsZeroPoint() throws Exception {
+		assertRejected(XDHKeyAgreement.generate(XDHKeyAgreement.X25519), new byte[32]);
+		assertRejected(jce(), new byte[32]);
+		assertRejected(XDHKeyAgreement.generate(XDHKeyAgreement.X448), new byte[56]);
+	}
+	
+	public void testRejectsWrongLength() throws Exception {
+		byte[] key = XDHKeyAgreement.generate(XDHKeyAgreement.X448).getPublicKey();
+		assertRejected(XDHKeyAgreement.generate(XDHKeyAgreement.X25519), key);
+	}
+	
+	private void assertAgreement(XDHKeyAgreement a, XDHKeyAgreement b) throws InvalidKeyException {
+		byte[] s1 = a.generateSecret(b.getPublicKey());
+		byte[] s2 = b.generateSecret(a.getPublicKey());
+		assertEquals(a.getKeyLength(), s1.length);
+		assertTrue(Arrays.areEqual(s1, s2));
+	}
+	
+	private void assertRejected(XDHKeyAgreement a, byte[] key) {
+		try {
+			a.generateSecret(key);
+			fail("Invalid public key accepted");
+		} catch(InvalidKeyException e) {
+		}
+	}
+	
+	private XDHKeyAgreement jce() throws Exception {
+		System.setProperty(XDHKeyAgreement.ENABLE_JCE_XDH, "true");
+		try {
+			XDHKeyAgreement agreement = XDHKeyAgreement.generate(XDHKeyAgreement.X25519);
+			assertFalse(agreement.getProvider().equals("JADAPTIVE"));
+			return agreement;
+		} finally {
+			System.clearProperty(XDHKeyAgreement.ENABLE_JCE_XDH);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.sshtools.common.tests;
+
+/*-
+ * #%L
+ * Base API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.sshtools.common.ssh.compression.SshCompression;
+import com.sshtools.common.zlib.OpenSSHZLibCompression;
+import com.sshtools.common.zlib.ZLibCompression;
+
+import junit.framework.TestCase;
+
+public class ZLibCompressionTests extends TestCase {
+
+	static ZLibCompression[] create(boolean adaptive) {
+		ZLibCompression deflater = new ZLibCompression();
+		deflater.init(SshCompression.DEFLATER, 6);
+		deflater.setAdaptive(adaptive);
+		ZLibCompression inflater = new ZLibCompression();
+		inflater.init(SshCompression.INFLATER, 6);
+		return new ZLibCompression[] { deflater, inflater };
+	}
+
+	static byte[] channelData(int channel, byte[] data) {
+		ByteBuffer buf = ByteBuffer.allocate(data.length + 9);
+		buf.put((byte) 94);
+		buf.putInt(channel);
+		buf.putInt(data.length);
+		buf.put(data);
+		return buf.array();
+	}
+
+	static byte[] text(int size, int seed) {
+		Random r = new Random(seed);
+		String[] words = { "channel", "window", "packet", "session", "data", "the", "and", "ssh" };
+		byte[] data = new byte[size];
+		int i = 0;
+		while(i < size) {
+			for(byte b : (words[r.nextInt(words.length)] + " ").getBytes()) {
+				if(i < size) {
+					data[i++] = b;
+				}
+			}
+		}
+		return data;
+	}
+
+	static byte[] random(int size, int seed) {
+		byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	static void roundTrip(ZLibCompression[] z, byte[] payload) throws IOException {
+		ByteBuffer packet = ByteBuffer.allocate(payload.length + 1024);
+		packet.position(5);
+		int len = z[0].compress(payload, 0, payload.length, packet);
+		assertEquals(5 + len, packet.position());
+		assertTrue(Arrays.equals(payload, z[1].uncompress(packet.array(), 5, len)));
+	}
+
+	public void testRoundTrip() throws IOException {
+		ZLibCompression[] z = create(false);
+		for(int i = 0; i < 200; i++) {
+			roundTrip(z, channelData(1, i % 2 == 0 ? text(i * 100 + 1, i) : random(i * 50 + 1, i)));
+		}
+		assertTrue(z[0].getCompressionRatio() < 1);
+		assertEquals(z[0].getUncompressedBytes(), z[1].getUncompressedBytes());
+		assertEquals(z[0].getCompressedBytes(), z[1].getCompressedBytes());
+		assertEquals(0, z[0].getStoredBytes());
+	}
+
+	public void testArrayCompressionMatchesBuffer() throws IOException {
+		ZLibCompression[] z = create(false);
+		byte[] payload = channelData(1, text(10000, 1));
+		byte[] compressed = z[0].compress(payload, 0, payload.length);
+		assertTrue(Arrays.equals(payload, z[1].uncompress(compressed, 0, compressed.length)));
+	}
+
+	public void testPayloadLargerThanDefaultBuffer() throws IOException {
+		ZLibCompression[] z = create(false);
+		roundTrip(z, channelData(1, random(200000, 1)));
+		roundTrip(z, channelData(1, text(500000, 2)));
+	}
+
+	public void testBufferTooSmall() {
+		ZLibCompression[] z = create(false);
+		byte[] payload = channelData(1, random(10000, 1));
+		try {
+			z[0].compress(payload, 0, payload.length, ByteBuffer.allocate(1000));
+			fail("Expected compressed data to overflow the buffer");
+		} catch(IOException e) {
+		}
+	}
+
+	public void testAdaptiveStoresIncompressibleChannel() throws IOException {
+		ZLibCompression[] z = create(true);
+		for(int i = 0; i < 400; i++) {
+			roundTrip(z, channelData(1, random(32768, i)));
+			roundTrip(z, channelData(2, text(32768, i)));
+			/* Small and non data payloads are always compressed */
+			roundTrip(z, channelData(1, random(100, i)));
+			roundTrip(z, new byte[] { 98, 0, 0, 0, 1 });
+		}
+		long stored = z[0].getStoredBytes();
+		assertTrue("Random channel should be stored", stored > 400 * 32768 / 2);
+		assertTrue("Text channel should not be stored", stored <= 400 * (32768 + 9));
+		assertTrue(z[0].getCompressionRatio() < 0.8);
+		assertTrue(z[0].getProcessingTime() > 0);
+	}
+
+	public void testAdaptiveResamples() throws IOException {
+		ZLibCompression[] z = create(true);
+		for(int i = 0; i < 200; i++) {
+			roundTrip(z, channelData(1, random(32768, i)));
+		}
+		long stored = z[0].getStoredBytes();
+		assertTrue(stored > 0);
+		/* The same channel now sends compressible data, once sampled again it is compressed */
+		for(int i = 0; i < 400; i++) {
+			roundTrip(z, channelData(1, text(32768, i)));
+		}
+		long before = z[0].getStoredBytes();
+		for(int i = 0; i < 100; i++) {
+			roundTrip(z, channelData(1, text(32768, i)));
+		}
+		assertEquals(before, z[0].getStoredBytes());
+	}
+
+	public void testOpenSSHCompressionIsDelayed() {
+		assertTrue(new OpenSSHZLibCompression().isDelayed());
+		assertFalse(new ZLibCompression().isDelayed());
+	}
+}
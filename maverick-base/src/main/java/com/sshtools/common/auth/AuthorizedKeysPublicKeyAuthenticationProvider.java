@@ -23,20 +23,22 @@ package com.sshtools.common.auth;
  */
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.policy.FileSystemPolicy;
 import com.sshtools.common.publickey.SshPublicKeyFile;
@@ -63,6 +65,37 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 	 **/
 	protected String authorizedKeysFile = ".ssh/authorized_keys";
 
+	/**
+	 * The interval in milliseconds within which two modifications of a file may
+	 * be given the same modification time.
+	 */
+	public static final long MODIFIED_TIME_GRANULARITY = 2000;
+
+	private static final int MAX_INDEXES = 1024;
+
+	static class KeyIndex {
+		final long lastModified;
+		final long length;
+		final boolean settled;
+		final Map<String, List<SshPublicKey>> keys;
+
+		KeyIndex(long lastModified, long length, boolean settled, Map<String, List<SshPublicKey>> keys) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.settled = settled;
+			this.keys = keys;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private final Map<String, KeyIndex> indexes = Collections.synchronizedMap(
+			new LinkedHashMap<String, KeyIndex>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, KeyIndex> eldest) {
+					return size() > MAX_INDEXES;
+				}
+			});
+
 	/**
 	 * Create a default <em>authorized_keys</em> store that reads keys from
 	 * <em>.ssh/authorized_keys</em>.
@@ -97,65 +130,117 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 			SshConnection con) {
 
 		try {
-			AbstractFile file = getFile(con);
+			List<SshPublicKey> keys = getIndex(con).get(key.getFingerprint());
+			if(keys != null) {
+				for(SshPublicKey k : keys) {
+					if(k.equals(key)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
 
-			InputStream in = file.getInputStream();
+	/**
+	 * Get the parsed keys of the users <em>authorized_keys</em> file, indexed by
+	 * fingerprint. The index is reused for as long as the modification time and
+	 * length of the file are unchanged. A file modified within
+	 * {@link #MODIFIED_TIME_GRANULARITY} of being read is read again on the next
+	 * lookup, because a further change in the same interval may not alter either.
+	 */
+	protected Map<String, List<SshPublicKey>> getIndex(SshConnection con)
+			throws IOException, PermissionDeniedException {
 
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			int read;
-			byte[] buf = new byte[4096];
+		AbstractFile file = getFile(con);
+		String indexKey = getIndexKey(file, con);
+		long lastModified = file.lastModified();
+		long length = file.length();
 
-			try {
-				while ((read = in.read(buf, 0, buf.length)) > 0) {
-					out.write(buf, 0, read);
-				}
-			} catch (EOFException ex) {
-			}
+		KeyIndex index = indexes.get(indexKey);
+		if(index != null && index.settled 
+				&& index.lastModified == lastModified 
+				&& index.length == length) {
+			return index.keys;
+		}
 
-			in.close();
+		long loaded = System.currentTimeMillis();
+		index = new KeyIndex(lastModified, length, 
+				loaded - lastModified > MODIFIED_TIME_GRANULARITY, 
+				loadIndex(file));
+		indexes.put(indexKey, index);
+		return index.keys;
+	}
 
-			/**
-			 * Process the authorized keys
-			 */
-			BufferedReader reader = new BufferedReader(new InputStreamReader(
-					new ByteArrayInputStream(out.toByteArray())));
-			String line;
-			SshPublicKeyFile pubfile;
+	/**
+	 * The key the parsed index of a file is cached under. By default each user has
+	 * their own index, override this to return just the path of the file when all
+	 * users share the same <em>authorized_keys</em> file, so that it is parsed once.
+	 */
+	protected String getIndexKey(AbstractFile file, SshConnection con)
+			throws IOException, PermissionDeniedException {
+		return con.getUsername() + ":" + file.getAbsolutePath();
+	}
 
+	private Map<String, List<SshPublicKey>> loadIndex(AbstractFile file)
+			throws IOException, PermissionDeniedException {
+
+		Map<String, List<SshPublicKey>> keys = new HashMap<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				file.getInputStream(), "US-ASCII"));
+		try {
+			String line;
 			while ((line = reader.readLine()) != null) {
-            	if(line.trim().equals("") || line.startsWith("#")) {
-            		continue;
-            	}
-				/**
-				 * Split up line and only reconstruct with key type as first token
-				 * ignoring any other tokens before hand.
-				 */
-				String[] tokens = line.split(" ");
-            	StringBuffer keyline = new StringBuffer();
-            	boolean skip = true;
-            	for(String t : tokens) {
-            		if(skip) {
-            			if(JCEComponentManager.getInstance().supportedPublicKeys().contains(t)) {
-            				skip = false;
-            			}
-            		}
-            		if(!skip) {
-            			if(keyline.length() > 0) {
-            				keyline.append(" ");
-            			}
-            			keyline.append(t);
-            		}
-            	}
-                pubfile = SshPublicKeyFileFactory.parse(keyline.toString().getBytes("US-ASCII"));
-                if (pubfile.toPublicKey().equals(key)) {
-                    return true;
-                }
+				if(line.trim().equals("") || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					SshPublicKey key = parseLine(line);
+					keys.computeIfAbsent(key.getFingerprint(), (f) -> new ArrayList<>(1)).add(key);
+				} catch (IOException | SshException ex) {
+					if(Log.isDebugEnabled()) {
+						Log.debug("Ignoring unreadable key in {}: {}", file.getAbsolutePath(), ex.getMessage());
+					}
+				}
 			}
+		} finally {
+			reader.close();
+		}
+		return Collections.unmodifiableMap(keys);
+	}
 
-			return false;
-		} catch (Throwable ex) {
-			return false;
+	private SshPublicKey parseLine(String line) throws IOException, SshException {
+		/**
+		 * Split up line and only reconstruct with key type as first token
+		 * ignoring any other tokens before hand.
+		 */
+		String[] tokens = line.split(" ");
+		StringBuffer keyline = new StringBuffer();
+		boolean skip = true;
+		for(String t : tokens) {
+			if(skip) {
+				if(JCEComponentManager.getInstance().supportedPublicKeys().contains(t)) {
+					skip = false;
+				}
+			}
+			if(!skip) {
+				if(keyline.length() > 0) {
+					keyline.append(" ");
+				}
+				keyline.append(t);
+			}
 		}
+		return SshPublicKeyFileFactory.parse(keyline.toString().getBytes("US-ASCII")).toPublicKey();
+	}
+
+	/**
+	 * Discard the cached index of a users <em>authorized_keys</em> file so that it
+	 * is read again on the next lookup.
+	 */
+	protected void invalidate(SshConnection con) throws IOException, PermissionDeniedException {
+		indexes.remove(getIndexKey(getFile(con), con));
 	}
 
 	public void add(SshPublicKey key, String comment,
@@ -173,6 +258,7 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 			out.write((keyFile.toString() + "\n").getBytes("US-ASCII"));
 		} finally {
 			out.close();
+			invalidate(con);
 		}
 	}
 
@@ -205,6 +291,7 @@ public class AuthorizedKeysPublicKeyAuthenticationProvider extends
 			out.write(outBuffer.toByteArray());
 		} finally {
 			out.close();
+			invalidate(con);
 		}
 
 	}
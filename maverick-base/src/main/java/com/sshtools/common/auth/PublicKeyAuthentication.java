@@ -119,6 +119,33 @@ public class PublicKeyAuthentication<C extends Context> implements Authenticatio
 		return false;
 	}
 
+	/**
+	 * Reports the outcome of a signature verified by a {@link SignatureVerificationPool}
+	 * to the authentication protocol from the connection's event queue.
+	 */
+	class VerificationResultTask extends ConnectionAwareTask {
+		
+		Boolean valid;
+		Throwable error;
+		
+		VerificationResultTask(SshConnection con, Boolean valid, Throwable error) {
+			super(con);
+			this.valid = valid;
+			this.error = error;
+		}
+		
+		protected void doTask() {
+			if (error != null) {
+				Log.error("Received SSH exception", error);
+				transport.disconnect(TransportProtocolSpecification.PROTOCOL_ERROR, error.getMessage());
+			} else if (valid) {
+				authentication.completedAuthentication();
+			} else {
+				authentication.failedAuthentication();
+			}
+		}
+	}
+
 	class PublicKeyAuthenticationTask extends ConnectionAwareTask {
 		
 		String username;
@@ -192,7 +219,14 @@ public class PublicKeyAuthentication<C extends Context> implements Authenticatio
 
 							PublicKeyAuthenticationVerifier verifier = transport.getContext().getPolicy(PublicKeyAuthenticationVerifier.class);
 
-							if (verifier.verifySignature(key, signature, data)) {
+							SignatureVerificationPool pool = transport.getContext().hasPolicy(SignatureVerificationPool.class)
+									? transport.getContext().getPolicy(SignatureVerificationPool.class) : null;
+							
+							if (pool != null) {
+								pool.verify(verifier, key, signature, data)
+									.whenComplete((valid, error) -> transport.addTask(ExecutorOperationSupport.EVENTS, 
+											new VerificationResultTask(con, valid, error)));
+							} else if (verifier.verifySignature(key, signature, data)) {
 								authentication.completedAuthentication();
 							} else {
 								authentication.failedAuthentication();
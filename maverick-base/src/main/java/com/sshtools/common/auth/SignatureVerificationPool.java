@@ -0,0 +1,154 @@
+package com.sshtools.common.auth;
+
+/*-
+ * #%L
+ * Base API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.ssh.components.SshPublicKey;
+
+/**
+ * A fixed size pool of threads that verifies <code>publickey</code> authentication signatures
+ * away from the connection's event queue. Install it on a context with
+ * <code>context.setPolicy(SignatureVerificationPool.class, pool)</code> and
+ * {@link PublicKeyAuthentication} hands each signature to the pool, posting the result back
+ * to the authentication protocol on the connection's event queue when it is known. Without a
+ * pool, signatures are verified inline as before.
+ * <p>
+ * Verification is CPU bound, so the pool defaults to one thread per available processor. Its
+ * queue is bounded, when it is full the signature is verified by the calling thread instead.
+ * <p>
+ * The pool owns its threads, call {@link #close()} when it is no longer needed.
+ */
+public class SignatureVerificationPool implements Closeable {
+
+	/**
+	 * Default number of signatures that may be waiting for a thread
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong verified = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Create a pool with one thread per available processor.
+	 */
+	public SignatureVerificationPool() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a pool with a number of threads.
+	 *
+	 * @param threads threads
+	 */
+	public SignatureVerificationPool(int threads) {
+		this(threads, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * Create a pool with a number of threads and a maximum number of signatures
+	 * waiting for a thread.
+	 *
+	 * @param threads threads
+	 * @param queueSize queue size
+	 */
+	public SignatureVerificationPool(int threads, int queueSize) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1.");
+		}
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), (r) -> {
+					Thread t = new Thread(r, "SignatureVerificationPool-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}, (r, e) -> r.run());
+	}
+
+	/**
+	 * Verify a signature on one of the pool's threads.
+	 *
+	 * @param verifier verifier
+	 * @param key public key
+	 * @param signature signature
+	 * @param data signed data
+	 * @return future completed with the result of the verification, or exceptionally if it could not be performed
+	 */
+	public CompletableFuture<Boolean> verify(PublicKeyAuthenticationVerifier verifier,
+			SshPublicKey key, byte[] signature, byte[] data) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		executor.execute(() -> {
+			try {
+				boolean valid = verifier.verifySignature(key, signature, data);
+				(valid ? verified : rejected).incrementAndGet();
+				result.complete(valid);
+			} catch(Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Get the number of signatures currently waiting for a thread.
+	 *
+	 * @return queued signatures
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Get the number of signatures that were valid.
+	 *
+	 * @return verified signatures
+	 */
+	public long getVerified() {
+		return verified.get();
+	}
+
+	/**
+	 * Get the number of signatures that were not valid.
+	 *
+	 * @return rejected signatures
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Stop the pool's threads. Signatures submitted after the pool is closed
+	 * are verified by the calling thread.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
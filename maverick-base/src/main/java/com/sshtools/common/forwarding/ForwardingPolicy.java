@@ -44,6 +44,8 @@ public class ForwardingPolicy extends Permissions {
 	private int forwardingMaxPacketSize = 65536;
 	private UnsignedInteger32 forwardingMaxWindowSize = new UnsignedInteger32(65536 * 5);
 	private UnsignedInteger32 forwardingMinWindowSize = new UnsignedInteger32(32768);
+	private long forwardingConnectionMemoryLimit = 0;
+	private UnsignedInteger32 forwardingMaxAutoTunedWindowSize = UnsignedInteger32.ZERO;
 	
 	public ForwardingPolicy() {
 	}
@@ -178,6 +180,23 @@ public class ForwardingPolicy extends Permissions {
 		this.forwardingMaxWindowSize = forwardingMaxWindowSize;
 	}
 
+	public UnsignedInteger32 getForwardingMaxAutoTunedWindowSize() {
+		return forwardingMaxAutoTunedWindowSize;
+	}
+
+	/**
+	 * Let the window of forwarding channels grow beyond the maximum window size, up to this
+	 * size, when the round trip time of the connection limits throughput, and shrink back
+	 * when the forwarded socket cannot keep up. The window will not grow beyond the
+	 * connection memory limit. Auto-tuning is disabled when this is not larger than
+	 * the maximum window size, which is the default.
+	 * 
+	 * @param forwardingMaxAutoTunedWindowSize largest window
+	 */
+	public void setForwardingMaxAutoTunedWindowSize(UnsignedInteger32 forwardingMaxAutoTunedWindowSize) {
+		this.forwardingMaxAutoTunedWindowSize = forwardingMaxAutoTunedWindowSize;
+	}
+
 	public UnsignedInteger32 getForwardingMinWindowSize() {
 		return forwardingMinWindowSize;
 	}
@@ -187,4 +206,19 @@ public class ForwardingPolicy extends Permissions {
 	}
 	
 	
+
+	public long getForwardingConnectionMemoryLimit() {
+		return forwardingConnectionMemoryLimit;
+	}
+
+	/**
+	 * Set the maximum memory that the forwarding buffers of a single connection may hold
+	 * before its channels stop growing their buffers and advertise smaller windows. Each
+	 * channel can always hold at least one buffer, so this is a soft limit.
+	 * 
+	 * @param forwardingConnectionMemoryLimit limit in bytes, zero or less for unlimited
+	 */
+	public void setForwardingConnectionMemoryLimit(long forwardingConnectionMemoryLimit) {
+		this.forwardingConnectionMemoryLimit = forwardingConnectionMemoryLimit;
+	}
 }
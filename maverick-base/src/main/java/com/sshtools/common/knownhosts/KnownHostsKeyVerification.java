@@ -29,10 +29,15 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -42,12 +47,17 @@ import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 import com.sshtools.common.publickey.OpenSshCertificate;
 import com.sshtools.common.publickey.SshKeyUtils;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.components.ComponentManager;
 import com.sshtools.common.ssh.components.SshHmac;
 import com.sshtools.common.ssh.components.SshPublicKey;
+import com.sshtools.common.ssh.components.jce.JCEAlgorithms;
+import com.sshtools.common.ssh.components.jce.JCEProvider;
 import com.sshtools.common.util.Base64;
 import com.sshtools.common.util.Utils;
 
@@ -76,6 +86,12 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 			.equalsIgnoreCase("true");
 	private static final String HASH_MAGIC = "|1|";
 	private static final String HASH_DELIM = "|";
+	private static final int HASH_KEY_LENGTH = 20;
+	private static final boolean useStandardHashKeys = !System.getProperty("miscomputes.ssh2.hmac.keys", "false").equalsIgnoreCase("true");
+	private static final String PATTERN_CHARACTERS = "*?!|\\()+{}^$";
+	private static final int MAX_HASHED_NAMES = 4096;
+
+	private volatile HostIndex index;
 
 	Pattern nonStandard = Pattern.compile("\\[([^\\]]+)\\]:([\\d]{1,5})");
 
@@ -91,6 +107,7 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	}
 
 	public synchronized void clear() {
+		index = null;
 		entries.clear();
 		keyEntries.clear();
 		revokedEntries.clear();
@@ -220,6 +237,8 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 	private void addEntry(KeyEntry entry) {
 
+		index = null;
+
 		if (!entriesByPublicKey.containsKey(entry.getKey())) {
 			entriesByPublicKey.put(entry.getKey(), new ArrayList<KeyEntry>());
 		}
@@ -379,6 +398,8 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 	public synchronized void removeEntry(KeyEntry... keys) {
 
+		index = null;
+
 		List<KeyEntry> toRemove = Arrays.asList(keys);
 
 		keyEntries.removeAll(toRemove);
@@ -443,42 +464,51 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 	 * 
 	 * @since 0.2.0
 	 */
-	public synchronized boolean verifyHost(String host, SshPublicKey pk) throws SshException {
+	public boolean verifyHost(String host, SshPublicKey pk) throws SshException {
 		return verifyHost(host, pk, true);
 	}
 
-	protected synchronized boolean verifyHost(String host, SshPublicKey pk, boolean validateUnknown) throws SshException {
+	/**
+	 * Verify a host key. This works from an immutable index of the entries, so it does not
+	 * hold the lock while it looks up hosts, the index is rebuilt the first time it is needed
+	 * after any change to the entries. When <code>validateUnknown</code> is <code>false</code>
+	 * the result is returned without calling {@link #onUnknownHost(String, SshPublicKey)} or
+	 * {@link #onHostKeyMismatch(String, List, SshPublicKey)}.
+	 */
+	protected boolean verifyHost(String host, SshPublicKey pk, boolean validateUnknown) throws SshException {
 
+		HostIndex index = getIndex();
 		Set<String> resolvedNames = resolveNames(host);
+		String[] names = resolvedNames.toArray(new String[0]);
+		List<KeyEntry> candidates = index.getCandidates(false, names);
 
-		for (KeyEntry entry : revokedEntries) {
-			if (entry.validate(pk, resolvedNames.toArray(new String[0]))) {
+		for (KeyEntry entry : candidates) {
+			if (entry.isRevoked() && entry.validate(pk, names)) {
 				onRevokedKey(host, pk);
 				return false;
 			}
 		}
 
-		if (entriesByPublicKey.containsKey(pk)) {
-			List<KeyEntry> keys = entriesByPublicKey.get(pk);
-			for (KeyEntry entry : keys) {
-				if (entry.validate(pk, resolvedNames.toArray(new String[0]))) {
+		List<KeyEntry> keys = index.entriesByPublicKey.get(pk);
+		if (keys != null) {
+			for (KeyEntry entry : index.getCandidates(keys, candidates, names)) {
+				if (entry.validate(pk, names)) {
 					return true;
 				}
 			}
 		}
 		else {
 			var allowed = new ArrayList<SshPublicKey>();
-			for (Map.Entry<SshPublicKey, List<KeyEntry>> entry : entriesByPublicKey.entrySet()) {
-				for(var k : entry.getValue()) {
-					if(k.matchesHost(host)) {
-						if (k.validate(entry.getKey(), resolvedNames.toArray(new String[0]))) {
-							allowed.add(entry.getKey());
-							break;
-						}
+			for (KeyEntry k : index.getCandidates(true, host)) {
+				if (!allowed.contains(k.getKey()) && k.matchesHost(host)) {
+					if (k.validate(k.getKey(), names)) {
+						allowed.add(k.getKey());
 					}
 				}
 			}
 			if(!allowed.isEmpty()) {
+				if (!validateUnknown)
+					return false;
 				onHostKeyMismatch(host, allowed, pk);
 				// Recheck ans return the result
 				return verifyHost(host, pk, false);
@@ -487,17 +517,18 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 		
 		if (pk instanceof OpenSshCertificate) {
-			for (CertAuthorityEntry ca : certificateAuthorities) {
-				if (ca.validate(pk, resolvedNames.toArray(new String[0]))) {
+			for (CertAuthorityEntry ca : index.certificateAuthorities) {
+				if (candidates.contains(ca) && ca.validate(pk, names)) {
 					return true;
 				}
 			}
 		}
 
+		candidates = index.getCandidates(true, names);
 		var existingKeys = new ArrayList<SshPublicKey>();
-		for(KeyEntry k : keyEntries) {
-			if(k.matchesHost(resolvedNames.toArray(new String[0]))) {
-				if(k.getKey().equals(pk)) {
+		for(KeyEntry k : candidates) {
+			if(k.matchesHost(names)) {
+				if(index.keyGroups.get(k) == keys) {
 					return true;
 				} else {
 					existingKeys.add(k.getKey());
@@ -505,14 +536,13 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 			}
 		}
 		
+		if (!validateUnknown)
+			return false;
+		
 		if(existingKeys.size() > 0) {
 			onHostKeyMismatch(host, null, pk);
 		} else {
-
 			// The host is unknown os ask the user
-			if (!validateUnknown)
-				return false;
-	
 			onUnknownHost(host, pk);
 		}
 
@@ -521,6 +551,240 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 	}
 
+	/**
+	 * A name without any characters that are significant in a pattern only ever matches itself.
+	 */
+	static boolean isLiteral(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (PATTERN_CHARACTERS.indexOf(name.charAt(i)) != -1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private HostIndex getIndex() throws SshException {
+		HostIndex idx = index;
+		if (idx == null) {
+			synchronized (this) {
+				idx = index;
+				if (idx == null) {
+					index = idx = new HostIndex();
+				}
+			}
+		}
+		return idx;
+	}
+
+	/**
+	 * An immutable snapshot of the key entries, indexed for lookup by host name. Entries
+	 * with only literal names are found by name. Hashed entries are grouped by salt so
+	 * that a name is hashed once for each distinct salt when all entries for a name are
+	 * needed, but when the host presents a key that is already known only the entries
+	 * holding that key are hashed. Names found by either route are remembered. Entries
+	 * with wildcards or negation, and hashed revoked or certificate authority entries,
+	 * are always returned as candidates and matched as before.
+	 */
+	class HostIndex {
+
+		final Map<KeyEntry, Integer> ordinals = new IdentityHashMap<>();
+		final Map<SshPublicKey, List<KeyEntry>> entriesByPublicKey = new HashMap<>();
+		final Map<KeyEntry, List<KeyEntry>> keyGroups = new IdentityHashMap<>();
+		final List<CertAuthorityEntry> certificateAuthorities;
+		final Map<String, List<KeyEntry>> entriesByName = new HashMap<>();
+		final Map<ByteBuffer, Map<ByteBuffer, List<KeyEntry>>> entriesBySalt = new HashMap<>();
+		final Map<KeyEntry, byte[][]> hashedNames = new IdentityHashMap<>();
+		final List<KeyEntry> patternEntries = new ArrayList<>();
+
+		final Map<String, List<KeyEntry>> hashedEntriesByName = createNameCache();
+		final Map<String, List<KeyEntry>> matchedEntriesByName = createNameCache();
+
+		HostIndex() {
+			for (Map.Entry<SshPublicKey, List<KeyEntry>> e : KnownHostsKeyVerification.this.entriesByPublicKey.entrySet()) {
+				List<KeyEntry> group = new ArrayList<>(e.getValue());
+				entriesByPublicKey.put(e.getKey(), group);
+				for (KeyEntry entry : group) {
+					keyGroups.put(entry, group);
+				}
+			}
+			certificateAuthorities = new ArrayList<>(KnownHostsKeyVerification.this.certificateAuthorities);
+
+			for (KeyEntry entry : keyEntries) {
+				ordinals.put(entry, ordinals.size());
+				if (!indexHashed(entry) && !indexLiteral(entry)) {
+					patternEntries.add(entry);
+				}
+			}
+		}
+
+		@SuppressWarnings("serial")
+		private Map<String, List<KeyEntry>> createNameCache() {
+			return Collections.synchronizedMap(
+					new LinkedHashMap<String, List<KeyEntry>>(16, 0.75f, true) {
+						@Override
+						protected boolean removeEldestEntry(Map.Entry<String, List<KeyEntry>> eldest) {
+							return size() > MAX_HASHED_NAMES;
+						}
+					});
+		}
+
+		private boolean indexHashed(KeyEntry entry) {
+			if (entry.names.size() != 1 || !useStandardHashKeys
+					|| entry.isRevoked() || entry instanceof CertAuthorityEntry) {
+				return false;
+			}
+			String name = entry.names.iterator().next();
+			if (!name.startsWith(HASH_MAGIC)) {
+				return false;
+			}
+			String hashData = name.substring(HASH_MAGIC.length());
+			int idx = hashData.indexOf(HASH_DELIM);
+			if (idx == -1) {
+				return false;
+			}
+			byte[] salt;
+			byte[] hash;
+			try {
+				salt = Base64.decode(hashData.substring(0, idx));
+				hash = Base64.decode(hashData.substring(idx + 1));
+			} catch (RuntimeException e) {
+				return false;
+			}
+			if (salt == null || hash == null || salt.length != HASH_KEY_LENGTH) {
+				return false;
+			}
+			entriesBySalt.computeIfAbsent(ByteBuffer.wrap(salt), (k) -> new HashMap<>())
+				.computeIfAbsent(ByteBuffer.wrap(hash), (k) -> new ArrayList<>(1))
+				.add(entry);
+			hashedNames.put(entry, new byte[][] { salt, hash });
+			return true;
+		}
+
+		private boolean indexLiteral(KeyEntry entry) {
+			for (String name : entry.names) {
+				if (!isLiteral(name)) {
+					return false;
+				}
+			}
+			for (String name : entry.names) {
+				entriesByName.computeIfAbsent(name, (k) -> new ArrayList<>(1)).add(entry);
+			}
+			return true;
+		}
+
+		/**
+		 * Get the entries that may match any of the names, in the order they appear in
+		 * the file. Hashed entries are only included when <code>hashed</code> is true,
+		 * which may require the names to be hashed with every salt in the file.
+		 */
+		List<KeyEntry> getCandidates(boolean hashed, String... names) throws SshException {
+			List<KeyEntry> found = new ArrayList<>(patternEntries);
+			for (String name : names) {
+				found.addAll(entriesByName.getOrDefault(name, Collections.emptyList()));
+				if (hashed) {
+					found.addAll(getHashedEntries(name));
+				}
+			}
+			found.sort((a, b) -> Integer.compare(ordinals.get(a), ordinals.get(b)));
+			for (int i = found.size() - 1; i > 0; i--) {
+				if (found.get(i) == found.get(i - 1)) {
+					found.remove(i);
+				}
+			}
+			return found;
+		}
+
+		/**
+		 * Get the entries holding the same key as <code>group</code> that may match any of
+		 * the names. Only the salts of hashed entries in the group are tried, and the search
+		 * stops at the first hashed match as a single match is enough to accept the key.
+		 */
+		List<KeyEntry> getCandidates(List<KeyEntry> group, List<KeyEntry> candidates, String... names) throws SshException {
+			List<KeyEntry> found = new ArrayList<>();
+			for (KeyEntry entry : candidates) {
+				if (keyGroups.get(entry) == group) {
+					found.add(entry);
+				}
+			}
+			if (hashedNames.isEmpty()) {
+				return found;
+			}
+			for (String name : names) {
+				List<KeyEntry> matched = hashedEntriesByName.get(name);
+				if (matched == null) {
+					matched = matchedEntriesByName.getOrDefault(name, Collections.emptyList());
+				}
+				for (KeyEntry entry : matched) {
+					if (keyGroups.get(entry) == group) {
+						found.add(entry);
+					}
+				}
+			}
+			if (found.size() > 0) {
+				return found;
+			}
+			Mac mac = createMac();
+			for (String name : names) {
+				if (hashedEntriesByName.containsKey(name)) {
+					continue;
+				}
+				byte[] data = name.getBytes();
+				for (KeyEntry entry : group) {
+					byte[][] hashed = hashedNames.get(entry);
+					if (hashed != null && Arrays.equals(hash(mac, hashed[0], data), hashed[1])) {
+						matchedEntriesByName.merge(name, Collections.singletonList(entry), (a, b) -> {
+							List<KeyEntry> l = new ArrayList<>(a);
+							l.addAll(b);
+							return l;
+						});
+						found.add(entry);
+						return found;
+					}
+				}
+			}
+			return found;
+		}
+
+		private List<KeyEntry> getHashedEntries(String name) throws SshException {
+			if (entriesBySalt.isEmpty()) {
+				return Collections.emptyList();
+			}
+			List<KeyEntry> found = hashedEntriesByName.get(name);
+			if (found == null) {
+				found = new ArrayList<>();
+				Mac mac = createMac();
+				byte[] data = name.getBytes();
+				for (Map.Entry<ByteBuffer, Map<ByteBuffer, List<KeyEntry>>> e : entriesBySalt.entrySet()) {
+					List<KeyEntry> entries = e.getValue().get(ByteBuffer.wrap(hash(mac, e.getKey().array(), data)));
+					if (entries != null) {
+						found.addAll(entries);
+					}
+				}
+				hashedEntriesByName.put(name, found);
+			}
+			return found;
+		}
+
+		private Mac createMac() throws SshException {
+			try {
+				return JCEProvider.getProviderForAlgorithm(JCEAlgorithms.JCE_HMACSHA1) == null
+						? Mac.getInstance(JCEAlgorithms.JCE_HMACSHA1)
+						: Mac.getInstance(JCEAlgorithms.JCE_HMACSHA1, JCEProvider.getProviderForAlgorithm(JCEAlgorithms.JCE_HMACSHA1));
+			} catch (GeneralSecurityException ex) {
+				throw new SshException(ex);
+			}
+		}
+
+		private byte[] hash(Mac mac, byte[] salt, byte[] data) throws SshException {
+			try {
+				mac.init(new SecretKeySpec(salt, JCEAlgorithms.JCE_HMACSHA1));
+			} catch (GeneralSecurityException ex) {
+				throw new SshException(ex);
+			}
+			return mac.doFinal(data);
+		}
+	}
+
 	protected Set<String> resolveNames(String host) {
 
 		String fqn = null;
@@ -740,6 +1004,15 @@ public class KnownHostsKeyVerification implements HostKeyVerification, HostKeyUp
 
 		boolean matches(String name, String... resolvedNames) {
 
+			if (isLiteral(name)) {
+				for (String resolvedName : resolvedNames) {
+					if (resolvedName.equals(name)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
 			// First escape any dots
 			name = name.replace(".", "\\.");
 			name = name.replace("[", "\\[");
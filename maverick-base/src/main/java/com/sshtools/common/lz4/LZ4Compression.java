@@ -0,0 +1,387 @@
+package com.sshtools.common.lz4;
+
+/*-
+ * #%L
+ * Base API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.sshtools.common.ssh.compression.SshCompression;
+import com.sshtools.common.ssh.compression.SshCompressionFactory;
+
+/**
+ * A fast compression for links where <code>zlib</code> costs more processing time than 
+ * the bandwidth it saves, negotiated under the private name <code>lz4@sshtools.com</code> and 
+ * so only used between endpoints that both support it.
+ * <p>
+ * Each packet payload is compressed as an LZ4 block. Blocks are linked, that is, matches 
+ * may refer back into the last 64KB of data of earlier packets in the same direction, so 
+ * both sides keep that much history, much like the continuous stream of <code>zlib</code>.
+ * Packets are never buffered, each is decoded as soon as it is received.
+ */
+public class LZ4Compression implements SshCompression {
+
+	private static final String ALGORITHM = "lz4@sshtools.com";
+
+	public static class LZ4CompressionFactory implements SshCompressionFactory<LZ4Compression> {
+
+		@Override
+		public LZ4Compression create() throws NoSuchAlgorithmException, IOException {
+			return new LZ4Compression();
+		}
+
+		@Override
+		public String[] getKeys() {
+			return new String[] { ALGORITHM };
+		}
+	}
+
+	static final int HISTORY_SIZE = 65536;
+	static final int MAX_DISTANCE = 65535;
+	static final int MIN_MATCH = 4;
+	static final int LAST_LITERALS = 5;
+	static final int MF_LIMIT = 12;
+	static final int HASH_BITS = 14;
+	static final int SKIP_TRIGGER = 6;
+	static final int MAX_UNCOMPRESSED_SIZE = 1024 * 1024;
+
+	static private final int BUF_SIZE = 4 * HISTORY_SIZE;
+	
+	/**
+	 * Uncompressed data, the history of earlier packets followed by the current packet.
+	 */
+	private byte[] window;
+	private int windowLength;
+	
+	/**
+	 * Positions in the window of the last occurrence of each hash, plus the offset. The 
+	 * offset grows as the window slides so that entries do not need updating, candidates 
+	 * are always verified against the data.
+	 */
+	private int[] table;
+	private int tableOffset;
+	
+	private byte[] compressOut;
+	
+	private volatile long uncompressedBytes;
+	private volatile long compressedBytes;
+
+	public LZ4Compression() {
+	}
+
+	public String getAlgorithm() {
+		return ALGORITHM;
+	}
+
+	public void init(int type, int level) {
+		window = new byte[BUF_SIZE];
+		windowLength = 0;
+		if(type == SshCompression.DEFLATER) {
+			table = new int[1 << HASH_BITS];
+		}
+	}
+
+	/**
+	 * Get the largest size that data of the given length may compress to.
+	 * 
+	 * @param length length of data
+	 * @return largest compressed length
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+	
+	/**
+	 * Get the number of bytes given to be compressed, or produced by uncompressing.
+	 * 
+	 * @return bytes
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+	
+	/**
+	 * Get the number of bytes produced by compressing, or given to be uncompressed.
+	 * 
+	 * @return bytes
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+	
+	/**
+	 * Get the size of the compressed data as a proportion of the uncompressed data. 
+	 * 
+	 * @return ratio, 1 when nothing has been compressed
+	 */
+	public double getCompressionRatio() {
+		long uncompressed = uncompressedBytes;
+		return uncompressed == 0 ? 1 : (double) compressedBytes / uncompressed;
+	}
+
+	public byte[] compress(byte[] data, int start, int len) throws IOException {
+		int required = maxCompressedLength(len);
+		if(compressOut == null || compressOut.length < required) {
+			compressOut = new byte[Math.max(BUF_SIZE, required)];
+		}
+		return Arrays.copyOf(compressOut, compress(data, start, len, compressOut));
+	}
+
+	@Override
+	public int compress(byte[] data, int start, int len, ByteBuffer out) throws IOException {
+		int required = maxCompressedLength(len);
+		if(out.hasArray()) {
+			if(out.remaining() < required) {
+				throw new IOException("Compressed data does not fit into the buffer");
+			}
+			int written = compress(data, start, len, out.array(), out.arrayOffset() + out.position());
+			out.position(out.position() + written);
+			return written;
+		}
+		byte[] compressed = compress(data, start, len);
+		if(compressed.length > out.remaining()) {
+			throw new IOException("Compressed data does not fit into the buffer");
+		}
+		out.put(compressed);
+		return compressed.length;
+	}
+
+	private int compress(byte[] data, int start, int len, byte[] dst) {
+		return compress(data, start, len, dst, 0);
+	}
+	
+	private int compress(byte[] data, int start, int len, byte[] dst, int dstOff) {
+
+		slide(len);
+		System.arraycopy(data, start, window, windowLength, len);
+		
+		byte[] src = window;
+		int anchor = windowLength;
+		int ip = windowLength;
+		int end = windowLength + len;
+		int matchLimit = end - LAST_LITERALS;
+		int op = dstOff;
+		
+		if(len >= MF_LIMIT + 1) {
+			
+			int limit = end - MF_LIMIT;
+			int searches = 1 << SKIP_TRIGGER;
+			
+			while(ip < limit) {
+				
+				int sequence = readInt(src, ip);
+				int h = hash(sequence);
+				int ref = table[h] - tableOffset;
+				table[h] = ip + tableOffset;
+				
+				if(ref < 0 || ref >= ip || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+					/* Step further through data that is not matching */
+					ip += searches++ >> SKIP_TRIGGER;
+					continue;
+				}
+				searches = 1 << SKIP_TRIGGER;
+				
+				/* Extend the match backwards into any literals */
+				while(ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+					ip--;
+					ref--;
+				}
+				
+				int matchLength = MIN_MATCH;
+				while(ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+					matchLength++;
+				}
+				
+				op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+				ip += matchLength;
+				anchor = ip;
+				
+				if(ip < limit) {
+					table[hash(readInt(src, ip - 2))] = ip - 2 + tableOffset;
+				}
+			}
+		}
+		
+		op = writeLiterals(src, anchor, end - anchor, dst, op);
+		windowLength = end;
+		uncompressedBytes += len;
+		compressedBytes += op - dstOff;
+		return op - dstOff;
+	}
+
+	/**
+	 * Make room in the window for the next packet, keeping the last 64KB.
+	 */
+	private void slide(int len) {
+		if(windowLength + len > window.length) {
+			int keep = Math.min(windowLength, HISTORY_SIZE);
+			int shift = windowLength - keep;
+			if(keep + len > window.length) {
+				window = Arrays.copyOf(window, keep + len);
+			}
+			System.arraycopy(window, shift, window, 0, keep);
+			windowLength = keep;
+			if(table != null) {
+				if(tableOffset > Integer.MAX_VALUE / 2) {
+					Arrays.fill(table, 0);
+					tableOffset = 0;
+				} else {
+					tableOffset += shift;
+				}
+			}
+		}
+	}
+	
+	private static int writeSequence(byte[] src, int literals, int literalLength, int offset, int matchLength, byte[] dst, int op) {
+		int token = op++;
+		int ml = matchLength - MIN_MATCH;
+		dst[token] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(ml, 15));
+		op = writeLength(literalLength, dst, op);
+		System.arraycopy(src, literals, dst, op, literalLength);
+		op += literalLength;
+		dst[op++] = (byte) offset;
+		dst[op++] = (byte) (offset >>> 8);
+		return writeLength(ml, dst, op);
+	}
+	
+	private static int writeLiterals(byte[] src, int literals, int literalLength, byte[] dst, int op) {
+		dst[op++] = (byte) (Math.min(literalLength, 15) << 4);
+		op = writeLength(literalLength, dst, op);
+		System.arraycopy(src, literals, dst, op, literalLength);
+		return op + literalLength;
+	}
+	
+	private static int writeLength(int length, byte[] dst, int op) {
+		if(length >= 15) {
+			length -= 15;
+			while(length >= 255) {
+				dst[op++] = (byte) 255;
+				length -= 255;
+			}
+			dst[op++] = (byte) length;
+		}
+		return op;
+	}
+	
+	private static int readInt(byte[] buf, int off) {
+		return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8) 
+				| ((buf[off + 2] & 0xFF) << 16) | ((buf[off + 3] & 0xFF) << 24);
+	}
+	
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_BITS);
+	}
+
+	public byte[] uncompress(byte[] data, int start, int len) throws IOException {
+		
+		int ip = start;
+		int end = start + len;
+		int packetStart = windowLength;
+		int op = windowLength;
+		
+		try {
+			while(true) {
+				int token = data[ip++] & 0xFF;
+				
+				int literalLength = token >>> 4;
+				if(literalLength == 15) {
+					int b;
+					do {
+						b = data[ip++] & 0xFF;
+						literalLength += b;
+					} while(b == 255);
+				}
+				if(ip + literalLength > end) {
+					throw new IOException("Corrupt compressed data, literals exceed the packet");
+				}
+				
+				int shift = makeRoom(packetStart, op, literalLength);
+				packetStart -= shift;
+				op -= shift;
+				System.arraycopy(data, ip, window, op, literalLength);
+				ip += literalLength;
+				op += literalLength;
+				
+				if(ip == end) {
+					break;
+				}
+				
+				int offset = (data[ip++] & 0xFF) | ((data[ip++] & 0xFF) << 8);
+				int matchLength = token & 0x0F;
+				if(matchLength == 15) {
+					int b;
+					do {
+						b = data[ip++] & 0xFF;
+						matchLength += b;
+					} while(b == 255);
+				}
+				matchLength += MIN_MATCH;
+				
+				shift = makeRoom(packetStart, op, matchLength);
+				packetStart -= shift;
+				op -= shift;
+				int ref = op - offset;
+				if(offset == 0 || ref < 0) {
+					throw new IOException("Corrupt compressed data, match is outside the history");
+				}
+				if(offset >= matchLength) {
+					System.arraycopy(window, ref, window, op, matchLength);
+					op += matchLength;
+				} else {
+					for(int i = 0; i < matchLength; i++) {
+						window[op++] = window[ref++];
+					}
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt compressed data, the packet is truncated");
+		}
+		
+		windowLength = op;
+		uncompressedBytes += op - packetStart;
+		compressedBytes += len;
+		return Arrays.copyOfRange(window, packetStart, op);
+	}
+	
+	/**
+	 * Make room in the window to write more of the packet being decoded, sliding out 
+	 * history that is no longer needed or growing the window.
+	 * 
+	 * @return the number of bytes the window was moved by
+	 */
+	private int makeRoom(int packetStart, int op, int count) throws IOException {
+		if(op + count <= window.length) {
+			return 0;
+		}
+		if(op - packetStart + count > MAX_UNCOMPRESSED_SIZE) {
+			throw new IOException("Uncompressed data exceeds the maximum packet size");
+		}
+		int shift = Math.max(0, packetStart - HISTORY_SIZE);
+		int length = op - shift;
+		if(length + count > window.length) {
+			window = Arrays.copyOf(window, Math.max(window.length * 2, length + count));
+		}
+		System.arraycopy(window, shift, window, 0, length);
+		return shift;
+	}
+}
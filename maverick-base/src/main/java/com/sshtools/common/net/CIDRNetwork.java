@@ -25,9 +25,6 @@ package com.sshtools.common.net;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
 
 public class CIDRNetwork {
 
@@ -35,6 +32,7 @@ public class CIDRNetwork {
     private InetAddress networkAddress;
     private InetAddress startAddress;
     private InetAddress endAddress;
+    private byte[] start;
     /**
      * Default constructor
      * 
@@ -64,53 +62,81 @@ public class CIDRNetwork {
 
         this.networkAddress = InetAddress.getByName(network.substring(0, index));
         
-        int addressSize = networkAddress.getAddress().length;
-        ByteBuffer maskBuffer;
-        switch(addressSize) {
-        case 4:
-        	maskBuffer = ByteBuffer.allocate(addressSize);
-        	maskBuffer.putInt(-1);
-        	break;
-        case 16:
-        	maskBuffer = ByteBuffer.allocate(addressSize);
-        	maskBuffer.putLong(-1L);
-        	maskBuffer.putLong(-1L);
-        	break;
-        default:
+        byte[] address = networkAddress.getAddress();
+        if(address.length != 4 && address.length != 16) {
         	throw new IllegalArgumentException(String.format("Invalid IP address format %s", network));
         }
+        if(networkBits < 0 || networkBits > address.length * 8) {
+            throw new IllegalArgumentException("CIDR network setting invalid! " + network);
+        }
         
-        BigInteger subnetMask = (new BigInteger(1, maskBuffer.array())).not().shiftRight(networkBits);
-        ByteBuffer b = ByteBuffer.wrap(networkAddress.getAddress());
-        BigInteger ip = new BigInteger(1, b.array());
-        
-        BigInteger start = ip.and(subnetMask);
-        BigInteger end = start.add(subnetMask.not());
+        byte[] start = new byte[address.length];
+        byte[] end = new byte[address.length];
+        for(int i = 0; i < address.length; i++) {
+        	int mask = mask(i);
+        	start[i] = (byte) (address[i] & mask);
+        	end[i] = (byte) (address[i] | ~mask);
+        }
         
-        startAddress = InetAddress.getByAddress(toBytes(start.toByteArray(), addressSize));
-        endAddress = InetAddress.getByAddress(toBytes(end.toByteArray(), addressSize));
+        this.start = start;
+        startAddress = InetAddress.getByAddress(start);
+        endAddress = InetAddress.getByAddress(end);
     }
     
+    /**
+     * The bits of the network prefix that fall in a byte of the address.
+     */
+    private int mask(int index) {
+    	int bits = networkBits - index * 8;
+    	return bits >= 8 ? 0xFF : bits <= 0 ? 0 : (0xFF << (8 - bits)) & 0xFF;
+    }
     
-    private static  byte[] toBytes(byte[] array, int targetSize) {
-        int counter = 0;
-        List<Byte> newArr = new ArrayList<>();
-        while (counter < targetSize && (array.length - 1 - counter >= 0)) {
-            newArr.add(0, array[array.length - 1 - counter]);
-            counter++;
-        }
-
-        int size = newArr.size();
-        for (int i = 0; i < (targetSize - size); i++) {
-
-            newArr.add(0, (byte) 0);
-        }
-
-        byte[] ret = new byte[newArr.size()];
-        for (int i = 0; i < newArr.size(); i++) {
-            ret[i] = newArr.get(i);
-        }
-        return ret;
+    /**
+     * Get the number of bits in the network prefix.
+     * 
+     * @return network bits
+     */
+    public int getNetworkBits() {
+    	return networkBits;
+    }
+    
+    /**
+     * Get the first address of the network, that is the network address with all
+     * bits after the prefix cleared.
+     * 
+     * @return start address
+     */
+    public InetAddress getStartAddress() {
+    	return startAddress;
+    }
+    
+    /**
+     * Get the last address of the network.
+     * 
+     * @return end address
+     */
+    public InetAddress getEndAddress() {
+    	return endAddress;
+    }
+    
+    /**
+     * Check whether an address is in this network. Only addresses of the same family
+     * as the network can match.
+     * 
+     * @param address address
+     * @return address is in network
+     */
+    public boolean isValidAddressForNetwork(InetAddress address) {
+    	byte[] target = address.getAddress();
+    	if(target.length != start.length) {
+    		return false;
+    	}
+    	for(int i = 0; i < target.length; i++) {
+    		if((target[i] & mask(i)) != (start[i] & 0xFF)) {
+    			return false;
+    		}
+    	}
+    	return true;
     }
 
     public boolean isValidAddressForNetwork(String ipAddress) throws UnknownHostException {
@@ -0,0 +1,185 @@
+package com.sshtools.common.net;
+
+/*-
+ * #%L
+ * Base API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.InetAddress;
+
+/**
+ * An immutable set of networks, held as a binary radix (Patricia) trie for each address 
+ * family, that answers whether an address falls in any of them by walking at most one node 
+ * for each bit of the longest prefix. Adding a network returns a new trie that shares all 
+ * nodes off the path to the new network, so a trie can be published to other threads 
+ * without locking while further networks are added to its successor.
+ * <p>
+ * Only membership is recorded. Once a network is present, networks inside it are not 
+ * stored, and adding a network drops any already present inside it.
+ */
+public final class CIDRTrie {
+
+	public static final CIDRTrie EMPTY = new CIDRTrie(null, null, 0);
+
+	static final class Node {
+		final byte[] key;
+		final int bits;
+		final boolean network;
+		final Node zero;
+		final Node one;
+
+		Node(byte[] key, int bits, boolean network, Node zero, Node one) {
+			this.key = key;
+			this.bits = bits;
+			this.network = network;
+			this.zero = zero;
+			this.one = one;
+		}
+	}
+
+	private final Node ipv4;
+	private final Node ipv6;
+	private final int size;
+
+	private CIDRTrie(Node ipv4, Node ipv6, int size) {
+		this.ipv4 = ipv4;
+		this.ipv6 = ipv6;
+		this.size = size;
+	}
+
+	/**
+	 * Get a trie containing the networks of this one and the given network.
+	 * 
+	 * @param network network
+	 * @return trie
+	 */
+	public CIDRTrie with(CIDRNetwork network) {
+		byte[] key = network.getStartAddress().getAddress();
+		int bits = network.getNetworkBits();
+		if(key.length == 4) {
+			return new CIDRTrie(insert(ipv4, key, bits), ipv6, size + 1);
+		} else {
+			return new CIDRTrie(ipv4, insert(ipv6, key, bits), size + 1);
+		}
+	}
+
+	/**
+	 * Get the number of networks that have been added to the trie, including any that 
+	 * are covered by another network.
+	 * 
+	 * @return networks added
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Check whether an address is in any network of the trie. IPv4 addresses only match 
+	 * IPv4 networks and IPv6 addresses only IPv6 networks.
+	 * 
+	 * @param address address
+	 * @return address is in a network
+	 */
+	public boolean contains(InetAddress address) {
+		return contains(address.getAddress());
+	}
+
+	/**
+	 * Check whether a raw 4 or 16 byte address is in any network of the trie.
+	 * 
+	 * @param address address
+	 * @return address is in a network
+	 */
+	public boolean contains(byte[] address) {
+		Node node = address.length == 4 ? ipv4 : address.length == 16 ? ipv6 : null;
+		while(node != null) {
+			if(commonBits(node.key, address, node.bits) < node.bits) {
+				return false;
+			}
+			if(node.network) {
+				return true;
+			}
+			node = bit(address, node.bits) == 0 ? node.zero : node.one;
+		}
+		return false;
+	}
+
+	private static Node insert(Node node, byte[] key, int bits) {
+		if(node == null) {
+			return new Node(key, bits, true, null, null);
+		}
+		int common = commonBits(node.key, key, Math.min(node.bits, bits));
+		if(common == node.bits) {
+			if(node.network) {
+				/* Already covered */
+				return node;
+			}
+			if(bits == node.bits) {
+				return new Node(node.key, bits, true, null, null);
+			}
+			if(bit(key, node.bits) == 0) {
+				return new Node(node.key, node.bits, false, insert(node.zero, key, bits), node.one);
+			} else {
+				return new Node(node.key, node.bits, false, node.zero, insert(node.one, key, bits));
+			}
+		}
+		if(common == bits) {
+			/* The new network contains this node and all below it */
+			return new Node(key, bits, true, null, null);
+		}
+		Node leaf = new Node(key, bits, true, null, null);
+		byte[] prefix = prefix(key, common);
+		return bit(key, common) == 0 
+				? new Node(prefix, common, false, leaf, node) 
+				: new Node(prefix, common, false, node, leaf);
+	}
+
+	/**
+	 * The number of leading bits, up to a limit, that two keys have in common.
+	 */
+	private static int commonBits(byte[] a, byte[] b, int limit) {
+		int bytes = (limit + 7) >>> 3;
+		for(int i = 0; i < bytes; i++) {
+			int diff = (a[i] ^ b[i]) & 0xFF;
+			if(diff != 0) {
+				return Math.min(limit, i * 8 + Integer.numberOfLeadingZeros(diff) - 24);
+			}
+		}
+		return limit;
+	}
+
+	private static int bit(byte[] key, int index) {
+		return (key[index >>> 3] >>> (7 - (index & 7))) & 1;
+	}
+
+	private static byte[] prefix(byte[] key, int bits) {
+		byte[] prefix = new byte[key.length];
+		int whole = bits >>> 3;
+		System.arraycopy(key, 0, prefix, 0, whole);
+		if((bits & 7) != 0) {
+			prefix[whole] = (byte) (key[whole] & (0xFF << (8 - (bits & 7))));
+		}
+		return prefix;
+	}
+}
@@ -35,4 +35,16 @@ public interface IdleStateListener {
          * @return <tt>true</tt> if this listener should be cancelled.
          */
         public boolean idle();
+
+        /**
+         * Get the time, in milliseconds since the epoch, at which this listener next
+         * needs an idle event. A listener that keeps its own record of activity can use
+         * this to be visited only when one of its timeouts could have expired; it may
+         * return early, {@link #idle()} still decides what to do.
+         * @return deadline, or a negative value to receive idle events once the listener
+         * has not been reset for the idle period of its manager
+         */
+        public default long getIdleDeadline() {
+                return -1;
+        }
 }
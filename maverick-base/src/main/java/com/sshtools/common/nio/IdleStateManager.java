@@ -22,28 +22,71 @@ package com.sshtools.common.nio;
  * #L%
  */
 
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sshtools.common.logger.Log;
 
 /**
  * Class that checks the idle state of another class.
+ * <p>
+ * Listeners are held on a hierarchical timing wheel with one tick per service period, so
+ * each service run only visits the listeners that are due rather than every registered
+ * listener. Resetting a listener is a single write of its last activity time; a listener
+ * whose activity has moved its deadline on is simply put back on the wheel when its old
+ * deadline is reached. The wheel itself is only changed by the thread calling
+ * {@link #service()}, registrations and removals from other threads are queued for it.
  *
  * @author Lee David Painter
  */
 public class IdleStateManager  {
 
-    Map<IdleStateListener, Long> listeners = new ConcurrentHashMap<IdleStateListener, Long>(50, 0.9f, 1);
-    int numSecondsBeforeIdle;
+    static final int WHEEL_BITS = 6;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    static final int LEVELS = 4;
+    static final long WHEEL_SPAN = 1L << (WHEEL_BITS * LEVELS);
+
+    static final class IdleState {
+        final IdleStateListener listener;
+        final AtomicBoolean queued = new AtomicBoolean();
+        volatile long lastActivity = System.currentTimeMillis();
+        volatile boolean cancelled;
+
+        /* Only accessed by the servicing thread */
+        long deadlineTick;
+        int level = -1;
+        int index;
+        IdleState previous;
+        IdleState next;
+
+        IdleState(IdleStateListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    Map<IdleStateListener, IdleState> listeners = new ConcurrentHashMap<IdleStateListener, IdleState>(50, 0.9f, 1);
+    Queue<IdleState> pending = new ConcurrentLinkedQueue<IdleState>();
+    IdleState[][] wheel = new IdleState[LEVELS][WHEEL_SIZE];
+    ArrayList<IdleState> due = new ArrayList<IdleState>();
     int servicePeriodSeconds;
     int numInactiveServicesPeriodsPerIdle;
-    long lastService = 0;
-    boolean servicing = false;
+    long tickMillis;
+    long idleMillis;
+    long currentTick;
+    volatile long lastService = 0;
 
     public IdleStateManager(int servicePeriodSeconds,
                             int numInactiveServicesPeriodsPerIdle) {
         this.servicePeriodSeconds = servicePeriodSeconds;
         this.numInactiveServicesPeriodsPerIdle = numInactiveServicesPeriodsPerIdle;
+        this.tickMillis = Math.max(1, servicePeriodSeconds) * 1000L;
+        this.idleMillis = servicePeriodSeconds * numInactiveServicesPeriodsPerIdle * 1000L;
+        this.currentTick = System.currentTimeMillis() / tickMillis;
     }
 
     /**
@@ -51,22 +94,63 @@ public class IdleStateManager  {
      *
      * @param obj IdleStateListener
      */
-    public synchronized void reset(IdleStateListener obj) {
-    	if(listeners.containsKey(obj))
-    		listeners.put(obj, Long.valueOf(System.currentTimeMillis()));
+    public void reset(IdleStateListener obj) {
+    	IdleState state = listeners.get(obj);
+    	if(state != null)
+    		state.lastActivity = System.currentTimeMillis();
     }
     
-    public synchronized void register(IdleStateListener obj) {
-    	listeners.put(obj, Long.valueOf(System.currentTimeMillis()));
+    /**
+     * Register a listener, or reset its idle state if it is already registered.
+     *
+     * @param obj IdleStateListener
+     */
+    public void register(IdleStateListener obj) {
+    	IdleState state = listeners.get(obj);
+    	if(state == null) {
+    		state = new IdleState(obj);
+    		IdleState existing = listeners.putIfAbsent(obj, state);
+    		if(existing == null) {
+    			enqueue(state);
+    			return;
+    		}
+    		state = existing;
+    	}
+    	state.lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Called by a listener when something other than its activity has changed the
+     * value returned by {@link IdleStateListener#getIdleDeadline()}, so that it is
+     * placed on the wheel again at the next service run.
+     *
+     * @param obj IdleStateListener
+     */
+    public void reschedule(IdleStateListener obj) {
+    	IdleState state = listeners.get(obj);
+    	if(state != null)
+    		enqueue(state);
     }
 
     /**
      * Called by a listener when they want to remove themselves
      * @param obj IdleStateListener
      */
-    public synchronized void remove(IdleStateListener obj) {
-    	if(!servicing)
-    		listeners.remove(obj);
+    public void remove(IdleStateListener obj) {
+    	IdleState state = listeners.remove(obj);
+    	if(state != null) {
+    		state.cancelled = true;
+    		enqueue(state);
+    	}
+    }
+
+    /**
+     * Get the number of registered listeners.
+     *
+     * @return listeners
+     */
+    public int getListenerCount() {
+    	return listeners.size();
     }
 
     /**
@@ -82,27 +166,164 @@ public class IdleStateManager  {
     /**
      * Called by a thread which is managing idle states
      */
-    public synchronized void service() {
-
-        lastService = System.currentTimeMillis();
-
-        Map.Entry<IdleStateListener, Long> entry;
-
-        servicing = true;
-        for(Iterator<Map.Entry<IdleStateListener, Long>> it = listeners.entrySet().iterator();
-                          it.hasNext();) {
-            entry = it.next();
-            long start = entry.getValue().longValue();
-            long current = System.currentTimeMillis();
-            long elasped = (current - start) / 1000;
-            if(elasped >= (servicePeriodSeconds * numInactiveServicesPeriodsPerIdle)) {
-               if((entry.getKey()).idle())
-                   it.remove();
-           }
+    public void service() {
+    	service(System.currentTimeMillis());
+    }
+
+    /**
+     * Advance the wheel to the given time, firing idle events on every listener
+     * whose deadline has been reached.
+     *
+     * @param now current time in milliseconds
+     */
+    public synchronized void service(long now) {
+
+        lastService = now;
+
+        /* Take queued listeners off the wheel first, so none is collected twice below */
+        IdleState state;
+        while((state = pending.poll()) != null) {
+        	state.queued.set(false);
+        	unlink(state);
+        	if(!state.cancelled) {
+        		due.add(state);
+        	}
         }
-        servicing = false;
 
+        long target = now / tickMillis;
+        if(target < currentTick || target - currentTick >= WHEEL_SPAN) {
+        	/* The clock has jumped, evaluate everything again */
+        	currentTick = target;
+        	for(IdleState[] level : wheel) {
+        		for(int i = 0; i < WHEEL_SIZE; i++) {
+        			for(state = level[i]; state != null; state = state.next) {
+        				state.level = -1;
+        				due.add(state);
+        			}
+        			level[i] = null;
+        		}
+        	}
+        }
+
+        while(currentTick < target) {
+        	currentTick++;
+        	cascade();
+        	int index = (int) (currentTick & WHEEL_MASK);
+        	for(state = wheel[0][index]; state != null; state = state.next) {
+        		state.level = -1;
+        		due.add(state);
+        	}
+        	wheel[0][index] = null;
+        }
+
+        for(int i = 0; i < due.size(); i++) {
+        	evaluate(due.get(i), now);
+        }
+        due.clear();
     }
 
+    private void evaluate(IdleState state, long now) {
+    	if(state.cancelled) {
+    		return;
+    	}
+    	long deadline = getDeadline(state);
+    	if(deadline <= now) {
+    		boolean remove = false;
+    		try {
+    			remove = state.listener.idle();
+    		} catch(Throwable e) {
+    			Log.error("Idle state listener failed", e);
+    		}
+    		if(remove) {
+    			state.cancelled = true;
+    			listeners.remove(state.listener, state);
+    			return;
+    		}
+    		/* Still idle, so notify it again no sooner than the next service run */
+    		deadline = getDeadline(state);
+    	}
+    	/* Listeners are evaluated in the first service run that reaches the tick their
+    	 * deadline falls in, and put back for the next tick if it has not quite passed */
+    	schedule(state, deadline / tickMillis);
+    }
 
+    private long getDeadline(IdleState state) {
+    	long deadline = state.listener.getIdleDeadline();
+    	if(deadline < 0) {
+    		deadline = state.lastActivity + idleMillis;
+    	}
+    	return deadline;
+    }
+
+    private void schedule(IdleState state, long tick) {
+    	unlink(state);
+    	long delta = Math.min(tick - currentTick, WHEEL_SPAN - 1);
+    	if(delta <= 0) {
+    		delta = 1;
+    	}
+    	tick = currentTick + delta;
+    	int level = 0;
+    	while(delta >= 1L << (WHEEL_BITS * (level + 1))) {
+    		level++;
+    	}
+    	int index = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    	state.deadlineTick = tick;
+    	state.level = level;
+    	state.index = index;
+    	state.previous = null;
+    	state.next = wheel[level][index];
+    	if(state.next != null) {
+    		state.next.previous = state;
+    	}
+    	wheel[level][index] = state;
+    }
+
+    private void unlink(IdleState state) {
+    	if(state.level < 0) {
+    		return;
+    	}
+    	if(state.previous != null) {
+    		state.previous.next = state.next;
+    	} else {
+    		wheel[state.level][state.index] = state.next;
+    	}
+    	if(state.next != null) {
+    		state.next.previous = state.previous;
+    	}
+    	state.previous = null;
+    	state.next = null;
+    	state.level = -1;
+    }
+
+    /**
+     * Move the listeners in any higher level slot that has been reached down
+     * towards the lowest level.
+     */
+    private void cascade() {
+    	for(int level = 1; level < LEVELS; level++) {
+    		if((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+    			return;
+    		}
+    		int index = (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    		IdleState state = wheel[level][index];
+    		wheel[level][index] = null;
+    		while(state != null) {
+    			IdleState next = state.next;
+    			state.level = -1;
+    			if(state.deadlineTick <= currentTick) {
+    				state.next = null;
+    				due.add(state);
+    			} else {
+    				schedule(state, state.deadlineTick);
+    			}
+    			state = next;
+    		}
+    	}
+    }
+
+    private void enqueue(IdleState state) {
+    	if(state.queued.compareAndSet(false, true)) {
+    		pending.add(state);
+    	}
+    }
 }
@@ -27,7 +27,6 @@ import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
 
 import com.sshtools.common.logger.Log;
-import com.sshtools.common.net.CIDRNetwork;
 import com.sshtools.common.util.ExpiringConcurrentHashMap;
 
 public class IPPolicy extends Permissions {
@@ -89,41 +88,33 @@ public class IPPolicy extends Permissions {
 	
 	protected boolean assertAllowed(InetAddress remoteAddress, InetAddress localAddress) {
 
-		try {
-			boolean allowed = true;
-			
-			String addr;
-			
-			Boolean temporarilyBanned = temporaryBans.getOrDefault(remoteAddress, false);
-			if(temporarilyBanned) {
-				Log.info("Rejecting IP {} because of temporary ban", remoteAddress.getHostAddress());
-				return false;
-			}
-			addr = remoteAddress.getHostAddress();
-			
-			if(!whitelist.isEmpty()) {
-				allowed = isListed(addr, whitelist);
-			}
-			
-			boolean rejected = isListed(addr, blacklist);
-			
-			if(Log.isTraceEnabled()) {
-				Log.trace("{} is {} by IP policy", remoteAddress.toString(), (allowed && !rejected) ? "allowed" : "denied");
-			}
-			
-			return allowed && !rejected;
-		} catch (UnknownHostException e) {
-			throw new IllegalArgumentException("Invalid IP range");
+		boolean allowed = true;
+		
+		Boolean temporarilyBanned = temporaryBans.getOrDefault(remoteAddress, false);
+		if(temporarilyBanned) {
+			Log.info("Rejecting IP {} because of temporary ban", remoteAddress.getHostAddress());
+			return false;
+		}
+		
+		if(!whitelist.isEmpty()) {
+			allowed = isListed(remoteAddress, whitelist);
+		}
+		
+		boolean rejected = isListed(remoteAddress, blacklist);
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("{} is {} by IP policy", remoteAddress.toString(), (allowed && !rejected) ? "allowed" : "denied");
 		}
+		
+		return allowed && !rejected;
+	}
+
+	protected boolean isListed(InetAddress addr, IPStore store) {
+		return store.contains(addr);
 	}
 
 	protected boolean isListed(String addr, IPStore store) throws UnknownHostException {
-		for(CIDRNetwork value : store.getIPs()) {
-			if(value.isValidAddressForNetwork(addr)) {
-				return true;
-			}
-		}
-		return false;
+		return isListed(InetAddress.getByName(addr), store);
 	}
 	
 	public void flagAddress(String addr) {
@@ -135,6 +126,17 @@ public class IPPolicy extends Permissions {
 	}
 	
 	public void flagAddress(InetAddress addr) {
+		flagAddress(addr, "failed authentication");
+	}
+	
+	/**
+	 * Flag an address for misbehaving, temporarily banning it once it has been flagged
+	 * more times than the threshold.
+	 * 
+	 * @param addr address
+	 * @param reason what the address did, for logging
+	 */
+	public void flagAddress(InetAddress addr, String reason) {
 		
 		if(check(DISABLE_BAN)) {
 			return;
@@ -144,8 +146,8 @@ public class IPPolicy extends Permissions {
 		
 		if(count >= failedAuthenticationThreshold) {
 			if(Log.isInfoEnabled()) {
-			Log.info("Temporarily banning IP address {} due to failed authentication count of {}", 
-					addr.getHostAddress(), count);
+			Log.info("Temporarily banning IP address {} due to {} count of {}", 
+					addr.getHostAddress(), reason, count);
 			}
 			temporaryBans.put(addr, true);
 			return;
@@ -153,7 +155,7 @@ public class IPPolicy extends Permissions {
 		
 		++count;
 		if(Log.isInfoEnabled()) {
-			Log.info("Flagging IP address {} with failed authentication count of {}", addr.getHostAddress(), count);
+			Log.info("Flagging IP address {} with {} count of {}", addr.getHostAddress(), reason, count);
 		}
 		flaggedAddressCounts.put(addr, count);
 	}
@@ -22,36 +22,67 @@ package com.sshtools.common.permissions;
  * #L%
  */
 
+import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.sshtools.common.net.CIDRNetwork;
+import com.sshtools.common.net.CIDRTrie;
 
+/**
+ * A list of networks checked by {@link IPPolicy}. The networks are matched through an 
+ * immutable {@link CIDRTrie} that is replaced as a whole when the list changes, so lookups 
+ * never lock and never see a partially loaded list.
+ */
 public class IPStore {
 
 	ConcurrentLinkedQueue<CIDRNetwork> entries = new ConcurrentLinkedQueue<>();
+	volatile CIDRTrie trie = CIDRTrie.EMPTY;
 	
 	public boolean isEmpty() {
-		return entries.isEmpty();
+		return trie.isEmpty();
 	}
 
 	public Collection<CIDRNetwork> getIPs() {
-		return entries;
+		return Collections.unmodifiableCollection(entries);
+	}
+
+	/**
+	 * Check whether an address is in any network of the list.
+	 * 
+	 * @param address address
+	 * @return address is listed
+	 */
+	public boolean contains(InetAddress address) {
+		return trie.contains(address);
 	}
 
-	public void add(String ip) throws UnknownHostException {
-		entries.add(new CIDRNetwork(ip));
+	public synchronized void add(String ip) throws UnknownHostException {
+		CIDRNetwork network = new CIDRNetwork(ip);
+		entries.add(network);
+		trie = trie.with(network);
 	}
 	
-	public void reset(Collection<String> ips) throws UnknownHostException {
+	/**
+	 * Replace all networks in the list. The new list is built before it replaces the
+	 * current one, so if any network is invalid the list is left unchanged.
+	 * 
+	 * @param ips networks
+	 * @throws UnknownHostException
+	 */
+	public synchronized void reset(Collection<String> ips) throws UnknownHostException {
 		
 		Collection<CIDRNetwork> tmp = new ArrayList<>();
+		CIDRTrie trie = CIDRTrie.EMPTY;
 		for(String ip : ips) {
-			tmp.add(new CIDRNetwork(ip));
+			CIDRNetwork network = new CIDRNetwork(ip);
+			tmp.add(network);
+			trie = trie.with(network);
 		}
-		this.entries.clear();
-		this.entries.addAll(tmp);
+		this.trie = trie;
+		this.entries = new ConcurrentLinkedQueue<>(tmp);
 	}
 }
@@ -23,18 +23,23 @@ package com.sshtools.common.publickey;
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshKeyFingerprint;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.Digest;
 import com.sshtools.common.ssh.components.SshKeyPair;
 import com.sshtools.common.ssh.components.SshPublicKey;
 import com.sshtools.common.ssh.components.jce.JCEComponentManager;
@@ -80,6 +85,21 @@ public abstract class OpenSshCertificate implements SshPublicKey {
 	SshPublicKey signedBy;
 	byte[] signature;
 	
+	/**
+	 * Digests of the signed data, signature and CA key of certificates whose signatures
+	 * have already been verified, most recently used last.
+	 */
+	@SuppressWarnings("serial")
+	private static final Map<ByteBuffer, Boolean> verifiedCertificates = Collections.synchronizedMap(
+			new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+					return size() > MAX_VERIFIED_CERTIFICATES;
+				}
+			});
+	
+	private static final int MAX_VERIFIED_CERTIFICATES = 1024;
+	
 	public String getEncodingAlgorithm() {
 		return getAlgorithm();
 	}
@@ -360,6 +380,16 @@ public abstract class OpenSshCertificate implements SshPublicKey {
 		}
 	}
 	
+	/**
+	 * Verify the CA signature of this certificate. The signature is checked once for each
+	 * distinct certificate and CA key, the outcome is remembered in a bounded cache so
+	 * that a certificate offered again, for example by the signed request that follows a
+	 * public key query, or by the next connection from the same user, is not verified again.
+	 * The cache only holds signature validity, the validity period, principals and options
+	 * of the certificate are still checked by the caller each time it is used.
+	 * 
+	 * @throws SshException if the signature is not valid
+	 */
 	public void verify() throws SshException {
 		
 		ByteArrayWriter blob = new ByteArrayWriter();
@@ -381,11 +411,22 @@ public abstract class OpenSshCertificate implements SshPublicKey {
 			encodeCertificate(blob);
 			byte[] encoded =  blob.toByteArray();
 			
+			Digest digest = ComponentManager.getInstance().supportedDigests().getInstance(SshKeyFingerprint.SHA256_FINGERPRINT);
+			digest.putBytes(encoded);
+			digest.putBytes(signature);
+			digest.putBytes(signedBy.getEncoded());
+			ByteBuffer key = ByteBuffer.wrap(digest.doFinal());
+			
+			if(verifiedCertificates.containsKey(key)) {
+				return;
+			}
+			
 			if(!this.signedBy.verifySignature(this.signature, encoded)) {
 				throw new SshException("Failed to verify signature of certificate",
 						SshException.INTERNAL_ERROR);
 			}
 			
+			verifiedCertificates.put(key, Boolean.TRUE);
 			
 		} catch (IOException t) {
 			Log.error("Ssh certificate sign failed", t);
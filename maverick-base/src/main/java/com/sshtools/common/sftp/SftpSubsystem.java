@@ -55,6 +55,7 @@ import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.Context;
 import com.sshtools.common.ssh.ExecutorOperationQueues;
 import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.PacketPool;
 import com.sshtools.common.ssh.SessionChannel;
 import com.sshtools.common.ssh.SessionChannelHelper;
 import com.sshtools.common.ssh.SshConnection;
@@ -1185,12 +1186,12 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	}
 
 	public void sendHandleMessage(int id, byte[] handle) throws IOException {
-		Packet reply = new Packet(handle.length + 9);
+		Packet reply = PacketPool.getInstance().getPacket(handle.length + 9);
 		reply.write(SSH_FXP_HANDLE);
 		reply.writeInt(id);
 		reply.writeBinaryString(handle);
 
-		sendMessage(reply);
+		sendMessage(reply, true);
 	}
 
 	class ReadFileOperation extends FileSystemOperation {
@@ -1227,7 +1228,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				int count = (int) bar.readInt();
 
 				// Construct the correct size packet and read the file
-				Packet reply = new Packet(count + 13);
+				Packet reply = PacketPool.getInstance().getPacket(count + 13);
+				boolean released = false;
 				try {
 					reply.write(SSH_FXP_DATA);
 					reply.writeInt(id);
@@ -1289,7 +1291,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 												EventCodes.ATTRIBUTE_OPERATION_FINISHED,
 												new Date()));
 							}
-							sendMessage(reply);
+							released = true;
+							sendMessage(reply, true);
 							
 						} catch(SftpStatusEventException ex) {
 							sendStatusMessage(id, ex.getStatus(), ex.getMessage());
@@ -1297,9 +1300,8 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 						
 					}
 				} finally {
-					try {
-						reply.close();
-					} catch (IOException e) {
+					if(!released) {
+						PacketPool.getInstance().putPacket(reply);
 					}
 				}
 				
@@ -1981,12 +1983,12 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	public void sendAttributesMessage(int id, SftpFileAttributes attrs)
 			throws IOException {
 		byte[] encoded = attrs.toByteArray(version);
-		Packet msg = new Packet(5 + encoded.length);
+		Packet msg = PacketPool.getInstance().getPacket(5 + encoded.length);
 		msg.write(SSH_FXP_ATTRS);
 		msg.writeInt(id);
 		msg.write(encoded);
 
-		sendMessage(msg);
+		sendMessage(msg, true);
 	}
 
 	class ReadDirectoryOperation extends FileSystemOperation {
@@ -2119,7 +2121,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			Log.debug("Sending SSH_FXP_STATUS: : " + description + " reason="
 					+ reason);
 		try {
-			Packet baw = new Packet(1024);
+			Packet baw = PacketPool.getInstance().getPacket(1024);
 			baw.write(SSH_FXP_STATUS);
 			baw.writeInt(id);
 			baw.writeInt(reason);
@@ -2129,7 +2131,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 				baw.writeString("");
 			}
 
-			sendMessage(baw);
+			sendMessage(baw, true);
 		} catch (IOException ex) {
 			session.close();
 		}
@@ -2249,7 +2251,7 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 	public int sendFilenameMessage(int id, SftpFile[] files, boolean isRealPath,
 			boolean isAbsolute) throws IOException {
 
-		Packet baw = new Packet(16384);
+		Packet baw = PacketPool.getInstance().getPacket(16384);
 		baw.write(SSH_FXP_NAME);
 		baw.writeInt(id);
 		baw.writeInt(files.length);
@@ -2266,9 +2268,10 @@ public class SftpSubsystem extends Subsystem implements SftpSpecification {
 			baw.write(files[i].getAttributes().toByteArray(version));
 		}
 
-		sendMessage(baw);
+		int size = baw.size();
+		sendMessage(baw, true);
 
-		return baw.size();
+		return size;
 	}
 
 	class MakeDirectoryOperation extends FileSystemOperation {
@@ -0,0 +1,281 @@
+package com.sshtools.common.ssh;
+
+/*-
+ * #%L
+ * Base API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of {@link Packet} instances. Packets are grouped into size
+ * classes so that a request for a small packet does not take a large buffer,
+ * and large data packets can be reused without being grown again. 
+ * <p>
+ * Each thread keeps a small cache of recently released packets for each size
+ * class so that the common case of a packet being taken and released on the same
+ * thread does not touch any shared state. Packets released when the thread cache
+ * is full are moved to a shared, lock-free queue. The number of packets and the
+ * total number of bytes held by the shared queues is bounded; packets released
+ * beyond these limits are simply left for the garbage collector.
+ * <p>
+ * A packet must not be used after it has been released with {@link #putPacket(Packet)}.
+ */
+public class PacketPool {
+
+	/**
+	 * The size classes of pooled packets. The default {@link Packet} size is 
+	 * one of the classes so that {@link #getPacket()} is always satisfied
+	 * from the pool.
+	 */
+	static final int[] SIZE_CLASSES = { 1024, 8192, 35000, 65536 + 13, 262144 + 13 };
+	
+	static final int DEFAULT_CLASS = 2;
+	
+	/**
+	 * The number of packets of each size class held by each thread.
+	 */
+	public static final int DEFAULT_THREAD_CACHE_SIZE = Integer.getInteger("maverick.packetPool.threadCacheSize", 4);
+	
+	/**
+	 * The maximum number of packets of each size class held in the shared queues.
+	 */
+	public static final int DEFAULT_MAXIMUM_PACKETS = Integer.getInteger("maverick.packetPool.maxPackets", 256);
+	
+	/**
+	 * The maximum number of bytes held in the shared queues, over all size classes.
+	 */
+	public static final long DEFAULT_MAXIMUM_BYTES = Long.getLong("maverick.packetPool.maxBytes", 32 * 1024 * 1024);
+	
+	private static final class PacketPoolHolder {
+		private static final PacketPool INSTANCE = new PacketPool(DEFAULT_THREAD_CACHE_SIZE, 
+				DEFAULT_MAXIMUM_PACKETS, DEFAULT_MAXIMUM_BYTES);
+	}
+	
+	private final ThreadLocal<ArrayDeque<Packet>[]> threadCaches;
+	private final ConcurrentLinkedQueue<Packet>[] shared;
+	private final AtomicInteger[] sharedCount;
+	private final AtomicLong sharedBytes = new AtomicLong();
+	private final int threadCacheSize;
+	private final int maximumPackets;
+	private final long maximumBytes;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	
+	/**
+	 * Get the shared pool.
+	 * 
+	 * @return pool
+	 */
+	public static PacketPool getInstance() {
+		return PacketPoolHolder.INSTANCE;
+	}
+	
+	/**
+	 * Create a pool with its own limits. Most code should use the shared pool
+	 * returned by {@link #getInstance()}.
+	 * 
+	 * @param threadCacheSize number of packets of each size class cached per thread
+	 * @param maximumPackets maximum number of packets of each size class held in the shared queues
+	 * @param maximumBytes maximum number of bytes held in the shared queues
+	 */
+	public PacketPool(int threadCacheSize, int maximumPackets, long maximumBytes) {
+		this.threadCacheSize = threadCacheSize;
+		this.maximumPackets = maximumPackets;
+		this.maximumBytes = maximumBytes;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		ConcurrentLinkedQueue<Packet>[] shared = new ConcurrentLinkedQueue[SIZE_CLASSES.length];
+		this.shared = shared;
+		this.sharedCount = new AtomicInteger[SIZE_CLASSES.length];
+		for(int i = 0; i < SIZE_CLASSES.length; i++) {
+			shared[i] = new ConcurrentLinkedQueue<>();
+			sharedCount[i] = new AtomicInteger();
+		}
+		this.threadCaches = ThreadLocal.withInitial(() -> {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			ArrayDeque<Packet>[] caches = new ArrayDeque[SIZE_CLASSES.length];
+			for(int i = 0; i < caches.length; i++) {
+				caches[i] = new ArrayDeque<>(threadCacheSize);
+			}
+			return caches;
+		});
+	}
+	
+	/**
+	 * Get a packet of the default size.
+	 * 
+	 * @return packet
+	 * @throws IOException
+	 */
+	public Packet getPacket() throws IOException {
+		return getPacket(DEFAULT_CLASS);
+	}
+	
+	/**
+	 * Get a packet that can hold at least <code>size</code> bytes without growing. Requests
+	 * larger than the largest size class are allocated and will not be pooled when released.
+	 * 
+	 * @param size minimum size of packet
+	 * @return packet
+	 * @throws IOException
+	 */
+	public Packet getPacket(int size) throws IOException {
+		int sizeClass = sizeClassFor(size);
+		if(sizeClass == -1) {
+			misses.incrementAndGet();
+			return new Packet(size);
+		}
+		return getPacketOfClass(sizeClass);
+	}
+	
+	private Packet getPacketOfClass(int sizeClass) throws IOException {
+		
+		Packet packet = threadCaches.get()[sizeClass].pollFirst();
+		if(packet == null) {
+			packet = shared[sizeClass].poll();
+			if(packet != null) {
+				sharedCount[sizeClass].decrementAndGet();
+				sharedBytes.addAndGet(-packet.array().length);
+			}
+		}
+		
+		if(packet == null) {
+			misses.incrementAndGet();
+			return new Packet(SIZE_CLASSES[sizeClass]);
+		}
+		
+		hits.incrementAndGet();
+		return packet;
+	}
+	
+	/**
+	 * Release a packet back to the pool. Packets that do not belong to a size class, or 
+	 * that would take the pool over its limits are discarded.
+	 * 
+	 * @param packet packet
+	 */
+	public void putPacket(Packet packet) {
+		
+		if(packet == null || packet.array() == null) {
+			return;
+		}
+		
+		int capacity = packet.array().length;
+		int sizeClass = sizeClassOf(capacity - 4);
+		if(sizeClass == -1) {
+			discarded.incrementAndGet();
+			return;
+		}
+		
+		packet.reset();
+		
+		ArrayDeque<Packet> cache = threadCaches.get()[sizeClass];
+		if(cache.size() < threadCacheSize) {
+			cache.addFirst(packet);
+			return;
+		}
+		
+		if(sharedCount[sizeClass].incrementAndGet() > maximumPackets) {
+			sharedCount[sizeClass].decrementAndGet();
+			discarded.incrementAndGet();
+			return;
+		}
+		
+		if(sharedBytes.addAndGet(capacity) > maximumBytes) {
+			sharedBytes.addAndGet(-capacity);
+			sharedCount[sizeClass].decrementAndGet();
+			discarded.incrementAndGet();
+			return;
+		}
+		
+		shared[sizeClass].offer(packet);
+	}
+	
+	/**
+	 * Get the number of requests satisfied from the pool.
+	 * 
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Get the number of requests that required a new packet to be allocated.
+	 * 
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Get the number of released packets that were not retained by the pool.
+	 * 
+	 * @return discarded
+	 */
+	public long getDiscarded() {
+		return discarded.get();
+	}
+	
+	/**
+	 * Get the number of bytes currently held in the shared queues. This does not
+	 * include packets cached by individual threads.
+	 * 
+	 * @return bytes
+	 */
+	public long getSharedBytes() {
+		return sharedBytes.get();
+	}
+	
+	/**
+	 * The smallest size class that can hold <code>size</code> bytes, or -1 if
+	 * it is larger than all classes.
+	 */
+	static int sizeClassFor(int size) {
+		for(int i = 0; i < SIZE_CLASSES.length; i++) {
+			if(size <= SIZE_CLASSES[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * The size class a packet with the given capacity belongs to. Packets that have
+	 * grown beyond their original size are reused in their original class, as long
+	 * as they have not grown beyond the next class.
+	 */
+	static int sizeClassOf(int capacity) {
+		for(int i = SIZE_CLASSES.length - 1; i >= 0; i--) {
+			if(capacity >= SIZE_CLASSES[i]) {
+				int limit = i + 1 < SIZE_CLASSES.length ? SIZE_CLASSES[i + 1] : SIZE_CLASSES[i] * 2;
+				return capacity < limit ? i : -1;
+			}
+		}
+		return -1;
+	}
+}
@@ -320,21 +320,34 @@ public abstract class Subsystem {
 	 * @throws IOException
 	 */
 	public void sendMessage(Packet packet) throws IOException {
+		sendMessage(packet, false);
+	}
+	
+	/**
+	 * Send a message, optionally releasing the packet back to the {@link PacketPool}
+	 * once it has been sent. When released, the caller must not use the packet 
+	 * again after this method is called.
+	 * 
+	 * @param packet packet
+	 * @param release release the packet to the pool once sent
+	 * @throws IOException
+	 */
+	public void sendMessage(Packet packet, boolean release) throws IOException {
 		
 		if(Boolean.getBoolean("maverick.outgoingSubsystemQueue")) {
 			session.getConnection().addTask(SUBSYSTEM_OUTGOING, new ConnectionAwareTask(getConnection()) {
 	
 				@Override
 				protected void doTask() throws Throwable {
-					doSendMessage(packet);
+					doSendMessage(packet, release);
 				}
 			});
 		} else {
-			doSendMessage(packet);
+			doSendMessage(packet, release);
 		}
 	}
 
-	private void doSendMessage(Packet packet) throws IOException {
+	private void doSendMessage(Packet packet, boolean release) throws IOException {
 		if (session.isClosed()) {
 			throw new IOException("Failed to send subsystem packet, session closed");
 		} else {
@@ -343,6 +356,11 @@ public abstract class Subsystem {
 						+ " bytes");
 			packet.finish();
 			session.sendData(packet.array(), 0, packet.size());
+			/* Only release once we know the data has left the buffer. On failure
+			 * the packet may still be queued so it is left for the GC */
+			if(release && !session.isClosed()) {
+				PacketPool.getInstance().putPacket(packet);
+			}
 		}
 	}
 	
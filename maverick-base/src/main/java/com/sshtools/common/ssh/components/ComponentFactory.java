@@ -25,6 +25,7 @@ package com.sshtools.common.ssh.components;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -32,6 +33,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.WeakHashMap;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.ssh.SecureComponent;
@@ -60,6 +62,32 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 	private boolean locked = false;
 	private ComponentManager componentManager;
 	
+	/**
+	 * Set when {@link #supported} and {@link #order} are shared with a clone, in
+	 * which case they are copied before being modified.
+	 */
+	private boolean shared = false;
+	
+	/**
+	 * The algorithm, security level and priority of each factory's components. These
+	 * never change, so are looked up once rather than creating an instance of every
+	 * component each time a context configures its security level.
+	 */
+	private static final Map<ComponentInstanceFactory<?>, ComponentInfo> componentInfo = 
+			Collections.synchronizedMap(new WeakHashMap<>());
+	
+	private static final class ComponentInfo {
+		final String algorithm;
+		final SecurityLevel securityLevel;
+		final int priority;
+		
+		ComponentInfo(SecureComponent component) {
+			this.algorithm = component.getAlgorithm();
+			this.securityLevel = component.getSecurityLevel();
+			this.priority = component.getPriority();
+		}
+	}
+	
 	public ComponentFactory(ComponentManager componentManager) {
 		this.componentManager = componentManager;
 	}
@@ -76,6 +104,7 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 					SshException.BAD_API_USAGE);
 		}
 
+		unshare();
 		if (position >= order.size()) {
 			position = order.size();
 		}
@@ -117,6 +146,7 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 					SshException.BAD_API_USAGE);
 		}
 		
+		unshare();
 		order = newOrder;
 		
 		return order.get(0);
@@ -129,6 +159,7 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 					SshException.BAD_API_USAGE);
 		}
 
+		unshare();
 		// move indices specified in ordering to end of vector
 		for (int i = 0; i < ordering.length; i++) {
 			if (!(ordering[i] >= 0 && ordering[i] < order.size())) {
@@ -212,6 +243,7 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 					"Component factory is locked. Components cannot be added");
 		}
 
+		unshare();
 		for(var name : factory.getKeys()) {
 			supported.put(name, (ComponentInstanceFactory<? extends T>) factory);
 			// add name to end of order vector
@@ -247,7 +279,9 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 	 * @param cls
 	 * @return the newly instantiated object
 	 * @throws java.lang.Throwable
+	 * @deprecated components are created by their {@link ComponentInstanceFactory}, this is not called
 	 */
+	@Deprecated(since = "3.1.3", forRemoval = true)
 	protected T createInstance(String name, Class<? extends T> cls)
 			throws Throwable {
 		return cls.getConstructor().newInstance();
@@ -301,6 +335,7 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 	 */
 	public synchronized void remove(String name) {
 
+		unshare();
 		// remove name from order vector
 		order.remove(name);
 	}
@@ -315,17 +350,47 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 					"Component factory is locked. Removing all components renders it unusable");
 		}
 
+		unshare();
 		supported.clear();
 		// clear order vector
 		order.clear();
 	}
 
-	public Object clone() {
+	/**
+	 * Create a copy of this factory. The copy shares its components and ordering
+	 * with this factory until either is modified, so is cheap to create for every
+	 * context.
+	 */
+	public synchronized Object clone() {
 		var clone = new ComponentFactory<T>(componentManager);
-		clone.order = new ArrayList<>(order);
-		clone.supported = new HashMap<>(supported);
+		clone.order = order;
+		clone.supported = supported;
+		clone.shared = true;
+		shared = true;
 		return clone;
 	}
+	
+	private void unshare() {
+		if(shared) {
+			order = new ArrayList<>(order);
+			supported = new HashMap<>(supported);
+			shared = false;
+		}
+	}
+	
+	private ComponentInfo getComponentInfo(String name) throws SshException {
+		var factory = supported.get(name);
+		var info = componentInfo.get(factory);
+		if(Objects.isNull(info)) {
+			SecureComponent o = (SecureComponent) getInstance(name);
+			if(Objects.isNull(o)) {
+				return null;
+			}
+			info = new ComponentInfo(o);
+			componentInfo.put(factory, info);
+		}
+		return info;
+	}
 
 	public String[] toArray() {
 		return (String[]) order.toArray(new String[order.size()]);
@@ -351,13 +416,13 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 		this.locked = true;
 	}
 	
-	public void configureSecurityLevel(SecurityLevel securityLevel) throws SshException {
+	public synchronized void configureSecurityLevel(SecurityLevel securityLevel) throws SshException {
 		
-		List<SecureComponent> list = new ArrayList<>();
-		for (String name : supported.keySet()) {
-			SecureComponent o = (SecureComponent) getInstance(name);
+		List<ComponentInfo> list = new ArrayList<>();
+		for (String name : new ArrayList<>(supported.keySet())) {
+			ComponentInfo o = getComponentInfo(name);
 			if(Objects.nonNull(o)) {
-				if(o.getSecurityLevel().ordinal() < securityLevel.ordinal()) {
+				if(o.securityLevel.ordinal() < securityLevel.ordinal()) {
 					remove(name);
 				} else {
 					list.add(o);
@@ -365,17 +430,17 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 			}
 		}
 		
-		list.sort(new Comparator<SecureComponent>() {
+		list.sort(new Comparator<ComponentInfo>() {
 			@Override
-			public int compare(SecureComponent o1, SecureComponent o2) {
-				return Integer.valueOf(o2.getPriority()).compareTo(o1.getPriority());
+			public int compare(ComponentInfo o1, ComponentInfo o2) {
+				return Integer.valueOf(o2.priority).compareTo(o1.priority);
 			}
 		});
 		
 		Vector<String> newOrder = new Vector<String>();
 		
-		for(SecureComponent alg : list) {
-			newOrder.add(alg.getAlgorithm());
+		for(ComponentInfo alg : list) {
+			newOrder.add(alg.algorithm);
 		}
 		
 		if(newOrder.size() == 0) {
@@ -383,25 +448,23 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 					SshException.BAD_API_USAGE);
 		}
 		
+		unshare();
 		order = newOrder;
 	}
 	
-	public String selectStrongestComponent(String[] remoteAlgs) throws SshException {
+	public synchronized String selectStrongestComponent(String[] remoteAlgs) throws SshException {
 		
-		Map<String, SecureComponent> list = new HashMap<>();
-		for (String name : supported.keySet()) {
-			SecureComponent o = (SecureComponent) getInstance(name);
-			list.put(name, o);	
-		}
-		
-		SecureComponent strongest = null;
+		ComponentInfo strongest = null;
 		for(String remoteAlg : remoteAlgs) {
-			SecureComponent component = list.get(remoteAlg);
+			if(!supported.containsKey(remoteAlg)) {
+				continue;
+			}
+			ComponentInfo component = getComponentInfo(remoteAlg);
 			if(Objects.nonNull(component)) {
 				if(Objects.isNull(strongest)) {
 					strongest = component;
 				} else {
-					if(Integer.valueOf(component.getPriority()).compareTo(strongest.getPriority()) > 0) {
+					if(Integer.valueOf(component.priority).compareTo(strongest.priority) > 0) {
 						strongest = component;
 					}
 				}
@@ -413,16 +476,17 @@ public class ComponentFactory<T extends Component> implements Cloneable {
 		}
 		
 		if(Log.isInfoEnabled()) {
-			Log.info("Selecting strongest component {}", strongest.getAlgorithm());
+			Log.info("Selecting strongest component {}", strongest.algorithm);
 		}
-		return strongest.getAlgorithm();
+		return strongest.algorithm;
 	}
 	
 	public boolean hasComponents() {
 		return !supported.isEmpty();
 	}
 
-	public Collection<String> order() {
+	public synchronized Collection<String> order() {
+		unshare();
 		return order;
 	}
 
@@ -24,16 +24,21 @@ package com.sshtools.common.ssh.components;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.sshtools.common.logger.Log;
 
@@ -225,7 +230,8 @@ public class DiffieHellmanGroups {
 			16);
 
 	static List<BigInteger> safePrimes = new ArrayList<BigInteger>();
-	static List<DHGroup> customPrimes = new ArrayList<DHGroup>();
+	static NavigableMap<Integer, BigInteger> defaultPrimes = new TreeMap<>();
+	static volatile NavigableMap<Integer, DHGroup[]> customPrimes = Collections.emptyNavigableMap();
 	
 	static {
 		safePrimes.add(group1);
@@ -235,6 +241,9 @@ public class DiffieHellmanGroups {
 		safePrimes.add(group16);
 		safePrimes.add(group17);
 		safePrimes.add(group18);
+		for(BigInteger p : safePrimes) {
+			defaultPrimes.put(p.bitLength(), p);
+		}
 	}
 	
 	public static class DHGroup {
@@ -265,42 +274,118 @@ public class DiffieHellmanGroups {
 	
 	public static final int TYPE_SAFE = 2;
 	public static final int TESTS_COMPOSITE = 0x01;
+	public static final int TESTS_SIEVE = 0x02;
+	public static final int TESTS_MILLER_RABIN = 0x04;
 	
+	/**
+	 * Load groups from an OpenSSH format moduli file, see {@link #loadGroups(InputStream, boolean)}.
+	 * 
+	 * @param url location of moduli file
+	 * @throws IOException
+	 */
 	public static void loadGroups(URI url) throws IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(url.toURL().openStream()));
+		try(InputStream in = url.toURL().openStream()) {
+			loadGroups(in, false);
+		}
+	}
+	
+	/**
+	 * Load groups from an OpenSSH format moduli file (such as <code>/etc/ssh/moduli</code>)
+	 * for use by the server in <code>diffie-hellman-group-exchange</code> key exchange. Each
+	 * line is validated and lines that do not describe a tested safe prime with a
+	 * usable generator are skipped. The groups are indexed by size, so they should be
+	 * loaded once at startup rather than per connection. Groups are added to any
+	 * already loaded.
+	 * 
+	 * @param in moduli file
+	 * @param verifyPrimes also test the primality of each modulus and its Sophie Germain
+	 *        prime. Screened moduli files have already been tested, and this is slow
+	 *        for large primes.
+	 * @return number of groups loaded
+	 * @throws IOException
+	 */
+	public static int loadGroups(InputStream in, boolean verifyPrimes) throws IOException {
+		
+		List<DHGroup> groups = new ArrayList<DHGroup>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
 		String line;
+		int lineNumber = 0;
 		while((line = reader.readLine())!=null) {
+			lineNumber++;
 			line = line.trim();
-			if(line.startsWith("#")) {
+			if(line.length() == 0 || line.startsWith("#")) {
 				continue;
 			}
-			String[] parts = line.split("\\s+");
-			if(parts.length != 7) {
-				continue;
+			try {
+				DHGroup group = parseGroup(line, verifyPrimes);
+				if(group != null) {
+					groups.add(group);
+					continue;
+				}
+			} catch(NumberFormatException e) {
 			}
-			Integer t = Integer.parseInt(parts[1]);
-			if(t != 2) {
-				continue;
+			if(Log.isDebugEnabled()) {
+				Log.debug("Skipping unusable moduli entry on line {}", lineNumber);
 			}
-			t = Integer.parseInt(parts[2]);
-			if((t & TESTS_COMPOSITE) != 0 || (t & ~TESTS_COMPOSITE) == 0) {
-				continue;
+		}
+		
+		synchronized(DiffieHellmanGroups.class) {
+			Map<Integer, List<DHGroup>> bySize = new HashMap<>();
+			for(Map.Entry<Integer, DHGroup[]> e : customPrimes.entrySet()) {
+				bySize.put(e.getKey(), new ArrayList<>(Arrays.asList(e.getValue())));
 			}
-			if(Integer.parseInt(parts[3]) == 0) {
-				continue;
+			for(DHGroup group : groups) {
+				bySize.computeIfAbsent(group.getSize(), (k) -> new ArrayList<>()).add(group);
 			}
-			customPrimes.add(new DHGroup(Integer.parseInt(parts[4]) + 1,
-					new BigInteger(parts[5], 16),
-					new BigInteger(parts[6], 16)));
-			
+			NavigableMap<Integer, DHGroup[]> index = new TreeMap<>();
+			for(Map.Entry<Integer, List<DHGroup>> e : bySize.entrySet()) {
+				index.put(e.getKey(), e.getValue().toArray(new DHGroup[0]));
+			}
+			customPrimes = Collections.unmodifiableNavigableMap(index);
 		}
 		
-		Collections.<DHGroup>sort(customPrimes, new Comparator<DHGroup>() {
-			@Override
-			public int compare(DHGroup o1, DHGroup o2) {
-				return o1.size.compareTo(o2.getSize());
-			}
-		});
+		if(Log.isInfoEnabled()) {
+			Log.info("Loaded {} diffie hellman groups", groups.size());
+		}
+		return groups.size();
+	}
+	
+	private static DHGroup parseGroup(String line, boolean verifyPrimes) {
+		
+		String[] parts = line.split("\\s+");
+		if(parts.length != 7) {
+			return null;
+		}
+		if(Integer.parseInt(parts[1]) != TYPE_SAFE) {
+			return null;
+		}
+		int tests = Integer.parseInt(parts[2]);
+		if((tests & TESTS_COMPOSITE) != 0 || (tests & ~TESTS_COMPOSITE) == 0) {
+			return null;
+		}
+		if(Integer.parseInt(parts[3]) == 0) {
+			return null;
+		}
+		int size = Integer.parseInt(parts[4]) + 1;
+		BigInteger g = new BigInteger(parts[5], 16);
+		BigInteger p = new BigInteger(parts[6], 16);
+		if(p.bitLength() != size || !p.testBit(0)) {
+			return null;
+		}
+		if(g.compareTo(TWO) < 0 || g.compareTo(p.subtract(BigInteger.ONE)) >= 0) {
+			return null;
+		}
+		if(verifyPrimes && (!p.isProbablePrime(100) || !p.shiftRight(1).isProbablePrime(100))) {
+			return null;
+		}
+		return new DHGroup(size, g, p);
+	}
+	
+	/**
+	 * Discard all groups loaded from moduli files.
+	 */
+	public static synchronized void clearGroups() {
+		customPrimes = Collections.emptyNavigableMap();
 	}
 	
 	public static boolean verifyParameters(BigInteger shared, BigInteger p) {
@@ -314,7 +399,9 @@ public class DiffieHellmanGroups {
 	}
 		
 	/**
-	 * get the biggest safe prime from the list that is <= maximumSize
+	 * get the biggest safe prime from the list that is <= maximumSize. When
+	 * groups have been loaded from a moduli file, one of the largest loaded
+	 * groups within the size is chosen at random.
 	 * @param maximumSize
 	 * @return BigInteger
 	 */
@@ -324,32 +411,14 @@ public class DiffieHellmanGroups {
 			Log.debug("Looking for diffie hellman group with maximum size of " + maximumSize.intValue() + " bits");
 		}
 		
-		List<DHGroup> selectedGroups = new ArrayList<DHGroup>();
-		int largedSize = 0;
-		for(DHGroup group : customPrimes) {
-			if(group.getSize() > maximumSize.intValue()) {
-				break;
-			}
-			if(largedSize < group.getSize()) {
-				largedSize = group.getSize();
-				selectedGroups.clear();
-			}
-			selectedGroups.add(group);
+		Map.Entry<Integer, DHGroup[]> selectedGroups = customPrimes.floorEntry(maximumSize.intValue());
+		if(selectedGroups != null) {
+			DHGroup[] groups = selectedGroups.getValue();
+			return groups[ThreadLocalRandom.current().nextInt(groups.length)];
 		}
 		
-		if(!selectedGroups.isEmpty()) {
-			return selectedGroups.get(new Random().nextInt(selectedGroups.size()));
-		}
-		
-		BigInteger prime = group1;
-		for(Iterator<BigInteger> it = safePrimes.iterator(); it.hasNext(); ) {
-			BigInteger p = it.next();
-			int len = p.bitLength();
-			if(len > maximumSize.intValue()) {
-				break;
-			}
-			prime = p;
-		}
+		Map.Entry<Integer, BigInteger> selected = defaultPrimes.floorEntry(maximumSize.intValue());
+		BigInteger prime = selected == null ? group1 : selected.getValue();
 		
 		if(Log.isDebugEnabled()) {
 			Log.debug("Found diffie hellman group with " + prime.bitLength() + " bits");
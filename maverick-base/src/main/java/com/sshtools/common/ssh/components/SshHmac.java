@@ -45,11 +45,20 @@ public interface SshHmac extends SshComponent, SecureComponent {
     */
    public int getMacLength();
 
+   /**
+    * Generate the MAC of a packet, writing exactly {@link #getMacLength()} bytes
+    * to <code>output</code> at <code>start</code>.
+    */
    public void generate(long sequenceNo, byte[] data, int offset,
            int len, byte[] output, int start);
 
    public void init(byte[] keydata) throws SshException;
 
+   /**
+    * Verify the MAC of a packet against the {@link #getMacLength()} bytes found in
+    * <code>mac</code> at <code>offset</code>. Implementations should compare in
+    * constant time.
+    */
    public boolean verify(long sequenceNo, byte[] data, int start, int len,
            byte[] mac, int offset);
    
@@ -57,6 +66,14 @@ public interface SshHmac extends SshComponent, SecureComponent {
    
    public byte[] doFinal();
    
+   /**
+    * Complete the MAC, writing exactly {@link #getMacLength()} bytes to <code>output</code>
+    * at <code>offset</code>.
+    */
+   default void doFinal(byte[] output, int offset) {
+	   System.arraycopy(doFinal(), 0, output, offset, getMacLength());
+   }
+   
    public String getAlgorithm();
    
    boolean isETM();
@@ -30,7 +30,7 @@ import java.security.NoSuchAlgorithmException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -54,7 +54,7 @@ public class AES128Gcm extends AbstractJCECipher {
 		}
 	}
 
-	byte[] key;
+	SecretKeySpec kspec;
 	byte[] nonce;
 	int mode;
 	public AES128Gcm() throws IOException {
@@ -63,26 +63,22 @@ public class AES128Gcm extends AbstractJCECipher {
 
 	public void init(int mode, byte[] iv, byte[] keydata) throws java.io.IOException {
 
-		  this.mode = mode;
-	      try {
-	          // Create a byte key
-	          key = new byte[keylength];
-	          System.arraycopy(keydata, 0, key, 0, key.length);
+		this.mode = mode;
+		
+		// Create a byte key
+		byte[] key = new byte[keylength];
+		System.arraycopy(keydata, 0, key, 0, key.length);
+		kspec = new SecretKeySpec(key, keyspec);
 
-	          SecretKeySpec kspec = new SecretKeySpec(key, keyspec);
-
-	          nonce = new byte[12];
-	          System.arraycopy(iv, 0, nonce, 0, nonce.length);
-	          GCMParameterSpec spec = new GCMParameterSpec(128, nonce);
-	          cipher.init(((mode == ENCRYPT_MODE) ? Cipher.ENCRYPT_MODE
-                      : Cipher.DECRYPT_MODE), kspec, spec);
-	          
-	      } catch (InvalidKeyException ike) {
-	          throw new IOException("Invalid encryption key");
-	      } catch (InvalidAlgorithmParameterException ape) {
-	          throw new IOException("Invalid algorithm parameter");
-	      }
-	  }
+		nonce = new byte[12];
+		System.arraycopy(iv, 0, nonce, 0, nonce.length);
+		
+		/**
+		 * The cipher is initialised for each packet in transform because JCE does 
+		 * not allow a GCM cipher to be re-used for encryption without a new IV. The
+		 * same Cipher and key are used throughout, only the IV changes.
+		 */
+	}
 	
 	public void transform(byte[] buf, int start, byte[] output, int off, int len) throws java.io.IOException {
 		if(len > 0) {
@@ -95,26 +91,22 @@ public class AES128Gcm extends AbstractJCECipher {
 			}
 			
 			try {
-				cipher = createCipher(JCEAlgorithms.JCE_AESGCMNOPADDING);
-				
-				SecretKeySpec kspec = new SecretKeySpec(key, keyspec);
-				GCMParameterSpec spec = new GCMParameterSpec(128, nonce);
-		        cipher.init(((mode == ENCRYPT_MODE) ? Cipher.ENCRYPT_MODE
-	                    : Cipher.DECRYPT_MODE), kspec, spec);
+				cipher.init(((mode == ENCRYPT_MODE) ? Cipher.ENCRYPT_MODE
+	                    : Cipher.DECRYPT_MODE), kspec, new GCMParameterSpec(128, nonce));
 		          
 				cipher.updateAAD(buf, start, 4);
-				System.arraycopy(buf, start, output, off, 4);
+				if(buf != output || start != off) {
+					System.arraycopy(buf, start, output, off, 4);
+				}
 
-				byte[] tmp = cipher.doFinal(buf, start+4, len-4);
-				System.arraycopy(tmp, 0, output, off+4, tmp.length);
+				cipher.doFinal(buf, start+4, len-4, output, off+4);
 				
 				incrementIv();
 			} catch (IllegalBlockSizeException
 					| BadPaddingException
 					| InvalidKeyException
 					| InvalidAlgorithmParameterException
-					| NoSuchAlgorithmException
-					| NoSuchPaddingException e) {
+					| ShortBufferException e) {
 				throw new IOException(e.getMessage(), e);
 			}
 	    }
@@ -23,6 +23,7 @@ package com.sshtools.common.ssh.components.jce;
  */
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.sshtools.common.ssh.SecurityLevel;
@@ -45,6 +46,9 @@ public abstract class AbstractHmac implements SshHmac {
 	final private SecurityLevel securityLevel;
 	final int priority;
 	
+	private final byte[] sequenceBytes = new byte[4];
+	private byte[] scratch;
+	
 	public AbstractHmac(String jceAlgorithm, int macLength, SecurityLevel securityLevel, int priority) {
 		this(jceAlgorithm, macLength, macLength, securityLevel, priority);
 	}
@@ -68,18 +72,17 @@ public abstract class AbstractHmac implements SshHmac {
 	public void generate(long sequenceNo, byte[] data, int offset, int len,
 			byte[] output, int start) {
 		
-        byte[] sequenceBytes = new byte[4];
+        update(sequenceNo, data, offset, len);
+        doFinal(output, start);
+	}
+	
+	private void update(long sequenceNo, byte[] data, int offset, int len) {
         sequenceBytes[0] = (byte) (sequenceNo >> 24);
         sequenceBytes[1] = (byte) (sequenceNo >> 16);
         sequenceBytes[2] = (byte) (sequenceNo >> 8);
         sequenceBytes[3] = (byte) (sequenceNo >> 0);
         mac.update(sequenceBytes);
         mac.update(data, offset, len);
-
-        byte[] tmp = mac.doFinal();
-        
-        System.arraycopy(tmp, 0, output, start, macLength);
-
 	}
 	
 	public void update(byte[] b) {
@@ -89,6 +92,29 @@ public abstract class AbstractHmac implements SshHmac {
 	public byte[] doFinal() {
 		return mac.doFinal();
 	}
+	
+	public void doFinal(byte[] output, int offset) {
+		try {
+			if(macLength == mac.getMacLength() && output.length - offset >= macLength) {
+				mac.doFinal(output, offset);
+			} else {
+				/* Truncated MACs go through the scratch buffer so as not to
+				 * overwrite whatever follows them in the output */
+				byte[] tmp = getScratch();
+				mac.doFinal(tmp, 0);
+				System.arraycopy(tmp, 0, output, offset, macLength);
+			}
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+	
+	private byte[] getScratch() {
+		if(scratch == null || scratch.length < mac.getMacLength()) {
+			scratch = new byte[mac.getMacLength()];
+		}
+		return scratch;
+	}
 
 	public abstract String getAlgorithm();
 
@@ -129,16 +155,21 @@ public abstract class AbstractHmac implements SshHmac {
 	public boolean verify(long sequenceNo, byte[] data, int start, int len,
 			byte[] mac, int offset) {
         
-		int length = getMacLength();
-        byte[] generated = new byte[length];
-        
-        generate(sequenceNo, data, start, len, generated, 0);
+		update(sequenceNo, data, start, len);
+		
+		byte[] generated = getScratch();
+		try {
+			this.mac.doFinal(generated, 0);
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
         
-        for(int i=0;i<generated.length;i++) {
-        	if(mac[i+offset]!=generated[i])
-        		return false;
+		/* Compare every byte so the time taken does not reveal where a mismatch is */
+		int diff = 0;
+        for(int i=0;i<macLength;i++) {
+        	diff |= mac[i+offset] ^ generated[i];
         }
-        return true;
+        return diff == 0;
 	}
 
 }
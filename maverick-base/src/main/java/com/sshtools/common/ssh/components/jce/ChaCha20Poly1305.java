@@ -23,26 +23,55 @@ package com.sshtools.common.ssh.components.jce;
  */
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.ChaCha20ParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.bouncycastle.crypto.generators.Poly1305KeyGenerator;
 import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.crypto.params.ParametersWithIV;
 
+import com.sshtools.common.logger.Log;
 import com.sshtools.common.ssh.SecurityLevel;
 import com.sshtools.common.ssh.components.AbstractSshCipher;
 import com.sshtools.common.ssh.components.SshCipherFactory;
 import com.sshtools.common.ssh.components.jce.ChaCha20Poly1305.ChaCha20.WrongKeySizeException;
 import com.sshtools.common.ssh.components.jce.ChaCha20Poly1305.ChaCha20.WrongNonceSizeException;
-import com.sshtools.common.util.Arrays;
 import com.sshtools.common.util.ByteArrayReader;
 import com.sshtools.common.util.ByteArrayWriter;
 import com.sshtools.common.util.UnsignedInteger64;
 
+/**
+ * chacha20-poly1305@openssh.com. The ChaCha20 key stream is produced by the JDK's
+ * ChaCha20 cipher where the SunJCE provider offers it, otherwise by the pure Java
+ * implementation below. Both operate on state that is set up once per key, and the
+ * Poly1305 tag is computed once per packet over the ciphertext, without allocating
+ * intermediate key, tag or key stream buffers for each packet.
+ */
 public class ChaCha20Poly1305 extends AbstractSshCipher {
 	
 	private static final String CIPHER = "chacha20-poly1305@openssh.com";
+	
+	/**
+	 * Set this system property to <code>true</code> to always use the pure Java ChaCha20 implementation.
+	 */
+	public static final String DISABLE_JCE_CHACHA20 = "maverick.disableJCEChaCha20";
 
+	private static final int TAG_LENGTH = 16;
+	private static final byte[] ZERO_BLOCK = new byte[64];
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	
 	public static class ChaCha20Poly1305Factory implements SshCipherFactory<ChaCha20Poly1305> {
 
 		@Override
@@ -61,6 +90,15 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	int mode;
 	UnsignedInteger64 currentSequenceNo;
 	
+	private KeyStream lengthStream;
+	private KeyStream payloadStream;
+	
+	private final Poly1305 mac = new Poly1305();
+	private final byte[] nonce = new byte[8];
+	private final byte[] polyBlock = new byte[64];
+	private final byte[] tag = new byte[TAG_LENGTH];
+	private final byte[] lengthBuffer = new byte[4];
+	
 	public ChaCha20Poly1305()
 			throws IOException {
 		super(CIPHER, SecurityLevel.PARANOID, 4000);
@@ -73,6 +111,8 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
         System.arraycopy(keydata, 0, k2, 0, k2.length);
         System.arraycopy(keydata, 32, k1, 0, k1.length);
 
+        lengthStream = createKeyStream(k1);
+        payloadStream = createKeyStream(k2);
 	}
 	
 	@Override
@@ -87,7 +127,7 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	
 	@Override
 	public int getMacLength() {
-		return 16;
+		return TAG_LENGTH;
 	}
 	
 	@Override
@@ -98,122 +138,233 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	@Override
 	public void transform(byte[] src, int start, byte[] dest, int offset, int len) throws IOException {
 		
-		try {
-			if(mode==DECRYPT_MODE) {
-				doDecrypt(src, start, dest, offset, len);
-			} else {
-				doEncrypt(src, start, dest, offset, len);
-			}
-		} catch (WrongKeySizeException | WrongNonceSizeException e) {
-			throw new IOException(e.getMessage(), e);
+		if(mode==DECRYPT_MODE) {
+			doDecrypt(src, start, dest, offset, len);
+		} else {
+			doEncrypt(src, start, dest, offset, len);
 		}
 	}
 
-	private void doEncrypt(byte[] src, int start, byte[] dest, int offset, int len) throws WrongKeySizeException, WrongNonceSizeException, IllegalStateException, IOException {
-		
-		
-		int payloadLength = 4 + len - 16;
+	/**
+	 * Encrypt the payload at <code>start</code> and append the tag. The 4 bytes preceding
+	 * <code>start</code> must hold the encrypted packet length, which is authenticated along
+	 * with the ciphertext.
+	 */
+	private void doEncrypt(byte[] src, int start, byte[] dest, int offset, int len) throws IOException {
 		
-		transformPayload(src, start, dest, offset, payloadLength);
+		int payloadLength = len - TAG_LENGTH;
 		
-		byte[] polykey = generatePoly1305Key();
-		Poly1305 mac = new Poly1305();
-		mac.init(polykey);
-		mac.update(src, 0, payloadLength);
-	
-		byte[] expectedTag = generatePoly1305Tag(polykey, src, 0, payloadLength);
+		if(src != dest || start != offset) {
+			System.arraycopy(src, start - 4, dest, offset - 4, 4);
+		}
 		
-		System.arraycopy(expectedTag, 0, dest, payloadLength, expectedTag.length);
-
+		/* Block 0 of the key stream is the Poly1305 key, the payload starts at block 1 */
+		payloadStream.init(nonce, 0);
+		payloadStream.apply(ZERO_BLOCK, 0, polyBlock, 0, 64);
+		payloadStream.apply(src, start, dest, offset, payloadLength);
 		
+		mac.init(polyBlock, 0);
+		mac.update(dest, offset - 4, payloadLength + 4);
+		mac.doFinal(dest, offset + payloadLength);
 	}
 
-	private void doDecrypt(byte[] src, int start, byte[] dest, int offset, int len) throws WrongKeySizeException, WrongNonceSizeException, IllegalStateException, IOException {
+	private void doDecrypt(byte[] src, int start, byte[] dest, int offset, int len) throws IOException {
+		
+		int payloadLength = len - TAG_LENGTH;
 		
-		byte[] tag = new byte[16];
-		int payloadLength = 4 + len - 16;
-		System.arraycopy(src, payloadLength, tag, 0 ,16);
-			
-		byte[] polykey = generatePoly1305Key();
+		payloadStream.init(nonce, 0);
+		payloadStream.apply(ZERO_BLOCK, 0, polyBlock, 0, 64);
 		
-		byte[] expectedTag = generatePoly1305Tag(polykey, src, 0, payloadLength);
+		mac.init(polyBlock, 0);
+		mac.update(src, start - 4, payloadLength + 4);
+		mac.doFinal(tag, 0);
 
-		if(!Arrays.areEqual(tag, expectedTag)) {
+		int diff = 0;
+		for(int i = 0; i < TAG_LENGTH; i++) {
+			diff |= tag[i] ^ src[start + payloadLength + i];
+		}
+		if(diff != 0) {
 			throw new IOException("Corrupt authentication tag");
 		}
 		
-		transformPayload(src, start, dest, offset, len);
-		
+		payloadStream.apply(src, start, dest, offset, payloadLength);
 	}
 
-	private void transformPayload(byte[] src, int start, byte[] dst, int off, int len) throws WrongKeySizeException, WrongNonceSizeException {
-		
-		ChaCha20 cha = new ChaCha20(k2, currentSequenceNo.toByteArray(), 1);
-		cha.encrypt(dst, off, src, start, len);
-		
+	@Override
+	public String getProviderName() {
+		if(payloadStream != null) {
+			return payloadStream.getProviderName();
+		}
+		Provider provider = getJCEProvider();
+		return provider == null ? "JADAPTIVE" : provider.getName();
 	}
 
-	private byte[] generatePoly1305Key() throws WrongKeySizeException, WrongNonceSizeException {
-		
-		byte[] polykey = new byte[k2.length];
+	public long readPacketLength(byte[] encoded, UnsignedInteger64 sequenceNo) throws IOException {
 		
-		ChaCha20 cha = new ChaCha20(k2, currentSequenceNo.toByteArray(), 0);
-		cha.encrypt(polykey, 0, polykey, 0, polykey.length);
+		setSequenceNo(sequenceNo);
 		
-		return polykey;
+		lengthStream.init(nonce, 0);
+		lengthStream.apply(encoded, 0, lengthBuffer, 0, 4);
+		return ByteArrayReader.readInt(lengthBuffer, 0);
 	}
 	
-	private byte[] generatePoly1305Tag(byte[] polykey, byte[] src, int off, int len) throws IllegalStateException, IOException {
-		Poly1305 mac = new Poly1305();
-		mac.init(polykey);
-		mac.update(src, off, len);
+	public byte[] writePacketLength(int length, UnsignedInteger64 sequenceNo) throws IOException {
 		
-		byte[] expectedTag = new byte[16];
-		mac.doFinal(expectedTag, 0);
+		setSequenceNo(sequenceNo);
 		
-		return expectedTag;
+		byte[] tmp = new byte[4];
+		ByteArrayWriter.encodeInt(tmp, 0, length);
+		
+		lengthStream.init(nonce, 0);
+		lengthStream.apply(tmp, 0, tmp, 0, 4);
+		return tmp;
 	}
-
-	@Override
-	public String getProviderName() {
-		return "JADAPTIVE";
+	
+	private void setSequenceNo(UnsignedInteger64 sequenceNo) {
+		this.currentSequenceNo = sequenceNo;
+		long seq = sequenceNo.longValue();
+		for(int i = 7; i >= 0; i--) {
+			nonce[i] = (byte) seq;
+			seq >>>= 8;
+		}
 	}
-
-	public long readPacketLength(byte[] encoded, UnsignedInteger64 sequenceNo) throws IOException {
-		
+	
+	private static KeyStream createKeyStream(byte[] key) throws IOException {
+		Provider provider = getJCEProvider();
+		if(provider != null) {
+			try {
+				return new JCEKeyStream(Cipher.getInstance("ChaCha20", provider), key);
+			} catch (NoSuchAlgorithmException | NoSuchPaddingException | IOException e) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("JCE ChaCha20 is not usable, falling back to the Java implementation", e);
+				}
+			}
+		}
 		try {
-			
-			this.currentSequenceNo = sequenceNo;
-			
-			ChaCha20 cha = new ChaCha20(k1, sequenceNo.toByteArray(), 0);
-			byte[] tmp = new byte[4];
-			
-			cha.encrypt(tmp, 0, encoded, 0, 4);
-			return ByteArrayReader.readInt(tmp, 0);
-			
+			return new JavaKeyStream(new ChaCha20(key, new byte[ChaCha20.NONCE_SIZE_REF], 0));
 		} catch (WrongKeySizeException | WrongNonceSizeException e) {
-			throw new IllegalStateException(e.getMessage(), e);
+			throw new IOException(e.getMessage(), e);
 		}
-		
 	}
 	
-	public byte[] writePacketLength(int length, UnsignedInteger64 sequenceNo) throws IOException {
+	/**
+	 * Only the SunJCE provider is used, as other providers differ in which ChaCha20
+	 * variant they supply under this name.
+	 */
+	private static Provider getJCEProvider() {
+		if(Boolean.getBoolean(DISABLE_JCE_CHACHA20)) {
+			return null;
+		}
+		Provider provider = Security.getProvider("SunJCE");
+		if(provider == null || provider.getService("Cipher", "ChaCha20") == null) {
+			return null;
+		}
+		return provider;
+	}
+	
+	/**
+	 * A ChaCha20 key stream bound to a single key, using the original 64-bit
+	 * nonce and 64-bit block counter as OpenSSH does.
+	 */
+	interface KeyStream {
+		void init(byte[] nonce, int counter) throws IOException;
+		void apply(byte[] src, int srcOff, byte[] dst, int dstOff, int len) throws IOException;
+		String getProviderName();
+	}
+	
+	/**
+	 * The JDK implements the IETF variant with a 96-bit nonce and 32-bit counter.
+	 * A packet never exceeds 2^32 blocks so the high word of the original counter is
+	 * always zero, and placing four zero bytes ahead of the 64-bit nonce gives an
+	 * identical key stream.
+	 */
+	static class JCEKeyStream implements KeyStream {
 		
-		try {
-			
-			this.currentSequenceNo = sequenceNo;
-			
-			ChaCha20 cha = new ChaCha20(k1, sequenceNo.toByteArray(), 0);
-			byte[] tmp = new byte[4];
-			
-			cha.encrypt(tmp, 0, ByteArrayWriter.encodeInt(length), 0, 4);
-
-			return tmp;
-			
-		} catch(WrongKeySizeException | WrongNonceSizeException e) {
-			throw new IllegalStateException(e.getMessage(), e);
+		final Cipher cipher;
+		final SecretKeySpec key;
+		final byte[] iv = new byte[ChaCha20.NONCE_SIZE_IETF];
+		
+		JCEKeyStream(Cipher cipher, byte[] key) throws IOException {
+			this.cipher = cipher;
+			this.key = new SecretKeySpec(key, "ChaCha20");
+			/* Fail early, and fall back, if the provider will not accept the key. The
+			 * nonce used here can never occur on the wire as its first word is not zero */
+			iv[0] = 1;
+			init(0);
+		}
+
+		@Override
+		public void init(byte[] nonce, int counter) throws IOException {
+			/* The provider refuses to initialise with the same key and nonce as its
+			 * previous initialisation, regardless of the counter or mode. Each stream
+			 * is initialised once per sequence number, so this only matters should the
+			 * same sequence number be seen twice in a row */
+			if(matches(nonce)) {
+				iv[0] = 1;
+				init(0);
+			}
+			iv[0] = 0;
+			System.arraycopy(nonce, 0, iv, 4, 8);
+			init(counter);
 		}
 		
+		private boolean matches(byte[] nonce) {
+			if(iv[0] != 0) {
+				return false;
+			}
+			for(int i = 0; i < 8; i++) {
+				if(iv[i + 4] != nonce[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private void init(int counter) throws IOException {
+			try {
+				cipher.init(Cipher.DECRYPT_MODE, key, new ChaCha20ParameterSpec(iv, counter));
+			} catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void apply(byte[] src, int srcOff, byte[] dst, int dstOff, int len) throws IOException {
+			try {
+				cipher.update(src, srcOff, len, dst, dstOff);
+			} catch (ShortBufferException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public String getProviderName() {
+			return cipher.getProvider().getName();
+		}
+	}
+	
+	static class JavaKeyStream implements KeyStream {
+		
+		final ChaCha20 cha;
+		
+		JavaKeyStream(ChaCha20 cha) {
+			this.cha = cha;
+		}
+
+		@Override
+		public void init(byte[] nonce, int counter) {
+			cha.reset(nonce, counter);
+		}
+
+		@Override
+		public void apply(byte[] src, int srcOff, byte[] dst, int dstOff, int len) {
+			cha.encrypt(dst, dstOff, src, srcOff, len);
+		}
+
+		@Override
+		public String getProviderName() {
+			return "JADAPTIVE";
+		}
 	}
 	
     protected static int littleEndianToInt(byte[] bs, int i) {
@@ -255,24 +406,10 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	     */
 	    public static final int NONCE_SIZE_IETF = 12;
 
-	    private int[] matrix = new int[16];
+	    private final int[] matrix = new int[16];
+	    private final int[] keyStream = new int[16];
 
 	    
-	    protected int ROTATE(int v, int c) {
-	        return (v << c) | (v >>> (32 - c));
-	    }
-	    
-	    protected void quarterRound(int[] x, int a, int b, int c, int d) {
-	        x[a] += x[b];
-	        x[d] = ROTATE(x[d] ^ x[a], 16);
-	        x[c] += x[d];
-	        x[b] = ROTATE(x[b] ^ x[c], 12);
-	        x[a] += x[b];
-	        x[d] = ROTATE(x[d] ^ x[a], 8);
-	        x[c] += x[d];
-	        x[b] = ROTATE(x[b] ^ x[c], 7);
-	    }
-	    
 	    public class WrongNonceSizeException extends Exception {
 	        private static final long serialVersionUID = 2687731889587117531L;
 	    }
@@ -288,6 +425,9 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	        if (key.length != KEY_SIZE) {
 	            throw new WrongKeySizeException();
 	        }
+	        if (nonce.length != NONCE_SIZE_REF && nonce.length != NONCE_SIZE_IETF) {
+	            throw new WrongNonceSizeException();
+	        }
 	        
 	        this.matrix[ 0] = 0x61707865;
 	        this.matrix[ 1] = 0x3320646e;
@@ -302,6 +442,17 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	        this.matrix[10] = littleEndianToInt(key, 24);
 	        this.matrix[11] = littleEndianToInt(key, 28);
 	        
+	        reset(nonce, counter);
+	    }
+	    
+	    /**
+	     * Set a new nonce and block counter, keeping the key. This allows a single instance
+	     * to be used for every packet encrypted with the same key.
+	     * 
+	     * @param nonce 8 byte (reference) or 12 byte (IETF) nonce
+	     * @param counter initial block counter
+	     */
+	    public void reset(byte[] nonce, int counter) {
 	        if (nonce.length == NONCE_SIZE_REF) {        // reference implementation
 	            this.matrix[12] = counter;
 	            this.matrix[13] = 0;
@@ -314,49 +465,108 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	            this.matrix[14] = littleEndianToInt(nonce, 4);
 	            this.matrix[15] = littleEndianToInt(nonce, 8);
 	        } else {
-	            throw new WrongNonceSizeException();
+	            throw new IllegalArgumentException("Nonce must be 8 or 12 bytes");
 	        }
 	    }
 	    
+	    /**
+	     * XOR <code>len</code> bytes of <code>src</code> with the key stream into <code>dst</code>.
+	     * The key stream continues from the next whole block on the following call.
+	     */
 	    public void encrypt(byte[] dst, int doff, byte[] src, int soff, int len) {
-	        int[] x = new int[16];
-	        byte[] output = new byte[64];
-	        int i, dpos = 0, spos = 0;
-
-	        while (len > 0) {
-	            for (i = 16; i-- > 0; ) x[i] = this.matrix[i];
-	            for (i = 20; i > 0; i -= 2) {
-	                quarterRound(x, 0, 4,  8, 12);
-	                quarterRound(x, 1, 5,  9, 13);
-	                quarterRound(x, 2, 6, 10, 14);
-	                quarterRound(x, 3, 7, 11, 15);
-	                quarterRound(x, 0, 5, 10, 15);
-	                quarterRound(x, 1, 6, 11, 12);
-	                quarterRound(x, 2, 7,  8, 13);
-	                quarterRound(x, 3, 4,  9, 14);
-	            }
-	            for (i = 16; i-- > 0; ) x[i] += this.matrix[i];
-	            for (i = 16; i-- > 0; ) intToLittleEndian(x[i], output, 4 * i);
-
-	            // TODO: (1) check block count is 32-bit vs 64-bit; (2) java int is signed!
-	            this.matrix[12] += 1;
-	            if (this.matrix[12] <= 0) {
-	                this.matrix[13] += 1;
-	            }
-	            if (len <= 64) {
-	                for (i = len; i-- > 0; ) {
-	                    dst[doff + i + dpos] = (byte) (src[soff + i + spos] ^ output[i]);
-	                }
-	                break;
-	            }
-	            for (i = 64; i-- > 0; ) {
-	                dst[doff + i + dpos] = (byte) (src[soff + i + spos] ^ output[i]);
+	        
+	        final int[] k = keyStream;
+	        while (len >= 64) {
+	            nextBlock();
+	            for (int i = 0; i < 16; i++) {
+	                INT_LE.set(dst, doff + 4 * i, (int) INT_LE.get(src, soff + 4 * i) ^ k[i]);
 	            }
 	            len -= 64;
-	            spos += 64;
-	            dpos += 64;
+	            soff += 64;
+	            doff += 64;
+	        }
+	        if (len > 0) {
+	            nextBlock();
+	            for (int i = 0; i < len; i++) {
+	                dst[doff + i] = (byte) (src[soff + i] ^ (k[i >> 2] >>> ((i & 3) << 3)));
+	            }
+	        }
+	    }
+	    
+	    private void nextBlock() {
+	        
+	        final int[] m = this.matrix;
+	        int x0 = m[0], x1 = m[1], x2 = m[2], x3 = m[3];
+	        int x4 = m[4], x5 = m[5], x6 = m[6], x7 = m[7];
+	        int x8 = m[8], x9 = m[9], x10 = m[10], x11 = m[11];
+	        int x12 = m[12], x13 = m[13], x14 = m[14], x15 = m[15];
+
+	        for (int i = 20; i > 0; i -= 2) {
+	            // Column rounds
+	            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+	            x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+	            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+	            x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+	            
+	            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+	            x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+	            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+	            x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+	            
+	            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+	            x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+	            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+	            x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+	            
+	            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+	            x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+	            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+	            x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+	            
+	            // Diagonal rounds
+	            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+	            x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+	            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+	            x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+	            
+	            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+	            x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+	            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+	            x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+	            
+	            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+	            x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+	            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+	            x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+	            
+	            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+	            x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+	            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+	            x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+	        }
+
+	        final int[] k = keyStream;
+	        k[0] = x0 + m[0];
+	        k[1] = x1 + m[1];
+	        k[2] = x2 + m[2];
+	        k[3] = x3 + m[3];
+	        k[4] = x4 + m[4];
+	        k[5] = x5 + m[5];
+	        k[6] = x6 + m[6];
+	        k[7] = x7 + m[7];
+	        k[8] = x8 + m[8];
+	        k[9] = x9 + m[9];
+	        k[10] = x10 + m[10];
+	        k[11] = x11 + m[11];
+	        k[12] = x12 + m[12];
+	        k[13] = x13 + m[13];
+	        k[14] = x14 + m[14];
+	        k[15] = x15 + m[15];
+
+	        // 64-bit block counter in words 12 and 13 (reference nonce)
+	        if (++m[12] == 0) {
+	            m[13] += 1;
 	        }
-	
 	    }
 	 }
 	
@@ -421,22 +631,34 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	    public void init(byte[] key)
 	        throws IllegalArgumentException
 	    {
-	        setKey(key);
-	        reset();
+	        if (key.length != 32)
+	        {
+	            throw new IllegalArgumentException("Poly1305 key must be 256 bits.");
+	        }
+	        init(key, 0);
 	    }
 
-	    private void setKey(final byte[] key)
+	    /**
+	     * Initialises the Poly1305 MAC with the 256 bit key found at <code>off</code>.
+	     */
+	    public void init(byte[] key, int off)
+	        throws IllegalArgumentException
 	    {
-	        if (key.length != 32)
+	        if (off < 0 || key.length - off < 32)
 	        {
 	            throw new IllegalArgumentException("Poly1305 key must be 256 bits.");
 	        }
+	        setKey(key, off);
+	        reset();
+	    }
 
+	    private void setKey(final byte[] key, final int off)
+	    {
 	        // Extract r portion of key (and "clamp" the values)
-	        int t0 = littleEndianToInt(key, 0);
-	        int t1 = littleEndianToInt(key, 4);
-	        int t2 = littleEndianToInt(key, 8);
-	        int t3 = littleEndianToInt(key, 12);
+	        int t0 = littleEndianToInt(key, off + 0);
+	        int t1 = littleEndianToInt(key, off + 4);
+	        int t2 = littleEndianToInt(key, off + 8);
+	        int t3 = littleEndianToInt(key, off + 12);
 
 	        // NOTE: The masks perform the key "clamping" implicitly
 	        r0 =   t0                       & 0x03FFFFFF;
@@ -455,7 +677,7 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	        final int kOff;
 
             kBytes = key;
-            kOff = BLOCK_SIZE;
+            kOff = off + BLOCK_SIZE;
 
 	        k0 = littleEndianToInt(kBytes, kOff + 0);
 	        k1 = littleEndianToInt(kBytes, kOff + 4);
@@ -485,37 +707,43 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	        IllegalStateException
 	    {
 	        int copied = 0;
-	        while (len > copied)
+	        
+	        // Complete any partially buffered block first
+	        if (currentBlockOffset > 0)
 	        {
-	            if (currentBlockOffset == BLOCK_SIZE)
+	            int toCopy = Math.min(len, BLOCK_SIZE - currentBlockOffset);
+	            System.arraycopy(in, inOff, currentBlock, currentBlockOffset, toCopy);
+	            copied += toCopy;
+	            currentBlockOffset += toCopy;
+	            if (currentBlockOffset == BLOCK_SIZE && len > copied)
 	            {
-	                processBlock();
+	                processBlock(currentBlock, 0, true);
 	                currentBlockOffset = 0;
 	            }
-
-	            int toCopy = Math.min((len - copied), BLOCK_SIZE - currentBlockOffset);
-	            System.arraycopy(in, copied + inOff, currentBlock, currentBlockOffset, toCopy);
-	            copied += toCopy;
-	            currentBlockOffset += toCopy;
 	        }
-
-	    }
-
-	    private void processBlock()
-	    {
-	        if (currentBlockOffset < BLOCK_SIZE)
+	        
+	        // Process whole blocks directly from the input, always keeping the last
+	        // block buffered so that doFinal knows whether it was complete
+	        while (len - copied > BLOCK_SIZE)
 	        {
-	            currentBlock[currentBlockOffset] = 1;
-	            for (int i = currentBlockOffset + 1; i < BLOCK_SIZE; i++)
-	            {
-	                currentBlock[i] = 0;
-	            }
+	            processBlock(in, inOff + copied, true);
+	            copied += BLOCK_SIZE;
 	        }
+	        
+	        if (len > copied)
+	        {
+	            int toCopy = len - copied;
+	            System.arraycopy(in, inOff + copied, currentBlock, 0, toCopy);
+	            currentBlockOffset = toCopy;
+	        }
+	    }
 
-	        final long t0 = 0xffffffffL & littleEndianToInt(currentBlock, 0);
-	        final long t1 = 0xffffffffL & littleEndianToInt(currentBlock, 4);
-	        final long t2 = 0xffffffffL & littleEndianToInt(currentBlock, 8);
-	        final long t3 = 0xffffffffL & littleEndianToInt(currentBlock, 12);
+	    private void processBlock(final byte[] block, final int off, final boolean full)
+	    {
+	        final long t0 = 0xffffffffL & (int) INT_LE.get(block, off + 0);
+	        final long t1 = 0xffffffffL & (int) INT_LE.get(block, off + 4);
+	        final long t2 = 0xffffffffL & (int) INT_LE.get(block, off + 8);
+	        final long t3 = 0xffffffffL & (int) INT_LE.get(block, off + 12);
 
 	        h0 += t0 & 0x3ffffff;
 	        h1 += (((t1 << 32) | t0) >>> 26) & 0x3ffffff;
@@ -523,7 +751,7 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	        h3 += (((t3 << 32) | t2) >>> 14) & 0x3ffffff;
 	        h4 += (t3 >>> 8);
 
-	        if (currentBlockOffset == BLOCK_SIZE)
+	        if (full)
 	        {
 	            h4 += (1 << 24);
 	        }
@@ -555,7 +783,16 @@ public class ChaCha20Poly1305 extends AbstractSshCipher {
 	        if (currentBlockOffset > 0)
 	        {
 	            // Process padded final block
-	            processBlock();
+	            boolean full = currentBlockOffset == BLOCK_SIZE;
+	            if (!full)
+	            {
+	                currentBlock[currentBlockOffset] = 1;
+	                for (int i = currentBlockOffset + 1; i < BLOCK_SIZE; i++)
+	                {
+	                    currentBlock[i] = 0;
+	                }
+	            }
+	            processBlock(currentBlock, 0, full);
 	        }
 
 	        h1 += (h0 >>> 26); h0 &= 0x3ffffff;
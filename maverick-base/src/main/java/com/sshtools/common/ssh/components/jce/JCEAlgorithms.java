@@ -113,6 +113,10 @@ public interface JCEAlgorithms {
 	
 	/** Elliptic Curve Diffie Hellmam **/
 	public static final String JCE_ECDH = "ECDH";
+	
+	/** Montgomery curve Diffie Hellman **/
+	public static final String JCE_X25519 = "X25519";
+	public static final String JCE_X448 = "X448";
 	public static final String JCE_RSA_CIPHER = "RSA_Cipher";
 	public static final String EdDSA = "EdDSA";
 	public static final String ED25519 = "Ed25519";
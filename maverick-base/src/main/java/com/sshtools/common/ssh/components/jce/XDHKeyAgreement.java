@@ -0,0 +1,255 @@
+package com.sshtools.common.ssh.components.jce;
+
+/*-
+ * #%L
+ * Base API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPublicKeySpec;
+
+import javax.crypto.KeyAgreement;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * An ephemeral X25519 or X448 (RFC 7748) key pair and the agreement of a shared
+ * secret with a peer, as used by the curve25519-sha256 and curve448-sha512 key
+ * exchanges. Keys are exchanged in their raw little-endian encoding.
+ * <p>
+ * X25519 uses the bundled pure Java {@link Curve25519} implementation, which is
+ * faster than the JDK's XDH provider. Set the system property {@link #ENABLE_JCE_XDH}
+ * to <code>true</code> to use the JCE instead where it supports the curve, for example
+ * to use a FIPS provider. X448 is only available from the JCE, so it requires
+ * provider support.
+ */
+public abstract class XDHKeyAgreement {
+
+	/**
+	 * Set this system property to <code>true</code> to use the JCE for X25519 rather than the pure Java implementation.
+	 */
+	public static final String ENABLE_JCE_XDH = "maverick.enableJCEXDH";
+	
+	public static final String X25519 = JCEAlgorithms.JCE_X25519;
+	public static final String X448 = JCEAlgorithms.JCE_X448;
+	
+	final String curve;
+	final int keyLength;
+	
+	XDHKeyAgreement(String curve) {
+		this.curve = curve;
+		this.keyLength = X448.equals(curve) ? 56 : 32;
+	}
+	
+	/**
+	 * Generate a new ephemeral key pair on the given curve.
+	 * 
+	 * @param curve {@link #X25519} or {@link #X448}
+	 * @return key agreement
+	 * @throws NoSuchAlgorithmException if the curve is not supported
+	 */
+	public static XDHKeyAgreement generate(String curve) throws NoSuchAlgorithmException {
+		
+		if(!X25519.equals(curve) && !X448.equals(curve)) {
+			throw new NoSuchAlgorithmException(curve + " is not a supported XDH curve");
+		}
+		
+		if(X448.equals(curve)) {
+			try {
+				return new JCEXDHKeyAgreement(curve);
+			} catch (GeneralSecurityException e) {
+				throw new NoSuchAlgorithmException(curve + " is not supported by the installed providers", e);
+			}
+		}
+		
+		if(Boolean.getBoolean(ENABLE_JCE_XDH)) {
+			try {
+				return new JCEXDHKeyAgreement(curve);
+			} catch (GeneralSecurityException e) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("JCE {} is not usable, falling back to the Java implementation", curve);
+				}
+			}
+		}
+		return new Curve25519KeyAgreement();
+	}
+	
+	/**
+	 * The curve name.
+	 * 
+	 * @return curve
+	 */
+	public String getCurve() {
+		return curve;
+	}
+	
+	/**
+	 * The length in bytes of encoded public keys and the shared secret.
+	 * 
+	 * @return key length
+	 */
+	public int getKeyLength() {
+		return keyLength;
+	}
+	
+	/**
+	 * The raw encoding of our public key, to send to the peer.
+	 * 
+	 * @return public key
+	 */
+	public abstract byte[] getPublicKey();
+	
+	/**
+	 * Calculate the shared secret from the peer's raw public key. 
+	 * 
+	 * @param remotePublicKey peer public key
+	 * @return raw shared secret
+	 * @throws InvalidKeyException if the public key is malformed or the result is all zero
+	 */
+	public abstract byte[] generateSecret(byte[] remotePublicKey) throws InvalidKeyException;
+	
+	/**
+	 * The name of the provider performing the agreement.
+	 * 
+	 * @return provider
+	 */
+	public abstract String getProvider();
+	
+	void checkPublicKey(byte[] remotePublicKey) throws InvalidKeyException {
+		if(remotePublicKey == null || remotePublicKey.length != keyLength) {
+			throw new InvalidKeyException("Invalid " + curve + " public key length");
+		}
+	}
+	
+	static void checkSecret(byte[] secret) throws InvalidKeyException {
+		int bits = 0;
+		for(byte b : secret) {
+			bits |= b;
+		}
+		if(bits == 0) {
+			throw new InvalidKeyException("Shared secret is all zero");
+		}
+	}
+	
+	static class JCEXDHKeyAgreement extends XDHKeyAgreement {
+		
+		final KeyPair pair;
+		final KeyAgreement agreement;
+		final KeyFactory factory;
+		final NamedParameterSpec params;
+		
+		JCEXDHKeyAgreement(String curve) throws GeneralSecurityException {
+			super(curve);
+			params = new NamedParameterSpec(curve);
+			KeyPairGenerator generator = KeyPairGenerator.getInstance(curve);
+			generator.initialize(params, JCEComponentManager.getSecureRandom());
+			pair = generator.generateKeyPair();
+			factory = KeyFactory.getInstance(curve);
+			agreement = KeyAgreement.getInstance(curve);
+			agreement.init(pair.getPrivate());
+		}
+
+		@Override
+		public byte[] getPublicKey() {
+			return toLittleEndian(((XECPublicKey)pair.getPublic()).getU(), keyLength);
+		}
+
+		@Override
+		public byte[] generateSecret(byte[] remotePublicKey) throws InvalidKeyException {
+			checkPublicKey(remotePublicKey);
+			byte[] u = remotePublicKey.clone();
+			if(X25519.equals(curve)) {
+				/* RFC 7748 section 5, the unused most significant bit is ignored */
+				u[u.length - 1] &= 0x7F;
+			}
+			try {
+				agreement.doPhase(factory.generatePublic(new XECPublicKeySpec(params, fromLittleEndian(u))), true);
+				byte[] secret = agreement.generateSecret();
+				checkSecret(secret);
+				return secret;
+			} catch(InvalidKeyException e) {
+				throw e;
+			} catch(GeneralSecurityException | IllegalStateException e) {
+				throw new InvalidKeyException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public String getProvider() {
+			return agreement.getProvider().getName();
+		}
+	}
+	
+	static class Curve25519KeyAgreement extends XDHKeyAgreement {
+		
+		final byte[] privateKey = new byte[Curve25519.KEY_SIZE];
+		final byte[] publicKey = new byte[Curve25519.KEY_SIZE];
+		
+		Curve25519KeyAgreement() {
+			super(X25519);
+			JCEComponentManager.getSecureRandom().nextBytes(privateKey);
+			Curve25519.keygen(publicKey, null, privateKey);
+		}
+
+		@Override
+		public byte[] getPublicKey() {
+			return publicKey.clone();
+		}
+
+		@Override
+		public byte[] generateSecret(byte[] remotePublicKey) throws InvalidKeyException {
+			checkPublicKey(remotePublicKey);
+			byte[] secret = new byte[Curve25519.KEY_SIZE];
+			Curve25519.curve(secret, privateKey, remotePublicKey);
+			checkSecret(secret);
+			return secret;
+		}
+
+		@Override
+		public String getProvider() {
+			return "JADAPTIVE";
+		}
+	}
+	
+	static byte[] toLittleEndian(BigInteger value, int length) {
+		byte[] be = value.toByteArray();
+		byte[] le = new byte[length];
+		for(int i = 0; i < length && i < be.length; i++) {
+			le[i] = be[be.length - 1 - i];
+		}
+		return le;
+	}
+	
+	static BigInteger fromLittleEndian(byte[] le) {
+		byte[] be = new byte[le.length];
+		for(int i = 0; i < le.length; i++) {
+			be[i] = le[le.length - 1 - i];
+		}
+		return new BigInteger(1, be);
+	}
+}
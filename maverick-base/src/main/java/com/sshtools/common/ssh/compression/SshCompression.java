@@ -23,6 +23,7 @@ package com.sshtools.common.ssh.compression;
  */
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import com.sshtools.common.ssh.components.SshComponent;
 
@@ -80,6 +81,45 @@ public interface SshCompression extends SshComponent {
 	 */
 	public byte[] uncompress(byte[] data, int start, int len) throws IOException;
 
+	/**
+	 * Compress a block of data directly into a buffer, starting at its current position.
+	 * The default implementation copies the result of {@link #compress(byte[], int, int)}.
+	 * 
+	 * @param data  the data to compress
+	 * @param start the offset of the data to compress
+	 * @param len   the length of the data
+	 * @param out   the buffer to write the compressed data to
+	 * @return the number of bytes written to the buffer
+	 * @throws IOException if the compressed data does not fit into the buffer
+	 */
+	default int compress(byte[] data, int start, int len, ByteBuffer out) throws IOException {
+		byte[] compressed = compress(data, start, len);
+		if(compressed.length > out.remaining()) {
+			throw new IOException("Compressed data does not fit into the buffer");
+		}
+		out.put(compressed);
+		return compressed.length;
+	}
+
+	/**
+	 * Is the compression delayed until the user has been authenticated, as with 
+	 * <code>zlib@openssh.com</code>?
+	 * 
+	 * @return boolean
+	 */
+	default boolean isDelayed() {
+		return false;
+	}
+
+	/**
+	 * Store, rather than compress, data that does not compress well. Implementations
+	 * that cannot tell ignore this, which is the default.
+	 * 
+	 * @param adaptive adaptive
+	 */
+	default void setAdaptive(boolean adaptive) {
+	}
+
 	/**
 	 * Get the algorithm name for this compression implementation.
 	 * 
@@ -47,4 +47,12 @@ public class OpenSSHZLibCompression extends ZLibCompression {
 	public String getAlgorithm() {
 		return ALGORITHM;
 	}
+
+	/**
+	 * Compression only starts once the user has been authenticated.
+	 */
+	@Override
+	public boolean isDelayed() {
+		return true;
+	}
 }
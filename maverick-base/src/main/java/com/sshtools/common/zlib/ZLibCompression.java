@@ -21,10 +21,13 @@ package com.sshtools.common.zlib;
  * <http://www.gnu.org/licenses/lgpl-3.0.html>.
  * #L%
  */
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -32,6 +35,15 @@ import java.util.zip.Inflater;
 import com.sshtools.common.ssh.compression.SshCompressionFactory;
 import com.sshtools.common.ssh.compression.SshCompression;
 
+/**
+ * <code>zlib</code> compression of packet payloads. Payloads are deflated directly into the 
+ * buffer given and inflated into a buffer that is reused for every packet.
+ * <p>
+ * In adaptive mode, the ratio achieved for each channel's data is sampled and a channel 
+ * whose data does not compress, such as an upload of an archive, has its data stored rather than 
+ * compressed for a while before it is sampled again. Stored blocks are part of the same 
+ * zlib stream, so the remote side inflates the data as normal.
+ */
 public class ZLibCompression implements SshCompression {
 	
 	private static final String ALGORITHM = "zlib";
@@ -49,9 +61,65 @@ public class ZLibCompression implements SshCompression {
 		}
 	}
 
+	static final int SSH_MSG_CHANNEL_DATA = 94;
+	static final int SSH_MSG_CHANNEL_EXTENDED_DATA = 95;
+	
+	/**
+	 * Payloads smaller than this are always compressed
+	 */
+	static final int ADAPTIVE_MIN_PAYLOAD = 512;
+	
+	/**
+	 * Number of bytes of a channel's data compressed before the ratio is checked
+	 */
+	static final int ADAPTIVE_SAMPLE_SIZE = 256 * 1024;
+	
+	/**
+	 * Number of bytes of a channel's data stored before it is sampled again
+	 */
+	static final int ADAPTIVE_STORE_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * Compressed data larger than this proportion of the original is not worth the time
+	 */
+	static final double ADAPTIVE_MAX_RATIO = 0.9;
+	
+	static final int ADAPTIVE_MAX_CHANNELS = 256;
+
+	static private final int BUF_SIZE = 65535;
+	static private final int MAX_UNCOMPRESSED_SIZE = 1024 * 1024;
+	static private final byte[] EMPTY = new byte[0];
+
+	class Sample {
+		long in;
+		long out;
+		long store;
+		
+		void add(int in, int out) {
+			this.in += in;
+			this.out += out;
+			if(this.in >= ADAPTIVE_SAMPLE_SIZE) {
+				if(this.out > this.in * ADAPTIVE_MAX_RATIO) {
+					store = ADAPTIVE_STORE_SIZE;
+				}
+				this.in = 0;
+				this.out = 0;
+			}
+		}
+	}
+	
 	private Inflater inflater;
 	private Deflater deflater;
+	private int level;
+	private int currentLevel;
+	private boolean adaptive;
+	private Map<Integer,Sample> samples = new HashMap<>();
 
+	private volatile long uncompressedBytes;
+	private volatile long compressedBytes;
+	private volatile long storedBytes;
+	private volatile long processingTime;
+	
 	public ZLibCompression() {
 	}
 
@@ -59,45 +127,176 @@ public class ZLibCompression implements SshCompression {
 		return ALGORITHM;
 	}
 
-	static private final int BUF_SIZE = 65535;
-
-	private ByteBuffer compressOut = ByteBuffer.allocate(BUF_SIZE);
-	private ByteBuffer uncompressOut = ByteBuffer.allocate(BUF_SIZE);
+	private ByteBuffer compressOut;
+	private byte[] uncompressOut = new byte[BUF_SIZE];
 
 	public void init(int type, int level) {
 		if (type == SshCompression.DEFLATER) {
 			deflater = new Deflater(level);
+			this.level = level;
+			this.currentLevel = level;
 		} else if (type == SshCompression.INFLATER) {
 			inflater = new Inflater();
 		}
 	}
 
+	/**
+	 * Sample the compression ratio of each channel's data and store, rather than compress,
+	 * the data of channels that do not compress well.
+	 * 
+	 * @param adaptive
+	 */
+	@Override
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+	
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+	
+	/**
+	 * Get the number of bytes given to be compressed, or produced by uncompressing.
+	 * 
+	 * @return bytes
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+	
+	/**
+	 * Get the number of bytes produced by compressing, or given to be uncompressed.
+	 * 
+	 * @return bytes
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+	
+	/**
+	 * Get the size of the compressed data as a proportion of the uncompressed data. 
+	 * 
+	 * @return ratio, 1 when nothing has been compressed
+	 */
+	public double getCompressionRatio() {
+		long uncompressed = uncompressedBytes;
+		return uncompressed == 0 ? 1 : (double) compressedBytes / uncompressed;
+	}
+	
+	/**
+	 * Get the number of bytes that were stored without compression in adaptive mode.
+	 * 
+	 * @return bytes
+	 */
+	public long getStoredBytes() {
+		return storedBytes;
+	}
+	
+	/**
+	 * Get the time spent compressing or uncompressing.
+	 * 
+	 * @return time in nanoseconds
+	 */
+	public long getProcessingTime() {
+		return processingTime;
+	}
+	
 	public byte[] compress(byte[] buf, int start, int len) throws IOException {
+		/* Room for the worst case, when every block is stored */
+		int required = len + len / 1024 + 64;
+		if(Objects.isNull(compressOut) || compressOut.capacity() < required) {
+			compressOut = ByteBuffer.allocate(Math.max(BUF_SIZE, required));
+		}
 		compressOut.clear();
-		deflater.setInput(buf, start, len);
+		return Arrays.copyOf(compressOut.array(), compress(buf, start, len, compressOut));
+	}
 
-		while (deflater.deflate(compressOut, Deflater.SYNC_FLUSH) > 0)
-			;
+	@Override
+	public int compress(byte[] buf, int start, int len, ByteBuffer out) throws IOException {
+		
+		long started = System.nanoTime();
+		int position = out.position();
+		
+		Sample sample = adaptive ? getSample(buf, start, len) : null;
+		boolean store = Objects.nonNull(sample) && sample.store > 0;
+		setLevel(store ? Deflater.NO_COMPRESSION : level, out);
+		
+		deflater.setInput(buf, start, len);
+		int space = out.remaining();
+		if(deflater.deflate(out, Deflater.SYNC_FLUSH) == space) {
+			throw new IOException("Compressed data does not fit into the buffer");
+		}
 
-		var b = new byte[compressOut.position()];
-		compressOut.flip();
-		compressOut.get(b);
-		return b;
+		int written = out.position() - position;
+		if(store) {
+			sample.store -= len;
+			storedBytes += len;
+		} else if(Objects.nonNull(sample)) {
+			sample.add(len, written);
+		}
+		
+		uncompressedBytes += len;
+		compressedBytes += written;
+		processingTime += System.nanoTime() - started;
+		return written;
 	}
 
+	private void setLevel(int level, ByteBuffer out) {
+		if(level != currentLevel) {
+			currentLevel = level;
+			deflater.setLevel(level);
+			/* The new level only takes effect after the next call to deflate, so 
+			 * make that call now rather than with the payload. */
+			deflater.setInput(EMPTY);
+			deflater.deflate(out, Deflater.NO_FLUSH);
+		}
+	}
+	
+	private Sample getSample(byte[] buf, int start, int len) {
+		if(len < ADAPTIVE_MIN_PAYLOAD || (buf[start] != SSH_MSG_CHANNEL_DATA 
+				&& buf[start] != SSH_MSG_CHANNEL_EXTENDED_DATA)) {
+			return null;
+		}
+		int channel = ((buf[start + 1] & 0xFF) << 24) | ((buf[start + 2] & 0xFF) << 16) 
+				| ((buf[start + 3] & 0xFF) << 8) | (buf[start + 4] & 0xFF);
+		Sample sample = samples.get(channel);
+		if(Objects.isNull(sample)) {
+			if(samples.size() >= ADAPTIVE_MAX_CHANNELS) {
+				samples.clear();
+			}
+			samples.put(channel, sample = new Sample());
+		}
+		return sample;
+	}
+	
 	public byte[] uncompress(byte[] buffer, int start, int length) throws IOException {
-		uncompressOut.clear();
+		
+		long started = System.nanoTime();
 		inflater.setInput(buffer, start, length);
+		
+		int total = 0;
 		try {
-			while (inflater.inflate(uncompressOut) > 0)
-				;
+			while(true) {
+				if(total == uncompressOut.length) {
+					if(total >= MAX_UNCOMPRESSED_SIZE) {
+						throw new IOException("Uncompressed data exceeds the maximum packet size");
+					}
+					uncompressOut = Arrays.copyOf(uncompressOut, Math.min(total * 2, MAX_UNCOMPRESSED_SIZE));
+				}
+				int count = inflater.inflate(uncompressOut, total, uncompressOut.length - total);
+				total += count;
+				if(total < uncompressOut.length && (count == 0 || inflater.needsInput())) {
+					break;
+				}
+			}
 		} catch (DataFormatException e) {
 			throw new IOException("Failed to uncompress.", e);
 		}
-		var b = new byte[uncompressOut.position()];
-		uncompressOut.flip();
-		uncompressOut.get(b, 0, b.length);
-		return b;
+		
+		uncompressedBytes += total;
+		compressedBytes += length;
+		processingTime += System.nanoTime() - started;
+		return Arrays.copyOf(uncompressOut, total);
 	}
 
 }
@@ -22,6 +22,7 @@
 import java.nio.file.spi.FileSystemProvider;
 
 import com.sshtools.common.files.nio.AbstractFileNIOProvider;
+import com.sshtools.common.lz4.LZ4Compression;
 import com.sshtools.common.publickey.SshPrivateKeyProvider;
 import com.sshtools.common.sftp.SftpExtension;
 import com.sshtools.common.sftp.extensions.CopyDataSftpExtension;
@@ -215,7 +216,8 @@ open module com.sshtools.maverick.base {
 	
 	provides SshCompressionFactory with NoneCompression.NoneCompressionFactory,
 	ZLibCompression.ZLibCompressionFactory, 
-	OpenSSHZLibCompression.OpenSSHZLibCompressionFactory;
+	OpenSSHZLibCompression.OpenSSHZLibCompressionFactory,
+	LZ4Compression.LZ4CompressionFactory;
 
 		
 }
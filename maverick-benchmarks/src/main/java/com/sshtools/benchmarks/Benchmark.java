@@ -0,0 +1,38 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * A benchmark that can be run by name with {@link Benchmarks}. Benchmarks print 
+ * their results as they go and throw an exception if the code under measurement
+ * does not behave as it should.
+ */
+public interface Benchmark {
+
+	/**
+	 * Run the benchmark.
+	 * 
+	 * @param args the arguments following the benchmark name, any that are missing take their defaults 
+	 */
+	void run(String[] args) throws Exception;
+}
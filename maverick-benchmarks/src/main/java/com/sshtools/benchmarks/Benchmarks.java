@@ -0,0 +1,94 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs a benchmark by name, for example
+ * <pre>
+ * java -cp ... com.sshtools.benchmarks.Benchmarks cipher 1000 2000 aes128-ctr
+ * </pre>
+ * Any arguments after the name are passed to the benchmark. Run without arguments
+ * to list the benchmarks that are available.
+ */
+public class Benchmarks {
+
+	static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+
+	static {
+		BENCHMARKS.put("cipher", new CipherBenchmark());
+		BENCHMARKS.put("kex", new KexBenchmark());
+		BENCHMARKS.put("known-hosts", new KnownHostsBenchmark());
+		BENCHMARKS.put("forwarding", new ForwardingBenchmark());
+		BENCHMARKS.put("idle-state", new IdleStateBenchmark());
+		BENCHMARKS.put("window-auto-tuning", new WindowAutoTuningBenchmark());
+		BENCHMARKS.put("channel-data-coalescing", new ChannelDataCoalescingBenchmark());
+		BENCHMARKS.put("compression", new CompressionBenchmark());
+		BENCHMARKS.put("ip-policy", new IPPolicyBenchmark());
+		BENCHMARKS.put("connection-manager", new ConnectionManagerBenchmark());
+	}
+
+	public static void main(String[] args) throws Exception {
+		Benchmark benchmark = args.length > 0 ? BENCHMARKS.get(args[0]) : null;
+		if(benchmark == null) {
+			System.err.println("Usage: Benchmarks <benchmark> [arguments]");
+			System.err.println("Benchmarks: " + String.join(", ", BENCHMARKS.keySet()));
+			System.exit(1);
+		}
+		benchmark.run(Arrays.copyOfRange(args, 1, args.length));
+		/* Servers and clients started by a benchmark may leave engine threads behind */
+		System.exit(0);
+	}
+
+	/**
+	 * The integer argument at <code>index</code>, or <code>defaultValue</code> when it was not given.
+	 */
+	static int intArg(String[] args, int index, int defaultValue) {
+		return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+	}
+
+	/**
+	 * The long argument at <code>index</code>, or <code>defaultValue</code> when it was not given.
+	 */
+	static long longArg(String[] args, int index, long defaultValue) {
+		return args.length > index ? Long.parseLong(args[index]) : defaultValue;
+	}
+
+	/**
+	 * The comma separated list of integers at <code>index</code>, or those in <code>defaultValue</code> 
+	 * when it was not given.
+	 */
+	static int[] intsArg(String[] args, int index, String defaultValue) {
+		return Arrays.stream((args.length > index ? args[index] : defaultValue).split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	/**
+	 * Throughput in MB/s of <code>bytes</code> processed in <code>nanos</code> nanoseconds.
+	 */
+	static double megabytesPerSecond(double bytes, long nanos) {
+		return bytes / 1024 / 1024 / (nanos / 1000000000D);
+	}
+}
@@ -0,0 +1,163 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.client.SessionChannelNG;
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.Channel;
+import com.sshtools.common.ssh.ChannelEventListener;
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.InMemoryPublicKeyAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.server.UnsupportedSession;
+import com.sshtools.synergy.ssh.ChannelNG;
+
+/**
+ * Measures the time taken and the number of packets used to send a sequence of small writes
+ * from a shell to the client, with and without data coalescing. The optional argument is the 
+ * number of rounds.
+ */
+public class ChannelDataCoalescingBenchmark implements Benchmark {
+
+	static final int WRITES = 40000;
+	static final int WRITE_SIZE = 100;
+
+	/**
+	 * A shell that writes a numbered sequence of small blocks and then closes.
+	 */
+	static class SmallWriteSession extends UnsupportedSession {
+
+		SmallWriteSession(SshConnection con) {
+			super(con);
+		}
+
+		@Override
+		protected boolean startShell() {
+			con.executeTask(new ConnectionAwareTask(con) {
+				@Override
+				protected void doTask() {
+					try {
+						byte[] block = new byte[WRITE_SIZE];
+						for(int i = 0; i < WRITES; i++) {
+							ByteBuffer.wrap(block).putInt(i);
+							sendChannelDataAndBlock(block);
+						}
+						sendEOF();
+						close();
+					} catch (IOException e) {
+						Log.error("Channel I/O error", e);
+					}
+				}
+			});
+			return true;
+		}
+	}
+
+	@Override
+	public void run(String[] args) throws Exception {
+		int rounds = Benchmarks.intArg(args, 0, 3);
+		for(int i = 0; i < rounds; i++) {
+			run(false);
+			run(true);
+		}
+	}
+
+	static void run(boolean coalescing) throws Exception {
+		long started = System.nanoTime();
+		int packets = readSequence(coalescing);
+		long time = System.nanoTime() - started;
+		System.out.println(String.format("%-12s %d writes of %d bytes: %6d packets, %5d ms, %6.1f MB/s",
+				coalescing ? "coalesced" : "immediate", WRITES, WRITE_SIZE, packets, time / 1000000,
+				Benchmarks.megabytesPerSecond(WRITES * (double) WRITE_SIZE, time)));
+	}
+
+	static SshServer createServer(SshKeyPair authorized, boolean coalescing) throws IOException, SshException {
+		SshServer server = new SshServer("127.0.0.1", Fixtures.freePort()) {
+			@Override
+			public void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				sshContext.setChannelDataCoalescing(coalescing);
+			}
+		};
+		server.setChannelFactory(new DefaultServerChannelFactory() {
+			@Override
+			protected ChannelNG<SshServerContext> createSessionChannel(SshConnection con) {
+				return new SmallWriteSession(con);
+			}
+		});
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519));
+		server.addAuthenticator(new InMemoryPublicKeyAuthenticator().addAuthorizedKey("test", authorized.getPublicKey()));
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Read the whole sequence from a shell, checking every block arrives in order,
+	 * and return the number of data packets it was received in.
+	 */
+	static int readSequence(boolean coalescing) throws Exception {
+		SshKeyPair identity = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		try(SshServer server = createServer(identity, coalescing);
+				SshClient ssh = SshClientBuilder.create().
+					withTarget("127.0.0.1", server.getPort()).
+					withUsername("test").
+					withConnectTimeout(5000L).
+					withIdentities(identity).
+					build()) {
+
+			SessionChannelNG session = ssh.openSessionChannel();
+			AtomicInteger packets = new AtomicInteger();
+			session.addEventListener(new ChannelEventListener() {
+				@Override
+				public void onChannelDataIn(Channel channel, ByteBuffer buffer) {
+					packets.incrementAndGet();
+				}
+			});
+			if(!session.startShell().waitFor(10000).isSuccess()) {
+				throw new IllegalStateException("The shell did not start");
+			}
+
+			byte[] data = session.getInputStream().readAllBytes();
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			for(int i = 0; i < WRITES; i++) {
+				if(data.length != WRITES * WRITE_SIZE || buf.getInt(i * WRITE_SIZE) != i) {
+					throw new IllegalStateException("The sequence was corrupted at block " + i);
+				}
+			}
+			return packets.get();
+		}
+	}
+}
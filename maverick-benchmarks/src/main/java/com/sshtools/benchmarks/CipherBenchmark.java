@@ -0,0 +1,186 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.common.ssh.components.SshCipher;
+import com.sshtools.common.ssh.components.SshCipherFactory;
+import com.sshtools.common.ssh.components.jce.AES128Cbc;
+import com.sshtools.common.ssh.components.jce.AES128Ctr;
+import com.sshtools.common.ssh.components.jce.AES128Gcm;
+import com.sshtools.common.ssh.components.jce.AES192Cbc;
+import com.sshtools.common.ssh.components.jce.AES192Ctr;
+import com.sshtools.common.ssh.components.jce.AES256Cbc;
+import com.sshtools.common.ssh.components.jce.AES256Ctr;
+import com.sshtools.common.ssh.components.jce.AES256Gcm;
+import com.sshtools.common.ssh.components.jce.ArcFour;
+import com.sshtools.common.ssh.components.jce.ArcFour128;
+import com.sshtools.common.ssh.components.jce.ArcFour256;
+import com.sshtools.common.ssh.components.jce.BlowfishCbc;
+import com.sshtools.common.ssh.components.jce.ChaCha20Poly1305;
+import com.sshtools.common.ssh.components.jce.JCEComponentManager;
+import com.sshtools.common.ssh.components.jce.TripleDesCbc;
+import com.sshtools.common.ssh.components.jce.TripleDesCtr;
+import com.sshtools.common.util.UnsignedInteger64;
+
+/**
+ * Measures the throughput of every {@link SshCipher} in the jce package when encrypting
+ * and decrypting packets of 1KB, 32KB and 256KB. The optional arguments are the warm up and 
+ * measurement time in milliseconds per cipher and packet size, followed by a 
+ * comma separated list of algorithm names to restrict the run to.
+ */
+public class CipherBenchmark implements Benchmark {
+
+	static final int[] PACKET_SIZES = { 1024, 32 * 1024, 256 * 1024 };
+	
+	static final List<SshCipherFactory<?>> CIPHERS = Arrays.asList(
+			new AES128Ctr.AES128CtrFactory(),
+			new AES192Ctr.AES192CtrFactory(),
+			new AES256Ctr.AES256CtrFactory(),
+			new AES128Gcm.AES128GcmFactory(),
+			new AES256Gcm.AES256GcmFactory(),
+			new ChaCha20Poly1305.ChaCha20Poly1305Factory(),
+			new AES128Cbc.AES128CbcFactory(),
+			new AES192Cbc.AES192CbcFactory(),
+			new AES256Cbc.AES256CbcFactory(),
+			new TripleDesCtr.TripleDesCtrFactory(),
+			new TripleDesCbc.TripleDesCbcFactory(),
+			new BlowfishCbc.BlowfishCbcFactory(),
+			new ArcFour.ArcFourFactory(),
+			new ArcFour128.ArcFour128Factory(),
+			new ArcFour256.ArcFour256Factory());
+
+	@Override
+	public void run(String[] args) throws Exception {
+		
+		long warmup = Benchmarks.longArg(args, 0, 1000);
+		long measure = Benchmarks.longArg(args, 1, 2000);
+		List<String> only = args.length > 2 ? Arrays.asList(args[2].split(",")) : null;
+		
+		System.out.println(String.format("%-32s %-10s %8s %12s %12s", "Cipher", "Provider", "Packet", "Encrypt MB/s", "Decrypt MB/s"));
+		
+		for(SshCipherFactory<?> factory : CIPHERS) {
+			String name = factory.getKeys()[0];
+			if(only != null && !only.contains(name)) {
+				continue;
+			}
+			for(int size : PACKET_SIZES) {
+				SshCipher cipher = factory.create();
+				benchmark(factory, size, warmup);
+				double[] result = benchmark(factory, size, measure);
+				System.out.println(String.format("%-32s %-10s %8d %12.1f %12.1f", name, cipher.getProviderName(), size, result[0], result[1]));
+			}
+		}
+	}
+	
+	/**
+	 * Encrypt, then decrypt, packets of the given size for the given time.
+	 * 
+	 * @return encrypt and decrypt throughput in MB/s
+	 */
+	static double[] benchmark(SshCipherFactory<?> factory, int size, long millis) throws IOException, NoSuchAlgorithmException {
+		
+		SshCipher encrypt = factory.create();
+		SshCipher decrypt = factory.create();
+		
+		byte[] key = new byte[Math.max(64, encrypt.getKeyLength())];
+		byte[] iv = new byte[Math.max(16, encrypt.getBlockSize())];
+		JCEComponentManager.getSecureRandom().nextBytes(key);
+		JCEComponentManager.getSecureRandom().nextBytes(iv);
+		
+		encrypt.init(SshCipher.ENCRYPT_MODE, iv, key);
+		decrypt.init(SshCipher.DECRYPT_MODE, iv, key);
+
+		int mac = encrypt.isMAC() ? encrypt.getMacLength() : 0;
+		byte[] packet = new byte[size + mac];
+		JCEComponentManager.getSecureRandom().nextBytes(packet);
+		
+		/* Encrypt a run of packets, keeping enough of the ciphertext to decrypt the same run */
+		int run = Math.max(1, (4 * 1024 * 1024) / size);
+		byte[][] encrypted = new byte[run][];
+		
+		long encryptBytes = 0;
+		long decryptBytes = 0;
+		long encryptTime = 0;
+		long decryptTime = 0;
+		long sequence = 0;
+		long deadline = System.currentTimeMillis() + millis;
+		
+		while(System.currentTimeMillis() < deadline) {
+			
+			long started = System.nanoTime();
+			for(int i = 0; i < run; i++) {
+				encrypt(encrypt, packet, size, sequence + i);
+				if(encrypted[i] == null) {
+					encrypted[i] = new byte[packet.length];
+				}
+				System.arraycopy(packet, 0, encrypted[i], 0, packet.length);
+			}
+			encryptTime += System.nanoTime() - started;
+			encryptBytes += (long) run * size;
+			
+			started = System.nanoTime();
+			for(int i = 0; i < run; i++) {
+				decrypt(decrypt, encrypted[i], size, sequence + i);
+			}
+			decryptTime += System.nanoTime() - started;
+			decryptBytes += (long) run * size;
+			
+			sequence += run;
+		}
+		
+		return new double[] { 
+			(encryptBytes / (1024D * 1024D)) / (encryptTime / 1000000000D),
+			(decryptBytes / (1024D * 1024D)) / (decryptTime / 1000000000D) };
+	}
+	
+	/**
+	 * Encrypt a packet of <code>size</code> bytes, including the length field, in place as 
+	 * TransportProtocol does.
+	 */
+	static void encrypt(SshCipher cipher, byte[] packet, int size, long sequence) throws IOException {
+		if(cipher instanceof ChaCha20Poly1305) {
+			byte[] len = ((ChaCha20Poly1305)cipher).writePacketLength(size - 4, new UnsignedInteger64(sequence));
+			System.arraycopy(len, 0, packet, 0, 4);
+			cipher.transform(packet, 4, packet, 4, size - 4 + cipher.getMacLength());
+		} else {
+			cipher.transform(packet, 0, packet, 0, size);
+		}
+	}
+	
+	/**
+	 * Decrypt a packet of <code>size</code> bytes, including the length field, in place as 
+	 * TransportProtocol does.
+	 */
+	static void decrypt(SshCipher cipher, byte[] packet, int size, long sequence) throws IOException {
+		if(cipher instanceof ChaCha20Poly1305) {
+			((ChaCha20Poly1305)cipher).readPacketLength(packet, new UnsignedInteger64(sequence));
+			cipher.transform(packet, 4, packet, 4, size - 4 + cipher.getMacLength());
+		} else {
+			cipher.transform(packet, 0, packet, 0, size + (cipher.isMAC() ? cipher.getMacLength() : 0));
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import com.sshtools.common.lz4.LZ4Compression;
+import com.sshtools.common.ssh.compression.SshCompression;
+import com.sshtools.common.zlib.ZLibCompression;
+
+/**
+ * Compares <code>zlib</code> with <code>lz4@sshtools.com</code> on channel data packets of
+ * text, of binary records, of data that is already compressed and of random data, reporting
+ * the CPU time spent per MB to compress and to uncompress, the compression ratio and the 
+ * memory allocated per packet. zlib is also measured returning arrays as the transport once 
+ * did, rather than deflating directly into the packet buffer, and with adaptive compression.
+ * The optional argument is the number of packets.
+ */
+public class CompressionBenchmark implements Benchmark {
+
+	static final int PAYLOAD_SIZE = 32768;
+
+	static final String[] MODES = { "zlib", "zlib-array", "zlib-adaptive", "lz4@sshtools.com" };
+
+	@Override
+	public void run(String[] args) throws Exception {
+
+		int packets = Benchmarks.intArg(args, 0, 2000);
+		for(String data : new String[] { "text", "binary", "compressed", "random" }) {
+			for(String mode : MODES) {
+				run(data, mode, packets);
+			}
+		}
+	}
+
+	static void run(String data, String mode, int packets) throws Exception {
+
+		byte[][] payloads = new byte[16][];
+		for(int i = 0; i < payloads.length; i++) {
+			payloads[i] = Fixtures.channelData(1, corpus(data, i));
+		}
+
+		SshCompression compressor = create(mode);
+		compressor.init(SshCompression.DEFLATER, 6);
+		SshCompression uncompressor = create(mode);
+		uncompressor.init(SshCompression.INFLATER, 6);
+
+		boolean array = mode.equals("zlib-array");
+		ByteBuffer packet = ByteBuffer.allocate(LZ4Compression.maxCompressedLength(PAYLOAD_SIZE * 2));
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long compressed = 0;
+		long compressTime = 0;
+		long uncompressTime = 0;
+		long allocated = 0;
+
+		/* The first quarter warms up */
+		int warmup = packets / 4;
+		for(int i = 0; i < packets + warmup; i++) {
+			if(i == warmup) {
+				compressed = compressTime = uncompressTime = 0;
+				allocated = mx.getThreadAllocatedBytes(id);
+			}
+			byte[] payload = payloads[i % payloads.length];
+			long started = mx.getCurrentThreadCpuTime();
+			byte[] out;
+			int len;
+			if(array) {
+				out = compressor.compress(payload, 0, payload.length);
+				len = out.length;
+			} else {
+				packet.clear();
+				len = compressor.compress(payload, 0, payload.length, packet);
+				out = packet.array();
+			}
+			long done = mx.getCurrentThreadCpuTime();
+			uncompressor.uncompress(out, 0, len);
+			compressTime += done - started;
+			uncompressTime += mx.getCurrentThreadCpuTime() - done;
+			compressed += len;
+		}
+		allocated = mx.getThreadAllocatedBytes(id) - allocated;
+
+		double mb = (packets * (double) PAYLOAD_SIZE) / 1024 / 1024;
+		System.out.println(String.format("%-10s %-16s compress %7.2f ms/MB, uncompress %6.2f ms/MB, ratio %.3f, %7d bytes allocated per packet",
+				data, mode, compressTime / 1000000D / mb, uncompressTime / 1000000D / mb,
+				(double) compressed / (packets * (PAYLOAD_SIZE + 9D)), allocated / packets));
+	}
+
+	static SshCompression create(String mode) {
+		if(mode.startsWith("zlib")) {
+			ZLibCompression zlib = new ZLibCompression();
+			zlib.setAdaptive(mode.equals("zlib-adaptive"));
+			return zlib;
+		}
+		return new LZ4Compression();
+	}
+
+	static byte[] corpus(String data, int seed) {
+		switch(data) {
+		case "text":
+			return Fixtures.text(PAYLOAD_SIZE, seed);
+		case "binary":
+			return records(PAYLOAD_SIZE, seed);
+		case "random":
+			return Fixtures.random(PAYLOAD_SIZE, seed);
+		default:
+			/* Deflate a larger sample so that the output fills a packet */
+			Deflater deflater = new Deflater(9);
+			deflater.setInput(Fixtures.text(PAYLOAD_SIZE * 16, seed));
+			deflater.finish();
+			byte[] out = new byte[PAYLOAD_SIZE];
+			deflater.deflate(out);
+			deflater.end();
+			return out;
+		}
+	}
+
+	/**
+	 * Fixed size records of counters, timestamps and small enumerations, much like a
+	 * database page or a stream of metrics.
+	 */
+	static byte[] records(int size, int seed) {
+		Random r = new Random(seed);
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		long timestamp = 1700000000000L + seed * 1000000L;
+		int id = seed * 10000;
+		while(buf.remaining() >= 32) {
+			buf.putInt(id++);
+			buf.putLong(timestamp += r.nextInt(1000));
+			buf.putShort((short) r.nextInt(8));
+			buf.putShort((short) 0);
+			buf.putDouble(r.nextInt(100000) / 100D);
+			buf.putInt(r.nextInt(64));
+			buf.putInt(0x7f000001 + r.nextInt(4));
+		}
+		return buf.array();
+	}
+}
@@ -0,0 +1,132 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.TransportProtocolClient;
+import com.sshtools.synergy.nio.SshEngine;
+import com.sshtools.synergy.ssh.ConnectionManager;
+
+/**
+ * Measures the rate at which threads can register a transport, look it up by session 
+ * identifier, read the number of connections and unregister it again, as the server does 
+ * for each connection, while a number of other connections remain registered. The time 
+ * taken to look up a connection through all managers and to list logged on users is also 
+ * reported. No sockets are used.
+ * <p>
+ * Arguments are [threads] [registered connections] [seconds], defaulting to 4, 1000 and 2.
+ */
+public class ConnectionManagerBenchmark implements Benchmark {
+
+	static final InetSocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 22);
+	static final int LOOKUPS = 100000;
+
+	static class Transport extends TransportProtocolClient {
+		Transport(SshClientContext context) throws Exception {
+			super(context, null);
+		}
+
+		@Override
+		public SocketAddress getRemoteAddress() {
+			return ADDRESS;
+		}
+
+		@Override
+		public SocketAddress getLocalAddress() {
+			return ADDRESS;
+		}
+	}
+
+	@Override
+	public void run(String[] args) throws Exception {
+
+		int threads = Benchmarks.intArg(args, 0, 4);
+		int registered = Benchmarks.intArg(args, 1, 1000);
+		int seconds = Benchmarks.intArg(args, 2, 2);
+
+		SshClientContext context = new SshClientContext(new SshEngine());
+		ConnectionManager<SshClientContext> manager = new ConnectionManager<>(UUID.randomUUID().toString());
+		/* Other managers, such as those of other servers in the same process */
+		for(int i = 0; i < 3; i++) {
+			new ConnectionManager<SshClientContext>(UUID.randomUUID().toString());
+		}
+
+		List<Transport> resident = new ArrayList<>();
+		for(int i = 0; i < registered; i++) {
+			Transport t = new Transport(context);
+			manager.registerTransport(t, context);
+			resident.add(t);
+		}
+
+		AtomicLong operations = new AtomicLong();
+		long finish = System.currentTimeMillis() + seconds * 1000L;
+		CountDownLatch done = new CountDownLatch(threads);
+		for(int i = 0; i < threads; i++) {
+			List<Transport> churn = new ArrayList<>();
+			for(int j = 0; j < 16; j++) {
+				churn.add(new Transport(context));
+			}
+			new Thread(() -> {
+				long count = 0;
+				while(System.currentTimeMillis() < finish) {
+					for(Transport t : churn) {
+						manager.registerTransport(t, context);
+						if(manager.getConnectionById(t.getUUID()) == null 
+								|| manager.getNumberOfConnections() < registered) {
+							throw new IllegalStateException();
+						}
+						manager.unregisterTransport(t);
+					}
+					count += churn.size();
+				}
+				operations.addAndGet(count);
+				done.countDown();
+			}).start();
+		}
+		done.await();
+
+		long started = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++) {
+			if(ConnectionManager.getConnection(resident.get(i % registered).getUUID()) == null) {
+				throw new IllegalStateException();
+			}
+		}
+		long lookup = (System.nanoTime() - started) / LOOKUPS;
+
+		started = System.nanoTime();
+		for(int i = 0; i < 1000; i++) {
+			manager.getLoggedOnUsers();
+		}
+		long users = (System.nanoTime() - started) / 1000;
+
+		System.out.println(String.format("%d threads, %d registered: %8.0f connections/s, global lookup %6.3f us, logged on users %8.3f us",
+				threads, registered, operations.get() / (double) seconds, lookup / 1000D, users / 1000D));
+	}
+}
@@ -0,0 +1,189 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.InMemoryPublicKeyAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+
+/**
+ * Data and in process servers shared by the benchmarks. Data is generated from a seed
+ * so that every run measures the same work.
+ */
+class Fixtures {
+
+	/**
+	 * An SSH_MSG_CHANNEL_DATA payload carrying <code>data</code>.
+	 */
+	static byte[] channelData(int channel, byte[] data) {
+		ByteBuffer buf = ByteBuffer.allocate(data.length + 9);
+		buf.put((byte) 94);
+		buf.putInt(channel);
+		buf.putInt(data.length);
+		buf.put(data);
+		return buf.array();
+	}
+
+	/**
+	 * Text made from a small vocabulary, which compresses well.
+	 */
+	static byte[] text(int size, int seed) {
+		Random r = new Random(seed);
+		String[] words = { "channel", "window", "packet", "session", "data", "the", "and", "ssh" };
+		byte[] data = new byte[size];
+		int i = 0;
+		while(i < size) {
+			for(byte b : (words[r.nextInt(words.length)] + " ").getBytes()) {
+				if(i < size) {
+					data[i++] = b;
+				}
+			}
+		}
+		return data;
+	}
+
+	static byte[] random(int size, int seed) {
+		byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * A random network of the given family, with prefixes biased towards the lengths
+	 * used in real block lists.
+	 */
+	static String network(Random r, boolean ipv6) throws UnknownHostException {
+		byte[] addr = new byte[ipv6 ? 16 : 4];
+		r.nextBytes(addr);
+		/* Keep to a few top level blocks so that networks overlap */
+		addr[0] = (byte) (r.nextInt(4) + (ipv6 ? 0x20 : 10));
+		int max = addr.length * 8;
+		int bits = r.nextInt(4) == 0 ? max : Math.max(0, max - r.nextInt(max / 2) - r.nextInt(8));
+		return InetAddress.getByAddress(addr).getHostAddress() + "/" + bits;
+	}
+
+	static int freePort() throws IOException {
+		try(ServerSocket s = new ServerSocket(0)) {
+			return s.getLocalPort();
+		}
+	}
+
+	/**
+	 * Start a server on the loopback interface that allows forwarding and accepts 
+	 * the user <code>test</code> with the given key.
+	 */
+	static SshServer createServer(int port, SshKeyPair authorized) throws IOException, SshException {
+		SshServer server = new SshServer("127.0.0.1", port) {
+			@Override
+			public void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				sshContext.getForwardingPolicy().allowForwarding();
+			}
+		};
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519));
+		server.addAuthenticator(new InMemoryPublicKeyAuthenticator().addAuthorizedKey("test", authorized.getPublicKey()));
+		server.start();
+		return server;
+	}
+
+	static SshClient connect(int port, SshKeyPair identity) throws IOException, SshException {
+		return SshClientBuilder.create().
+				withTarget("127.0.0.1", port).
+				withUsername("test").
+				withConnectTimeout(5000L).
+				withIdentities(identity).
+				onConfigure(ctx -> ctx.getForwardingPolicy().allowForwarding()).
+				build();
+	}
+
+	/**
+	 * A target that echoes everything it receives, or when <code>data</code> is
+	 * not null, writes it and closes the connection.
+	 */
+	static ServerSocket startTarget(byte[] data) throws IOException {
+		ServerSocket target = new ServerSocket(0);
+		Thread t = new Thread(() -> {
+			while(!target.isClosed()) {
+				try {
+					Socket s = target.accept();
+					new Thread(() -> {
+						try(Socket socket = s) {
+							if(data == null) {
+								socket.getInputStream().transferTo(socket.getOutputStream());
+							} else {
+								socket.getOutputStream().write(data);
+							}
+						} catch(IOException e) {
+						}
+					}).start();
+				} catch(IOException e) {
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return target;
+	}
+
+	/**
+	 * Write <code>data</code> to the port while reading back the same number of bytes.
+	 */
+	static byte[] echo(int port, byte[] data) throws Exception {
+		try(Socket socket = new Socket("127.0.0.1", port)) {
+			AtomicReference<Exception> error = new AtomicReference<>();
+			Thread writer = new Thread(() -> {
+				try {
+					OutputStream out = socket.getOutputStream();
+					for(int i = 0; i < data.length; i += 32768) {
+						out.write(data, i, Math.min(32768, data.length - i));
+					}
+				} catch(IOException e) {
+					error.set(e);
+				}
+			});
+			writer.start();
+			byte[] received = socket.getInputStream().readNBytes(data.length);
+			writer.join();
+			if(error.get() != null) {
+				throw error.get();
+			}
+			return received;
+		}
+	}
+}
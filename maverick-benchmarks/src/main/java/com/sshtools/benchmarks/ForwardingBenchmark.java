@@ -0,0 +1,93 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.SshServer;
+
+/**
+ * Measures the throughput of local forwarding tunnels in the style of the long forwarding
+ * tests, using an in process server and an echo target so that each byte crosses the
+ * tunnel in both directions.
+ * <p>
+ * Arguments are [tunnels] [megabytes per tunnel] [rounds], defaulting to 4, 32 and 3.
+ */
+public class ForwardingBenchmark implements Benchmark {
+
+	@Override
+	public void run(String[] args) throws Exception {
+
+		int tunnels = Benchmarks.intArg(args, 0, 4);
+		int megabytes = Benchmarks.intArg(args, 1, 32);
+		int rounds = Benchmarks.intArg(args, 2, 3);
+
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		int port = Fixtures.freePort();
+		byte[] data = Fixtures.random(megabytes * 1024 * 1024, megabytes);
+
+		try(ServerSocket target = Fixtures.startTarget(null);
+				SshServer server = Fixtures.createServer(port, key);
+				SshClient client = Fixtures.connect(port, key)) {
+
+			int local = client.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", target.getLocalPort());
+
+			for(int round = 0; round < rounds; round++) {
+				List<Thread> workers = new ArrayList<>();
+				List<Exception> errors = new ArrayList<>();
+				long started = System.nanoTime();
+				for(int i = 0; i < tunnels; i++) {
+					Thread t = new Thread(() -> {
+						try {
+							if(!Arrays.equals(data, Fixtures.echo(local, data))) {
+								throw new IllegalStateException("Data was corrupted in the tunnel");
+							}
+						} catch(Exception e) {
+							synchronized(errors) {
+								errors.add(e);
+							}
+						}
+					});
+					workers.add(t);
+					t.start();
+				}
+				for(Thread t : workers) {
+					t.join();
+				}
+				if(!errors.isEmpty()) {
+					throw errors.get(0);
+				}
+				double seconds = (System.nanoTime() - started) / 1000000000D;
+				System.out.println(String.format("Round %d: %d tunnels x %d MB echoed in %.2fs, %.1f MB/s each way",
+						round + 1, tunnels, megabytes, seconds, tunnels * megabytes / seconds));
+			}
+		}
+		
+	}
+}
@@ -0,0 +1,106 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.sshtools.common.net.CIDRNetwork;
+import com.sshtools.common.permissions.IPPolicy;
+import com.sshtools.common.permissions.IPStore;
+
+/**
+ * Measures the time taken to load a block list of 10, 10k and 1M networks into an 
+ * {@link IPStore} and to check connections against it with {@link IPPolicy}, compared 
+ * with scanning every network in turn from the address string as the policy once did.
+ * Half of the addresses checked are listed. The optional argument is a comma separated list of network counts.
+ */
+public class IPPolicyBenchmark implements Benchmark {
+
+	static final int LOOKUPS = 200000;
+	static final int SCANNED_NETWORKS = 2000000;
+
+	@Override
+	public void run(String[] args) throws Exception {
+
+		for(int count : Benchmarks.intsArg(args, 0, "10,10000,1000000")) {
+			run(count);
+		}
+	}
+
+	static void run(int count) throws Exception {
+
+		Random r = new Random(count);
+		List<String> networks = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			networks.add(Fixtures.network(r, r.nextInt(8) == 0));
+		}
+
+		IPPolicy policy = new IPPolicy();
+		long started = System.nanoTime();
+		policy.getBlacklist().reset(networks);
+		long load = System.nanoTime() - started;
+
+		InetAddress[] addresses = new InetAddress[1024];
+		for(int i = 0; i < addresses.length; i++) {
+			String network = i % 2 == 0 ? networks.get(r.nextInt(count)) : Fixtures.network(r, r.nextInt(8) == 0);
+			addresses[i] = InetAddress.getByName(network.split("/")[0]);
+		}
+		InetAddress local = InetAddress.getLoopbackAddress();
+
+		int allowed = 0;
+		for(int i = 0; i < LOOKUPS; i++) {
+			if(policy.checkConnection(addresses[i % addresses.length], local)) {
+				allowed++;
+			}
+		}
+		started = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++) {
+			if(policy.checkConnection(addresses[i % addresses.length], local)) {
+				allowed++;
+			}
+		}
+		long lookup = (System.nanoTime() - started) / LOOKUPS;
+
+		int scans = Math.max(4, SCANNED_NETWORKS / count);
+		List<CIDRNetwork> list = new ArrayList<>(policy.getBlacklist().getIPs());
+		started = System.nanoTime();
+		for(int i = 0; i < scans; i++) {
+			String addr = addresses[i % addresses.length].getHostAddress();
+			for(CIDRNetwork network : list) {
+				if(network.isValidAddressForNetwork(addr)) {
+					allowed++;
+					break;
+				}
+			}
+		}
+		long scan = (System.nanoTime() - started) / scans;
+
+		if(allowed == 0) {
+			throw new IllegalStateException("No addresses were allowed");
+		}
+		System.out.println(String.format("%8d networks: load %6d ms, check %6.2f us, linear scan %10.2f us",
+				count, load / 1000000, lookup / 1000D, scan / 1000D));
+	}
+}
@@ -0,0 +1,83 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import com.sshtools.common.nio.IdleStateListener;
+import com.sshtools.common.nio.IdleStateManager;
+
+/**
+ * Measures the cost of resetting the idle state of a listener, as happens for every packet,
+ * and the cost of each service run when all listeners are active. Listeners are notified
+ * after 10 seconds of inactivity and every listener is reset once a second. The optional 
+ * argument is a comma separated list of listener counts.
+ */
+public class IdleStateBenchmark implements Benchmark {
+
+	static final int RESETS = 10000000;
+	static final int SECONDS = 15;
+
+	@Override
+	public void run(String[] args) throws Exception {
+		for(int count : Benchmarks.intsArg(args, 0, "10000,100000")) {
+			run(count);
+		}
+	}
+
+	static void run(int count) throws Exception {
+
+		IdleStateManager manager = new IdleStateManager(1, 10);
+		IdleStateListener[] listeners = new IdleStateListener[count];
+		for(int i = 0; i < count; i++) {
+			listeners[i] = new IdleStateListener() {
+				public boolean idle() {
+					return false;
+				}
+			};
+			manager.register(listeners[i]);
+		}
+
+		long started = System.nanoTime();
+		for(int i = 0; i < RESETS; i++) {
+			manager.reset(listeners[i % count]);
+		}
+		long reset = (System.nanoTime() - started) / RESETS;
+
+		long serviceTime = 0;
+		int runs = 0;
+		long end = System.currentTimeMillis() + SECONDS * 1000L;
+		while(System.currentTimeMillis() < end) {
+			for(IdleStateListener listener : listeners) {
+				manager.reset(listener);
+			}
+			if(manager.isReady()) {
+				started = System.nanoTime();
+				manager.service();
+				serviceTime += System.nanoTime() - started;
+				runs++;
+			}
+			Thread.sleep(100);
+		}
+
+		System.out.println(String.format("%7d listeners: reset %4d ns, service run %8.1f us",
+				count, reset, serviceTime / runs / 1000D));
+	}
+}
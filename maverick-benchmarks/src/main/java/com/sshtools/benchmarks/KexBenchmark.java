@@ -0,0 +1,242 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.SshKeyExchangeClient;
+import com.sshtools.client.components.Curve25519SHA256Client;
+import com.sshtools.client.components.Curve448SHA512Client;
+import com.sshtools.client.components.DiffieHellmanEcdhNistp256;
+import com.sshtools.client.components.DiffieHellmanGroup14Sha256JCE;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.common.sshd.SshMessage;
+import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.server.EphemeralKeyPool;
+import com.sshtools.server.EphemeralKeyPool.EphemeralKeyPoolBuilder;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.server.components.SshKeyExchangeServer;
+import com.sshtools.server.components.jce.Curve25519SHA256Server;
+import com.sshtools.server.components.jce.Curve448SHA512Server;
+import com.sshtools.synergy.nio.SshEngine;
+import com.sshtools.synergy.ssh.SshContext;
+import com.sshtools.synergy.ssh.SshTransport;
+
+/**
+ * Measures server side key exchange throughput: ephemeral key generation, the
+ * shared secret, the exchange hash and signing (and self-verifying) the exchange
+ * hash with the host key, i.e. all of the work the server does on receipt of
+ * the client's SSH_MSG_KEX_ECDH_INIT or SSH_MSG_KEXDH_INIT. The kex implementations are driven directly through a
+ * stub transport so that network and packet handling are not measured. Each
+ * handshake is checked once against the client implementation before timing.
+ * <p>
+ * Arguments are [milliseconds] [threads] [pool depth], defaulting to 3000, the number
+ * of available processors and no {@link EphemeralKeyPool}. With a pool the background
+ * refill competes with the handshake threads, so it only improves on the figures
+ * without one when there are idle cores. Set maverick.enableJCEXDH=true to measure
+ * the JCE X25519 implementation rather than the bundled one.
+ */
+public class KexBenchmark implements Benchmark {
+
+	static final String[] HOST_KEYS = { SshKeyPairGenerator.ED25519, SshKeyPairGenerator.SSH2_RSA, SshKeyPairGenerator.ECDSA };
+	
+	interface ServerFactory {
+		SshKeyExchangeServer create();
+	}
+	
+	interface ClientFactory {
+		SshKeyExchangeClient create();
+	}
+	
+	@Override
+	public void run(String[] args) throws Exception {
+		
+		long millis = Benchmarks.longArg(args, 0, 3000);
+		int threads = Benchmarks.intArg(args, 1, Runtime.getRuntime().availableProcessors());
+		int depth = Benchmarks.intArg(args, 2, 0);
+		
+		SshServerContext context = new SshServerContext(new SshEngine());
+		if(depth > 0) {
+			context.setEphemeralKeyPool(EphemeralKeyPoolBuilder.create().withDepth(depth).build());
+		}
+		
+		System.out.println(String.format("%-30s %-12s %-10s %8s %12s %12s", "Kex", "Provider", "Host key", "Threads", "Kex/s", "Kex/s/core"));
+		
+		run(context, Curve25519SHA256Server::new, Curve25519SHA256Client::new, millis, threads);
+		run(context, Curve448SHA512Server::new, Curve448SHA512Client::new, millis, threads);
+		run(context, com.sshtools.server.components.jce.DiffieHellmanEcdhNistp256::new, DiffieHellmanEcdhNistp256::new, millis, threads);
+		run(context, com.sshtools.server.components.jce.DiffieHellmanGroup14Sha256JCE::new, DiffieHellmanGroup14Sha256JCE::new, millis, threads);
+		
+		EphemeralKeyPool pool = context.getEphemeralKeyPool();
+		if(pool != null) {
+			for(String name : pool.getNames()) {
+				System.out.println(String.format("Pool %-25s hits %8d misses %8d miss rate %6.2f%%", 
+						name, pool.getHits(name), pool.getMisses(name), pool.getMissRate(name) * 100));
+			}
+			pool.close();
+		}
+	}
+	
+	static void run(SshServerContext context, ServerFactory server, ClientFactory client, long millis, int threads) throws Exception {
+		
+		for(String type : HOST_KEYS) {
+			SshKeyPair hostKey = SshKeyPairGenerator.generateKeyPair(type);
+			
+			String provider = verify(context, server, client, hostKey);
+			handshakes(context, server, client, hostKey, Math.min(millis, 1000), threads);
+			double perSecond = handshakes(context, server, client, hostKey, millis, threads);
+			System.out.println(String.format("%-30s %-12s %-10s %8d %12.1f %12.1f", 
+					server.create().getAlgorithm(), provider, type, threads, perSecond, perSecond / threads));
+		}
+	}
+	
+	static double handshakes(SshServerContext context, ServerFactory server, ClientFactory client, SshKeyPair hostKey, long millis, int threads) throws Exception {
+		
+		AtomicLong count = new AtomicLong();
+		List<Thread> workers = new ArrayList<>();
+		List<Exception> errors = new ArrayList<>();
+		long started = System.currentTimeMillis();
+		for(int i = 0; i < threads; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					StubTransport<SshServerContext> transport = new StubTransport<>(context);
+					byte[] init = createInit(client);
+					while(System.currentTimeMillis() - started < millis) {
+						SshKeyExchangeServer kex = server.create();
+						kex.init(transport, "SSH-2.0-Client", "SSH-2.0-Server", new byte[512], new byte[512], 
+								hostKey.getPrivateKey(), hostKey.getPublicKey(), false, false);
+						kex.processMessage(init);
+						count.incrementAndGet();
+					}
+				} catch(Exception e) {
+					synchronized(errors) {
+						errors.add(e);
+					}
+				}
+			});
+			workers.add(t);
+			t.start();
+		}
+		for(Thread t : workers) {
+			t.join();
+		}
+		if(!errors.isEmpty()) {
+			throw errors.get(0);
+		}
+		return count.get() * 1000D / (System.currentTimeMillis() - started);
+	}
+	
+	static byte[] createInit(ClientFactory clientFactory) throws Exception {
+		StubTransport<SshClientContext> transport = new StubTransport<>(null);
+		clientFactory.create().init(transport, "SSH-2.0-Client", "SSH-2.0-Server", new byte[512], new byte[512], null, null, false, false);
+		return transport.last;
+	}
+	
+	/**
+	 * Run one complete exchange between the client and server implementations and
+	 * check that both arrive at the same secret and exchange hash, and that the
+	 * signature verifies.
+	 */
+	static String verify(SshServerContext context, ServerFactory serverFactory, ClientFactory clientFactory, SshKeyPair hostKey) throws Exception {
+		
+		byte[] clientKexInit = new byte[512];
+		byte[] serverKexInit = new byte[512];
+		Arrays.fill(clientKexInit, (byte)1);
+		Arrays.fill(serverKexInit, (byte)2);
+		
+		StubTransport<SshClientContext> clientTransport = new StubTransport<>(new SshClientContext());
+		SshKeyExchangeClient client = clientFactory.create();
+		client.init(clientTransport, "SSH-2.0-Client", "SSH-2.0-Server", clientKexInit, serverKexInit, null, null, false, false);
+		
+		StubTransport<SshServerContext> serverTransport = new StubTransport<>(context);
+		SshKeyExchangeServer server = serverFactory.create();
+		server.init(serverTransport, "SSH-2.0-Client", "SSH-2.0-Server", clientKexInit, serverKexInit, 
+				hostKey.getPrivateKey(), hostKey.getPublicKey(), false, false);
+		server.processMessage(clientTransport.last);
+		client.processMessage(serverTransport.last);
+		
+		if(!server.getSecret().equals(client.getSecret())
+				|| !Arrays.equals(server.getExchangeHash(), client.getExchangeHash())) {
+			throw new IllegalStateException(server.getAlgorithm() + " client and server did not agree");
+		}
+		
+		try(ByteArrayReader sig = new ByteArrayReader(client.getSignature())) {
+			sig.readString();
+			if(!hostKey.getPublicKey().verifySignature(sig.readBinaryString(), client.getExchangeHash())) {
+				throw new IllegalStateException(server.getAlgorithm() + " signature did not verify");
+			}
+		}
+		return server.getProvider();
+	}
+	
+	static class StubTransport<T extends SshContext> implements SshTransport<T> {
+		
+		final ByteBuffer buffer = ByteBuffer.allocate(65536);
+		final T context;
+		byte[] last;
+		
+		StubTransport(T context) {
+			this.context = context;
+		}
+
+		@Override
+		public void postMessage(SshMessage msg) {
+			postMessage(msg, false);
+		}
+
+		@Override
+		public void postMessage(SshMessage msg, boolean kex) {
+			buffer.clear();
+			msg.writeMessageIntoBuffer(buffer);
+			buffer.flip();
+			last = new byte[buffer.remaining()];
+			buffer.get(last);
+			try {
+				msg.messageSent(0L);
+			} catch (SshException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public T getContext() {
+			return context;
+		}
+
+		@Override
+		public void disconnect(int reason, String message) {
+			throw new IllegalStateException(message);
+		}
+
+		@Override
+		public void sendNewKeys() {
+		}
+	}
+}
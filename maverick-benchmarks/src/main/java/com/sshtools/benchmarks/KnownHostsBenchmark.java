@@ -0,0 +1,126 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sshtools.common.knownhosts.KnownHostsKeyVerification;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.publickey.SshKeyUtils;
+import com.sshtools.common.ssh.components.SshPublicKey;
+import com.sshtools.common.util.Base64;
+
+/**
+ * Measures the time taken to load a known_hosts file of 1k, 100k and 1M entries and
+ * to verify hosts against it, with plain and with hashed host names. Hashed names are
+ * measured twice, the first verification of a host must hash it with every salt in the
+ * file, later ones are answered from the names remembered by the index. Hosts are
+ * sampled from the whole file so that the cost of scanning entries is visible. The optional 
+ * argument is a comma separated list of entry counts.
+ */
+public class KnownHostsBenchmark implements Benchmark {
+
+	static final int KEYS = 64;
+	static final int LOOKUPS = 2000;
+	static final int COLD_LOOKUPS = 5;
+	static final int SAMPLE = 1000;
+	static final int HASHED_SAMPLE = 20;
+
+	@Override
+	public void run(String[] args) throws Exception {
+
+		int[] counts = Benchmarks.intsArg(args, 0, "1000,100000,1000000");
+
+		SshPublicKey[] keys = new SshPublicKey[KEYS];
+		for(int i = 0; i < KEYS; i++) {
+			keys[i] = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519).getPublicKey();
+		}
+
+		for(int entries : counts) {
+			run(entries, keys, false);
+			run(entries, keys, true);
+		}
+	}
+
+	static void run(int entries, SshPublicKey[] keys, boolean hashed) throws Exception {
+
+		String[] formatted = new String[keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			formatted[i] = SshKeyUtils.getOpenSSHFormattedKey(keys[i]);
+		}
+
+		Mac mac = Mac.getInstance("HmacSHA1");
+		SecureRandom rnd = new SecureRandom();
+		StringBuilder file = new StringBuilder();
+		for(int i = 0; i < entries; i++) {
+			String host = "host" + i + ".example.com";
+			if(hashed) {
+				byte[] salt = new byte[20];
+				rnd.nextBytes(salt);
+				mac.init(new SecretKeySpec(salt, "HmacSHA1"));
+				host = "|1|" + Base64.encodeBytes(salt, false) + "|" + Base64.encodeBytes(mac.doFinal(host.getBytes()), false);
+			}
+			file.append(host).append(' ').append(formatted[i % keys.length]).append('\n');
+		}
+
+		long started = System.nanoTime();
+		KnownHostsKeyVerification k = new KnownHostsKeyVerification(file.toString());
+		k.setUseCanonicalHostnames(false);
+		k.setUseReverseDNS(false);
+		long load = System.nanoTime() - started;
+
+		Random random = new Random(entries);
+		int[] sample = new int[hashed ? HASHED_SAMPLE : SAMPLE];
+		for(int i = 0; i < sample.length; i++) {
+			sample[i] = random.nextInt(entries);
+		}
+
+		started = System.nanoTime();
+		for(int i = 0; i < COLD_LOOKUPS; i++) {
+			verify(k, keys, sample[i]);
+		}
+		long coldTime = (System.nanoTime() - started) / COLD_LOOKUPS;
+		for(int i = COLD_LOOKUPS; i < sample.length; i++) {
+			verify(k, keys, sample[i]);
+		}
+
+		started = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++) {
+			verify(k, keys, sample[random.nextInt(sample.length)]);
+		}
+		long warmTime = (System.nanoTime() - started) / LOOKUPS;
+
+		System.out.println(String.format("%-7s %8d entries: load %6d ms, first verify %10.1f us, verify %8.1f us",
+				hashed ? "hashed" : "plain", entries, load / 1000000, coldTime / 1000D, warmTime / 1000D));
+	}
+
+	static void verify(KnownHostsKeyVerification k, SshPublicKey[] keys, int host) throws Exception {
+		if(!k.verifyHost("host" + host + ".example.com", keys[host % keys.length])) {
+			throw new IllegalStateException("host" + host + " was not verified");
+		}
+	}
+}
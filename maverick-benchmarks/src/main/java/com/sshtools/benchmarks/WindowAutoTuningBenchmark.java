@@ -0,0 +1,152 @@
+package com.sshtools.benchmarks;
+
+/*-
+ * #%L
+ * Benchmarks
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.server.SshServer;
+
+/**
+ * Measures the throughput of a local forwarding tunnel when the SSH connection passes
+ * through a proxy that delays everything it relays, with and without window auto-tuning.
+ * <p>
+ * Arguments are [one way latency in milliseconds] [megabytes] [auto-tuned window limit in megabytes],
+ * defaulting to 50, 32 and 16.
+ */
+public class WindowAutoTuningBenchmark implements Benchmark {
+
+	@Override
+	public void run(String[] args) throws Exception {
+
+		int latency = Benchmarks.intArg(args, 0, 50);
+		int megabytes = Benchmarks.intArg(args, 1, 32);
+		int limit = Benchmarks.intArg(args, 2, 16);
+
+		byte[] data = Fixtures.random(megabytes * 1024 * 1024, megabytes);
+		run("static", latency, data, 0);
+		run("auto-tuned", latency, data, limit * 1024 * 1024);
+
+	}
+
+	static void run(String name, int latency, byte[] data, int limit) throws Exception {
+
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		int port = Fixtures.freePort();
+
+		try(ServerSocket target = Fixtures.startTarget(data);
+				SshServer server = Fixtures.createServer(port, key);
+				ServerSocket proxy = startProxy(port, latency);
+				SshClient client = SshClientBuilder.create().
+						withTarget("127.0.0.1", proxy.getLocalPort()).
+						withUsername("test").
+						withIdentities(key).
+						onConfigure(ctx -> {
+							ctx.getForwardingPolicy().allowForwarding();
+							ctx.getForwardingPolicy().setForwardingMaxAutoTunedWindowSize(new UnsignedInteger32(limit));
+						}).
+						build()) {
+
+			int local = client.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", target.getLocalPort());
+
+			long started = System.nanoTime();
+			try(Socket socket = new Socket("127.0.0.1", local)) {
+				if(!Arrays.equals(data, socket.getInputStream().readAllBytes())) {
+					throw new IllegalStateException("Data was corrupted in the tunnel");
+				}
+			}
+			double seconds = (System.nanoTime() - started) / 1000000000D;
+			System.out.println(String.format("%-10s %d ms round trip: %d MB in %.2fs, %.1f MB/s",
+					name, latency * 2, data.length / 1024 / 1024, seconds, data.length / 1024D / 1024D / seconds));
+		}
+	}
+
+	/**
+	 * A proxy to the given port that holds everything it relays, in both directions,
+	 * for the given number of milliseconds.
+	 */
+	static ServerSocket startProxy(int port, int latency) throws IOException {
+		ServerSocket proxy = new ServerSocket(0);
+		Thread t = new Thread(() -> {
+			while(!proxy.isClosed()) {
+				try {
+					Socket in = proxy.accept();
+					Socket out = new Socket("127.0.0.1", port);
+					in.setTcpNoDelay(true);
+					out.setTcpNoDelay(true);
+					relay(in.getInputStream(), out.getOutputStream(), latency);
+					relay(out.getInputStream(), in.getOutputStream(), latency);
+				} catch(IOException e) {
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return proxy;
+	}
+
+	static void relay(InputStream in, OutputStream out, int latency) {
+		LinkedBlockingQueue<Object[]> queue = new LinkedBlockingQueue<>();
+		Thread reader = new Thread(() -> {
+			byte[] buf = new byte[65536];
+			try {
+				int r;
+				while((r = in.read(buf)) > -1) {
+					queue.add(new Object[] { System.nanoTime() + latency * 1000000L, Arrays.copyOf(buf, r) });
+				}
+			} catch(IOException e) {
+			}
+			queue.add(new Object[] { 0L, null });
+		});
+		Thread writer = new Thread(() -> {
+			try {
+				while(true) {
+					Object[] next = queue.take();
+					if(next[1] == null) {
+						out.close();
+						return;
+					}
+					long wait = (Long) next[0] - System.nanoTime();
+					if(wait > 0) {
+						Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+					}
+					out.write((byte[]) next[1]);
+				}
+			} catch(IOException | InterruptedException e) {
+			}
+		});
+		reader.setDaemon(true);
+		writer.setDaemon(true);
+		reader.start();
+		writer.start();
+	}
+}
@@ -0,0 +1,137 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClient.OnConfiguration;
+import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.InMemoryPublicKeyAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Starts in-process servers on a free port and connects {@link SshClient}s to them,
+ * for tests that exercise the client and server together.
+ */
+public abstract class AbstractServerTests extends TestCase {
+
+	/**
+	 * Applied to the context of each connection the server accepts.
+	 */
+	public interface ServerConfiguration {
+		void configure(SshServerContext sshContext) throws IOException, SshException;
+	}
+
+	protected static int freePort() throws IOException {
+		try(ServerSocket s = new ServerSocket(0)) {
+			return s.getLocalPort();
+		}
+	}
+
+	/**
+	 * Start a server on which the user <code>test</code> may authenticate with <code>authorized</code>.
+	 * 
+	 * @param authorized key of the user test
+	 * @param configuration applied to each connection
+	 * @return server
+	 * @throws IOException
+	 * @throws SshException
+	 */
+	protected static SshServer createServer(SshKeyPair authorized, ServerConfiguration configuration) throws IOException, SshException {
+		return createServer(new InMemoryPublicKeyAuthenticator().addAuthorizedKey("test", authorized.getPublicKey()), configuration);
+	}
+
+	/**
+	 * Start a server on which the keys held by <code>authenticator</code> may authenticate.
+	 * 
+	 * @param authenticator authorized keys
+	 * @param configuration applied to each connection
+	 * @return server
+	 * @throws IOException
+	 * @throws SshException
+	 */
+	protected static SshServer createServer(InMemoryPublicKeyAuthenticator authenticator, ServerConfiguration configuration) throws IOException, SshException {
+		SshServer server = new SshServer("127.0.0.1", freePort()) {
+			@Override
+			public void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				configuration.configure(sshContext);
+			}
+		};
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519));
+		server.addAuthenticator(authenticator);
+		server.start();
+		return server;
+	}
+
+	protected static SshClient connect(int port, SshKeyPair identity) throws IOException, SshException {
+		return connect(port, "test", identity, ctx -> { });
+	}
+
+	protected static SshClient connect(int port, SshKeyPair identity, OnConfiguration configuration) throws IOException, SshException {
+		return connect(port, "test", identity, configuration);
+	}
+
+	protected static SshClient connect(int port, String username, SshKeyPair identity, OnConfiguration configuration) throws IOException, SshException {
+		return SshClientBuilder.create().
+				withTarget("127.0.0.1", port).
+				withUsername(username).
+				withConnectTimeout(5000L).
+				withIdentities(identity).
+				onConfigure(configuration).
+				build();
+	}
+
+	/**
+	 * Wait up to 10 seconds for <code>condition</code>, failing the test if it does not become true.
+	 */
+	protected static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while(!condition.getAsBoolean()) {
+			if(System.currentTimeMillis() > timeout) {
+				fail("Timed out waiting for condition");
+			}
+			Thread.sleep(20);
+		}
+	}
+
+	/**
+	 * Random data that is the same for every run of the same size.
+	 */
+	protected static byte[] randomData(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+}
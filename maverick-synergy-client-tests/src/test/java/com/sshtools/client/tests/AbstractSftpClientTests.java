@@ -0,0 +1,131 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
+import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.direct.NioFileFactory.NioFileFactoryBuilder;
+import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.policy.FileFactory;
+import com.sshtools.common.policy.FileSystemPolicy;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.sftp.extensions.BasicSftpExtensionFactory;
+import com.sshtools.common.sftp.extensions.HardLinkExtension;
+import com.sshtools.common.ssh.SessionChannel;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.UnsupportedChannelException;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.InMemoryPublicKeyAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+
+/**
+ * Starts an in-process SFTP server sandboxed to a temporary directory, and
+ * connects an {@link SshClient} to it, for tests that exercise the SFTP client.
+ */
+public abstract class AbstractSftpClientTests extends AbstractServerTests {
+
+	protected Path home;
+	protected SshServer server;
+	protected SshClient ssh;
+
+	@Override
+	protected void setUp() throws Exception {
+		home = Files.createTempDirectory("sftp");
+		SshKeyPair identity = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		server = new SshServer("127.0.0.1", freePort()) {
+			@Override
+			public void configure(SshServerContext sshContext, SocketChannel sc) throws IOException, SshException {
+				super.configure(sshContext, sc);
+				sshContext.getPolicy(FileSystemPolicy.class).getSFTPExtensionFactories().add(
+						new BasicSftpExtensionFactory(new HardLinkExtension()));
+			}
+		};
+		server.setFileFactory(new FileFactory() {
+			@Override
+			public AbstractFileFactory<?> getFileFactory(SshConnection con) {
+				return NioFileFactoryBuilder.create().withHome(home).build();
+			}
+		});
+		server.setChannelFactory(new DefaultServerChannelFactory() {
+			@Override
+			protected SftpSubsystem createSftpSubsystem(SessionChannel session) throws UnsupportedChannelException, PermissionDeniedException {
+				try {
+					SftpSubsystem sftp = AbstractSftpClientTests.this.createSftpSubsystem();
+					sftp.init(session, session.getConnection().getContext());
+					return sftp;
+				} catch (IOException e) {
+					throw new UnsupportedChannelException(e);
+				}
+			}
+		});
+		server.addHostKey(SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519));
+		server.addAuthenticator(new InMemoryPublicKeyAuthenticator().addAuthorizedKey("test", identity.getPublicKey()));
+		server.start();
+		
+		ssh = connect(server.getPort(), identity);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			ssh.close();
+		} finally {
+			server.close();
+			try(Stream<Path> paths = Files.walk(home)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	/**
+	 * Create the server side of each SFTP session. Tests may override this to
+	 * alter the responses the client receives.
+	 * 
+	 * @return subsystem
+	 */
+	protected SftpSubsystem createSftpSubsystem() {
+		return new SftpSubsystem();
+	}
+
+	/**
+	 * Create a builder for an SFTP client on the test connection.
+	 * 
+	 * @return builder
+	 * @throws IOException
+	 */
+	protected SftpClientBuilder sftp() throws IOException {
+		return SftpClientBuilder.create().withClient(ssh);
+	}
+}
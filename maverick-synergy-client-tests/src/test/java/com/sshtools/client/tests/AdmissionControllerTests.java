@@ -0,0 +1,194 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.permissions.IPPolicy;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.SshServer;
+import com.sshtools.synergy.nio.AdmissionController;
+import com.sshtools.synergy.nio.AdmissionController.Admission;
+import com.sshtools.synergy.nio.AdmissionController.Rejection;
+
+public class AdmissionControllerTests extends AbstractServerTests {
+
+	static final InetSocketAddress LOCAL = new InetSocketAddress("127.0.0.1", 22);
+
+	static InetSocketAddress remote(String addr) {
+		return new InetSocketAddress(addr, 40000);
+	}
+
+	/**
+	 * Read the server's identification string, or return <code>null</code> if the
+	 * server closes the connection without sending one.
+	 */
+	static String readIdentification(Socket socket) throws IOException {
+		socket.setSoTimeout(10000);
+		InputStream in = socket.getInputStream();
+		StringBuilder line = new StringBuilder();
+		try {
+			int ch;
+			while((ch = in.read()) > -1 && ch != '\n') {
+				line.append((char) ch);
+			}
+			return ch == -1 ? null : line.toString().trim();
+		} catch(IOException e) {
+			/* Connection reset */
+			return null;
+		}
+	}
+
+	public void testAcceptRate() {
+		AdmissionController controller = new AdmissionController();
+		assertEquals(0, controller.acquireAccept());
+
+		controller.setAcceptRate(10, 2);
+		assertEquals(0, controller.acquireAccept());
+		assertEquals(0, controller.acquireAccept());
+		long delay = controller.acquireAccept();
+		assertTrue(delay > 0 && delay <= 100000000L);
+		assertEquals(1, controller.getDeferred());
+	}
+
+	public void testPerAddress() throws IOException {
+		AdmissionController controller = new AdmissionController();
+		IPPolicy policy = new IPPolicy();
+		policy.setFailedAuthenticationCountThreshold(1);
+		controller.setIPPolicy(policy);
+		controller.setMaximumPerAddress(2);
+
+		Admission first = controller.admit(remote("10.0.0.1"), LOCAL);
+		Admission second = controller.admit(remote("10.0.0.1"), LOCAL);
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNotNull(controller.admit(remote("10.0.0.2"), LOCAL));
+		assertNull(controller.admit(remote("10.0.0.1"), LOCAL));
+		assertEquals(2, controller.getConnections(InetAddress.getByName("10.0.0.1")));
+		assertEquals(1, controller.getRejected(Rejection.PER_ADDRESS));
+
+		first.release();
+		first.release();
+		assertEquals(1, controller.getConnections(InetAddress.getByName("10.0.0.1")));
+		assertNotNull(controller.admit(remote("10.0.0.1"), LOCAL));
+		assertEquals(4, controller.getAccepted());
+
+		/* Exceeding the limit again passes the failure threshold of the policy */
+		assertNull(controller.admit(remote("10.0.0.1"), LOCAL));
+		assertEquals(2, controller.getRejected(Rejection.PER_ADDRESS));
+		assertNull(controller.admit(remote("10.0.0.1"), LOCAL));
+		assertEquals(1, controller.getRejected(Rejection.IP_POLICY));
+		assertEquals(3, controller.getRejected());
+	}
+
+	public void testPreAuthenticationAndLoad() throws IOException {
+		AdmissionController controller = new AdmissionController();
+		controller.setMaximumPreAuthentication(2);
+
+		Admission first = controller.admit(remote("10.0.0.1"), LOCAL);
+		Admission second = controller.admit(remote("10.0.0.2"), LOCAL);
+		assertNull(controller.admit(remote("10.0.0.3"), LOCAL));
+		assertEquals(2, controller.getPreAuthenticationConnections());
+
+		first.authenticated();
+		first.authenticated();
+		assertEquals(1, controller.getPreAuthenticationConnections());
+		assertNotNull(controller.admit(remote("10.0.0.3"), LOCAL));
+
+		second.release();
+		first.release();
+		assertEquals(1, controller.getPreAuthenticationConnections());
+		assertEquals(0, controller.getConnections(InetAddress.getByName("10.0.0.1")));
+
+		AtomicInteger load = new AtomicInteger(5);
+		controller.setMaximumPreAuthentication(0);
+		controller.setLoadMonitor(load::get, 5);
+		assertNull(controller.admit(remote("10.0.0.4"), LOCAL));
+		load.set(4);
+		assertNotNull(controller.admit(remote("10.0.0.4"), LOCAL));
+
+		/* A maximum of zero disables the check, as with the other limits */
+		controller.setLoadMonitor(load::get, 0);
+		assertNotNull(controller.admit(remote("10.0.0.5"), LOCAL));
+		assertEquals(1, controller.getRejected(Rejection.LOAD));
+		assertEquals(1, controller.getRejected(Rejection.PRE_AUTHENTICATION));
+	}
+
+	public void testServer() throws Exception {
+
+		SshKeyPair identity = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		AdmissionController controller = new AdmissionController();
+		controller.setMaximumPreAuthentication(2);
+
+		try(SshServer server = createServer(identity, ctx -> { })) {
+			int port = server.getPort();
+			server.setAdmissionController(controller);
+			assertSame(server.getIPPolicy(), controller.getIPPolicy());
+
+			/* An authenticated connection does not count towards the limit */
+			try(SshClient client = connect(port, identity)) {
+				waitFor(() -> controller.getPreAuthenticationConnections() == 0);
+
+				List<Socket> sockets = new ArrayList<>();
+				try {
+					for(int i = 0; i < 2; i++) {
+						Socket socket = new Socket("127.0.0.1", port);
+						sockets.add(socket);
+						assertTrue(readIdentification(socket).startsWith("SSH-2.0-"));
+					}
+					assertEquals(2, controller.getPreAuthenticationConnections());
+
+					try(Socket socket = new Socket("127.0.0.1", port)) {
+						assertNull(readIdentification(socket));
+					}
+					assertEquals(1, controller.getRejected(Rejection.PRE_AUTHENTICATION));
+				} finally {
+					for(Socket socket : sockets) {
+						socket.close();
+					}
+				}
+				waitFor(() -> controller.getPreAuthenticationConnections() == 0);
+
+				/* Accepts over the rate wait in the backlog */
+				controller.setAcceptRate(4, 1);
+				long started = System.currentTimeMillis();
+				for(int i = 0; i < 3; i++) {
+					try(Socket socket = new Socket("127.0.0.1", port)) {
+						assertTrue(readIdentification(socket).startsWith("SSH-2.0-"));
+					}
+				}
+				assertTrue(System.currentTimeMillis() - started >= 400);
+				assertTrue(controller.getDeferred() > 0);
+				assertEquals(6, controller.getAccepted());
+			}
+		}
+	}
+}
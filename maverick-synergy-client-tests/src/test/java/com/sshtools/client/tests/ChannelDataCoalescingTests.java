@@ -0,0 +1,142 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.client.SessionChannelNG;
+import com.sshtools.client.SshClient;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.Channel;
+import com.sshtools.common.ssh.ChannelEventListener;
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.server.UnsupportedSession;
+import com.sshtools.synergy.ssh.ChannelNG;
+
+/**
+ * Checks that small writes to a channel are merged into larger packets when data coalescing
+ * is enabled, without losing or reordering data, and that channels with a pseudo terminal
+ * still send a packet for every write.
+ */
+public class ChannelDataCoalescingTests extends AbstractServerTests {
+
+	static final int WRITES = 40000;
+	static final int WRITE_SIZE = 100;
+
+	/**
+	 * A shell that writes a numbered sequence of small blocks and then closes.
+	 */
+	static class SmallWriteSession extends UnsupportedSession {
+
+		SmallWriteSession(SshConnection con) {
+			super(con);
+		}
+
+		@Override
+		protected boolean startShell() {
+			con.executeTask(new ConnectionAwareTask(con) {
+				@Override
+				protected void doTask() {
+					try {
+						byte[] block = new byte[WRITE_SIZE];
+						for(int i = 0; i < WRITES; i++) {
+							ByteBuffer.wrap(block).putInt(i);
+							sendChannelDataAndBlock(block);
+						}
+						sendEOF();
+						close();
+					} catch (IOException e) {
+						Log.error("Channel I/O error", e);
+					}
+				}
+			});
+			return true;
+		}
+	}
+
+	static SshServer createServer(SshKeyPair authorized, boolean coalescing) throws IOException, SshException {
+		DefaultServerChannelFactory channelFactory = new DefaultServerChannelFactory() {
+			@Override
+			protected ChannelNG<SshServerContext> createSessionChannel(SshConnection con) {
+				return new SmallWriteSession(con);
+			}
+		};
+		return createServer(authorized, ctx -> {
+			ctx.setChannelDataCoalescing(coalescing);
+			ctx.setChannelFactory(channelFactory);
+		});
+	}
+
+	/**
+	 * Read the whole sequence from a shell, checking every block arrives in order,
+	 * and return the number of data packets it was received in.
+	 */
+	static int readSequence(boolean coalescing, boolean pty) throws Exception {
+		SshKeyPair identity = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		try(SshServer server = createServer(identity, coalescing)) {
+			try(SshClient ssh = connect(server.getPort(), identity)) {
+
+				SessionChannelNG session = ssh.openSessionChannel();
+				AtomicInteger packets = new AtomicInteger();
+				session.addEventListener(new ChannelEventListener() {
+					@Override
+					public void onChannelDataIn(Channel channel, ByteBuffer buffer) {
+						packets.incrementAndGet();
+					}
+				});
+				if(pty) {
+					assertTrue(session.allocatePseudoTerminal("vt100").waitFor(10000).isSuccess());
+				}
+				assertTrue(session.startShell().waitFor(10000).isSuccess());
+
+				byte[] data = session.getInputStream().readAllBytes();
+				assertEquals(WRITES * WRITE_SIZE, data.length);
+				ByteBuffer buf = ByteBuffer.wrap(data);
+				for(int i = 0; i < WRITES; i++) {
+					assertEquals(i, buf.getInt(i * WRITE_SIZE));
+				}
+				return packets.get();
+			}
+		}
+	}
+
+	public void testWritesAreCoalesced() throws Exception {
+		assertTrue("Small writes should share packets", readSequence(true, false) < WRITES);
+	}
+
+	public void testWritesAreNotCoalescedByDefault() throws Exception {
+		assertEquals(WRITES, readSequence(false, false));
+	}
+
+	public void testPseudoTerminalIsNotCoalesced() throws Exception {
+		assertEquals(WRITES, readSequence(true, true));
+	}
+}
@@ -0,0 +1,171 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SessionChannelNG;
+import com.sshtools.client.SshClient;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.lz4.LZ4Compression;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.ConnectionAwareTask;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.common.ssh.compression.SshCompression;
+import com.sshtools.common.zlib.ZLibCompression;
+import com.sshtools.server.DefaultServerChannelFactory;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.server.UnsupportedSession;
+import com.sshtools.synergy.ssh.ChannelNG;
+import com.sshtools.synergy.ssh.SshContext;
+
+/**
+ * Checks that data sent through a compressed connection between the client and 
+ * server arrives intact with <code>zlib</code>, the delayed <code>zlib@openssh.com</code>
+ * with and without adaptive compression, and <code>lz4@sshtools.com</code>.
+ */
+public class CompressionTests extends AbstractServerTests {
+
+	static final int BLOCK_SIZE = 16384;
+
+	/**
+	 * A shell that writes the data and then closes, keeping the compression used by the server.
+	 */
+	static class DataSession extends UnsupportedSession {
+
+		final byte[] data;
+		final AtomicReference<SshCompression> compression;
+		
+		DataSession(SshConnection con, byte[] data, AtomicReference<SshCompression> compression) {
+			super(con);
+			this.data = data;
+			this.compression = compression;
+		}
+
+		@Override
+		protected boolean startShell() {
+			compression.set(getConnectionProtocol().getTransport().getOutgoingCompression());
+			con.executeTask(new ConnectionAwareTask(con) {
+				@Override
+				protected void doTask() {
+					try {
+						for(int i = 0; i < data.length; i += BLOCK_SIZE) {
+							sendChannelDataAndBlock(Arrays.copyOfRange(data, i, Math.min(i + BLOCK_SIZE, data.length)));
+						}
+						sendEOF();
+						close();
+					} catch (IOException e) {
+						Log.error("Channel I/O error", e);
+					}
+				}
+			});
+			return true;
+		}
+	}
+
+	/**
+	 * Text followed by random data that does not compress.
+	 */
+	static byte[] createData() {
+		byte[] text = new byte[2 * 1024 * 1024];
+		byte[] line = "The quick brown fox jumps over the lazy dog 0123456789\r\n".getBytes();
+		for(int i = 0; i < text.length; i++) {
+			text[i] = line[i % line.length];
+		}
+		byte[] data = Arrays.copyOf(text, text.length + 4 * 1024 * 1024);
+		byte[] random = randomData(4 * 1024 * 1024);
+		System.arraycopy(random, 0, data, text.length, random.length);
+		return data;
+	}
+	
+	static SshCompression transfer(String algorithm, boolean adaptive) throws Exception {
+		
+		byte[] data = createData();
+		AtomicReference<SshCompression> serverCompression = new AtomicReference<>();
+		SshKeyPair identity = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		DefaultServerChannelFactory channelFactory = new DefaultServerChannelFactory() {
+			@Override
+			protected ChannelNG<SshServerContext> createSessionChannel(SshConnection con) {
+				return new DataSession(con, data, serverCompression);
+			}
+		};
+		
+		try(SshServer server = createServer(identity, ctx -> {
+					ctx.setPreferredCompressionSC(algorithm);
+					ctx.setPreferredCompressionCS(algorithm);
+					ctx.setAdaptiveCompression(adaptive);
+					ctx.setChannelFactory(channelFactory);
+				})) {
+			try(SshClient ssh = connect(server.getPort(), identity, ctx -> {
+						ctx.setPreferredCompressionSC(algorithm);
+						ctx.setPreferredCompressionCS(algorithm);
+					})) {
+
+				assertEquals(algorithm, ssh.getConnection().getCompressionInUseSC());
+				
+				SessionChannelNG session = ssh.openSessionChannel();
+				assertTrue(session.startShell().waitFor(10000).isSuccess());
+				byte[] received = session.getInputStream().readAllBytes();
+				assertTrue("Data should arrive intact", Arrays.equals(data, received));
+				
+				SshCompression incoming = ssh.getConnection().getConnectionProtocol().getTransport().getIncomingCompression();
+				assertEquals(algorithm, incoming.getAlgorithm());
+				assertTrue(uncompressedBytes(incoming) >= data.length);
+				return serverCompression.get();
+			}
+		}
+	}
+	
+	static long uncompressedBytes(SshCompression compression) {
+		if(compression instanceof LZ4Compression) {
+			return ((LZ4Compression)compression).getUncompressedBytes();
+		}
+		return ((ZLibCompression)compression).getUncompressedBytes();
+	}
+	
+	public void testZLib() throws Exception {
+		ZLibCompression compression = (ZLibCompression) transfer("zlib", false);
+		assertEquals(0, compression.getStoredBytes());
+		assertTrue(compression.getCompressionRatio() < 0.9);
+	}
+	
+	public void testDelayedZLib() throws Exception {
+		ZLibCompression compression = (ZLibCompression) transfer("zlib@openssh.com", false);
+		assertEquals(0, compression.getStoredBytes());
+	}
+	
+	public void testAdaptiveZLib() throws Exception {
+		ZLibCompression compression = (ZLibCompression) transfer("zlib@openssh.com", true);
+		assertTrue("Random data should be stored", compression.getStoredBytes() > 2 * 1024 * 1024);
+		assertTrue(compression.getCompressionRatio() < 0.9);
+	}
+
+	public void testLZ4() throws Exception {
+		LZ4Compression compression = (LZ4Compression) transfer(SshContext.COMPRESSION_LZ4, false);
+		assertEquals(SshContext.COMPRESSION_LZ4, compression.getAlgorithm());
+		assertTrue("Text should be compressed", compression.getCompressionRatio() < 0.9);
+	}
+}
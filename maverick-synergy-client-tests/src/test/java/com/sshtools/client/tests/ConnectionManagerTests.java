@@ -0,0 +1,103 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.InMemoryPublicKeyAuthenticator;
+import com.sshtools.server.SshServer;
+import com.sshtools.server.SshServerContext;
+import com.sshtools.synergy.ssh.ConnectionManager;
+
+/**
+ * Checks that a server's {@link ConnectionManager} tracks connections, their
+ * session identifiers and the logged on users as clients connect and disconnect.
+ */
+public class ConnectionManagerTests extends AbstractServerTests {
+
+	public void testDuplicateName() {
+		String name = UUID.randomUUID().toString();
+		new ConnectionManager<SshServerContext>(name);
+		try {
+			new ConnectionManager<SshServerContext>(name);
+			fail("Duplicate connection manager name was accepted");
+		} catch(IllegalArgumentException e) {
+		}
+	}
+
+	public void testRegistry() throws Exception {
+
+		ConnectionManager<SshServerContext> manager = new ConnectionManager<>(UUID.randomUUID().toString());
+		SshKeyPair test = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		SshKeyPair other = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+
+		try(SshServer server = createServer(new InMemoryPublicKeyAuthenticator()
+				.addAuthorizedKey("test", test.getPublicKey())
+				.addAuthorizedKey("other", other.getPublicKey()), 
+				ctx -> ctx.setConnectionManager(manager))) {
+			SshClient first = connect(server.getPort(), test);
+			SshClient second = connect(server.getPort(), test);
+			SshClient third = connect(server.getPort(), "other", other, ctx -> { });
+
+			waitFor(() -> manager.getNumberOfAuthenticatedConnections() == 3);
+			assertEquals(3, manager.getNumberOfConnections().intValue());
+			assertEquals(new HashSet<>(Arrays.asList("test", "other")), 
+					new HashSet<>(Arrays.asList(manager.getLoggedOnUsers())));
+
+			Set<String> ids = new HashSet<>();
+			for(SshConnection con : manager.getAllConnections()) {
+				ids.add(con.getUUID());
+				assertSame(con, manager.getConnectionById(con.getUUID()));
+				assertSame(con, ConnectionManager.getConnection(con.getUUID()));
+				assertSame(con, ConnectionManager.searchConnectionsById(con.getUUID()));
+			}
+			assertEquals(3, ids.size());
+			assertNull(manager.getConnectionById(UUID.randomUUID().toString()));
+			assertNull(manager.getConnectionById(null));
+
+			first.close();
+			waitFor(() -> manager.getNumberOfConnections() == 2);
+			assertEquals(2, manager.getNumberOfAuthenticatedConnections());
+			assertEquals(2, manager.getLoggedOnUsers().length);
+
+			third.close();
+			waitFor(() -> manager.getNumberOfConnections() == 1);
+			assertEquals(Arrays.asList("test"), Arrays.asList(manager.getLoggedOnUsers()));
+
+			second.close();
+			waitFor(() -> manager.getNumberOfConnections() == 0);
+			assertEquals(0, manager.getNumberOfAuthenticatedConnections());
+			assertEquals(0, manager.getLoggedOnUsers().length);
+			assertTrue(manager.getAllConnections().isEmpty());
+			for(String id : ids) {
+				assertNull(ConnectionManager.getConnection(id));
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.server.EphemeralKeyPool;
+import com.sshtools.server.EphemeralKeyPool.EphemeralKeyPoolBuilder;
+
+import junit.framework.TestCase;
+
+public class EphemeralKeyPoolTests extends TestCase {
+
+	static void waitForDepth(EphemeralKeyPool pool, String name, int depth) throws InterruptedException {
+		long started = System.currentTimeMillis();
+		while(pool.getAvailable(name) < depth) {
+			assertTrue("Pool did not refill", System.currentTimeMillis() - started < 10000);
+			Thread.sleep(5);
+		}
+	}
+
+	public void testMissThenRefill() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		try(EphemeralKeyPool pool = EphemeralKeyPoolBuilder.create().withDepth(4).build()) {
+			/* The refill may start before the inline key is generated */
+			assertTrue(pool.take("test", counter::incrementAndGet) > 0);
+			assertEquals(1, pool.getMisses("test"));
+			assertEquals(0, pool.getHits("test"));
+			
+			waitForDepth(pool, "test", 4);
+			for(int i = 0; i < 4; i++) {
+				pool.take("test", () -> -1);
+			}
+			assertEquals(4, pool.getHits("test"));
+			assertEquals(0.2D, pool.getMissRate("test"), 0.0001D);
+			assertEquals(0.2D, pool.getMissRate(), 0.0001D);
+			assertTrue(pool.getNames().contains("test"));
+		}
+	}
+
+	public void testKeysNeverReused() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		try(EphemeralKeyPool pool = EphemeralKeyPoolBuilder.create().withDepth(8).withRefillThreads(2).build()) {
+			Set<Integer> seen = new HashSet<>();
+			List<Thread> threads = new ArrayList<>();
+			List<Exception> errors = new ArrayList<>();
+			for(int i = 0; i < 4; i++) {
+				Thread t = new Thread(() -> {
+					try {
+						for(int j = 0; j < 500; j++) {
+							Integer key = pool.take("test", counter::incrementAndGet);
+							synchronized(seen) {
+								assertTrue("Key " + key + " was reused", seen.add(key));
+							}
+						}
+					} catch(Exception | AssertionError e) {
+						synchronized(errors) {
+							errors.add(new Exception(e));
+						}
+					}
+				});
+				threads.add(t);
+				t.start();
+			}
+			for(Thread t : threads) {
+				t.join();
+			}
+			if(!errors.isEmpty()) {
+				throw errors.get(0);
+			}
+			assertEquals(2000, seen.size());
+			assertEquals(2000, pool.getHits() + pool.getMisses());
+		}
+	}
+
+	public void testSeparateAlgorithms() throws Exception {
+		try(EphemeralKeyPool pool = EphemeralKeyPoolBuilder.create().withDepth(2).build()) {
+			pool.take("a", () -> "a");
+			pool.take("b", () -> "b");
+			waitForDepth(pool, "a", 2);
+			waitForDepth(pool, "b", 2);
+			assertEquals("a", pool.take("a", () -> "x"));
+			assertEquals("b", pool.take("b", () -> "x"));
+		}
+	}
+
+	public void testGeneratorFailure() throws Exception {
+		try(EphemeralKeyPool pool = EphemeralKeyPoolBuilder.create().build()) {
+			try {
+				pool.take("test", () -> { throw new IllegalStateException("Failed"); });
+				fail("Expected IOException");
+			} catch(IOException e) {
+				assertEquals("Failed", e.getMessage());
+			}
+			assertEquals(0, pool.getAvailable("test"));
+		}
+	}
+
+	public void testClosedPoolGeneratesInline() throws Exception {
+		EphemeralKeyPool pool = EphemeralKeyPoolBuilder.create().withDepth(2).build();
+		pool.take("test", () -> "pooled");
+		waitForDepth(pool, "test", 2);
+		pool.close();
+		assertEquals(0, pool.getAvailable("test"));
+		assertEquals("inline", pool.take("test", () -> "inline"));
+	}
+
+	public void testRealKeyPairs() throws Exception {
+		try(EphemeralKeyPool pool = EphemeralKeyPoolBuilder.create().withDepth(2).build()) {
+			KeyPair first = pool.take("ec", EphemeralKeyPoolTests::generateEc);
+			waitForDepth(pool, "ec", 2);
+			KeyPair second = pool.take("ec", EphemeralKeyPoolTests::generateEc);
+			KeyPair third = pool.take("ec", EphemeralKeyPoolTests::generateEc);
+			assertNotSame(first, second);
+			assertFalse(second.getPublic().equals(third.getPublic()));
+		}
+	}
+
+	static KeyPair generateEc() throws Exception {
+		KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+		gen.initialize(new ECGenParameterSpec("secp256r1"));
+		return gen.generateKeyPair();
+	}
+}
@@ -0,0 +1,159 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sshtools.client.SshClient;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.synergy.ssh.ForwardingMemoryBudget;
+import com.sshtools.server.SshServer;
+
+/**
+ * Checks that data forwarded through local and remote tunnels arrives intact and
+ * in order, and that the end of the stream is only signalled once all of the data
+ * has been sent, using an in process server.
+ */
+public class ForwardingDataPathTests extends AbstractServerTests {
+
+	static final int DATA_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * A target that echoes everything it receives, or when <code>data</code> is
+	 * not null, writes it and closes the connection.
+	 */
+	static ServerSocket startTarget(byte[] data) throws IOException {
+		ServerSocket target = new ServerSocket(0);
+		Thread t = new Thread(() -> {
+			while(!target.isClosed()) {
+				try {
+					Socket s = target.accept();
+					new Thread(() -> {
+						try(Socket socket = s) {
+							if(data == null) {
+								socket.getInputStream().transferTo(socket.getOutputStream());
+							} else {
+								socket.getOutputStream().write(data);
+							}
+						} catch(IOException e) {
+						}
+					}).start();
+				} catch(IOException e) {
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+		return target;
+	}
+
+	static byte[] echo(int port, byte[] data) throws Exception {
+		try(Socket socket = new Socket("127.0.0.1", port)) {
+			AtomicReference<Exception> error = new AtomicReference<>();
+			Thread writer = new Thread(() -> {
+				try {
+					OutputStream out = socket.getOutputStream();
+					for(int i = 0; i < data.length; i += 32768) {
+						out.write(data, i, Math.min(32768, data.length - i));
+					}
+				} catch(IOException e) {
+					error.set(e);
+				}
+			});
+			writer.start();
+			byte[] received = socket.getInputStream().readNBytes(data.length);
+			writer.join();
+			if(error.get() != null) {
+				throw error.get();
+			}
+			return received;
+		}
+	}
+
+	public void testLocalForwarding() throws Exception {
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		byte[] data = randomData(DATA_SIZE);
+		try(ServerSocket target = startTarget(null);
+				SshServer server = createServer(key, ctx -> ctx.getForwardingPolicy().allowForwarding());
+				SshClient client = connect(server.getPort(), key, ctx -> ctx.getForwardingPolicy().allowForwarding())) {
+			int local = client.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", target.getLocalPort());
+			assertTrue(Arrays.equals(data, echo(local, data)));
+			assertTrue(Arrays.equals(data, echo(local, data)));
+		}
+	}
+
+	public void testRemoteForwarding() throws Exception {
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		byte[] data = randomData(DATA_SIZE);
+		try(ServerSocket target = startTarget(null);
+				SshServer server = createServer(key, ctx -> ctx.getForwardingPolicy().allowForwarding());
+				SshClient client = connect(server.getPort(), key, ctx -> ctx.getForwardingPolicy().allowForwarding())) {
+			int remote = client.startRemoteForwarding("127.0.0.1", 0, "127.0.0.1", target.getLocalPort());
+			assertTrue(Arrays.equals(data, echo(remote, data)));
+		}
+	}
+
+	public void testAllDataBeforeEOF() throws Exception {
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		byte[] data = randomData(DATA_SIZE);
+		try(ServerSocket target = startTarget(data);
+				SshServer server = createServer(key, ctx -> ctx.getForwardingPolicy().allowForwarding());
+				SshClient client = connect(server.getPort(), key, ctx -> ctx.getForwardingPolicy().allowForwarding())) {
+			int local = client.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", target.getLocalPort());
+			for(int i = 0; i < 3; i++) {
+				try(Socket socket = new Socket("127.0.0.1", local)) {
+					InputStream in = socket.getInputStream();
+					assertTrue(Arrays.equals(data, in.readAllBytes()));
+				}
+			}
+		}
+	}
+
+	public void testConnectionMemoryLimit() throws Exception {
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		byte[] data = randomData(DATA_SIZE);
+		try(ServerSocket target = startTarget(null);
+				SshServer server = createServer(key, ctx -> ctx.getForwardingPolicy().allowForwarding());
+				SshClient client = connect(server.getPort(), key, ctx -> {
+					ctx.getForwardingPolicy().allowForwarding();
+					ctx.getForwardingPolicy().setForwardingConnectionMemoryLimit(256 * 1024);
+				})) {
+			ForwardingMemoryBudget budget = ForwardingMemoryBudget.getConnectionBudget(client.getConnection());
+			assertEquals(256 * 1024, budget.getLimit());
+			int local = client.startLocalForwarding("127.0.0.1", 0, "127.0.0.1", target.getLocalPort());
+			assertTrue(Arrays.equals(data, echo(local, data)));
+			assertTrue(Arrays.equals(data, echo(local, data)));
+			for(int i = 0; i < 50 && budget.getUsed() > 0; i++) {
+				Thread.sleep(100);
+			}
+			assertEquals(0, budget.getUsed());
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import com.sshtools.common.ssh.components.DiffieHellmanGroups;
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.server.ModuliGenerator;
+
+import junit.framework.TestCase;
+
+public class ModuliGeneratorTests extends TestCase {
+
+	@Override
+	protected void tearDown() throws Exception {
+		DiffieHellmanGroups.clearGroups();
+	}
+
+	public void testGenerateSafePrime() {
+		ModuliGenerator generator = new ModuliGenerator(50);
+		for(int bits : new int[] { 64, 256, 512 }) {
+			BigInteger p = generator.generateSafePrime(bits);
+			assertEquals(bits, p.bitLength());
+			assertTrue(p.isProbablePrime(50));
+			assertTrue(p.shiftRight(1).isProbablePrime(50));
+			assertEquals(11, p.mod(BigInteger.valueOf(24)).intValue());
+		}
+	}
+
+	public void testGeneratedModuliLoad() throws Exception {
+		ModuliGenerator generator = new ModuliGenerator(50);
+		StringWriter moduli = new StringWriter();
+		try(PrintWriter out = new PrintWriter(moduli)) {
+			generator.generate(out, 2, 2, 256, 512);
+		}
+		assertEquals(4, moduli.toString().split("\n").length);
+		assertEquals(4, DiffieHellmanGroups.loadGroups(new ByteArrayInputStream(
+				moduli.toString().getBytes(StandardCharsets.US_ASCII)), true));
+		assertEquals(512, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(1000)).getP().bitLength());
+		assertEquals(256, DiffieHellmanGroups.getSafePrime(new UnsignedInteger32(511)).getP().bitLength());
+	}
+
+	public void testScreen() throws Exception {
+		ModuliGenerator generator = new ModuliGenerator(50);
+		BigInteger p = generator.generateSafePrime(256);
+		String moduli = generator.format(p) + "\n"
+				+ generator.format(p.add(BigInteger.valueOf(24))) + "\n"
+				+ "# comment\n";
+		StringWriter screened = new StringWriter();
+		try(PrintWriter out = new PrintWriter(screened)) {
+			assertEquals(1, generator.screen(new ByteArrayInputStream(moduli.getBytes(StandardCharsets.US_ASCII)), out));
+		}
+		assertTrue(screened.toString().trim().endsWith(p.toString(16).toUpperCase()));
+	}
+}
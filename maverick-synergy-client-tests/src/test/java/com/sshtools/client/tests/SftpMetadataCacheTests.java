@@ -0,0 +1,245 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.client.sftp.SftpFile;
+import com.sshtools.client.sftp.SftpMetadataCache;
+import com.sshtools.client.sftp.SftpMetadataCache.SftpMetadataCacheBuilder;
+import com.sshtools.common.sftp.SftpStatusException;
+
+/**
+ * Checks that the optional {@link SftpMetadataCache} returns cached metadata
+ * until it expires, is discarded by each modification made through the client,
+ * and is not used at all unless configured.
+ */
+public class SftpMetadataCacheTests extends AbstractSftpClientTests {
+
+	interface Mutation {
+		void apply(SftpClient sftp) throws Exception;
+	}
+	
+	SftpMetadataCache cache(long ttl) {
+		return SftpMetadataCacheBuilder.create().withTimeToLive(ttl, TimeUnit.MILLISECONDS).build();
+	}
+	
+	void write(String name, int length) throws Exception {
+		Files.write(home.resolve(name), new byte[length]);
+	}
+	
+	public void testDisabledByDefault() throws Exception {
+		write("file", 10);
+		try(SftpClient sftp = sftp().build()) {
+			assertTrue(sftp.getMetadataCache().isEmpty());
+			assertEquals(10, sftp.stat("file").size().longValue());
+			write("file", 20);
+			assertEquals(20, sftp.stat("file").size().longValue());
+		}
+	}
+	
+	public void testHit() throws Exception {
+		write("file", 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat("file").size().longValue());
+			assertEquals(1, cache.getMisses());
+			
+			/* Changed behind the client's back, so the cached attributes are returned */
+			write("file", 20);
+			assertEquals(10, sftp.stat("file").size().longValue());
+			assertEquals(1, cache.getHits());
+			
+			assertTrue(listed(sftp, "file"));
+			sftp.ls();
+			assertEquals(2, cache.getHits());
+		}
+	}
+	
+	public void testExpiry() throws Exception {
+		write("file", 10);
+		SftpMetadataCache cache = cache(100);
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat("file").size().longValue());
+			write("file", 20);
+			Thread.sleep(250);
+			assertEquals(20, sftp.stat("file").size().longValue());
+			assertEquals(0, cache.getHits());
+			assertEquals(2, cache.getMisses());
+		}
+	}
+	
+	public void testPutInvalidates() throws Exception {
+		assertInvalidates("file", sftp -> sftp.put(new ByteArrayInputStream(new byte[20]), "file"));
+	}
+	
+	public void testOutputStreamInvalidates() throws Exception {
+		assertInvalidates("file", sftp -> {
+			try(OutputStream out = sftp.getOutputStream("file")) {
+				out.write(new byte[20]);
+			}
+		});
+	}
+	
+	public void testChmodInvalidates() throws Exception {
+		write("file", 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			sftp.chmod(0600, "file");
+			assertEquals(0600, sftp.stat("file").permissions().asInt() & 0777);
+			sftp.chmod(0640, "file");
+			assertEquals(0640, sftp.stat("file").permissions().asInt() & 0777);
+		}
+	}
+	
+	public void testRmInvalidates() throws Exception {
+		assertGone("file", sftp -> sftp.rm("file"));
+	}
+	
+	public void testRecursiveRmInvalidates() throws Exception {
+		Files.createDirectories(home.resolve("dir/sub"));
+		write("dir/sub/file", 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat("dir/sub/file").size().longValue());
+			sftp.ls("dir");
+			sftp.rm("dir", true, true);
+			assertMissing(sftp, "dir/sub/file");
+			assertMissing(sftp, "dir");
+		}
+	}
+	
+	public void testMkdirAndRmdirInvalidate() throws Exception {
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			String dir = sftp.pwd() + "/dir";
+			assertMissing(sftp, dir);
+			assertFalse(listed(sftp, "dir"));
+			sftp.mkdir(dir);
+			assertTrue(sftp.stat(dir).isDirectory());
+			assertTrue(listed(sftp, "dir"));
+			sftp.rmdir(dir);
+			assertMissing(sftp, dir);
+			assertFalse(listed(sftp, "dir"));
+		}
+	}
+	
+	public void testRenameInvalidates() throws Exception {
+		write("file", 10);
+		write("other", 20);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat("file").size().longValue());
+			assertMissing(sftp, "renamed");
+			sftp.rename("file", "renamed");
+			assertMissing(sftp, "file");
+			assertEquals(10, sftp.stat("renamed").size().longValue());
+		}
+	}
+	
+	public void testSymlinkInvalidates() throws Exception {
+		write("file", 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertMissing(sftp, "link");
+			sftp.symlink("file", "link");
+			assertNotNull(sftp.stat("link"));
+		}
+	}
+	
+	public void testHardlinkInvalidates() throws Exception {
+		write("file", 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			/* The server links relative sources against its own working directory */
+			String file = sftp.pwd() + "/file";
+			assertEquals(10, sftp.stat(file).size().longValue());
+			assertMissing(sftp, "link");
+			sftp.hardlink(file, "link");
+			assertEquals(10, sftp.stat("link").size().longValue());
+			
+			/* The link count of the source has changed, so it is looked up again */
+			long misses = cache.getMisses();
+			assertEquals(10, sftp.stat(file).size().longValue());
+			assertEquals(misses + 1, cache.getMisses());
+		}
+	}
+	
+	public void testFailedMutationInvalidates() throws Exception {
+		write("file", 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat("file").size().longValue());
+			write("file", 20);
+			try {
+				sftp.rmdir("file");
+				fail("Should not remove a file as a directory");
+			} catch(SftpStatusException e) {
+			}
+			assertEquals(20, sftp.stat("file").size().longValue());
+		}
+	}
+	
+	void assertInvalidates(String name, Mutation mutation) throws Exception {
+		write(name, 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat(name).size().longValue());
+			mutation.apply(sftp);
+			assertEquals(20, sftp.stat(name).size().longValue());
+			assertTrue(cache.getInvalidations() > 0);
+		}
+	}
+	
+	void assertGone(String name, Mutation mutation) throws Exception {
+		write(name, 10);
+		SftpMetadataCache cache = cache(TimeUnit.MINUTES.toMillis(1));
+		try(SftpClient sftp = sftp().withMetadataCache(cache).build()) {
+			assertEquals(10, sftp.stat(name).size().longValue());
+			mutation.apply(sftp);
+			assertMissing(sftp, name);
+		}
+	}
+	
+	boolean listed(SftpClient sftp, String name) throws Exception {
+		for(SftpFile file : sftp.ls()) {
+			if(file.getFilename().equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	void assertMissing(SftpClient sftp, String name) throws Exception {
+		try {
+			sftp.stat(name);
+			fail(name + " should not exist");
+		} catch(SftpStatusException e) {
+			assertEquals(SftpStatusException.SSH_FX_NO_SUCH_FILE, e.getStatus());
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.client.sftp.SftpClient;
+import com.sshtools.common.sftp.SftpStatusException;
+import com.sshtools.common.sftp.SftpSubsystem;
+import com.sshtools.common.ssh.Packet;
+
+/**
+ * Checks the pipelined SFTP input and output streams when the server answers
+ * requests out of order, returns less data than requested at the end of a file,
+ * or fails a write that is only acknowledged once the stream is closed.
+ */
+public class SftpStreamTests extends AbstractSftpClientTests {
+
+	static final int BLOCK_SIZE = 4096;
+	
+	/**
+	 * Holds back every other response of a given type until the next one has been
+	 * sent, so the client sees each pair in reverse order. A held response is
+	 * released after a short delay if nothing follows it. Optionally fails every
+	 * successful status response instead.
+	 */
+	static class ReorderingSftpSubsystem extends SftpSubsystem {
+		
+		volatile int reorderType;
+		volatile boolean failStatus;
+		Packet held;
+		boolean heldRelease;
+		
+		@Override
+		public synchronized void sendMessage(Packet packet, boolean release) throws IOException {
+			int type = packet.array()[4] & 0xFF;
+			if(failStatus && type == SSH_FXP_STATUS && readInt(packet, 9) == SftpStatusException.SSH_FX_OK) {
+				sendStatusMessage(readInt(packet, 5), SftpStatusException.SSH_FX_FAILURE, "Injected failure");
+				return;
+			}
+			if(type != reorderType) {
+				super.sendMessage(packet, release);
+			} else if(held == null) {
+				held = packet;
+				heldRelease = release;
+				CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> {
+					try {
+						flush(packet);
+					} catch (IOException e) {
+					}
+				});
+			} else {
+				super.sendMessage(packet, release);
+				flush(held);
+			}
+		}
+		
+		synchronized void flush(Packet packet) throws IOException {
+			if(held == packet) {
+				held = null;
+				super.sendMessage(packet, heldRelease);
+			}
+		}
+		
+		static int readInt(Packet packet, int offset) {
+			byte[] buf = packet.array();
+			return ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16) 
+					| ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+		}
+	}
+	
+	volatile ReorderingSftpSubsystem subsystem;
+	
+	@Override
+	protected SftpSubsystem createSftpSubsystem() {
+		return subsystem = new ReorderingSftpSubsystem();
+	}
+	
+	SftpClient client() throws Exception {
+		return sftp().withBlockSize(BLOCK_SIZE).withAsyncRequests(8).build();
+	}
+	
+	public void testOutOfOrderReads() throws Exception {
+		byte[] data = randomData(BLOCK_SIZE * 100 + 123);
+		Files.write(home.resolve("file"), data);
+		try(SftpClient sftp = client()) {
+			subsystem.reorderType = SftpSubsystem.SSH_FXP_DATA;
+			try(InputStream in = sftp.getInputStream("file")) {
+				assertTrue(Arrays.equals(data, in.readAllBytes()));
+			}
+		}
+	}
+	
+	public void testOutOfOrderWrites() throws Exception {
+		byte[] data = randomData(BLOCK_SIZE * 100 + 123);
+		try(SftpClient sftp = client()) {
+			subsystem.reorderType = SftpSubsystem.SSH_FXP_STATUS;
+			try(OutputStream out = sftp.getOutputStream("file")) {
+				out.write(data);
+			}
+		}
+		assertTrue(Arrays.equals(data, Files.readAllBytes(home.resolve("file"))));
+	}
+	
+	public void testShortReadAtEOF() throws Exception {
+		byte[] data = randomData(BLOCK_SIZE * 100);
+		Files.write(home.resolve("file"), data);
+		try(SftpClient sftp = client()) {
+			subsystem.reorderType = SftpSubsystem.SSH_FXP_DATA;
+			try(InputStream in = sftp.getInputStream("file")) {
+				/* Shrink the file after the stream has its length, so the final
+				 * requests are answered with a partial block and then EOF */
+				int truncated = BLOCK_SIZE * 50 + 77;
+				Files.write(home.resolve("file"), Arrays.copyOf(data, truncated));
+				byte[] received = in.readAllBytes();
+				assertTrue(Arrays.equals(Arrays.copyOf(data, truncated), received));
+				assertEquals(-1, in.read());
+			}
+		}
+	}
+	
+	public void testWriteErrorOnClose() throws Exception {
+		try(SftpClient sftp = client()) {
+			OutputStream out = sftp.getOutputStream("file");
+			subsystem.failStatus = true;
+			/* Less than a block, so nothing is sent until the stream is closed */
+			out.write(new byte[100]);
+			try {
+				out.close();
+				fail("Write failure should surface on close");
+			} catch(IOException e) {
+				assertTrue(e.getMessage().contains("Injected failure"));
+			}
+		}
+	}
+}
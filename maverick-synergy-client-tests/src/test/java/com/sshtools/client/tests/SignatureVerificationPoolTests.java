@@ -0,0 +1,72 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.sshtools.client.SshClient;
+import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.common.auth.SignatureVerificationPool;
+import com.sshtools.common.publickey.SshKeyPairGenerator;
+import com.sshtools.common.ssh.components.SshKeyPair;
+import com.sshtools.server.SshServer;
+
+public class SignatureVerificationPoolTests extends AbstractServerTests {
+
+	public void testAuthenticatesOnPool() throws Exception {
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		try(SignatureVerificationPool pool = new SignatureVerificationPool(2);
+				SshServer server = createServer(key, ctx -> ctx.setSignatureVerificationPool(pool));
+				SshClient client = connect(server.getPort(), key)) {
+			assertTrue(client.isAuthenticated());
+			assertEquals(1, pool.getVerified());
+			assertEquals(0, pool.getRejected());
+		}
+	}
+
+	public void testFallsBackToAnotherKey() throws Exception {
+		SshKeyPair authorized = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		SshKeyPair other = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		try(SignatureVerificationPool pool = new SignatureVerificationPool(2);
+				SshServer server = createServer(authorized, ctx -> ctx.setSignatureVerificationPool(pool));
+				SshClient client = SshClientBuilder.create().
+						withTarget("127.0.0.1", server.getPort()).
+						withUsername("test").
+						withConnectTimeout(5000L).
+						withIdentities(other, authorized).
+						build()) {
+			assertTrue(client.isAuthenticated());
+			assertEquals(1, pool.getVerified());
+		}
+	}
+
+	public void testVerifiesInlineWhenClosed() throws Exception {
+		SshKeyPair key = SshKeyPairGenerator.generateKeyPair(SshKeyPairGenerator.ED25519);
+		SignatureVerificationPool pool = new SignatureVerificationPool(1);
+		pool.close();
+		byte[] data = "data".getBytes();
+		byte[] signature = key.getPrivateKey().sign(data);
+		assertTrue(pool.verify((k, s, d) -> k.verifySignature(s, d), key.getPublicKey(), signature, data).get());
+		assertFalse(pool.verify((k, s, d) -> k.verifySignature(s, d), key.getPublicKey(), signature, "other".getBytes()).get());
+		assertEquals(1, pool.getVerified());
+		assertEquals(1, pool.getRejected());
+	}
+}
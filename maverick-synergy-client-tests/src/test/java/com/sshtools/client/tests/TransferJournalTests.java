@@ -0,0 +1,132 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.sshtools.client.sftp.TransferJournal;
+import com.sshtools.client.sftp.TransferRanges;
+import com.sshtools.client.sftp.TransferRanges.Range;
+import com.sshtools.common.util.IOUtils;
+
+import junit.framework.TestCase;
+
+public class TransferJournalTests extends TestCase {
+
+	private Path folder;
+
+	@Override
+	protected void setUp() throws Exception {
+		folder = Files.createTempDirectory("journal");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		IOUtils.silentRecursiveDelete(folder.toFile());
+	}
+
+	private TransferJournal open(long length, long modified) throws IOException {
+		return TransferJournal.open(folder, "/local/file", "sftp://user@host:22/remote/file", length, modified, 0);
+	}
+
+	public void testResume() throws IOException {
+		try(TransferJournal journal = open(1000, 1)) {
+			assertFalse(journal.isResumed());
+			TransferRanges chunk1 = journal.forChunk(1);
+			TransferRanges chunk2 = journal.forChunk(2);
+			chunk1.add(0, 100);
+			chunk2.add(500, 100);
+			chunk1.add(100, 100);
+		}
+		try(TransferJournal journal = open(1000, 1)) {
+			assertTrue(journal.isResumed());
+			assertEquals(List.of(new Range(0, 200), new Range(500, 600)), journal.getRanges().getRanges());
+		}
+	}
+
+	public void testChangedSourceDiscards() throws IOException {
+		try(TransferJournal journal = open(1000, 1)) {
+			journal.record(1, 0, 100);
+		}
+		try(TransferJournal journal = open(1000, 2)) {
+			assertFalse(journal.isResumed());
+			assertEquals(0, journal.getRanges().getTransferred());
+		}
+	}
+
+	public void testPartialRecordIgnored() throws IOException {
+		Path path;
+		try(TransferJournal journal = open(1000, 1)) {
+			journal.record(1, 0, 100);
+			path = journal.getPath();
+		}
+		Files.write(path, "r 1 100 5".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		try(TransferJournal journal = open(1000, 1)) {
+			assertEquals(List.of(new Range(0, 100)), journal.getRanges().getRanges());
+			journal.record(1, 200, 100);
+		}
+		try(TransferJournal journal = open(1000, 1)) {
+			assertEquals(List.of(new Range(0, 100), new Range(200, 300)), journal.getRanges().getRanges());
+		}
+	}
+
+	public void testChunkRecordsOnlyNewRanges() throws IOException {
+		Path path;
+		try(TransferJournal journal = open(1000, 1)) {
+			journal.record(1, 0, 100);
+			journal.record(1, 200, 100);
+			path = journal.getPath();
+		}
+		try(TransferJournal journal = open(1000, 1)) {
+			TransferRanges chunk = journal.forChunk(2);
+			assertEquals(200, chunk.getTransferred());
+			chunk.add(500, 100);
+		}
+		long records = Files.readAllLines(path, StandardCharsets.UTF_8).stream().filter(l -> l.startsWith("r ")).count();
+		assertEquals(3, records);
+	}
+
+	public void testReset() throws IOException {
+		try(TransferJournal journal = open(1000, 1)) {
+			journal.record(1, 0, 100);
+			journal.record(2, 500, 100);
+			TransferRanges verified = new TransferRanges();
+			verified.add(500, 100);
+			journal.reset(verified);
+		}
+		try(TransferJournal journal = open(1000, 1)) {
+			assertEquals(List.of(new Range(500, 600)), journal.getRanges().getRanges());
+		}
+	}
+
+	public void testCompleteDeletes() throws IOException {
+		TransferJournal journal = open(1000, 1);
+		journal.record(1, 0, 1000);
+		journal.complete();
+		assertFalse(Files.exists(journal.getPath()));
+	}
+}
@@ -0,0 +1,84 @@
+package com.sshtools.client.tests;
+
+/*-
+ * #%L
+ * Client API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.List;
+
+import com.sshtools.client.sftp.TransferRanges;
+import com.sshtools.client.sftp.TransferRanges.Range;
+
+import junit.framework.TestCase;
+
+public class TransferRangesTests extends TestCase {
+
+	public void testAdjacentRangesMerge() {
+		TransferRanges r = new TransferRanges();
+		r.add(0, 100);
+		r.add(100, 100);
+		assertEquals(List.of(new Range(0, 200)), r.getRanges());
+		assertEquals(200, r.getTransferred());
+	}
+
+	public void testOutOfOrderRanges() {
+		TransferRanges r = new TransferRanges();
+		r.add(200, 100);
+		r.add(0, 100);
+		assertEquals(List.of(new Range(0, 100), new Range(200, 300)), r.getRanges());
+		assertFalse(r.isComplete(300));
+		r.add(100, 100);
+		assertEquals(List.of(new Range(0, 300)), r.getRanges());
+		assertTrue(r.isComplete(300));
+		assertEquals(300, r.getTransferred());
+	}
+
+	public void testOverlappingRanges() {
+		TransferRanges r = new TransferRanges();
+		r.add(50, 100);
+		r.add(0, 60);
+		r.add(140, 20);
+		r.add(10, 10);
+		assertEquals(List.of(new Range(0, 160)), r.getRanges());
+		assertEquals(160, r.getTransferred());
+	}
+
+	public void testMissing() {
+		TransferRanges r = new TransferRanges();
+		assertEquals(List.of(new Range(0, 1000)), r.getMissing(0, 1000));
+		r.add(100, 100);
+		r.add(500, 100);
+		assertEquals(List.of(new Range(0, 100), new Range(200, 500), new Range(600, 1000)), r.getMissing(0, 1000));
+		assertEquals(List.of(new Range(200, 500), new Range(600, 700)), r.getMissing(150, 700));
+		r.add(0, 1000);
+		assertTrue(r.getMissing(0, 1000).isEmpty());
+	}
+
+	public void testParse() {
+		TransferRanges r = new TransferRanges();
+		r.add(0, 32768);
+		r.add(65536, 32768);
+		TransferRanges p = TransferRanges.parse(r.toString());
+		assertEquals(r.getRanges(), p.getRanges());
+		assertEquals(r.getTransferred(), p.getTransferred());
+		assertTrue(TransferRanges.parse("").getRanges().isEmpty());
+	}
+}
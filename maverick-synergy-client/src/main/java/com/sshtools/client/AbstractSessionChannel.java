@@ -195,6 +195,7 @@ public abstract  class AbstractSessionChannel extends ChannelNG<SshClientContext
 			}
 
 			ChannelRequestFuture future = new ChannelRequestFuture();
+			setDataCoalescing(false);
 			sendChannelRequest("pty-req", true, request.toByteArray(), future);
 			return future;
 		} catch (IOException ex) {
@@ -199,6 +199,7 @@ public class TransportProtocolClient extends TransportProtocol<SshClientContext>
 			if(pendingService!=null) {
 				activeService = pendingService;
 				pendingService = null;
+				rescheduleIdleState();
 				activeService.start();
 			}
 			return true;
@@ -208,6 +209,7 @@ public class TransportProtocolClient extends TransportProtocol<SshClientContext>
 
 	public void setActiveService(Service service) {
 		this.activeService = service;
+		rescheduleIdleState();
 	}
 	
 	public Service getActiveService() {
@@ -0,0 +1,54 @@
+package com.sshtools.client.components;
+
+/*-
+ * #%L
+ * Client API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+
+import com.sshtools.client.SshKeyExchangeClientFactory;
+import com.sshtools.common.ssh.components.jce.JCEAlgorithms;
+import com.sshtools.common.ssh.components.jce.XDHKeyAgreement;
+
+/**
+ * curve448-sha512 key exchange (RFC 8731). Requires X448 support from the JCE.
+ */
+public class Curve448SHA512Client extends DiffieHellmanXdh {
+	
+	public static class Curve448SHA512ClientFactory implements SshKeyExchangeClientFactory<Curve448SHA512Client> {
+		@Override
+		public Curve448SHA512Client create() throws NoSuchAlgorithmException, IOException {
+			return new Curve448SHA512Client();
+		}
+
+		@Override
+		public String[] getKeys() {
+			return new String[] { CURVE448_SHA512 };
+		}
+	}
+
+	public static final String CURVE448_SHA512 = "curve448-sha512";
+
+	public Curve448SHA512Client() {
+		super(CURVE448_SHA512, JCEAlgorithms.JCE_SHA512, XDHKeyAgreement.X448, 4900);
+	}
+}
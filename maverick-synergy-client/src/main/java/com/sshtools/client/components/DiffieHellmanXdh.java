@@ -0,0 +1,191 @@
+package com.sshtools.client.components;
+
+/*-
+ * #%L
+ * Client API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+import com.sshtools.client.SshClientContext;
+import com.sshtools.client.SshKeyExchangeClient;
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.ssh.SecurityLevel;
+import com.sshtools.common.ssh.SshException;
+import com.sshtools.common.ssh.components.ComponentManager;
+import com.sshtools.common.ssh.components.Digest;
+import com.sshtools.common.ssh.components.SshPrivateKey;
+import com.sshtools.common.ssh.components.SshPublicKey;
+import com.sshtools.common.ssh.components.jce.XDHKeyAgreement;
+import com.sshtools.common.sshd.SshMessage;
+import com.sshtools.common.util.ByteArrayReader;
+import com.sshtools.synergy.ssh.SshTransport;
+
+/**
+ * Base for the key exchanges using an ephemeral X25519 or X448 key pair and ECDH 
+ * style messages, i.e. curve25519-sha256 (RFC 8731) and curve448-sha512.
+ */
+public abstract class DiffieHellmanXdh extends SshKeyExchangeClient {
+
+	public static final int SSH_MSG_KEX_ECDH_INIT = 30;
+	public static final int SSH_MSG_KEX_ECDH_REPLY = 31;
+
+	public final String name;
+	final String curve;
+	byte[] f;
+	XDHKeyAgreement agreement;
+	byte[] e;
+
+	String clientId;
+	String serverId;
+	byte[] clientKexInit;
+	byte[] serverKexInit;
+
+	protected DiffieHellmanXdh(String name, String hashAlgorithm, String curve, int priority) {
+		super(hashAlgorithm, SecurityLevel.PARANOID, priority);
+		this.name = name;
+		this.curve = curve;
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return name;
+	}
+
+	private void initCrypto() throws NoSuchAlgorithmException {
+		agreement = XDHKeyAgreement.generate(curve);
+		e = agreement.getPublicKey();
+	}
+
+	public void test() {
+
+		try {
+			initCrypto();
+		} catch (Throwable e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void init(SshTransport<SshClientContext> transport, String clientId, String serverId,
+			byte[] clientKexInit, byte[] serverKexInit, SshPrivateKey prvkey, SshPublicKey pubkey,
+			boolean firstPacketFollows, boolean useFirstPacket) throws IOException, SshException {
+
+		this.transport = transport;
+		this.clientId = clientId;
+		this.serverId = serverId;
+		this.clientKexInit = clientKexInit;
+		this.serverKexInit = serverKexInit;
+
+		try {
+			initCrypto();
+
+			transport.postMessage(new SshMessage() {
+				public boolean writeMessageIntoBuffer(ByteBuffer buf) {
+
+					buf.put((byte) SSH_MSG_KEX_ECDH_INIT);
+					buf.putInt(e.length);
+					buf.put(e);
+
+					return true;
+				}
+
+				public void messageSent(Long sequenceNo) {
+					if (Log.isDebugEnabled())
+						Log.debug("Sent SSH_MSG_KEX_ECDH_INIT");
+				}
+			}, true);
+		} catch (Exception e) {
+			throw new SshException(e, SshException.KEY_EXCHANGE_FAILED);
+		}
+	}
+
+	@Override
+	public boolean processMessage(byte[] resp) throws SshException, IOException {
+
+		if (resp[0] != SSH_MSG_KEX_ECDH_REPLY) {
+			return false;
+		}
+
+		if (resp[0] != SSH_MSG_KEX_ECDH_REPLY) {
+			throw new SshException("Expected SSH_MSG_KEX_ECDH_REPLY but got message id " + resp[0],
+					SshException.KEY_EXCHANGE_FAILED);
+		}
+
+		try (ByteArrayReader reply = new ByteArrayReader(resp, 1, resp.length - 1)) {
+			hostKey = reply.readBinaryString();
+			f = reply.readBinaryString();
+			signature = reply.readBinaryString();
+
+			secret = new BigInteger(1, agreement.generateSecret(f));
+
+			calculateExchangeHash();
+
+			transport.sendNewKeys();
+		} catch (Exception e) {
+			Log.error("Key exchange failed", e);
+			throw new SshException("Failed to process key exchange", SshException.INTERNAL_ERROR, e);
+		}
+
+		return true;
+
+	}
+
+	protected void calculateExchangeHash() throws SshException {
+		Digest hash = (Digest) ComponentManager.getInstance().supportedDigests().getInstance(getHashAlgorithm());
+
+		// The local software version comments
+		hash.putString(clientId);
+
+		// The remote software version comments
+		hash.putString(serverId);
+
+		// The local kex init payload
+		hash.putInt(clientKexInit.length);
+		hash.putBytes(clientKexInit);
+
+		// The remote kex init payload
+		hash.putInt(serverKexInit.length);
+		hash.putBytes(serverKexInit);
+
+		// The host key
+		hash.putInt(hostKey.length);
+		hash.putBytes(hostKey);
+
+		hash.putInt(e.length);
+		hash.putBytes(e);
+
+		hash.putInt(f.length);
+		hash.putBytes(f);
+
+		// The diffie hellman k value
+		hash.putBigInteger(secret);
+
+		// Do the final output
+		exchangeHash = hash.doFinal();
+	}
+
+	public String getProvider() {
+		return agreement == null ? "" : agreement.getProvider();
+	}
+}
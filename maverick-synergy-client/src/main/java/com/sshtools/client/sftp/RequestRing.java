@@ -0,0 +1,113 @@
+package com.sshtools.client.sftp;
+
+/*-
+ * #%L
+ * Client API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.NoSuchElementException;
+
+import com.sshtools.common.util.UnsignedInteger32;
+
+/**
+ * A fixed capacity ring buffer of in-flight SFTP requests, recording the
+ * request id along with the file offset and length each request covers. Used by
+ * the stream implementations in place of a list so that retiring the oldest
+ * request does not shift the remaining entries.
+ */
+final class RequestRing {
+
+	private final UnsignedInteger32[] ids;
+	private final long[] offsets;
+	private final int[] lengths;
+	private int head;
+	private int size;
+
+	RequestRing(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		ids = new UnsignedInteger32[capacity];
+		offsets = new long[capacity];
+		lengths = new int[capacity];
+	}
+
+	int capacity() {
+		return ids.length;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean isFull() {
+		return size == ids.length;
+	}
+
+	void add(UnsignedInteger32 requestId, long offset, int length) {
+		if(isFull()) {
+			throw new IllegalStateException("Too many outstanding requests.");
+		}
+		int idx = (head + size) % ids.length;
+		ids[idx] = requestId;
+		offsets[idx] = offset;
+		lengths[idx] = length;
+		size++;
+	}
+
+	UnsignedInteger32 peekId() {
+		checkNotEmpty();
+		return ids[head];
+	}
+
+	long peekOffset() {
+		checkNotEmpty();
+		return offsets[head];
+	}
+
+	int peekLength() {
+		checkNotEmpty();
+		return lengths[head];
+	}
+
+	/**
+	 * Remove the oldest request.
+	 * 
+	 * @return request id of the oldest request
+	 */
+	UnsignedInteger32 remove() {
+		checkNotEmpty();
+		UnsignedInteger32 id = ids[head];
+		ids[head] = null;
+		head = (head + 1) % ids.length;
+		size--;
+		return id;
+	}
+
+	private void checkNotEmpty() {
+		if(size == 0) {
+			throw new NoSuchElementException();
+		}
+	}
+}
@@ -52,6 +52,7 @@ import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.PacketPool;
 import com.sshtools.common.ssh.RequestFuture;
 import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
@@ -61,7 +62,6 @@ import com.sshtools.common.util.ByteArrayReader;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.common.util.UnsignedInteger64;
 import com.sshtools.synergy.ssh.ByteArrays;
-import com.sshtools.synergy.ssh.PacketPool;
 
 /**
  * Abstract task implementing SFTP operations.
@@ -562,6 +562,51 @@ public class SftpChannel extends AbstractSubsystem {
 		return m;
 
 	}
+
+	/**
+	 * Get the response to whichever of the given requests is answered first. Used
+	 * where requests may be processed in any order, such as positional downloads.
+	 * 
+	 * @param requestIds outstanding request ids
+	 * @return response
+	 * @throws SshException
+	 */
+	SftpMessage getFirstResponse(Set<UnsignedInteger32> requestIds) throws SshException {
+		while (true) {
+			SftpMessage m = removeFirstResponse(requestIds);
+			if (m != null) {
+				return m;
+			}
+			try {
+				if (sync.requestBlock(requestIds)) {
+					try {
+						SftpMessage msg = new SftpMessage(nextMessage());
+						responses.put(new UnsignedInteger32(msg.getMessageId()),msg);
+					} finally {
+						sync.releaseBlock();
+					}
+				}
+			} catch (InterruptedException e) {
+				close();
+				throw new SshException("The thread was interrupted",
+						SshException.CHANNEL_FAILURE);
+			} catch (IOException ex) {
+				throw new SshException(SshException.INTERNAL_ERROR, ex);
+			} 
+		}
+	}
+
+	private SftpMessage removeFirstResponse(Set<UnsignedInteger32> requestIds) {
+		for (UnsignedInteger32 id : responses.keySet()) {
+			if (requestIds.contains(id)) {
+				SftpMessage m = responses.remove(id);
+				if (m != null) {
+					return m;
+				}
+			}
+		}
+		return null;
+	}
 	
 	/**
 	 * Change the permissions of a file.
@@ -2288,6 +2333,17 @@ public class SftpChannel extends AbstractSubsystem {
 	  protected Packet createPacket() throws IOException {
 	    return PacketPool.getInstance().getPacket();
 	  }
+
+	  /**
+	   * Get a packet from the available pool that can hold at least the given
+	   * number of bytes without growing, or create if non available
+	   * @param size
+	   * @return Packet
+	   * @throws IOException
+	   */
+	  protected Packet createPacket(int size) throws IOException {
+	    return PacketPool.getInstance().getPacket(size);
+	  }
 	  
 	  class SftpThreadSynchronizer {
 
@@ -2312,6 +2368,22 @@ public class SftpChannel extends AbstractSubsystem {
 				}
 			}
 
+			public boolean requestBlock(Set<UnsignedInteger32> requestIds) throws InterruptedException {
+				synchronized (this) {
+					if (isBlocking) {
+						wait();
+						return false;
+					}
+					for (UnsignedInteger32 id : requestIds) {
+						if (responses.containsKey(id)) {
+							return false;
+						}
+					}
+					isBlocking = true;
+					return true;
+				}
+			}
+
 			public synchronized void releaseBlock() {
 				isBlocking = false;
 				notifyAll();
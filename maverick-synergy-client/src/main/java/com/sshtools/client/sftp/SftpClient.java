@@ -51,11 +51,14 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 import com.sshtools.client.SshClient;
+import com.sshtools.client.sftp.SftpMetadataCache.SftpMetadataCacheBuilder;
 import com.sshtools.client.tasks.FileTransferProgress;
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.files.AbstractFileFactory;
+import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.files.direct.NioFileFactory.NioFileFactoryBuilder;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -100,6 +103,7 @@ public class SftpClient implements Closeable {
 		private Optional<String> localPath = Optional.empty();
 		private Optional<String> remotePath = Optional.empty();
 		private Optional<String> charset = Optional.empty();
+		private Optional<SftpMetadataCache> metadataCache = Optional.empty();
 		
 		/**
 		 * Create a new {@link SftpClientBuilder}.
@@ -288,6 +292,46 @@ public class SftpClient implements Closeable {
 			return this;
 		}
 		
+		/**
+		 * Cache remote file attributes, directory listings and absolute paths using
+		 * an {@link SftpMetadataCache} with default size and time-to-live. Entries are
+		 * invalidated when modifications are made through this client.
+		 * 
+		 * @return this for chaining
+		 */
+		public SftpClientBuilder withMetadataCache() {
+			return withMetadataCache(SftpMetadataCacheBuilder.create().build());
+		}
+		
+		/**
+		 * Cache remote file attributes, directory listings and absolute paths using
+		 * an {@link SftpMetadataCache} with the given size and time-to-live. Entries
+		 * are invalidated when modifications are made through this client.
+		 * 
+		 * @param maximumEntries maximum entries for each type of metadata
+		 * @param ttl time-to-live of each entry
+		 * @param unit unit of time-to-live
+		 * @return this for chaining
+		 */
+		public SftpClientBuilder withMetadataCache(int maximumEntries, long ttl, TimeUnit unit) {
+			return withMetadataCache(SftpMetadataCacheBuilder.create().
+					withMaximumEntries(maximumEntries).
+					withTimeToLive(ttl, unit).build());
+		}
+		
+		/**
+		 * Cache remote file attributes, directory listings and absolute paths using
+		 * the provided {@link SftpMetadataCache}. Entries are invalidated when 
+		 * modifications are made through this client.
+		 * 
+		 * @param metadataCache cache
+		 * @return this for chaining
+		 */
+		public SftpClientBuilder withMetadataCache(SftpMetadataCache metadataCache) {
+			this.metadataCache = Optional.of(metadataCache);
+			return this;
+		}
+		
 		/**
 		 * Build a new {@link SftpClient}.
 		 * 
@@ -302,6 +346,7 @@ public class SftpClient implements Closeable {
 	}
 
 	private final SftpChannel sftp;
+	private final Optional<SftpMetadataCache> metadataCache;
 
 	private String cwd = "";
 	private AbstractFile lcwd;
@@ -368,6 +413,7 @@ public class SftpClient implements Closeable {
 		this.lcwd = fileFactory.getFile(builder.localPath.orElse(""));
 		this.cwd = builder.remotePath.orElse("");
 		this.customRoots.addAll(builder.customRoots);
+		this.metadataCache = builder.metadataCache;
 		if(builder.charset.isPresent()) {
 			this.sftp.setCharsetEncoding(builder.charset.get());
 		}
@@ -387,6 +433,16 @@ public class SftpClient implements Closeable {
 		this.blocksize = blocksize;
 	}
 
+	/**
+	 * Get the {@link SftpMetadataCache} in use by this client, if any. 
+	 * 
+	 * @return metadata cache
+	 * @see SftpClientBuilder#withMetadataCache()
+	 */
+	public Optional<SftpMetadataCache> getMetadataCache() {
+		return metadataCache;
+	}
+
 	/**
 	 * Returns the instance of the AbstractSftpChannel used by this class
 	 * 
@@ -585,10 +641,17 @@ public class SftpClient implements Closeable {
 	}
 
 	public SftpHandle openFile(String fileName, int flags) throws SftpStatusException, SshException {
-		if (transferMode == MODE_TEXT && sftp.getVersion() > 3) {
-			return sftp.openFile(resolveRemotePath(fileName), flags | SftpChannel.OPEN_TEXT);
+		String actual = resolveRemotePath(fileName);
+		try {
+			if (transferMode == MODE_TEXT && sftp.getVersion() > 3) {
+				return sftp.openFile(actual, flags | SftpChannel.OPEN_TEXT);
+			}
+			return sftp.openFile(actual, flags);
+		} finally {
+			if((flags & ~SftpChannel.OPEN_READ) != 0) {
+				invalidate(actual);
+			}
 		}
-		return sftp.openFile(resolveRemotePath(fileName), flags);
 	}
 
 	public SftpHandle openDirectory(String path) throws SftpStatusException, SshException {
@@ -795,7 +858,11 @@ public class SftpClient implements Closeable {
 				newattrs.withPermissions(PosixPermissionsBuilder.create().fromBitmask(0777 ^ umask).build());
 			}
 			
-			sftp.makeDirectory(actual, newattrs.build());
+			try {
+				sftp.makeDirectory(actual, newattrs.build());
+			} finally {
+				invalidate(actual);
+			}
 			return;
 		}
 
@@ -923,6 +990,13 @@ public class SftpClient implements Closeable {
 
 		String actual = resolveRemotePath(path);
 
+		if(metadataCache.isPresent()) {
+			var cached = metadataCache.get().getListing(actual);
+			if(cached != null) {
+				return cached;
+			}
+		}
+
 		if (Log.isDebugEnabled())
 			Log.debug("Listing files for " + actual);
 
@@ -939,6 +1013,7 @@ public class SftpClient implements Closeable {
 		for (Enumeration<SftpFile> e = children.elements(); e.hasMoreElements();) {
 			files[index++] = e.nextElement();
 		}
+		metadataCache.ifPresent(c -> c.putListing(actual, files));
 		return files;
 	}
 
@@ -1715,6 +1790,54 @@ public class SftpClient implements Closeable {
 		return attrs;
 	}
 
+	/**
+	 * <p>
+	 * Download the remote file into a local random access file, writing each block
+	 * at its offset as soon as it arrives rather than strictly in order. Ranges 
+	 * already recorded in <code>ranges</code> are skipped, and each block received 
+	 * is added to it, so an interrupted download may be resumed by calling this 
+	 * method again with the same ranges. Only binary transfer mode is supported.
+	 * </p>
+	 * 
+	 * @param remote   the path/name of the remote file
+	 * @param local    the local file, opened for writing
+	 * @param progress
+	 * @param ranges   ranges already transferred, updated as blocks complete
+	 * 
+	 * @return the downloaded file's attributes
+	 * 
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public SftpFileAttributes get(String remote, AbstractFileRandomAccess local, FileTransferProgress progress,
+			TransferRanges ranges) throws SftpStatusException, SshException, TransferCancelledException {
+
+		if (transferMode == MODE_TEXT) {
+			throw new SshException("Positional downloads are not supported in text mode", SshException.BAD_API_USAGE);
+		}
+
+		String remotePath = resolveRemotePath(remote);
+		SftpFileAttributes attrs = sftp.getAttributes(remotePath);
+		long length = attrs.size().longValue();
+
+		if (progress != null) {
+			progress.started(length, remotePath);
+		}
+
+		try(SftpHandle file = sftp.openFile(remotePath, SftpChannel.OPEN_READ)) {
+			file.performPositionalRead(length, blocksize, local, asyncRequests, progress, ranges);
+		} catch (IOException e) {
+			throw new SshException(e);
+		}
+
+		if (progress != null) {
+			progress.completed();
+		}
+
+		return attrs;
+	}
+
 	/**
 	 * Create an InputStream for reading a remote file.
 	 * 
@@ -1728,7 +1851,7 @@ public class SftpClient implements Closeable {
 		String remotePath = resolveRemotePath(remotefile);
 		sftp.getAttributes(remotePath);
 
-		return new SftpFileInputStream(sftp.openFile(remotePath, SftpChannel.OPEN_READ), position);
+		return new SftpFileInputStream(sftp.openFile(remotePath, SftpChannel.OPEN_READ), position, blocksize, asyncRequests);
 
 	}
 
@@ -2187,6 +2310,7 @@ public class SftpClient implements Closeable {
 			Log.error("Transfer cancelled", e);
 			throw e;
 		} finally {
+			invalidate(remotePath);
 			try {
 				in.close();
 			} catch (Throwable t) {
@@ -2209,8 +2333,21 @@ public class SftpClient implements Closeable {
 	public OutputStream getOutputStream(String remotefile) throws SftpStatusException, SshException {
 
 		String remotePath = resolveRemotePath(remotefile);
-		return new SftpFileOutputStream(sftp.openFile(remotePath,
-				SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_WRITE));
+		try {
+			return new SftpFileOutputStream(sftp.openFile(remotePath,
+					SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE | SftpChannel.OPEN_WRITE), blocksize, asyncRequests) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						invalidate(remotePath);
+					}
+				}
+			};
+		} finally {
+			invalidate(remotePath);
+		}
 
 	}
 
@@ -2267,7 +2404,11 @@ public class SftpClient implements Closeable {
 		if (sftp.getVersion() <= 3) {
 			newAttrs.withGid(attrs.gid());
 		}
-		sftp.setAttributes(actual, newAttrs.build());
+		try {
+			sftp.setAttributes(actual, newAttrs.build());
+		} finally {
+			invalidate(actual);
+		}
 
 	}
 
@@ -2281,7 +2422,12 @@ public class SftpClient implements Closeable {
 	 */
 	public void setAttributes(String path, SftpFileAttributes attrs)
 			throws SftpStatusException, SshException {
-		sftp.setAttributes(resolveRemotePath(path), attrs);
+		String actual = resolveRemotePath(path);
+		try {
+			sftp.setAttributes(actual, attrs);
+		} finally {
+			invalidate(actual);
+		}
 	}
 	
 	/**
@@ -2304,7 +2450,11 @@ public class SftpClient implements Closeable {
 		SftpFileAttributesBuilder newAttrs = SftpFileAttributesBuilder.ofType(attrs.type(), sftp.getCharsetEncoding());
 		newAttrs.withUidOrUsername(uid);
 		newAttrs.withGidOrGroup(gid);
-		sftp.setAttributes(actual, newAttrs.build());
+		try {
+			sftp.setAttributes(actual, newAttrs.build());
+		} finally {
+			invalidate(actual);
+		}
 
 	}
 	
@@ -2328,7 +2478,11 @@ public class SftpClient implements Closeable {
 		if (sftp.getVersion() <= 3) {
 			newAttrs.withUid(attrs.uid());
 		}
-		sftp.setAttributes(actual, newAttrs.build());
+		try {
+			sftp.setAttributes(actual, newAttrs.build());
+		} finally {
+			invalidate(actual);
+		}
 
 	}
 
@@ -2394,7 +2548,11 @@ public class SftpClient implements Closeable {
 	@Deprecated(since = "3.1.0")
 	public void chmod(int permissions, String path) throws SftpStatusException, SshException {
 		String actual = resolveRemotePath(path);
-		sftp.changePermissions(actual, permissions);
+		try {
+			sftp.changePermissions(actual, permissions);
+		} finally {
+			invalidate(actual);
+		}
 	}
 
 	/**
@@ -2461,13 +2619,19 @@ public class SftpClient implements Closeable {
 			ByteArrayWriter msg = new ByteArrayWriter();
 
 			try {
-				msg.writeString(resolveRemotePath(oldpath));
-				msg.writeString(resolveRemotePath(newpath));
-
-				sftp.getOKRequestStatus(
-						sftp.sendExtensionMessage("posix-rename@openssh.com", msg.toByteArray()),
-						newpath);
-
+				String from = resolveRemotePath(oldpath);
+				String to = resolveRemotePath(newpath);
+				try {
+					msg.writeString(from);
+					msg.writeString(to);
+	
+					sftp.getOKRequestStatus(
+							sftp.sendExtensionMessage("posix-rename@openssh.com", msg.toByteArray()),
+							newpath);
+				} finally {
+					invalidateTree(from);
+					invalidateTree(to);
+				}
 			} finally {
 				msg.close();
 			}
@@ -2482,13 +2646,17 @@ public class SftpClient implements Closeable {
 		ByteArrayWriter msg = new ByteArrayWriter();
 
 		try {
-			msg.writeString(resolveRemotePath(sourceFile));
-			msg.writeString(resolveRemotePath(destinationFile));
-			msg.writeBoolean(overwriteDestination);
-
-			sftp.getOKRequestStatus(sftp.sendExtensionMessage("copy-file", msg.toByteArray()),
-					destinationFile);
-
+			String to = resolveRemotePath(destinationFile);
+			try {
+				msg.writeString(resolveRemotePath(sourceFile));
+				msg.writeString(to);
+				msg.writeBoolean(overwriteDestination);
+	
+				sftp.getOKRequestStatus(sftp.sendExtensionMessage("copy-file", msg.toByteArray()),
+						destinationFile);
+			} finally {
+				invalidate(to);
+			}
 		} finally {
 			msg.close();
 		}
@@ -2509,6 +2677,16 @@ public class SftpClient implements Closeable {
 		String from = resolveRemotePath(oldpath);
 		String to = resolveRemotePath(newpath);
 
+		try {
+			renameResolved(from, to, newpath);
+		} finally {
+			invalidateTree(from);
+			invalidateTree(to);
+		}
+	}
+
+	private void renameResolved(String from, String to, String newpath) throws SftpStatusException, SshException {
+
 		SftpFileAttributes attrs = null;
 
 		try {
@@ -2566,6 +2744,9 @@ public class SftpClient implements Closeable {
 			else
 				throw sse;
 		}
+		finally {
+			invalidateTree(actual);
+		}
 	}
 
 	/**
@@ -2581,36 +2762,42 @@ public class SftpClient implements Closeable {
 	 */
 	public void rm(String path, boolean force, boolean recurse) throws SftpStatusException, SshException {
 		String actual = resolveRemotePath(path);
+		/* Read the listing below from the server rather than the cache */
+		invalidateTree(actual);
 
-		SftpFileAttributes attrs = sftp.getAttributes(actual);
+		try {
+			SftpFileAttributes attrs = sftp.getAttributes(actual);
 
-		SftpFile file;
+			SftpFile file;
 
-		if (attrs.isDirectory()) {
-			SftpFile[] list = ls(path);
+			if (attrs.isDirectory()) {
+				SftpFile[] list = ls(path);
 
-			if (!force && (list.length > 0)) {
-				throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
-						"You cannot delete non-empty directory, use force=true to overide");
-			}
-			for (int i = 0; i < list.length; i++) {
-				file = list[i];
+				if (!force && (list.length > 0)) {
+					throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
+							"You cannot delete non-empty directory, use force=true to overide");
+				}
+				for (int i = 0; i < list.length; i++) {
+					file = list[i];
 
-				if (file.attributes().isDirectory() && !file.getFilename().equals(".") && !file.getFilename().equals("..")) {
-					if (recurse) {
-						rm(file.getAbsolutePath(), force, recurse);
-					} else {
-						throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
-								"Directory has contents, cannot delete without recurse=true");
+					if (file.attributes().isDirectory() && !file.getFilename().equals(".") && !file.getFilename().equals("..")) {
+						if (recurse) {
+							rm(file.getAbsolutePath(), force, recurse);
+						} else {
+							throw new SftpStatusException(SftpStatusException.SSH_FX_FAILURE,
+									"Directory has contents, cannot delete without recurse=true");
+						}
+					} else if (file.attributes().isFile() || file.attributes().isLink()) {
+						sftp.removeFile(file.getAbsolutePath());
 					}
-				} else if (file.attributes().isFile() || file.attributes().isLink()) {
-					sftp.removeFile(file.getAbsolutePath());
 				}
-			}
 
-			sftp.removeDirectory(actual);
-		} else {
-			sftp.removeFile(actual);
+				sftp.removeDirectory(actual);
+			} else {
+				sftp.removeFile(actual);
+			}
+		} finally {
+			invalidateTree(actual);
 		}
 	}
 
@@ -2624,13 +2811,17 @@ public class SftpClient implements Closeable {
 	 */
 	public void rmdir(String path) throws SftpStatusException, SshException {
 		String actual = resolveRemotePath(path);
-		SftpFileAttributes attrs = sftp.getAttributes(actual);
+		try {
+			SftpFileAttributes attrs = sftp.getAttributes(actual);
 
-		if (attrs.isDirectory()) {
-			sftp.removeDirectory(actual);
-		} else {
-			throw new SftpStatusException(SftpStatusException.SSH_FX_NOT_A_DIRECTORY,
-					"File is not a directory");
+			if (attrs.isDirectory()) {
+				sftp.removeDirectory(actual);
+			} else {
+				throw new SftpStatusException(SftpStatusException.SSH_FX_NOT_A_DIRECTORY,
+						"File is not a directory");
+			}
+		} finally {
+			invalidateTree(actual);
 		}
 	}
 
@@ -2662,7 +2853,11 @@ public class SftpClient implements Closeable {
 	 */
 	public void relativeSymlink(String path, String link) throws SftpStatusException, SshException {
 		String actualLink = resolveRemotePath(link);
-		sftp.createSymbolicLink(actualLink, path);
+		try {
+			sftp.createSymbolicLink(actualLink, path);
+		} finally {
+			invalidate(actualLink);
+		}
 	}
 
 	/**
@@ -2679,6 +2874,15 @@ public class SftpClient implements Closeable {
 	 */
 	public SftpFileAttributes stat(String path) throws SftpStatusException, SshException {
 		String actual = resolveRemotePath(path);
+		if(metadataCache.isPresent()) {
+			var cache = metadataCache.get();
+			var attrs = cache.getAttributes(actual);
+			if(attrs == null) {
+				attrs = sftp.getAttributes(actual);
+				cache.putAttributes(actual, attrs);
+			}
+			return attrs;
+		}
 		return sftp.getAttributes(actual);
 	}
 
@@ -2711,9 +2915,39 @@ public class SftpClient implements Closeable {
 	 */
 	public String getAbsolutePath(String path) throws SftpStatusException, SshException {
 		String actual = resolveRemotePath(path);
+		if(metadataCache.isPresent()) {
+			var cache = metadataCache.get();
+			var absolutePath = cache.getAbsolutePath(actual);
+			if(absolutePath == null) {
+				absolutePath = sftp.getAbsolutePath(actual);
+				cache.putAbsolutePath(actual, absolutePath);
+			}
+			return absolutePath;
+		}
 		return sftp.getAbsolutePath(actual);
 	}
 
+	/**
+	 * Invalidate any cached metadata for a single remote path once it has been
+	 * modified through this client. This is done after the modification so that a
+	 * concurrent lookup cannot cache the attributes from before it.
+	 * 
+	 * @param actual resolved remote path
+	 */
+	private void invalidate(String actual) {
+		metadataCache.ifPresent(c -> c.invalidate(actual));
+	}
+
+	/**
+	 * Invalidate any cached metadata for a remote path and everything beneath it
+	 * once it has been removed or renamed through this client.
+	 * 
+	 * @param actual resolved remote path
+	 */
+	private void invalidateTree(String actual) {
+		metadataCache.ifPresent(c -> c.invalidateTree(actual));
+	}
+
 	/**
 	 * Verify a local and remote file. Requires a minimum SFTP version of 5 and/or
 	 * support of the "md5-hash" extension
@@ -2988,6 +3222,7 @@ public class SftpClient implements Closeable {
 	 * 
 	 */
 	public void quit() throws SshException {
+		metadataCache.ifPresent(SftpMetadataCache::clear);
 		sftp.close();
 	}
 
@@ -2998,6 +3233,7 @@ public class SftpClient implements Closeable {
 	 * 
 	 */
 	public void exit() throws SshException {
+		metadataCache.ifPresent(SftpMetadataCache::clear);
 		sftp.close();
 	}
 
@@ -3080,7 +3316,11 @@ public class SftpClient implements Closeable {
 						put(source.getAbsolutePath(), remotedir + source.getName(), progress);
 						SftpFileAttributesBuilder attrs = SftpFileAttributesBuilder.createWith(sftp.getAttributes(remotedir + source.getName()));
 						attrs.withLastModifiedTime(source.lastModified() / 1000);
-						sftp.setAttributes(remotedir + source.getName(), attrs.build());
+						try {
+							sftp.setAttributes(remotedir + source.getName(), attrs.build());
+						} finally {
+							invalidate(remotedir + source.getName());
+						}
 					}
 
 					if (unchangedFile) {
@@ -3834,6 +4074,8 @@ public class SftpClient implements Closeable {
 
 	public void hardlink(String src, String dst) throws SshException, SftpStatusException {
 
+		String actualSrc = resolveRemotePath(src);
+		String actualDst = resolveRemotePath(dst);
 		try (ByteArrayWriter msg = new ByteArrayWriter()) {
 			msg.writeString(src);
 			msg.writeString(dst);
@@ -3842,6 +4084,10 @@ public class SftpClient implements Closeable {
 			channel.getOKRequestStatus(requestId, dst);
 		} catch (IOException e) {
 			throw new SshException(e);
+		} finally {
+			/* The link count of the source changes too */
+			invalidate(actualSrc);
+			invalidate(actualDst);
 		}
 	}
 
@@ -24,31 +24,35 @@ package com.sshtools.client.sftp;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Vector;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.UnsignedInteger32;
-import com.sshtools.common.util.UnsignedInteger64;
 
 /**
  * An InputStream to read the contents of a remote file.
+ * <p>
+ * Data is read ahead of the caller by keeping a number of read requests in flight.
+ * Unless specified, the block size and number of requests are derived from the
+ * negotiated packet and window sizes of the channel, in the same way as
+ * {@link SftpHandle#performOptimizedRead}.
  */
 public class SftpFileInputStream extends InputStream {
 
 	private final SftpHandle handle;
 	private final SftpChannel sftp;
-	private final Vector<UnsignedInteger32> outstandingRequests = new Vector<UnsignedInteger32>();
+	private final RequestRing outstandingRequests;
+	private final int blocksize;
+	private final long length;
+	private final byte[] single = new byte[1];
 	private long position;
 	private SftpMessage currentMessage;
 	private int currentMessageRemaining;
-	private long readPosition = 0;
+	private long readPosition;
 	private boolean isEOF = false;
 	private boolean error = false;
-	private UnsignedInteger64 length;
-
 
 	/**
 	 * Creates a new SftpFileInputStream object.
@@ -60,10 +64,33 @@ public class SftpFileInputStream extends InputStream {
 	 * @throws SshException
 	 */
 	SftpFileInputStream(SftpHandle handle, long position) throws SftpStatusException, SshException {
+		this(handle, position, -1, -1);
+	}
+
+	/**
+	 * Creates a new SftpFileInputStream object.
+	 * 
+	 * @param handle handle
+	 * @param position at which to start reading
+	 * @param blocksize size of each read request, or -1 to calculate from the packet size
+	 * @param maxRequests maximum outstanding read requests, or -1 to calculate from the window size
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	SftpFileInputStream(SftpHandle handle, long position, int blocksize, int maxRequests) throws SftpStatusException, SshException {
 		this.handle = handle;
 		this.position = position;
+		this.readPosition = position;
 		this.sftp = handle.getSFTPChannel();
-		this.length = handle.getFile().attributes().size();
+		this.length = handle.getFile().attributes().size().longValue();
+		
+		this.blocksize = handle.getReadBlockSize(blocksize);
+		this.outstandingRequests = new RequestRing(handle.getReadRequests(this.blocksize, maxRequests));
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug("Opened input stream for {} with blocksize={} maxRequests={}", 
+					handle.getFile().getFilename(), this.blocksize, outstandingRequests.capacity());
+		}
 	}
 
 	/*
@@ -76,44 +103,36 @@ public class SftpFileInputStream extends InputStream {
 		try {
 
 			if (isEOF && currentMessageRemaining == 0) {
-				currentMessage.release();
 				return -1;
 			}
 
 			int read = 0;
-			int wantsLength = len;
-			while (read < wantsLength && !isEOF) {
+			while (read < len && !isEOF) {
 
-				if (currentMessage == null || currentMessageRemaining == 0) {
+				if (currentMessageRemaining == 0) {
 					bufferNextMessage();
-					if (isEOF && read == 0) {
-						return -1;
+					if (isEOF) {
+						break;
 					}
+					continue;
 				}
 
-				if (currentMessage == null)
-					throw new IOException(
-							"Failed to obtain file data or status from the SFTP server!");
-
-				int count = Math.min(currentMessageRemaining, len);
+				int count = Math.min(currentMessageRemaining, len - read);
 
 				System.arraycopy(currentMessage.array(),
-						currentMessage.getPosition(), buffer, offset, count);
+						currentMessage.getPosition(), buffer, offset + read, count);
 
 				readPosition += count;
 				currentMessageRemaining -= count;
 				currentMessage.skip(count);
-
+				read += count;
+				
 				if (currentMessageRemaining == 0) {
-					bufferNextMessage();
+					releaseCurrentMessage();
 				}
-				read += count;
-				len -= count;
-				offset += count;
-
 			}
 
-			return read;
+			return read == 0 && isEOF ? -1 : read;
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
 		} catch (SftpStatusException ex) {
@@ -121,37 +140,54 @@ public class SftpFileInputStream extends InputStream {
 		}
 	}
 
+	private void releaseCurrentMessage() {
+		if(currentMessage != null) {
+			currentMessage.release();
+			currentMessage = null;
+		}
+	}
+
 	private void bufferNextMessage() throws SshException, IOException,
 			SftpStatusException {
 
 		try {
-			if(currentMessage!=null) {
-				currentMessage.release();
-			}
+			releaseCurrentMessage();
 			
 			bufferMoreData();
 
-			UnsignedInteger32 requestid = outstandingRequests.remove(0);
+			long requestOffset = outstandingRequests.peekOffset();
+			int requestLength = outstandingRequests.peekLength();
+			UnsignedInteger32 requestid = outstandingRequests.remove();
 
-			currentMessage = sftp.getResponse(requestid);
+			SftpMessage msg = sftp.getResponse(requestid);
 
-			if (currentMessage.getType() == SftpChannel.SSH_FXP_DATA) {
+			if (msg.getType() == SftpChannel.SSH_FXP_DATA) {
 				
-				currentMessageRemaining = (int) currentMessage.readInt();
+				currentMessage = msg;
+				currentMessageRemaining = (int) msg.readInt();
 				
 				if(Log.isDebugEnabled()) {
 					Log.debug("Received SSH_FXP_DATA with {} bytes at position {} for {} requestId={}", 
 							currentMessageRemaining, 
-							readPosition, 
+							requestOffset, 
 							handle.getFile().getFilename(),
 							requestid);
 				}
 				
+				if(currentMessageRemaining < requestLength) {
+					/**
+					 * The server returned less than we asked for, so any requests 
+					 * already in flight are for the wrong offsets. Discard them
+					 * and continue reading from the end of this block. 
+					 */
+					discardOutstandingRequests();
+					position = requestOffset + currentMessageRemaining;
+				}
 
-			} else if (currentMessage.getType() == SftpChannel.SSH_FXP_STATUS) {
+			} else if (msg.getType() == SftpChannel.SSH_FXP_STATUS) {
 				
 				try {
-					int status = (int) currentMessage.readInt();
+					int status = (int) msg.readInt();
 					if (status == SftpStatusException.SSH_FX_EOF) {
 						if(Log.isDebugEnabled()) {
 							Log.debug("Received SSH_FX_EOF for {}", handle.getFile().getFilename());
@@ -160,7 +196,7 @@ public class SftpFileInputStream extends InputStream {
 						return;
 					}
 					if (sftp.getVersion() >= 3) {
-						String desc = currentMessage.readString();
+						String desc = msg.readString();
 						if(Log.isDebugEnabled()) {
 							Log.debug("Received SSH_FXP_STATUS {}/{} for {}", 
 									status, 
@@ -176,13 +212,14 @@ public class SftpFileInputStream extends InputStream {
 					}
 					throw new IOException("Unexpected status " + status);
 				} finally {
-					currentMessage.release();
+					msg.release();
 				}
 			} else {
+				msg.release();
 				close();
 				throw new IOException(
 						"The server responded with an unexpected SFTP protocol message! type="
-								+ currentMessage.getType());
+								+ msg.getType());
 			}
 		} catch (SshException e) {
 			error = true;
@@ -198,9 +235,8 @@ public class SftpFileInputStream extends InputStream {
 		/** 
 		 * Read up to length of file
 		 */
-		while (outstandingRequests.size() < 100 && length.longValue() > position) {
-			outstandingRequests.addElement(handle.postReadRequest(position, 32768));
-			position += 32768;
+		while (!outstandingRequests.isFull() && length > position) {
+			postReadRequest();
 		}
 		
 		/**
@@ -208,8 +244,18 @@ public class SftpFileInputStream extends InputStream {
 		 * has changed.
 		 */
 		if(outstandingRequests.isEmpty()) {
-			outstandingRequests.addElement(handle.postReadRequest(position, 32768));
-			position += 32768;
+			postReadRequest();
+		}
+	}
+
+	private void postReadRequest() throws SftpStatusException, SshException {
+		outstandingRequests.add(handle.postReadRequest(position, blocksize), position, blocksize);
+		position += blocksize;
+	}
+
+	private void discardOutstandingRequests() throws SshException {
+		while (!outstandingRequests.isEmpty()) {
+			sftp.getResponse(outstandingRequests.remove()).release();
 		}
 	}
 	
@@ -221,9 +267,8 @@ public class SftpFileInputStream extends InputStream {
    *
    */
 	public int read() throws java.io.IOException {
-		byte[] b = new byte[1];
-		if (read(b) == 1) {
-			return (b[0] & 0xFF);
+		if (read(single, 0, 1) == 1) {
+			return (single[0] & 0xFF);
 		}
 
 		return -1;
@@ -235,20 +280,16 @@ public class SftpFileInputStream extends InputStream {
 	@Override
 	public void close() throws IOException {
 		try {
+			releaseCurrentMessage();
+			currentMessageRemaining = 0;
+			
 			handle.close();
 
-			if(!error && outstandingRequests.size() > 0) {
+			if(!error && !outstandingRequests.isEmpty()) {
 				if(Log.isWarnEnabled()) {
 					Log.warn("Discarding {} data messages through premature closing of InputStream for file {}", outstandingRequests.size(), handle.getFile().getFilename());
 				}
-				UnsignedInteger32 requestid;
-				while (!error && outstandingRequests.size() > 0) {
-					
-					
-					requestid = (UnsignedInteger32) outstandingRequests.elementAt(0);
-					outstandingRequests.remove(0);
-					sftp.getResponse(requestid).release();
-				}
+				discardOutstandingRequests();
 			}
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
@@ -24,22 +24,32 @@ package com.sshtools.client.sftp;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Vector;
 
+import com.sshtools.common.logger.Log;
 import com.sshtools.common.sftp.SftpStatusException;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshIOException;
-import com.sshtools.common.util.UnsignedInteger32;
 
 /**
  * An OutputStream to write data to a remote file.
+ * <p>
+ * Writes are performed behind the caller. Data is collected into blocks which
+ * are posted without waiting for the server to acknowledge them, until the
+ * maximum number of writes are in flight. Unless specified, the block size and
+ * number of requests are derived from the negotiated packet and window sizes of
+ * the channel, in the same way as {@link SftpHandle#performOptimizedWrite}.
+ * <p>
+ * A failed write may therefore be reported by a later call to {@link #write},
+ * {@link #flush} or {@link #close}.
  */
 public class SftpFileOutputStream extends OutputStream {
 
 	private final SftpHandle handle;
 	private final SftpChannel sftp;
-	private final Vector<UnsignedInteger32> outstandingRequests = new Vector<UnsignedInteger32>();
+	private final RequestRing outstandingRequests;
+	private final byte[] buffer;
 
+	private int buffered;
 	private long position;
 	private boolean error = false;
 
@@ -52,31 +62,59 @@ public class SftpFileOutputStream extends OutputStream {
 	 * @throws SshException
 	 */
 	SftpFileOutputStream(SftpHandle handle) throws SftpStatusException, SshException {
+		this(handle, -1, -1);
+	}
+
+	/**
+	 * Creates a new SftpFileOutputStream object.
+	 *
+	 * @param handle handle
+	 * @param blocksize size of each write request, or -1 to calculate from the packet size
+	 * @param maxRequests maximum outstanding write requests, or -1 to calculate from the window size
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 */
+	SftpFileOutputStream(SftpHandle handle, int blocksize, int maxRequests) throws SftpStatusException, SshException {
 		this.handle = handle;
 		this.sftp = handle.getSFTPChannel();
+		
+		blocksize = handle.getWriteBlockSize(blocksize);
+		this.buffer = new byte[blocksize];
+		this.outstandingRequests = new RequestRing(handle.getWriteRequests(blocksize, maxRequests));
+		
+		if(Log.isDebugEnabled()) {
+			Log.debug("Opened output stream for {} with blocksize={} maxRequests={}", 
+					handle.getFile().getFilename(), blocksize, outstandingRequests.capacity());
+		}
 	}
 
 	/**
 	 *
 	 */
-	public void write(byte[] buffer, int offset, int len) throws IOException {
+	public void write(byte[] data, int offset, int len) throws IOException {
 		try {
 
-			int count;
 			while (len > 0) {
 
-				count = Math.min(32768, len);
-
-				// Post a request
-				outstandingRequests
-						.addElement(handle.postWriteRequest(position, buffer, offset, count));
-
-				processNextResponse(100);
-
-				// Update our positions
-				offset += count;
-				len -= count;
-				position += count;
+				if (buffered == 0 && len >= buffer.length) {
+					/**
+					 * A whole block is available from the caller, so post it 
+					 * directly rather than copying it into our buffer first.
+					 */
+					postWriteRequest(data, offset, buffer.length);
+					offset += buffer.length;
+					len -= buffer.length;
+				} else {
+					int count = Math.min(buffer.length - buffered, len);
+					System.arraycopy(data, offset, buffer, buffered, count);
+					buffered += count;
+					offset += count;
+					len -= count;
+					
+					if (buffered == buffer.length) {
+						postBuffer();
+					}
+				}
 			}
 
 		} catch (SshException ex) {
@@ -92,17 +130,10 @@ public class SftpFileOutputStream extends OutputStream {
 	 */
 	public void write(int b) throws IOException {
 		try {
-
-			byte[] array = new byte[] { (byte) b };
-
-			// Post a request
-			outstandingRequests.addElement(handle.postWriteRequest(position, array, 0, 1));
-
-			processNextResponse(100);
-
-			// Update our positions
-			position += 1;
-
+			buffer[buffered++] = (byte) b;
+			if (buffered == buffer.length) {
+				postBuffer();
+			}
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
 		} catch (SftpStatusException ex) {
@@ -110,16 +141,41 @@ public class SftpFileOutputStream extends OutputStream {
 		}
 	}
 
-	private boolean processNextResponse(int numOutstandingRequests) throws SftpStatusException, SshException {
+	/**
+	 * Post any partially filled block to the server. This does not wait for 
+	 * writes that are in flight to be acknowledged.
+	 */
+	@Override
+	public void flush() throws IOException {
 		try {
-			// Maybe look for a response
-			if (outstandingRequests.size() > numOutstandingRequests) {
-				UnsignedInteger32 requestid = (UnsignedInteger32) outstandingRequests.elementAt(0);
-				sftp.getOKRequestStatus(requestid, handle.getFile().getAbsolutePath());
-				outstandingRequests.removeElementAt(0);
-			}
+			postBuffer();
+		} catch (SshException ex) {
+			throw new SshIOException(ex);
+		} catch (SftpStatusException ex) {
+			throw new IOException(ex.getMessage());
+		}
+	}
 
-			return outstandingRequests.size() > 0;
+	private void postBuffer() throws SftpStatusException, SshException {
+		if (buffered > 0) {
+			int count = buffered;
+			buffered = 0;
+			postWriteRequest(buffer, 0, count);
+		}
+	}
+
+	private void postWriteRequest(byte[] data, int offset, int count) throws SftpStatusException, SshException {
+		if (outstandingRequests.isFull()) {
+			processNextResponse();
+		}
+		
+		outstandingRequests.add(handle.postWriteRequest(position, data, offset, count), position, count);
+		position += count;
+	}
+
+	private void processNextResponse() throws SftpStatusException, SshException {
+		try {
+			sftp.getOKRequestStatus(outstandingRequests.remove(), handle.getFile().getAbsolutePath());
 		} catch (SshException e) {
 			error = true;
 			throw e;
@@ -134,8 +190,12 @@ public class SftpFileOutputStream extends OutputStream {
 	 */
 	public void close() throws IOException {
 		try {
-			while (!error && processNextResponse(0))
-				;
+			if(!error) {
+				postBuffer();
+			}
+			while (!error && !outstandingRequests.isEmpty()) {
+				processNextResponse();
+			}
 			handle.close();
 		} catch (SshException ex) {
 			throw new SshIOException(ex);
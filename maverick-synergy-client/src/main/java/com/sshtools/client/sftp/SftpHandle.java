@@ -26,12 +26,18 @@ import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -39,6 +45,7 @@ import com.sshtools.client.tasks.FileTransferProgress;
 import com.sshtools.common.events.Event;
 import com.sshtools.common.events.EventCodes;
 import com.sshtools.common.events.EventServiceImplementation;
+import com.sshtools.common.files.AbstractFileRandomAccess;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.sftp.SftpFileAttributes.SftpFileAttributesBuilder;
@@ -502,6 +509,29 @@ public final class SftpHandle implements Closeable {
 	public void performOptimizedWrite(String filename, int blocksize, int maxAsyncRequests, java.io.InputStream in,
 			int buffersize, FileTransferProgress progress, long position)
 			throws SftpStatusException, SshException, TransferCancelledException {
+		performOptimizedWrite(filename, blocksize, maxAsyncRequests, in, buffersize, progress, position, null);
+	}
+
+	/**
+	 * Performs an optimized write of a file through asynchronous messaging and
+	 * through buffering the local file into memory, as 
+	 * {@link #performOptimizedWrite(String, int, int, java.io.InputStream, int, FileTransferProgress, long)},
+	 * recording each block in <code>ranges</code> once the server has acknowledged it. 
+	 * 
+	 * @param filename            the name of the file being written 
+	 * @param blocksize           the block size to send data
+	 * @param maxAsyncRequests    the maximum number of requests that can be
+	 *                            outstanding at any one time
+	 * @param in                  the InputStream to read from
+	 * @param buffersize          the size of the temporary buffer to read from the InputStream
+	 * @param progress            provides progress information, may be null.
+	 * @param position            the position in the file to start writing to.
+	 * @param ranges              records acknowledged ranges, may be null.
+	 * @throws SshException
+	 */
+	public void performOptimizedWrite(String filename, int blocksize, int maxAsyncRequests, java.io.InputStream in,
+			int buffersize, FileTransferProgress progress, long position, TransferRanges ranges)
+			throws SftpStatusException, SshException, TransferCancelledException {
 
 		checkValidHandle();
 		
@@ -509,9 +539,7 @@ public final class SftpHandle implements Closeable {
 		long transfered = position;
 
 		try {
-			if (blocksize > 0 && blocksize < 4096) {
-				throw new SshException("Block size cannot be less than 4096", SshException.BAD_API_USAGE);
-			}
+			checkBlockSize(blocksize);
 
 			if (blocksize <= 0 || blocksize > 65536) {
 				blocksize = sftp.getSession().getMaximumRemotePacketLength() - 13;
@@ -555,6 +583,9 @@ public final class SftpHandle implements Closeable {
 				long time = System.currentTimeMillis();
 				writeFile(new UnsignedInteger64(position), buf, 0, buffered);
 				time = System.currentTimeMillis() - time;
+				if (ranges != null) {
+					ranges.add(position, buffered);
+				}
 
 				System.setProperty("maverick.write.blockRoundtrip", String.valueOf(time));
 
@@ -567,6 +598,7 @@ public final class SftpHandle implements Closeable {
 				}
 
 				List<UnsignedInteger32> requests = new ArrayList<UnsignedInteger32>();
+				List<long[]> blocks = new ArrayList<long[]>();
 				// BufferedInputStream is not in J2ME, whatever type of input stream
 				// has been passed in can be used in conjunction with the abstract
 				// InputStream class.
@@ -579,6 +611,7 @@ public final class SftpHandle implements Closeable {
 						break;
 
 					requests.add(postWriteRequest(transfered, buf, 0, buffered));
+					blocks.add(new long[] { transfered, buffered });
 
 					transfered += buffered;
 
@@ -593,12 +626,14 @@ public final class SftpHandle implements Closeable {
 					if (requests.size() > maxAsyncRequests) {
 						UnsignedInteger32 requestId = (UnsignedInteger32) requests.remove(0);
 						sftp.getOKRequestStatus(requestId, file.getAbsolutePath());
+						acknowledged(blocks.remove(0), ranges);
 					}
 
 				}
 
 				while (requests.size() > 0) {
 					sftp.getOKRequestStatus(requests.remove(0), file.getAbsolutePath());
+					acknowledged(blocks.remove(0), ranges);
 				}
 			}
 
@@ -624,6 +659,12 @@ public final class SftpHandle implements Closeable {
 
 	}
 
+	private static void acknowledged(long[] block, TransferRanges ranges) {
+		if (ranges != null) {
+			ranges.add(block[0], block[1]);
+		}
+	}
+
 	/**
 	 * Read a block of data from an open file.
 	 * 
@@ -762,20 +803,9 @@ public final class SftpHandle implements Closeable {
 		boolean reachedEOF = false;
 		long started = System.currentTimeMillis();
 
-		if (blocksize > 0 && blocksize < 4096) {
-			throw new SshException("Block size cannot be less than 4096", SshException.BAD_API_USAGE);
-		}
-
-		if (blocksize <= 0 || blocksize > 65536) {
-			blocksize = sftp.getSession().getMaximumLocalPacketLength() - 13;
-		} else if (blocksize + 13 > sftp.getSession().getMaximumLocalPacketLength()) {
-			blocksize = sftp.getSession().getMaximumLocalPacketLength() - 13;
-		}
-
-		int calculatedRequests = (int) ((sftp.getSession().getMaximumWindowSpace().longValue() * 0.9D) / blocksize);
-		if (outstandingRequests <= 0 || calculatedRequests < outstandingRequests) {
-			outstandingRequests = calculatedRequests / 2;
-		}
+		checkBlockSize(blocksize);
+		blocksize = getReadBlockSize(blocksize);
+		outstandingRequests = getReadRequests(blocksize, outstandingRequests);
 
 		System.setProperty("maverick.read.optimizedBlock", String.valueOf(blocksize));
 		System.setProperty("maverick.read.asyncRequests", String.valueOf(outstandingRequests));
@@ -863,15 +893,13 @@ public final class SftpHandle implements Closeable {
 
 			Vector<UnsignedInteger32> requests = new Vector<UnsignedInteger32>(outstandingRequests);
 
-			int osr = calculatedRequests;
-
 			long offset = position;
 			UnsignedInteger32 requestId;
 			int dataLen;
 
 			while (true) {
 
-				while (requests.size() < osr) {
+				while (requests.size() < outstandingRequests) {
 
 					if (i > 0 && sftp.getSession().getRemoteWindow().longValue() < 29) {
 						if (Log.isDebugEnabled())
@@ -941,10 +969,6 @@ public final class SftpHandle implements Closeable {
 				} finally {
 					bar.release();
 				}
-
-				if (osr < calculatedRequests) {
-					osr++;
-				}
 			}
 
 		} finally {
@@ -1011,6 +1035,263 @@ public final class SftpHandle implements Closeable {
 		}
 	}
 
+	/**
+	 * Performs an optimized read of a file directly into a {@link FileChannel}. Each
+	 * block is written at its own offset as soon as its response arrives, so a slow
+	 * response does not hold up data that has already been received. Completed
+	 * blocks are recorded in <code>ranges</code>, and any ranges already recorded
+	 * there are not requested again, allowing an interrupted download to be resumed
+	 * exactly.
+	 * 
+	 * @param length              the length of the remote file
+	 * @param blocksize           the blocksize to read, or zero to calculate from the packet size
+	 * @param out                 the channel to write the file into
+	 * @param outstandingRequests the maximum number of read requests to have in flight, or zero 
+	 *                            to calculate from the window size
+	 * @param progress            provides progress information, may be null.
+	 * @param ranges              ranges of the file already transferred, updated as blocks complete
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public void performPositionalRead(long length, int blocksize, FileChannel out, int outstandingRequests,
+			FileTransferProgress progress, TransferRanges ranges)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		performPositionalRead(0, length, blocksize, out, outstandingRequests, progress, ranges);
+	}
+
+	/**
+	 * Performs an optimized read of a section of a file directly into a {@link FileChannel}, 
+	 * as {@link #performPositionalRead(long, int, FileChannel, int, FileTransferProgress, TransferRanges)}
+	 * but only requesting the missing ranges between <code>offset</code> and <code>offset + length</code>.
+	 * Progress is reported as the number of bytes of this section that have been transferred. 
+	 * 
+	 * @param offset              the offset of the section
+	 * @param length              the length of the section
+	 * @param blocksize           the blocksize to read, or zero to calculate from the packet size
+	 * @param out                 the channel to write the file into
+	 * @param outstandingRequests the maximum number of read requests to have in flight, or zero 
+	 *                            to calculate from the window size
+	 * @param progress            provides progress information, may be null.
+	 * @param ranges              ranges of the file already transferred, updated as blocks complete
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public void performPositionalRead(long offset, long length, int blocksize, FileChannel out, int outstandingRequests,
+			FileTransferProgress progress, TransferRanges ranges)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		performPositionalRead(offset, length, blocksize, (position, buf, off, len) -> {
+			ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+			while (bb.hasRemaining()) {
+				position += out.write(bb, position);
+			}
+		}, outstandingRequests, progress, ranges);
+	}
+
+	/**
+	 * Performs an optimized read of a file directly into an {@link AbstractFileRandomAccess}. 
+	 * Each block is written at its own offset as soon as its response arrives, so a slow
+	 * response does not hold up data that has already been received. Completed
+	 * blocks are recorded in <code>ranges</code>, and any ranges already recorded
+	 * there are not requested again, allowing an interrupted download to be resumed
+	 * exactly.
+	 * 
+	 * @param length              the length of the remote file
+	 * @param blocksize           the blocksize to read, or zero to calculate from the packet size
+	 * @param out                 the file to write into
+	 * @param outstandingRequests the maximum number of read requests to have in flight, or zero 
+	 *                            to calculate from the window size
+	 * @param progress            provides progress information, may be null.
+	 * @param ranges              ranges of the file already transferred, updated as blocks complete
+	 * @throws SftpStatusException
+	 * @throws SshException
+	 * @throws TransferCancelledException
+	 */
+	public void performPositionalRead(long length, int blocksize, AbstractFileRandomAccess out, int outstandingRequests,
+			FileTransferProgress progress, TransferRanges ranges)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		performPositionalRead(0, length, blocksize, (position, buf, off, len) -> {
+			out.seek(position);
+			out.write(buf, off, len);
+		}, outstandingRequests, progress, ranges);
+	}
+
+	@FunctionalInterface
+	private interface PositionalOutput {
+		void write(long position, byte[] buf, int off, int len) throws IOException;
+	}
+
+	private void performPositionalRead(long offset, long length, int blocksize, PositionalOutput out, int outstandingRequests,
+			FileTransferProgress progress, TransferRanges ranges)
+			throws SftpStatusException, SshException, TransferCancelledException {
+		checkValidHandle();
+
+		checkBlockSize(blocksize);
+		blocksize = getReadBlockSize(blocksize);
+		outstandingRequests = getReadRequests(blocksize, outstandingRequests);
+
+		if (length < 0 || offset < 0) {
+			throw new SshException("Offset and length must be known for a positional read", SshException.BAD_API_USAGE);
+		}
+
+		long started = System.currentTimeMillis();
+		long received = 0;
+		long eof = offset + length;
+
+		List<TransferRanges.Range> missing = ranges.getMissing(offset, eof);
+		long transfered = length;
+		for (TransferRanges.Range range : missing) {
+			transfered -= range.length();
+		}
+		Deque<long[]> blocks = new ArrayDeque<long[]>();
+		int nextMissing = 0;
+		long nextOffset = missing.isEmpty() ? eof : missing.get(0).start();
+
+		Map<UnsignedInteger32, long[]> requests = new HashMap<UnsignedInteger32, long[]>();
+
+		if (Log.isTraceEnabled()) {
+			Log.trace("Performing positional read offset=" + offset + " length=" + length + " missing=" + missing.size() 
+					+ " ranges blocksize=" + blocksize + " outstandingRequests=" + outstandingRequests);
+		}
+
+		if (progress != null && transfered > 0) {
+			progress.progressed(transfered);
+		}
+
+		try {
+			while (true) {
+
+				while (requests.size() < outstandingRequests) {
+
+					long[] block = blocks.poll();
+					if (block == null) {
+						if (nextMissing >= missing.size()) {
+							break;
+						}
+						TransferRanges.Range range = missing.get(nextMissing);
+						block = new long[] { nextOffset, Math.min(blocksize, range.end() - nextOffset) };
+						nextOffset += block[1];
+						if (nextOffset >= range.end() && ++nextMissing < missing.size()) {
+							nextOffset = missing.get(nextMissing).start();
+						}
+					}
+
+					if (block[0] >= eof) {
+						continue;
+					}
+
+					if (!requests.isEmpty() && sftp.getSession().getRemoteWindow().longValue() < 29) {
+						blocks.addFirst(block);
+						if (Log.isDebugEnabled())
+							Log.debug("Deferring post requests due to lack of remote window");
+						break;
+					}
+
+					requests.put(postReadRequest(block[0], (int) block[1]), block);
+
+					if (progress != null && progress.isCancelled()) {
+						throw new TransferCancelledException();
+					}
+				}
+
+				if (requests.isEmpty()) {
+					break;
+				}
+
+				SftpMessage bar = sftp.getFirstResponse(requests.keySet());
+				long[] block = requests.remove(new UnsignedInteger32(bar.getMessageId()));
+				try {
+					if (bar.getType() == SftpChannel.SSH_FXP_DATA) {
+						int dataLen = (int) bar.readInt();
+
+						if (Log.isTraceEnabled())
+							Log.trace("Got " + dataLen + " bytes of data at offset " + block[0]);
+
+						try {
+							out.write(block[0], bar.array(), bar.getPosition(), dataLen);
+						} catch (IOException e) {
+							throw new TransferCancelledException();
+						}
+
+						ranges.add(block[0], dataLen);
+						transfered += dataLen;
+						received += dataLen;
+
+						if (dataLen < block[1]) {
+							/**
+							 * Short read, request the remainder of the block again
+							 */
+							blocks.addFirst(new long[] { block[0] + dataLen, block[1] - dataLen });
+						}
+
+						if (progress != null) {
+							progress.progressed(transfered);
+						}
+					} else if (bar.getType() == SftpChannel.SSH_FXP_STATUS) {
+						int status = (int) bar.readInt();
+						if (status == SftpStatusException.SSH_FX_EOF) {
+							/**
+							 * The file is shorter than expected. Nothing beyond this block 
+							 * can be read, so stop requesting it.
+							 */
+							if (Log.isTraceEnabled())
+								Log.trace("Received file EOF at offset " + block[0]);
+							eof = Math.min(eof, block[0]);
+							continue;
+						}
+						if (sftp.version >= 3) {
+							String desc = bar.readString();
+
+							if (Log.isTraceEnabled())
+								Log.trace("Received status " + desc);
+
+							throw new SftpStatusException(status, desc);
+						}
+
+						if (Log.isTraceEnabled())
+							Log.trace("Received status " + status);
+
+						throw new SftpStatusException(status);
+					} else {
+						throw new SshException("The server responded with an unexpected message",
+								SshException.CHANNEL_FAILURE);
+					}
+				} catch (IOException ex) {
+					throw new SshException("Failed to read expected data from server response",
+							SshException.CHANNEL_FAILURE);
+				} finally {
+					bar.release();
+				}
+			}
+		} finally {
+			/**
+			 * Any requests still outstanding must be drained so their responses do
+			 * not accumulate in the channel.
+			 */
+			if (!requests.isEmpty() && !sftp.isClosed()) {
+				try {
+					while (!requests.isEmpty()) {
+						SftpMessage bar = sftp.getFirstResponse(requests.keySet());
+						requests.remove(new UnsignedInteger32(bar.getMessageId()));
+						bar.release();
+					}
+				} catch (SshException e) {
+					Log.debug("Failed to drain outstanding read requests", e);
+				}
+			}
+
+			long transferTime = System.currentTimeMillis() - started;
+			double seconds = transferTime > 1000 ? transferTime / 1000 : 1D;
+			if (received > 0) {
+				Log.info("Positional read of {} took seconds {} at {} per second",
+						IOUtils.toByteSize(received), seconds, IOUtils.toByteSize(received / seconds, 1));
+			} else {
+				Log.info("Positional read did not transfer any data");
+			}
+		}
+	}
+
 	/**
 	 * Perform a synchronous read of a file from the remote file system. This
 	 * implementation waits for acknowledgement of every data packet before
@@ -1094,7 +1375,7 @@ public final class SftpHandle implements Closeable {
 
 		try {
 			UnsignedInteger32 requestId = sftp.nextRequestId();
-			Packet msg = sftp.createPacket();
+			Packet msg = sftp.createPacket(len + handle.length + 21);
 			msg.write(SftpChannel.SSH_FXP_WRITE);
 			msg.writeInt(requestId.longValue());
 			msg.writeBinaryString(handle);
@@ -1118,6 +1399,57 @@ public final class SftpHandle implements Closeable {
 	SftpChannel getSFTPChannel() {
 		return sftp;
 	}
+
+	/**
+	 * The block size to use for reads. This is the requested size, unless none
+	 * is given or it would not fit within a single data packet sent to us.
+	 */
+	int getReadBlockSize(int blocksize) {
+		return clampBlockSize(blocksize, sftp.getSession().getMaximumLocalPacketLength());
+	}
+
+	/**
+	 * The number of read requests of the given block size to have in flight. This
+	 * is the requested number, unless none is given or they would exceed our
+	 * local window.
+	 */
+	int getReadRequests(int blocksize, int requests) {
+		return clampRequests(blocksize, requests, sftp.getSession().getMaximumWindowSpace().longValue());
+	}
+
+	/**
+	 * The block size to use for writes. This is the requested size, unless none
+	 * is given or it would not fit within a single data packet sent to the remote
+	 * side.
+	 */
+	int getWriteBlockSize(int blocksize) {
+		return clampBlockSize(blocksize, sftp.getSession().getMaximumRemotePacketLength());
+	}
+
+	/**
+	 * The number of write requests of the given block size to have in flight.
+	 * This is the requested number, unless none is given or they would exceed the
+	 * remote window.
+	 */
+	int getWriteRequests(int blocksize, int requests) {
+		return clampRequests(blocksize, requests, sftp.getSession().getRemoteWindow().longValue());
+	}
+
+	private static int clampBlockSize(int blocksize, int maximumPacketLength) {
+		int optimal = Math.min(65536, maximumPacketLength - 13);
+		return blocksize <= 0 || blocksize > optimal ? optimal : blocksize;
+	}
+
+	private static int clampRequests(int blocksize, int requests, long window) {
+		int optimal = Math.max(1, (int) ((window * 0.9D) / blocksize));
+		return requests <= 0 || requests > optimal ? optimal : requests;
+	}
+
+	private static void checkBlockSize(int blocksize) throws SshException {
+		if (blocksize > 0 && blocksize < 4096) {
+			throw new SshException("Block size cannot be less than 4096", SshException.BAD_API_USAGE);
+		}
+	}
 	
 	private void checkValidHandle() throws SftpStatusException {
 		if (closed) {
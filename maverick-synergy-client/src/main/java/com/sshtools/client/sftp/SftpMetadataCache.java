@@ -0,0 +1,317 @@
+package com.sshtools.client.sftp;
+
+/*-
+ * #%L
+ * Client API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.sftp.SftpFileAttributes;
+import com.sshtools.common.util.FileUtils;
+
+/**
+ * A bounded, time limited cache of remote file metadata used by {@link SftpClient}
+ * to avoid repeated round trips for the same paths. Attributes, directory listings
+ * and absolute (realpath) results are cached separately, each limited to the
+ * configured maximum number of entries with the least recently used entry being
+ * evicted first. Entries older than the configured time-to-live are discarded
+ * on access.
+ * <p>
+ * The {@link SftpClient} that owns the cache invalidates entries whenever it
+ * issues an operation that modifies the remote file system. Changes made by other
+ * clients or processes will not be seen until the entries expire.
+ */
+public class SftpMetadataCache {
+
+	/**
+	 * Default maximum number of entries for each type of metadata
+	 */
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 1000;
+
+	/**
+	 * Default time-to-live of each entry in milliseconds
+	 */
+	public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(5);
+
+	public final static class SftpMetadataCacheBuilder {
+		private int maximumEntries = DEFAULT_MAXIMUM_ENTRIES;
+		private long ttl = DEFAULT_TTL;
+
+		/**
+		 * Create a new {@link SftpMetadataCacheBuilder}.
+		 *
+		 * @return builder
+		 */
+		public static SftpMetadataCacheBuilder create() {
+			return new SftpMetadataCacheBuilder();
+		}
+
+		/**
+		 * Set the maximum number of entries held for each type of metadata.
+		 *
+		 * @param maximumEntries maximum entries
+		 * @return this for chaining
+		 */
+		public SftpMetadataCacheBuilder withMaximumEntries(int maximumEntries) {
+			if(maximumEntries < 1) {
+				throw new IllegalArgumentException("Maximum entries must be at least 1.");
+			}
+			this.maximumEntries = maximumEntries;
+			return this;
+		}
+
+		/**
+		 * Set how long an entry remains valid after it was obtained from the server.
+		 *
+		 * @param ttl time-to-live
+		 * @param unit unit of time-to-live
+		 * @return this for chaining
+		 */
+		public SftpMetadataCacheBuilder withTimeToLive(long ttl, TimeUnit unit) {
+			this.ttl = unit.toMillis(ttl);
+			return this;
+		}
+
+		/**
+		 * Build a new {@link SftpMetadataCache}.
+		 *
+		 * @return cache
+		 */
+		public SftpMetadataCache build() {
+			return new SftpMetadataCache(this);
+		}
+	}
+
+	private final static class CacheEntry<V> {
+		final V value;
+		final long expires;
+
+		CacheEntry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private final static class LRUMap<V> extends LinkedHashMap<String, CacheEntry<V>> {
+		private final int maximumEntries;
+
+		LRUMap(int maximumEntries) {
+			super(16, 0.75f, true);
+			this.maximumEntries = maximumEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+			return size() > maximumEntries;
+		}
+	}
+
+	private final long ttl;
+	private final int maximumEntries;
+	private final LRUMap<SftpFileAttributes> attributes;
+	private final LRUMap<SftpFile[]> listings;
+	private final LRUMap<String> absolutePaths;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	SftpMetadataCache(SftpMetadataCacheBuilder builder) {
+		this.ttl = builder.ttl;
+		this.maximumEntries = builder.maximumEntries;
+		this.attributes = new LRUMap<>(maximumEntries);
+		this.listings = new LRUMap<>(maximumEntries);
+		this.absolutePaths = new LRUMap<>(maximumEntries);
+	}
+
+	/**
+	 * Get the time-to-live of entries in milliseconds.
+	 *
+	 * @return time-to-live
+	 */
+	public long getTimeToLive() {
+		return ttl;
+	}
+
+	/**
+	 * Get the maximum number of entries held for each type of metadata.
+	 *
+	 * @return maximum entries
+	 */
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	/**
+	 * Get the number of lookups that were satisfied by the cache.
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups that had to go to the server.
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of times entries were invalidated as a result
+	 * of a modification made through the owning client.
+	 *
+	 * @return invalidations
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Get the total number of entries currently held.
+	 *
+	 * @return size
+	 */
+	public synchronized int size() {
+		return attributes.size() + listings.size() + absolutePaths.size();
+	}
+
+	/**
+	 * Discard all entries. The hit and miss counters are not reset.
+	 */
+	public synchronized void clear() {
+		attributes.clear();
+		listings.clear();
+		absolutePaths.clear();
+	}
+
+	/**
+	 * Reset the hit, miss and invalidation counters.
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		invalidations.set(0);
+	}
+
+	SftpFileAttributes getAttributes(String path) {
+		return lookup(attributes, path);
+	}
+
+	void putAttributes(String path, SftpFileAttributes attrs) {
+		store(attributes, path, attrs);
+	}
+
+	SftpFile[] getListing(String path) {
+		var files = lookup(listings, path);
+		return files == null ? null : files.clone();
+	}
+
+	void putListing(String path, SftpFile[] files) {
+		store(listings, path, files.clone());
+	}
+
+	String getAbsolutePath(String path) {
+		return lookup(absolutePaths, path);
+	}
+
+	void putAbsolutePath(String path, String absolutePath) {
+		store(absolutePaths, path, absolutePath);
+	}
+
+	/**
+	 * Invalidate any metadata for a single path, and the listing of its parent.
+	 *
+	 * @param path path
+	 */
+	synchronized void invalidate(String path) {
+		invalidations.incrementAndGet();
+		attributes.remove(path);
+		absolutePaths.remove(path);
+		listings.remove(path);
+		invalidateParent(path);
+	}
+
+	/**
+	 * Invalidate any metadata for a path, everything beneath it, and the
+	 * listing of its parent. Used when directories are removed or paths
+	 * are renamed.
+	 *
+	 * @param path path
+	 */
+	synchronized void invalidateTree(String path) {
+		invalidations.incrementAndGet();
+		var prefix = FileUtils.checkEndsWithSlash(path);
+		removeTree(attributes, path, prefix);
+		removeTree(absolutePaths, path, prefix);
+		removeTree(listings, path, prefix);
+		invalidateParent(path);
+	}
+
+	private void invalidateParent(String path) {
+		var parent = FileUtils.stripLastPathElement(path);
+		if(parent != null) {
+			listings.remove(parent);
+			listings.remove(FileUtils.checkEndsWithSlash(parent));
+		}
+		/* Listings of relative paths (such as the current directory) cannot
+		 * be reliably matched to the parent, so they are always discarded */
+		for(Iterator<String> it = listings.keySet().iterator(); it.hasNext(); ) {
+			if(!it.next().startsWith("/")) {
+				it.remove();
+			}
+		}
+	}
+
+	private static <V> void removeTree(LRUMap<V> map, String path, String prefix) {
+		for(Iterator<String> it = map.keySet().iterator(); it.hasNext(); ) {
+			var key = it.next();
+			if(key.equals(path) || key.startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized <V> V lookup(LRUMap<V> map, String path) {
+		var entry = map.get(path);
+		if(entry != null) {
+			if(System.currentTimeMillis() < entry.expires) {
+				hits.incrementAndGet();
+				return entry.value;
+			}
+			map.remove(path);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	private synchronized <V> void store(LRUMap<V> map, String path, V value) {
+		map.put(path, new CacheEntry<>(value, System.currentTimeMillis() + ttl));
+	}
+}
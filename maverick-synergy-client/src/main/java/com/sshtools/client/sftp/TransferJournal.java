@@ -0,0 +1,329 @@
+package com.sshtools.client.sftp;
+
+/*-
+ * #%L
+ * Client API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.util.Utils;
+
+/**
+ * A small, append-only file that records the byte ranges of a transfer that have
+ * completed, so that a transfer interrupted by a crash or lost connection can be 
+ * resumed from where it left off instead of starting again. 
+ * <p>
+ * The journal starts with a header identifying the source, destination, length and
+ * modification time of the file being transferred. If any of these differ when the
+ * journal is opened again, the previous contents are discarded. Each completed range
+ * is then appended as a single line along with the chunk that transferred it. Lines
+ * are buffered and written and synced to disk at most once every flush interval, so
+ * at worst the ranges completed in the last interval are transferred again on resume.
+ * <p>
+ * The journal records ranges as reported by the transfer, it cannot detect local or
+ * remote data that was lost after being reported. Callers should verify resumed ranges,
+ * e.g. using the remote hash support in {@link SftpClient}, before trusting them.
+ */
+public final class TransferJournal implements Closeable {
+
+	/**
+	 * Default interval between writes of the journal to disk.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+	
+	private static final String MAGIC = "#maverick-transfer-journal 1";
+	
+	private final Path path;
+	private final String header;
+	private final long flushInterval;
+	private final TransferRanges ranges = new TransferRanges();
+	private final StringBuilder pending = new StringBuilder();
+	private FileChannel channel;
+	private long lastFlush = System.currentTimeMillis();
+	private boolean resumed;
+
+	private TransferJournal(Path path, String header, long flushInterval) {
+		this.path = path;
+		this.header = header;
+		this.flushInterval = flushInterval;
+	}
+	
+	/**
+	 * Open the journal for a transfer in the given folder, creating it if it does not exist. 
+	 * The file name is derived from the source and destination, so the same transfer will 
+	 * always use the same journal.
+	 * 
+	 * @param folder folder to store journals in
+	 * @param source source of transfer
+	 * @param destination destination of transfer
+	 * @param length length of file being transferred
+	 * @param lastModified last modified time of the source
+	 * @param flushInterval minimum time in milliseconds between writes to disk
+	 * @return journal
+	 * @throws IOException
+	 */
+	public static TransferJournal open(Path folder, String source, String destination, long length, 
+			long lastModified, long flushInterval) throws IOException {
+		Files.createDirectories(folder);
+		return open(folder.resolve(getJournalName(source, destination)), 
+				MAGIC + "\nsource=" + source + "\ndestination=" + destination + 
+				"\nlength=" + length + "\nmodified=" + lastModified + "\n", flushInterval);
+	}
+
+	private static TransferJournal open(Path path, String header, long flushInterval) throws IOException {
+		var journal = new TransferJournal(path, header, flushInterval);
+		journal.load();
+		return journal;
+	}
+	
+	static String getJournalName(String source, String destination) {
+		try {
+			var digest = MessageDigest.getInstance("SHA-256");
+			digest.update(source.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)0);
+			digest.update(destination.getBytes(StandardCharsets.UTF_8));
+			return Utils.bytesToHex(digest.digest()).toLowerCase() + ".journal";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void load() throws IOException {
+		if(Files.exists(path)) {
+			try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+				var b = new StringBuilder();
+				var lines = header.split("\n").length;
+				for(int i = 0 ; i < lines; i++) {
+					var line = reader.readLine();
+					if(line == null) {
+						break;
+					}
+					b.append(line).append('\n');
+				}
+				if(header.equals(b.toString())) {
+					String line;
+					while((line = reader.readLine()) != null) {
+						parseRecord(line);
+					}
+					resumed = ranges.getTransferred() > 0;
+				}
+			}
+			if(resumed) {
+				if(Log.isDebugEnabled()) {
+					Log.debug("Resuming transfer journal {} with {} bytes complete", path, ranges.getTransferred());
+				}
+				channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				truncatePartialRecord();
+				return;
+			}
+		}
+		rewrite();
+	}
+
+	private void truncatePartialRecord() throws IOException {
+		/* Remove anything after the last line terminator and position at the end, 
+		 * so new records do not get appended to a partially written one */
+		var buf = ByteBuffer.allocate(1);
+		long size = channel.size();
+		long end = size;
+		while(end > 0) {
+			buf.clear();
+			channel.read(buf, end - 1);
+			if(buf.get(0) == '\n') {
+				break;
+			}
+			end--;
+		}
+		if(end < size) {
+			channel.truncate(end);
+		}
+		channel.position(end);
+	}
+
+	private void parseRecord(String line) {
+		/* r <chunk> <offset> <length> . The last line may be partially written if 
+		 * the process died while writing, so ignore anything without the terminator */
+		var parts = line.split(" ");
+		if(parts.length == 5 && parts[0].equals("r") && parts[4].equals(".")) {
+			try {
+				ranges.add(Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+			} catch(IllegalArgumentException e) {
+			}
+		}
+	}
+	
+	private void rewrite() throws IOException {
+		if(channel != null) {
+			channel.close();
+		}
+		var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		var b = new StringBuilder(header);
+		for(var range : ranges.getRanges()) {
+			appendRecord(b, 0, range.start(), range.length());
+		}
+		Files.write(tmp, b.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+	
+	private static void appendRecord(StringBuilder b, int chunk, long offset, long length) {
+		b.append("r ").append(chunk).append(' ').append(offset).append(' ').append(length).append(" .\n");
+	}
+	
+	/**
+	 * Get the path of the journal file.
+	 * 
+	 * @return path
+	 */
+	public Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * Get whether a previous journal for the same transfer was found with at least
+	 * one completed range, and it has not since been reset to an empty set of ranges.
+	 * 
+	 * @return resumed
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+	
+	/**
+	 * Get a copy of all ranges that have been completed.
+	 * 
+	 * @return ranges
+	 */
+	public TransferRanges getRanges() {
+		return TransferRanges.parse(ranges.toString());
+	}
+	
+	/**
+	 * Get a {@link TransferRanges} for a single chunk of the transfer. It contains all
+	 * ranges completed so far, and any ranges added to it are recorded in the journal
+	 * against the chunk.
+	 * 
+	 * @param chunk chunk number
+	 * @return ranges
+	 */
+	public TransferRanges forChunk(int chunk) {
+		return new TransferRanges(ranges, (offset, length) -> record(chunk, offset, length));
+	}
+	
+	/**
+	 * Replace the completed ranges, for example after verification of resumed
+	 * ranges found some of them to be invalid. The journal is rewritten.
+	 * 
+	 * @param ranges ranges
+	 * @throws IOException
+	 */
+	public synchronized void reset(TransferRanges ranges) throws IOException {
+		this.pending.setLength(0);
+		this.ranges.clear();
+		for(var range : ranges.getRanges()) {
+			this.ranges.add(range.start(), range.length());
+		}
+		resumed = this.ranges.getTransferred() > 0;
+		rewrite();
+	}
+	
+	/**
+	 * Record that a chunk has completed a range of bytes.
+	 * 
+	 * @param chunk chunk number
+	 * @param offset offset of first byte
+	 * @param length number of bytes
+	 */
+	public synchronized void record(int chunk, long offset, long length) {
+		if(channel == null || length <= 0) {
+			return;
+		}
+		ranges.add(offset, length);
+		appendRecord(pending, chunk, offset, length);
+		if(System.currentTimeMillis() - lastFlush >= flushInterval) {
+			try {
+				flush();
+			} catch (IOException e) {
+				Log.warn("Failed to write transfer journal {}", e, path);
+			}
+		}
+	}
+	
+	/**
+	 * Write any pending records to disk.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		lastFlush = System.currentTimeMillis();
+		if(channel == null || pending.length() == 0) {
+			return;
+		}
+		var buf = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+		pending.setLength(0);
+		while(buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		channel.force(false);
+	}
+	
+	/**
+	 * Flush and close the journal, leaving it on disk so the transfer may be resumed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(channel != null) {
+			try {
+				flush();
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+	
+	/**
+	 * Close and delete the journal once the transfer has completed successfully.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void complete() throws IOException {
+		pending.setLength(0);
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,299 @@
+package com.sshtools.client.sftp;
+
+/*-
+ * #%L
+ * Client API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Records which byte ranges of a file have been transferred. Ranges may be added
+ * in any order, overlapping or adjacent ranges are merged. Used by positional
+ * downloads (see {@link SftpHandle#performPositionalRead}) where blocks complete
+ * out of order, so that an interrupted transfer may be resumed from the exact set
+ * of ranges that are missing rather than from the last contiguous byte.
+ * <p>
+ * The ranges may be persisted and restored using {@link #toString()} and
+ * {@link #parse(String)}, or incrementally by supplying a {@link Listener}
+ * that is notified of every range as it is added.
+ */
+public final class TransferRanges {
+
+	/**
+	 * A single range of bytes, from <code>start</code> (inclusive) to 
+	 * <code>end</code> (exclusive).
+	 */
+	public final static class Range {
+		private final long start;
+		private final long end;
+
+		public Range(long start, long end) {
+			if(start < 0 || end < start) {
+				throw new IllegalArgumentException(String.format("Invalid range %d-%d", start, end));
+			}
+			this.start = start;
+			this.end = end;
+		}
+
+		public long start() {
+			return start;
+		}
+
+		public long end() {
+			return end;
+		}
+
+		public long length() {
+			return end - start;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(start, end);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null || getClass() != obj.getClass())
+				return false;
+			Range other = (Range) obj;
+			return start == other.start && end == other.end;
+		}
+
+		@Override
+		public String toString() {
+			return start + "-" + end;
+		}
+	}
+
+	/**
+	 * Notified of every range added, in the order they were added and before
+	 * any merging.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		void added(long offset, long length);
+	}
+
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+	private final Listener listener;
+	private long total;
+
+	/**
+	 * Create an empty set of ranges.
+	 */
+	public TransferRanges() {
+		this(null);
+	}
+
+	/**
+	 * Create an empty set of ranges that notifies a listener as ranges are added.
+	 * 
+	 * @param listener listener, may be null
+	 */
+	public TransferRanges(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Create a set of ranges starting with a copy of another, that notifies a 
+	 * listener as further ranges are added. The listener is not notified of
+	 * the copied ranges.
+	 * 
+	 * @param ranges ranges to copy
+	 * @param listener listener, may be null
+	 */
+	public TransferRanges(TransferRanges ranges, Listener listener) {
+		this.listener = listener;
+		synchronized(ranges) {
+			this.ranges.putAll(ranges.ranges);
+			this.total = ranges.total;
+		}
+	}
+
+	/**
+	 * Parse ranges previously obtained from {@link #toString()}.
+	 * 
+	 * @param ranges string representation of ranges
+	 * @return ranges
+	 */
+	public static TransferRanges parse(String ranges) {
+		var r = new TransferRanges();
+		if(ranges != null) {
+			for(var s : ranges.split(",")) {
+				s = s.trim();
+				if(s.length() > 0) {
+					int idx = s.indexOf('-');
+					if(idx < 1) {
+						throw new IllegalArgumentException(String.format("Invalid range %s", s));
+					}
+					long start = Long.parseLong(s.substring(0, idx));
+					r.add(start, Long.parseLong(s.substring(idx + 1)) - start);
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Record that a range of bytes has been transferred.
+	 * 
+	 * @param offset offset of first byte
+	 * @param length number of bytes
+	 */
+	public synchronized void add(long offset, long length) {
+		if(length <= 0) {
+			return;
+		}
+		long start = offset;
+		long end = offset + length;
+		
+		var floor = ranges.floorEntry(start);
+		if(floor != null && floor.getValue() >= start) {
+			start = floor.getKey();
+			end = Math.max(end, floor.getValue());
+			total -= floor.getValue() - floor.getKey();
+			ranges.remove(floor.getKey());
+		}
+		
+		Map.Entry<Long, Long> next;
+		while((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			total -= next.getValue() - next.getKey();
+			ranges.remove(next.getKey());
+		}
+		
+		ranges.put(start, end);
+		total += end - start;
+		
+		if(listener != null) {
+			listener.added(offset, length);
+		}
+	}
+
+	/**
+	 * Remove all ranges. The listener is not notified.
+	 */
+	public synchronized void clear() {
+		ranges.clear();
+		total = 0;
+	}
+
+	/**
+	 * Get whether the entire range has been transferred.
+	 * 
+	 * @param offset offset of first byte
+	 * @param length number of bytes
+	 * @return complete
+	 */
+	public synchronized boolean contains(long offset, long length) {
+		var floor = ranges.floorEntry(offset);
+		return floor != null && floor.getValue() >= offset + length;
+	}
+
+	/**
+	 * Get whether every byte from zero up to the given length has been transferred.
+	 * 
+	 * @param length length of file
+	 * @return complete
+	 */
+	public boolean isComplete(long length) {
+		return length == 0 || contains(0, length);
+	}
+
+	/**
+	 * Get the total number of bytes transferred.
+	 * 
+	 * @return bytes transferred
+	 */
+	public synchronized long getTransferred() {
+		return total;
+	}
+
+	/**
+	 * Get the ranges that have been transferred, in offset order.
+	 * 
+	 * @return ranges
+	 */
+	public synchronized List<Range> getRanges() {
+		var l = new ArrayList<Range>(ranges.size());
+		for(var en : ranges.entrySet()) {
+			l.add(new Range(en.getKey(), en.getValue()));
+		}
+		return Collections.unmodifiableList(l);
+	}
+
+	/**
+	 * Get the ranges between <code>from</code> (inclusive) and <code>to</code> 
+	 * (exclusive) that have not yet been transferred, in offset order.
+	 * 
+	 * @param from start offset
+	 * @param to end offset
+	 * @return missing ranges
+	 */
+	public synchronized List<Range> getMissing(long from, long to) {
+		var l = new ArrayList<Range>();
+		long pos = from;
+		var floor = ranges.floorEntry(from);
+		if(floor != null && floor.getValue() > pos) {
+			pos = floor.getValue();
+		}
+		for(var en : ranges.tailMap(from, false).entrySet()) {
+			if(pos >= to) {
+				break;
+			}
+			if(en.getKey() > pos) {
+				l.add(new Range(pos, Math.min(en.getKey(), to)));
+			}
+			pos = Math.max(pos, en.getValue());
+		}
+		if(pos < to) {
+			l.add(new Range(pos, to));
+		}
+		return l;
+	}
+
+	/**
+	 * Get a string representation of the ranges that may later be passed
+	 * to {@link #parse(String)}.
+	 */
+	@Override
+	public synchronized String toString() {
+		var b = new StringBuilder();
+		for(var en : ranges.entrySet()) {
+			if(b.length() > 0) {
+				b.append(',');
+			}
+			b.append(en.getKey());
+			b.append('-');
+			b.append(en.getValue());
+		}
+		return b.toString();
+	}
+}
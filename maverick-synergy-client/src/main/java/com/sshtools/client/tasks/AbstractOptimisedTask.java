@@ -31,6 +31,7 @@ import java.text.MessageFormat;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
@@ -40,6 +41,8 @@ import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
 import com.sshtools.client.sftp.SftpClientTask;
 import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.sftp.TransferJournal;
+import com.sshtools.client.sftp.TransferRanges;
 import com.sshtools.client.tasks.PushTask.PushTaskBuilder;
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -111,6 +114,8 @@ public abstract class AbstractOptimisedTask<TARGET, LOCALFILE> extends AbstractF
 		private Optional<ProgressMessages> progressMessages = Optional.empty();
 		private Function<LOCALFILE, FileTransferProgress> chunkProgress = (f) -> null;
 		private boolean verboseOutput = false;
+		private Optional<Path> journalFolder = Optional.empty();
+		private long journalFlushInterval = TransferJournal.DEFAULT_FLUSH_INTERVAL;
 		
 
 		protected AbstractOptimisedTaskBuilder() {
@@ -298,6 +303,37 @@ public abstract class AbstractOptimisedTask<TARGET, LOCALFILE> extends AbstractF
 			this.verboseOutput = verboseOutput;
 			return (B)this;
 		}
+		
+		/**
+		 * Keep a {@link TransferJournal} for each path transferred in the given folder. 
+		 * If the transfer is interrupted, running the same transfer again will only
+		 * transfer the ranges that did not complete. Resumed ranges are verified using
+		 * the configured digest (see {@link #withDigest(RemoteHash)}) if the server
+		 * supports it.
+		 * 
+		 * @param journalFolder folder to store journals in
+		 * @return builder for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public final B withJournal(Path journalFolder) {
+			this.journalFolder = Optional.of(journalFolder);
+			return (B)this;
+		}
+		
+		/**
+		 * How often the {@link TransferJournal} is written to disk. At worst, the data
+		 * transferred in this interval will be transferred again when resuming. Defaults
+		 * to one second.
+		 * 
+		 * @param interval interval
+		 * @param unit unit of interval
+		 * @return builder for chaining
+		 */
+		@SuppressWarnings("unchecked")
+		public final B withJournalFlushInterval(long interval, TimeUnit unit) {
+			this.journalFlushInterval = unit.toMillis(interval);
+			return (B)this;
+		}
 
 	}
 
@@ -314,6 +350,8 @@ public abstract class AbstractOptimisedTask<TARGET, LOCALFILE> extends AbstractF
 	protected final Function<LOCALFILE, FileTransferProgress> chunkProgress;
 	protected final LinkedList<SshClient> clients = new LinkedList<>();
 	protected final boolean verboseOutput;
+	protected final Optional<Path> journalFolder;
+	protected final long journalFlushInterval;
 
 	protected AbstractOptimisedTask(AbstractOptimisedTaskBuilder<?,?, LOCALFILE> builder) {
 		super(builder);
@@ -327,6 +365,8 @@ public abstract class AbstractOptimisedTask<TARGET, LOCALFILE> extends AbstractF
 		this.buffersize = builder.buffersize;
 		this.outstandingRequests = builder.outstandingRequests;
 		this.verboseOutput = builder.verboseOutput;
+		this.journalFolder = builder.journalFolder;
+		this.journalFlushInterval = builder.journalFlushInterval;
 		
 		try {
 			primarySftpClient = builder.primarySftpClient.orElse(SftpClientBuilder.create().withConnection(con).build());
@@ -439,6 +479,58 @@ public abstract class AbstractOptimisedTask<TARGET, LOCALFILE> extends AbstractF
 
 	}
 
+	protected final TransferJournal openJournal(String source, String destination, long length, long lastModified) throws IOException {
+		var journal = TransferJournal.open(journalFolder.orElseThrow(() -> new IllegalStateException("No journal folder configured.")), 
+				source, destination, length, lastModified, journalFlushInterval);
+		if(journal.isResumed()) {
+			displayMessage("Resuming transfer with {0} bytes already complete", journal.getRanges().getTransferred());
+		}
+		verboseMessage("Using transfer journal {0}", journal.getPath());
+		return journal;
+	}
+	
+	protected final String getRemoteURI(String remotePath) {
+		return MessageFormat.format("sftp://{0}@{1}:{2,number,#}{3}", con.getUsername(), con.getRemoteIPAddress(), 
+				con.getRemotePort(), remotePath.startsWith("/") ? remotePath : "/" + remotePath);
+	}
+
+	/**
+	 * Check each range recorded in a resumed journal against the remote hash of the same range,
+	 * discarding any that do not match so they are transferred again.
+	 */
+	protected final void verifyJournal(TransferJournal journal, Path localPath, String remotePath)
+			throws SshException, IOException, PermissionDeniedException {
+		
+		if(!journal.isResumed()) {
+			return;
+		}
+		
+		var recorded = journal.getRanges();
+		var verified = new TransferRanges();
+		for(var range : recorded.getRanges()) {
+			try {
+				if (primarySftpClient.verifyFiles(localPath.toAbsolutePath().toString(), remotePath, range.start(), range.length(), digest)) {
+					verified.add(range.start(), range.length());
+				} else {
+					displayMessage("Range {0} of {1} does not match and will be transferred again", range, localPath.getFileName());
+				}
+			} catch (SftpStatusException e) {
+				if (e.getStatus() == SftpStatusException.SSH_FX_OP_UNSUPPORTED) {
+					displayMessage("The remote server does not support integrity verification, resuming without verification");
+					return;
+				}
+				throw new IOException("Failed to verify resumed transfer.", e);
+			}
+		}
+		
+		if(verified.getTransferred() != recorded.getTransferred()) {
+			journal.reset(verified);
+		}
+		else {
+			verboseMessage("Verified {0} resumed bytes of {1}", verified.getTransferred(), localPath.getFileName());
+		}
+	}
+
 	protected static class FileTransferProgressWrapper implements FileTransferProgress {
 		private final FileTransferProgress delegate;
 		private final AtomicLong total;
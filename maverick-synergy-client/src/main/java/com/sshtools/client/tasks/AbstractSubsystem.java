@@ -32,13 +32,13 @@ import com.sshtools.common.logger.Log;
 import com.sshtools.common.ssh.Channel;
 import com.sshtools.common.ssh.ChannelEventListener;
 import com.sshtools.common.ssh.Packet;
+import com.sshtools.common.ssh.PacketPool;
 import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.SshIOException;
 import com.sshtools.common.util.IOUtils;
 import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.synergy.ssh.ByteArrays;
-import com.sshtools.synergy.ssh.PacketPool;
 
 /**
  * An abstract task for connecting to an SSH subsystem.
@@ -26,6 +26,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -46,6 +47,8 @@ import com.sshtools.client.sftp.SftpChannel;
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
 import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.sftp.TransferRanges;
+import com.sshtools.common.sftp.SftpFileAttributes;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
 import com.sshtools.common.sftp.SftpStatusException;
@@ -230,7 +233,9 @@ public final class PullTask extends AbstractOptimisedTask<Path, String> {
 		var remoteFile = primarySftpClient.stat(remotePath);
 		verboseMessage("Total to transfer is {0} bytes", remoteFile.size());
 
-		if (chunks <= 1) {
+		if (journalFolder.isPresent()) {
+			receiveWithJournal(remotePath, localFolder, remoteFile);
+		} else if (chunks <= 1) {
 			receiveFileViaSFTP(remotePath, localFolder);
 		} else {
 			checkErrors(receiveChunks(remotePath, localFolder));
@@ -305,6 +310,99 @@ public final class PullTask extends AbstractOptimisedTask<Path, String> {
 		}
 	}
 
+	private void receiveWithJournal(String remotePath, Path localFolder, SftpFileAttributes remoteFile)
+			throws IOException, SshException, PermissionDeniedException, SftpStatusException, TransferCancelledException {
+
+		var targetFilePath = localFolder.resolve(Paths.get(remotePath).getFileName());
+		var length = remoteFile.size().longValue();
+
+		try (var journal = openJournal(getRemoteURI(primarySftpClient.getAbsolutePath(remotePath)),
+				targetFilePath.toAbsolutePath().toString(), length, remoteFile.lastModifiedTime().toMillis())) {
+
+			if (journal.isResumed() && !Files.exists(targetFilePath)) {
+				displayMessage("Local file {0} no longer exists, restarting transfer", targetFilePath.getFileName());
+				journal.reset(new TransferRanges());
+			}
+
+			try (var localOutChannel = Files.newByteChannel(targetFilePath, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE)) {
+				localOutChannel.truncate(length);
+			}
+
+			verifyJournal(journal, targetFilePath, remotePath);
+
+			var executor = Executors.newFixedThreadPool(chunks);
+			var errors = Collections.synchronizedList(new ArrayList<Throwable>());
+			var total = new AtomicLong();
+			var remoteFolder = primarySftpClient.pwd();
+			var chunkLength = length / chunks;
+			var finalLength = length - (chunkLength * (chunks - 1));
+
+			if (progress.isPresent()) {
+				progress.get().started(length, targetFilePath.getFileName().toString());
+			}
+
+			printChunkMessages(chunkLength);
+
+			try {
+				for (int i = 0; i < chunks; i++) {
+					var chunk = i + 1;
+					var pointer = i * chunkLength;
+					var thisLength = chunk == chunks ? finalLength : chunkLength;
+					executor.submit(() -> {
+						try {
+							var wrapper = new FileTransferProgressWrapper(chunkProgress.apply(remotePath), progress, total);
+							receiveRanges(remotePath, pointer, thisLength, wrapper, targetFilePath, remoteFolder,
+									journal.forChunk(chunk));
+						} catch (Throwable e) {
+							errors.add(e);
+						}
+					});
+				}
+			} finally {
+				executor.shutdown();
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e1) {
+					throw new InterruptedIOException();
+				} finally {
+					progress.ifPresent(FileTransferProgress::completed);
+				}
+			}
+
+			checkErrors(errors);
+			journal.complete();
+		}
+	}
+
+	private void receiveRanges(String remotePath, long pointer, long chunkLength, FileTransferProgress progress,
+			Path targetFilePath, String remoteFolder, TransferRanges ranges) throws IOException, SftpStatusException,
+			SshException, TransferCancelledException, PermissionDeniedException {
+
+		SshClient ssh;
+		synchronized (clients) {
+			ssh = clients.removeFirst();
+		}
+
+		try (var file = FileChannel.open(targetFilePath, StandardOpenOption.WRITE)) {
+			try (var sftp = SftpClientBuilder.create().
+					withClient(ssh).
+					withRemotePath(remoteFolder).
+					build()) {
+
+				try (var handle = sftp.getSubsystemChannel().openFile(sftp.getAbsolutePath(remotePath), SftpChannel.OPEN_READ)) {
+					progress.started(chunkLength, remotePath);
+					handle.performPositionalRead(pointer, chunkLength, blocksize, file, outstandingRequests, progress, ranges);
+					progress.completed();
+				}
+			}
+		} finally {
+			synchronized (clients) {
+				clients.addLast(ssh);
+			}
+		}
+	}
+
 	private void receiveFileViaSFTP(String remotePath, Path localFolder) throws IOException, SshException,
 			PermissionDeniedException, SftpStatusException, TransferCancelledException {
 		var ssh = clients.removeFirst();
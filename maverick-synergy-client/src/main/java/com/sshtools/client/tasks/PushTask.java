@@ -47,6 +47,7 @@ import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
 import com.sshtools.client.sftp.SftpHandle;
 import com.sshtools.client.sftp.SftpMessage;
 import com.sshtools.client.sftp.TransferCancelledException;
+import com.sshtools.client.sftp.TransferRanges;
 import com.sshtools.common.files.AbstractFile;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.permissions.PermissionDeniedException;
@@ -349,7 +350,9 @@ public final class PushTask extends AbstractOptimisedTask<String, AbstractFile>
 		
 		verboseMessage("Total to transfer is {0} bytes", localFile.length());
 
-		if (chunks <= 1) {
+		if (journalFolder.isPresent()) {
+			sendWithJournal(localFile, remoteFolder);
+		} else if (chunks <= 1) {
 			sendFileViaSFTP(localFile, "", remoteFolder);
 		} else {
 			checkErrors(sendChunks(localFile, remoteFolder));
@@ -487,6 +490,129 @@ public final class PushTask extends AbstractOptimisedTask<String, AbstractFile>
 		}
 	}
 
+	private void sendWithJournal(AbstractFile localFile, String remoteFolder) throws IOException, SshException,
+			PermissionDeniedException, SftpStatusException, TransferCancelledException {
+
+		var remotePath = FileUtils.checkEndsWithSlash(remoteFolder) + localFile.getName();
+		var length = localFile.length();
+
+		try (var journal = openJournal(localFile.getAbsolutePath(), getRemoteURI(remotePath), length,
+				localFile.lastModified())) {
+
+			if (journal.isResumed() && !primarySftpClient.exists(remotePath)) {
+				displayMessage("Remote file {0} no longer exists, restarting transfer", remotePath);
+				journal.reset(new TransferRanges());
+			}
+
+			if (journal.isResumed()) {
+				verifyJournal(journal, Paths.get(localFile.getAbsolutePath()), remotePath);
+			} else {
+				verboseMessage("Creating file {0}", remotePath);
+				primarySftpClient.openFile(remotePath,
+						SftpChannel.OPEN_WRITE | SftpChannel.OPEN_CREATE | SftpChannel.OPEN_TRUNCATE).close();
+			}
+
+			var executor = Executors.newFixedThreadPool(chunks);
+			var errors = Collections.synchronizedList(new ArrayList<Throwable>());
+			var total = new AtomicLong();
+			var chunkLength = length / chunks;
+			var finalLength = length - (chunkLength * (chunks - 1));
+
+			if (progress.isPresent()) {
+				progress.get().started(length, localFile.getName());
+			}
+
+			printChunkMessages(chunkLength);
+
+			try {
+				for (int i = 0; i < chunks; i++) {
+					var chunk = i + 1;
+					var pointer = i * chunkLength;
+					var thisLength = chunk == chunks ? finalLength : chunkLength;
+					executor.submit(() -> {
+						try {
+							var wrapper = new FileTransferProgressWrapper(chunkProgress.apply(localFile), progress, total);
+							sendRanges(localFile, pointer, thisLength, wrapper, remotePath, journal.forChunk(chunk));
+						} catch (Throwable e) {
+							errors.add(e);
+						}
+					});
+				}
+			} finally {
+				executor.shutdown();
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e1) {
+					throw new InterruptedIOException();
+				} finally {
+					progress.ifPresent(FileTransferProgress::completed);
+				}
+			}
+
+			checkErrors(errors);
+			journal.complete();
+		}
+	}
+
+	private void sendRanges(AbstractFile localFile, long pointer, long chunkLength, FileTransferProgress progress,
+			String remotePath, TransferRanges ranges) throws IOException, SftpStatusException, SshException,
+			TransferCancelledException, PermissionDeniedException {
+
+		SshClient ssh;
+		synchronized (clients) {
+			ssh = clients.removeFirst();
+		}
+
+		try (var sftp = SftpClientBuilder.create().
+				withClient(ssh).
+				withLocalPath(primarySftpClient.lpwd()).
+				build()) {
+
+			var missing = ranges.getMissing(pointer, pointer + chunkLength);
+			var done = chunkLength;
+			for (var range : missing) {
+				done -= range.length();
+			}
+
+			progress.started(chunkLength, remotePath);
+			progress.progressed(done);
+
+			try (var handle = sftp.getSubsystemChannel().openFile(remotePath, SftpChannel.OPEN_WRITE)) {
+				for (var range : missing) {
+					var base = done;
+					try (var file = localFile.openFile(false)) {
+						file.seek(range.start());
+						handle.performOptimizedWrite(localFile.getName(), blocksize, outstandingRequests,
+								new ChunkInputStream(file, range.length()), buffersize, new FileTransferProgress() {
+
+									@Override
+									public boolean isCancelled() {
+										return progress.isCancelled();
+									}
+
+									@Override
+									public void progressed(long bytesSoFar) {
+										progress.progressed(base + bytesSoFar - range.start());
+									}
+
+								}, range.start(), ranges);
+					}
+					done += range.length();
+				}
+			}
+			progress.completed();
+		} catch (IOException ioe) {
+			if (ioe.getCause() instanceof TransferCancelledException) {
+				throw (TransferCancelledException) ioe.getCause();
+			} else
+				throw ioe;
+		} finally {
+			synchronized (clients) {
+				clients.addLast(ssh);
+			}
+		}
+	}
+
 	private void sendFileViaSFTP(AbstractFile localFile, String remotePath, String remoteFolder) throws IOException, SshException,
 			PermissionDeniedException, SftpStatusException, TransferCancelledException {
 		var ssh = clients.removeFirst();
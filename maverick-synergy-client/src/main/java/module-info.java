@@ -23,6 +23,7 @@
 import com.sshtools.client.SshKeyExchangeClientFactory;
 import com.sshtools.client.components.Curve25519SHA256Client;
 import com.sshtools.client.components.Curve25519SHA256LibSshClient;
+import com.sshtools.client.components.Curve448SHA512Client;
 import com.sshtools.client.components.DiffieHellmanEcdhNistp256;
 import com.sshtools.client.components.DiffieHellmanEcdhNistp384;
 import com.sshtools.client.components.DiffieHellmanEcdhNistp521;
@@ -55,6 +56,7 @@ module com.sshtools.synergy.client {
 	provides SshKeyExchangeClientFactory with 
 		Curve25519SHA256Client.Curve25519SHA256ClientFactory,
 		Curve25519SHA256LibSshClient.Curve25519SHA256LibSshClientFactory,
+		Curve448SHA512Client.Curve448SHA512ClientFactory,
 		DiffieHellmanEcdhNistp256.DiffieHellmanEcdhNistp256Factory,
 		DiffieHellmanEcdhNistp384.DiffieHellmanEcdhNistp384Factory,
 		DiffieHellmanEcdhNistp521.DiffieHellmanEcdhNistp521Factory,
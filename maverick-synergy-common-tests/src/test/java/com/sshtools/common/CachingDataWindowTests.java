@@ -158,4 +158,26 @@ public class CachingDataWindowTests extends TestCase {
 		assertTrue("Source and Target digest must be equal",
 				Arrays.areEqual(input.getMessageDigest().digest(), output.getMessageDigest().digest()));
 	}
+
+	public void testEnsureCapacity() throws EOFException {
+
+		final CachingDataWindow window = new CachingDataWindow(1024, true);
+		byte[] buffer = new byte[1000];
+		new Random().nextBytes(buffer);
+		window.put(ByteBuffer.wrap(buffer));
+		ByteBuffer b = ByteBuffer.allocate(100);
+		window.get(b);
+
+		window.ensureCapacity(65536);
+		window.put(ByteBuffer.wrap(buffer));
+		assertEquals(1900, window.remaining());
+
+		byte[] out = new byte[1900];
+		ByteBuffer o = ByteBuffer.wrap(out);
+		while(o.hasRemaining()) {
+			window.get(o);
+		}
+		assertTrue(Arrays.areEqual(java.util.Arrays.copyOfRange(buffer, 100, 1000), java.util.Arrays.copyOfRange(out, 0, 900)));
+		assertTrue(Arrays.areEqual(buffer, java.util.Arrays.copyOfRange(out, 900, 1900)));
+	}
 }
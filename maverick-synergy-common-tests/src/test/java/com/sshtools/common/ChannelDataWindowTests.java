@@ -0,0 +1,128 @@
+package com.sshtools.common;
+
+/*-
+ * #%L
+ * Common API Tests
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.nio.ByteBuffer;
+
+import com.sshtools.common.util.UnsignedInteger32;
+import com.sshtools.synergy.ssh.ChannelDataWindow;
+import com.sshtools.synergy.ssh.ForwardingDataWindow;
+
+import junit.framework.TestCase;
+
+public class ChannelDataWindowTests extends TestCase {
+
+	static final int BASE = 65536;
+	static final int LIMIT = 1024 * 1024;
+
+	ChannelDataWindow createWindow() {
+		ChannelDataWindow window = new ChannelDataWindow(new UnsignedInteger32(BASE),
+				new UnsignedInteger32(BASE), new UnsignedInteger32(8192), 32768);
+		window.enableAutoTuning(new UnsignedInteger32(LIMIT));
+		return window;
+	}
+
+	/**
+	 * Use the window down to the adjust threshold, then send an adjust that the remote side
+	 * takes the given time to respond to.
+	 */
+	void roundTrip(ChannelDataWindow window, long backlog, long delay) throws InterruptedException {
+		window.consume(window.getWindowSpace().longValue() - window.getAdjustThreshold() + 1);
+		window.autoTune(backlog);
+		long remaining = window.getWindowSpace().longValue();
+		window.adjust(window.getAdjustCount());
+		window.consume(remaining);
+		Thread.sleep(delay);
+		window.consume(1);
+	}
+
+	public void testAdjustsAtHalfWindow() {
+		ChannelDataWindow window = createWindow();
+		assertEquals(BASE / 2, window.getAdjustThreshold());
+		window.consume(BASE / 2);
+		assertFalse(window.isAdjustRequired());
+		window.consume(1);
+		assertTrue(window.isAdjustRequired());
+	}
+
+	public void testGrowsWhenWindowLimited() throws InterruptedException {
+		ChannelDataWindow window = createWindow();
+		roundTrip(window, 0, 50);
+		assertTrue(window.getRoundTripTime() >= 50);
+		assertEquals(BASE, window.getMaximumWindowSpace().longValue());
+
+		/* Half of the window is used well within two round trips of the last adjust */
+		for(int i = 0; i < 10; i++) {
+			roundTrip(window, 0, 0);
+		}
+		assertEquals(LIMIT, window.getMaximumWindowSpace().longValue());
+		assertEquals(LIMIT / 2, window.getAdjustThreshold());
+	}
+
+	public void testShrinksWhenConsumerStalls() throws InterruptedException {
+		ChannelDataWindow window = createWindow();
+		roundTrip(window, 0, 10);
+		roundTrip(window, 0, 0);
+		roundTrip(window, 0, 0);
+		long grown = window.getMaximumWindowSpace().longValue();
+		assertTrue(grown > BASE);
+
+		roundTrip(window, grown / 2, 0);
+		assertEquals(grown / 2, window.getMaximumWindowSpace().longValue());
+		for(int i = 0; i < 10; i++) {
+			roundTrip(window, LIMIT, 0);
+		}
+		assertEquals(BASE, window.getMaximumWindowSpace().longValue());
+	}
+
+	public void testForwardingCacheGrowsForSlowConsumer() throws Exception {
+		ChannelDataWindow window = createWindow();
+		ForwardingDataWindow cache = new ForwardingDataWindow(BASE);
+		roundTrip(window, 0, 10);
+		for(int i = 0; i < 10; i++) {
+			roundTrip(window, cache.remaining(), 0);
+			cache.ensureCapacity(window.getMaximumWindowSpace().intValue());
+		}
+		assertEquals(LIMIT, window.getMaximumWindowSpace().longValue());
+
+		/* The socket is not draining, so a full auto-tuned window of data is held */
+		ByteBuffer data = ByteBuffer.allocate(8192);
+		for(int i = 0; i < LIMIT / data.capacity(); i++) {
+			data.clear();
+			cache.put(data);
+		}
+		assertEquals(LIMIT, cache.remaining());
+		
+		cache.dispose();
+	}
+
+	public void testStaticWindow() throws InterruptedException {
+		ChannelDataWindow window = new ChannelDataWindow(new UnsignedInteger32(BASE),
+				new UnsignedInteger32(BASE), new UnsignedInteger32(8192), 32768);
+		assertEquals(8192, window.getAdjustThreshold());
+		for(int i = 0; i < 10; i++) {
+			roundTrip(window, 0, 0);
+		}
+		assertEquals(BASE, window.getMaximumWindowSpace().longValue());
+		assertEquals(0D, window.getRoundTripTime());
+	}
+}
@@ -0,0 +1,365 @@
+package com.sshtools.synergy.nio;
+
+/*-
+ * #%L
+ * Common API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.permissions.IPPolicy;
+
+/**
+ * Decides whether the {@link SshEngine} accepts a connection, before any protocol work is 
+ * done for it. Installed with {@link SshEngineContext#setAdmissionController(AdmissionController)}.
+ * <p>
+ * Accepts are shaped by a token bucket. When the bucket is empty the listening socket is 
+ * not accepted from until the next token is due, so waiting connections stay in the 
+ * operating system's backlog and are counted as deferred. Once accepted, a connection is 
+ * closed straight away, without sending an identification string, when
+ * <ul>
+ * <li>the {@link IPPolicy} does not allow its address,</li>
+ * <li>the load reported by the load monitor is at its maximum, for example the depth of a 
+ * queue that key exchange or authentication work waits in,</li>
+ * <li>too many connections have not yet authenticated, or</li>
+ * <li>its address already has too many connections. The address is also flagged with the 
+ * {@link IPPolicy}, so an address that keeps exceeding the limit is temporarily banned.</li>
+ * </ul>
+ * A limit of zero or less is disabled, and all are disabled by default. The {@link SshEngine}
+ * closes its controller when it shuts down.
+ */
+public class AdmissionController implements Closeable {
+
+	public enum Rejection {
+		IP_POLICY,
+		LOAD,
+		PRE_AUTHENTICATION,
+		PER_ADDRESS
+	}
+
+	/**
+	 * A connection that has been admitted. It holds a place in the pre-authentication and 
+	 * per address limits until it authenticates or is released.
+	 */
+	public class Admission {
+
+		final InetAddress address;
+		boolean authenticated;
+		boolean released;
+
+		Admission(InetAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * The connection has authenticated, so no longer counts towards the 
+		 * pre-authentication limit.
+		 */
+		public synchronized void authenticated() {
+			if(!authenticated && !released) {
+				authenticated = true;
+				preAuthentication.decrementAndGet();
+			}
+		}
+
+		/**
+		 * The connection has closed.
+		 */
+		public synchronized void release() {
+			if(!released) {
+				released = true;
+				if(!authenticated) {
+					preAuthentication.decrementAndGet();
+				}
+				addresses.computeIfPresent(address, (a, c) -> c > 1 ? c - 1 : null);
+			}
+		}
+	}
+
+	private volatile double acceptRate;
+	private volatile int acceptBurst = 1;
+	private volatile int maximumPreAuthentication;
+	private volatile int maximumPerAddress;
+	private volatile int maximumLoad;
+	private volatile IntSupplier loadMonitor;
+	private volatile IPPolicy ipPolicy;
+
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	private final AtomicInteger preAuthentication = new AtomicInteger();
+	private final ConcurrentHashMap<InetAddress, Integer> addresses = new ConcurrentHashMap<>();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong deferred = new AtomicLong();
+	private final AtomicLong[] rejected = new AtomicLong[Rejection.values().length];
+
+	private ScheduledExecutorService scheduler;
+
+	public AdmissionController() {
+		for(int i = 0; i < rejected.length; i++) {
+			rejected[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Set the sustained rate at which connections are accepted, and the number that 
+	 * may be accepted at once after a quiet period.
+	 * 
+	 * @param acceptsPerSecond accepts per second, zero or less for unlimited
+	 * @param burst burst
+	 */
+	public synchronized void setAcceptRate(double acceptsPerSecond, int burst) {
+		this.acceptRate = acceptsPerSecond;
+		this.acceptBurst = Math.max(1, burst);
+		this.tokens = acceptBurst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public double getAcceptRate() {
+		return acceptRate;
+	}
+
+	public int getAcceptBurst() {
+		return acceptBurst;
+	}
+
+	/**
+	 * Set the maximum number of connections that may be open at once without having 
+	 * authenticated.
+	 * 
+	 * @param maximumPreAuthentication maximum, zero or less for unlimited
+	 */
+	public void setMaximumPreAuthentication(int maximumPreAuthentication) {
+		this.maximumPreAuthentication = maximumPreAuthentication;
+	}
+
+	public int getMaximumPreAuthentication() {
+		return maximumPreAuthentication;
+	}
+
+	/**
+	 * Set the maximum number of connections that may be open at once from one address.
+	 * 
+	 * @param maximumPerAddress maximum, zero or less for unlimited
+	 */
+	public void setMaximumPerAddress(int maximumPerAddress) {
+		this.maximumPerAddress = maximumPerAddress;
+	}
+
+	public int getMaximumPerAddress() {
+		return maximumPerAddress;
+	}
+
+	/**
+	 * Reject connections while the load reported by a monitor is at or above a maximum.
+	 * 
+	 * @param loadMonitor monitor, or <code>null</code> to disable
+	 * @param maximumLoad maximum, zero or less for unlimited
+	 */
+	public void setLoadMonitor(IntSupplier loadMonitor, int maximumLoad) {
+		this.maximumLoad = maximumLoad;
+		this.loadMonitor = loadMonitor;
+	}
+
+	public IntSupplier getLoadMonitor() {
+		return loadMonitor;
+	}
+
+	public int getMaximumLoad() {
+		return maximumLoad;
+	}
+
+	/**
+	 * Set the policy that addresses are checked against as they are accepted, and that
+	 * addresses exceeding the per address limit are flagged with.
+	 * 
+	 * @param ipPolicy policy, or <code>null</code> for none
+	 */
+	public void setIPPolicy(IPPolicy ipPolicy) {
+		this.ipPolicy = ipPolicy;
+	}
+
+	public IPPolicy getIPPolicy() {
+		return ipPolicy;
+	}
+
+	/**
+	 * Take a token from the accept rate bucket.
+	 * 
+	 * @return zero if a connection may be accepted now, otherwise the nanoseconds until it may be
+	 */
+	public synchronized long acquireAccept() {
+		double rate = acceptRate;
+		if(rate <= 0) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		tokens = Math.min(acceptBurst, tokens + (now - lastRefill) * rate / 1000000000D);
+		lastRefill = now;
+		if(tokens >= 1) {
+			tokens--;
+			return 0;
+		}
+		deferred.incrementAndGet();
+		return Math.max(1, (long) Math.ceil((1 - tokens) * 1000000000D / rate));
+	}
+
+	/**
+	 * Decide whether to admit an accepted connection.
+	 * 
+	 * @param remoteAddress remote address
+	 * @param localAddress local address
+	 * @return admission, or <code>null</code> if the connection must be closed
+	 */
+	public Admission admit(InetSocketAddress remoteAddress, InetSocketAddress localAddress) {
+
+		InetAddress address = remoteAddress.getAddress();
+		IPPolicy ipPolicy = this.ipPolicy;
+		if(ipPolicy != null && !ipPolicy.checkConnection(address, localAddress.getAddress())) {
+			return reject(Rejection.IP_POLICY, address);
+		}
+
+		IntSupplier loadMonitor = this.loadMonitor;
+		int maxLoad = maximumLoad;
+		if(loadMonitor != null && maxLoad > 0 && loadMonitor.getAsInt() >= maxLoad) {
+			return reject(Rejection.LOAD, address);
+		}
+
+		int max = maximumPreAuthentication;
+		if(preAuthentication.incrementAndGet() > max && max > 0) {
+			preAuthentication.decrementAndGet();
+			return reject(Rejection.PRE_AUTHENTICATION, address);
+		}
+
+		int perAddress = maximumPerAddress;
+		if(addresses.merge(address, 1, Integer::sum) > perAddress && perAddress > 0) {
+			addresses.computeIfPresent(address, (a, c) -> c > 1 ? c - 1 : null);
+			preAuthentication.decrementAndGet();
+			if(ipPolicy != null) {
+				ipPolicy.flagAddress(address, "too many connections");
+			}
+			return reject(Rejection.PER_ADDRESS, address);
+		}
+
+		accepted.incrementAndGet();
+		return new Admission(address);
+	}
+
+	private Admission reject(Rejection reason, InetAddress address) {
+		rejected[reason.ordinal()].incrementAndGet();
+		if(Log.isDebugEnabled()) {
+			Log.debug("Rejecting connection from {} on admission, {}", address.getHostAddress(), reason);
+		}
+		return null;
+	}
+
+	synchronized void schedule(Runnable r, long delayNanos) {
+		if(scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor((t) -> {
+				Thread thread = new Thread(t, "AdmissionController");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		scheduler.schedule(r, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stop the thread that resumes accepting once the accept rate allows. It is started 
+	 * again if accepting is put off later.
+	 */
+	@Override
+	public synchronized void close() {
+		if(scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Get the number of connections admitted.
+	 * 
+	 * @return accepted
+	 */
+	public long getAccepted() {
+		return accepted.get();
+	}
+
+	/**
+	 * Get the number of times accepting was put off by the accept rate.
+	 * 
+	 * @return deferred
+	 */
+	public long getDeferred() {
+		return deferred.get();
+	}
+
+	/**
+	 * Get the number of connections rejected for any reason.
+	 * 
+	 * @return rejected
+	 */
+	public long getRejected() {
+		long total = 0;
+		for(AtomicLong r : rejected) {
+			total += r.get();
+		}
+		return total;
+	}
+
+	/**
+	 * Get the number of connections rejected for a reason.
+	 * 
+	 * @param reason reason
+	 * @return rejected
+	 */
+	public long getRejected(Rejection reason) {
+		return rejected[reason.ordinal()].get();
+	}
+
+	/**
+	 * Get the number of admitted connections that have not authenticated or closed.
+	 * 
+	 * @return connections
+	 */
+	public int getPreAuthenticationConnections() {
+		return preAuthentication.get();
+	}
+
+	/**
+	 * Get the number of admitted connections open from an address.
+	 * 
+	 * @param address address
+	 * @return connections
+	 */
+	public int getConnections(InetAddress address) {
+		return addresses.getOrDefault(address, 0);
+	}
+}
@@ -111,4 +111,13 @@ public interface SocketHandler extends SelectorRegistrationListener, SelectionKe
 		 * @return
 		 */
 		boolean wantsRead();
+
+		/**
+		 * Tell the selector that {@link #processReadEvent()} never blocks, so it can be
+		 * called on the selector thread rather than being passed to the executor.
+		 * @return
+		 */
+		default boolean isSelectorRead() {
+			return false;
+		}
 }
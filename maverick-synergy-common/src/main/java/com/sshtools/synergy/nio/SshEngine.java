@@ -57,6 +57,7 @@ import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.util.ByteArrayWriter;
 import com.sshtools.common.util.Utils;
 import com.sshtools.synergy.ssh.Connection;
+import com.sshtools.synergy.ssh.TransportProtocol;
 
 /**
  * This class provides an abstract daemon for servicing any number of protocol
@@ -437,6 +438,11 @@ public class SshEngine {
 				if (acceptThreads != null)
 					acceptThreads.shutdown();
 				
+				AdmissionController admission = context.getAdmissionController();
+				if(admission != null) {
+					admission.close();
+				}
+				
 				for(ListeningInterface li : listeningInterfaces) {
 					for(SshEngineListener listener : listeners) {
 						listener.interfaceStopped(this, li);
@@ -922,6 +928,21 @@ public class SshEngine {
 
 			ClientAcceptor acceptor = (ClientAcceptor) key.attachment();
 
+			AdmissionController admission = context.getAdmissionController();
+			if(admission != null) {
+				long delay = admission.acquireAccept();
+				if(delay > 0) {
+					/* Leave connections in the backlog until the next token is due */
+					key.interestOps(0);
+					admission.schedule(() -> thread.addSelectorOperation(() -> {
+						if(key.isValid()) {
+							key.interestOps(SelectionKey.OP_ACCEPT);
+						}
+					}), delay);
+					return;
+				}
+			}
+
 			if(Log.isTraceEnabled())
 				Log.trace(context.getBufferPool().getAllocatedBuffers()
 						+ " direct buffers allocated, "
@@ -949,6 +970,16 @@ public class SshEngine {
 							key.isReadable() ? " READ" : "", key.isWritable() ? " WRITE" : "");
 				}
 				
+				if(key.isReadable() && !key.isWritable() && listener.isSelectorRead()) {
+					/* A non-blocking read is cheaper to do here than to hand to the executor */
+					if(listener.processReadEvent()) {
+						key.cancel();
+					} else {
+						updateInterestOps(key, listener);
+					}
+					return;
+				}
+				
 				listener.addTask(new SocketReadWriteTask(listener.getConnection(), key, listener));
 			}
 		}
@@ -991,30 +1022,37 @@ public class SshEngine {
 			} else {
 				listener.getSelectorThread().addSelectorOperation(new Runnable() {
 					public void run() {
-						if(key.isValid()) {
-							int ops = 0;
-							boolean wantsWrite = listener.wantsWrite();
-							boolean wantsRead =  listener.wantsRead();
-							if(wantsWrite) {
-								ops |= SelectionKey.OP_WRITE;
-							}
-							if(wantsRead) {
-								ops |= SelectionKey.OP_READ;
-							}
-							if(Log.isTraceEnabled()) {
-								Log.trace("{} has state ops={} {}",
-										listener.getName(),
-										ops,
-										wantsWrite && wantsRead ? "READ/WRITE" : wantsWrite ? "WRITE" : wantsRead ? "READ" : "NONE");
-							}
-							key.interestOps(ops); 
-						}
+						updateInterestOps(key, listener);
 					}
 				});
 			}
 		
 		}
 	}
+	
+	/**
+	 * Register the operations a handler wants next. Must be called on the selector thread.
+	 */
+	static void updateInterestOps(SelectionKey key, SocketHandler listener) {
+		if(key.isValid()) {
+			int ops = 0;
+			boolean wantsWrite = listener.wantsWrite();
+			boolean wantsRead =  listener.wantsRead();
+			if(wantsWrite) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			if(wantsRead) {
+				ops |= SelectionKey.OP_READ;
+			}
+			if(Log.isTraceEnabled()) {
+				Log.trace("{} has state ops={} {}",
+						listener.getName(),
+						ops,
+						wantsWrite && wantsRead ? "READ/WRITE" : wantsWrite ? "WRITE" : wantsRead ? "READ" : "NONE");
+			}
+			key.interestOps(ops); 
+		}
+	}
 		
 	class ConnectSelectorThread implements SelectorThreadImpl {
 
@@ -1088,6 +1126,7 @@ public class SshEngine {
 
 			SocketChannel sc = null;
 			boolean registered = false;
+			AdmissionController.Admission admission = null;
 
 			try {
 				EventServiceImplementation.getInstance().fireEvent(
@@ -1100,6 +1139,17 @@ public class SshEngine {
 
 				if (sc != null) {
 					
+					AdmissionController admissionController = context.getAdmissionController();
+					if(admissionController != null) {
+						admission = admissionController.admit(
+								(InetSocketAddress) sc.getRemoteAddress(), 
+								(InetSocketAddress) sc.getLocalAddress());
+						if(admission == null) {
+							sc.close();
+							return !((ServerSocketChannel) key.channel()).isOpen();
+						}
+					}
+					
 					ProtocolContext protocolContext = li.getContextFactory().createContext(context, sc);
 					
 					sc.socket().setKeepAlive(
@@ -1143,6 +1193,17 @@ public class SshEngine {
 		        			sc.socket().getLocalSocketAddress(), 
 		        			sc.socket().getRemoteSocketAddress());
 		        	ProtocolEngine e = protocolContext.createEngine(new ConnectRequestFuture());
+		        	if(admission != null) {
+		        		AdmissionController.Admission a = admission;
+		        		e.getDisconnectFuture().addFutureListener((f) -> a.release());
+		        		if(e instanceof TransportProtocol) {
+		        			((TransportProtocol<?>) e).getAuthenticatedFuture().addFutureListener((f) -> {
+		        				if(f.isSuccess()) {
+		        					a.authenticated();
+		        				}
+		        			});
+		        		}
+		        	}
 		            connection.initialize(e, SshEngine.this, sc);
 		        	registerHandler(connection, sc);
 			        
@@ -1159,6 +1220,10 @@ public class SshEngine {
 				if(Log.isInfoEnabled())
 					Log.info("SSH client acceptor failed to accept", ex);
 
+				if (admission != null && !registered) {
+					admission.release();
+				}
+
 				if (sc != null && !registered) {
 
 					try {
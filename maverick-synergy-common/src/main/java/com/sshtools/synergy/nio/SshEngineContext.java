@@ -34,6 +34,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import com.sshtools.common.events.EventListener;
 import com.sshtools.common.events.EventServiceImplementation;
 import com.sshtools.common.util.ByteBufferPool;
+import com.sshtools.synergy.ssh.ForwardingMemoryBudget;
 
 /**
  * Each instance of a {@link SshEngine} has a single configuration context.
@@ -61,6 +62,9 @@ public class SshEngineContext {
 
 	SelectorProvider selectorProvider = SelectorProvider.provider();
 	ByteBufferPool bufferPool = null;
+	ForwardingMemoryBudget forwardingMemoryBudget = null;
+	long forwardingMemoryLimit = 0;
+	volatile AdmissionController admissionController = null;
 
 	private Map<String,Object> attributes = new HashMap<String,Object>();
 	
@@ -130,6 +134,56 @@ public class SshEngineContext {
 		return bufferPool;
 	}
 
+	/**
+	 * Returns the budget that the forwarding buffers of all connections are accounted against.
+	 * 
+	 * @return ForwardingMemoryBudget
+	 */
+	public synchronized ForwardingMemoryBudget getForwardingMemoryBudget() {
+		if (forwardingMemoryBudget == null)
+			forwardingMemoryBudget = new ForwardingMemoryBudget(forwardingMemoryLimit);
+		return forwardingMemoryBudget;
+	}
+
+	/**
+	 * Set the maximum memory that the forwarding buffers of all connections may hold
+	 * before channels stop growing their buffers and advertise smaller windows.
+	 * 
+	 * @param forwardingMemoryLimit limit in bytes, zero or less for unlimited
+	 */
+	public synchronized void setForwardingMemoryLimit(long forwardingMemoryLimit) {
+		this.forwardingMemoryLimit = forwardingMemoryLimit;
+		if (forwardingMemoryBudget != null)
+			forwardingMemoryBudget.setLimit(forwardingMemoryLimit);
+	}
+
+	/**
+	 * Get the maximum memory that the forwarding buffers of all connections may hold.
+	 * 
+	 * @return limit in bytes, zero or less for unlimited
+	 */
+	public long getForwardingMemoryLimit() {
+		return forwardingMemoryLimit;
+	}
+
+	/**
+	 * Get the controller that decides whether accepted connections are admitted.
+	 * 
+	 * @return AdmissionController, or <code>null</code> if every connection is accepted
+	 */
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	/**
+	 * Set the controller that decides whether accepted connections are admitted.
+	 * 
+	 * @param admissionController controller, or <code>null</code> to accept every connection
+	 */
+	public void setAdmissionController(AdmissionController admissionController) {
+		this.admissionController = admissionController;
+	}
+
 	/**
 	 * Set the SelectorProvider used by the Selector threads.
 	 * 
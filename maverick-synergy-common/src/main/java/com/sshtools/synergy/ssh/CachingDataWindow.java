@@ -41,6 +41,27 @@ public class CachingDataWindow {
 		cache.flip();
 	}
 
+	/**
+	 * For subclasses that manage their own storage.
+	 */
+	protected CachingDataWindow(boolean blocking) {
+		this.blocking = blocking;
+	}
+
+	/**
+	 * Grow the cache so that it can hold at least the given number of bytes.
+	 * 
+	 * @param size size
+	 */
+	public synchronized void ensureCapacity(int size) {
+		if(Objects.nonNull(cache) && cache.capacity() < size) {
+			ByteBuffer tmp = ByteBuffer.allocate(size);
+			tmp.put(cache);
+			tmp.flip();
+			cache = tmp;
+		}
+	}
+
 	public synchronized void enableBlocking() {
 		blocking = true;
 	}
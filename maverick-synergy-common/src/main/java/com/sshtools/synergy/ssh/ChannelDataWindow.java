@@ -22,14 +22,31 @@ package com.sshtools.synergy.ssh;
  * #L%
  */
 
+import com.sshtools.common.logger.Log;
 import com.sshtools.common.util.UnsignedInteger32;
 
 public class ChannelDataWindow {
 
+	/**
+	 * How long the smallest round trip time sampled remains valid before a newer,
+	 * larger sample replaces it.
+	 */
+	static final long ROUND_TRIP_WINDOW = 10000000000L;
+
 	UnsignedInteger32 maximumWindowSpace;
 	UnsignedInteger32 minimumWindowSpace;
 	int maximumPacketSize;
 	UnsignedInteger32 windowSpace;
+
+	long autoTuningLimit;
+	long baseWindowSpace;
+	long lastAdjust;
+	long roundTrip;
+	long roundTripSampled;
+	boolean sampling;
+	long sampleStarted;
+	long sampleWindow;
+	long sampleBytes;
 	
 	public ChannelDataWindow(UnsignedInteger32 initialWindowSpace, UnsignedInteger32 maximumWindowSpace, UnsignedInteger32 minimumWindowSpace, int maximumPacketSize) {
 		this.maximumWindowSpace = maximumWindowSpace;
@@ -40,6 +57,93 @@ public class ChannelDataWindow {
 	
 	public synchronized void consume(long count) {
 		windowSpace = UnsignedInteger32.deduct(windowSpace, count);
+		if(sampling) {
+			sampleBytes += count;
+			if(sampleBytes > sampleWindow) {
+				/* This data could only have been sent once the adjust had arrived */
+				long now = System.nanoTime();
+				long sample = now - sampleStarted;
+				if(roundTrip == 0 || sample < roundTrip || now - roundTripSampled > ROUND_TRIP_WINDOW) {
+					roundTrip = sample;
+					roundTripSampled = now;
+				}
+				sampling = false;
+			}
+		}
+	}
+
+	/**
+	 * Let the maximum window grow up to a limit when the remote side is filling
+	 * it faster than window adjusts can make the round trip, and shrink back
+	 * towards its configured size when data is not being consumed. Window adjusts
+	 * are sent once half of the window has been used rather than at the minimum.
+	 * 
+	 * @param limit largest window
+	 */
+	public synchronized void enableAutoTuning(UnsignedInteger32 limit) {
+		this.autoTuningLimit = limit.longValue();
+		this.baseWindowSpace = maximumWindowSpace.longValue();
+	}
+
+	public synchronized boolean isAutoTuning() {
+		return autoTuningLimit > 0;
+	}
+
+	/**
+	 * Called before a window adjust is sent to resize an auto-tuned window. The window
+	 * doubles when half of it was used in less than two round trips since the last adjust,
+	 * and halves when the data that has arrived but not been consumed reaches half of it.
+	 * 
+	 * @param backlog bytes received but not yet consumed
+	 */
+	public synchronized void autoTune(long backlog) {
+		if(autoTuningLimit <= 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		long maximum = maximumWindowSpace.longValue();
+		long size = maximum;
+		if(backlog >= maximum / 2) {
+			size = Math.max(baseWindowSpace, maximum / 2);
+		} else if(lastAdjust > 0 && roundTrip > 0 && now - lastAdjust < 2 * roundTrip) {
+			size = Math.min(autoTuningLimit, maximum * 2);
+		}
+		if(size != maximum) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("{} window from {} to {} bytes rtt={}ms backlog={}", size > maximum ? "Growing" : "Shrinking",
+						maximum, size, roundTrip / 1000000D, backlog);
+			}
+			maximumWindowSpace = new UnsignedInteger32(size);
+		}
+		lastAdjust = now;
+		if(!sampling) {
+			sampling = true;
+			sampleStarted = now;
+			sampleWindow = windowSpace.longValue();
+			sampleBytes = 0;
+		}
+	}
+
+	/**
+	 * Get the smallest recently sampled time between sending a window adjust and
+	 * receiving data that depended on it.
+	 * 
+	 * @return round trip time in milliseconds, or zero if not sampled
+	 */
+	public synchronized double getRoundTripTime() {
+		return roundTrip / 1000000D;
+	}
+
+	/**
+	 * Get the window space below which an adjust should be sent.
+	 * 
+	 * @return threshold
+	 */
+	public synchronized long getAdjustThreshold() {
+		if(autoTuningLimit > 0) {
+			return Math.max(minimumWindowSpace.longValue(), maximumWindowSpace.longValue() / 2);
+		}
+		return minimumWindowSpace.longValue();
 	}
 	
 	public synchronized void adjust(UnsignedInteger32 count) {
@@ -52,10 +156,13 @@ public class ChannelDataWindow {
 	}
 
 	public synchronized boolean isAdjustRequired() {
-		return windowSpace.longValue() < minimumWindowSpace.longValue();
+		return windowSpace.longValue() < getAdjustThreshold();
 	}
 	
 	public synchronized UnsignedInteger32 getAdjustCount() {
+		if(windowSpace.longValue() >= maximumWindowSpace.longValue()) {
+			return UnsignedInteger32.ZERO;
+		}
 		return UnsignedInteger32.deduct(maximumWindowSpace, windowSpace);
 	}
 
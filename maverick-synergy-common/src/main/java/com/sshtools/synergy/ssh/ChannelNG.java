@@ -101,6 +101,9 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	private ChannelOutputStream channelOut = new ChannelOutputStream(this);
 	private boolean autoConsume;
 	protected boolean paused;
+	private Boolean dataCoalescing;
+	private volatile ChannelData coalescedData;
+	private WindowAdjust pendingAdjust;
 	
 	/**
 	 * Construct a channel with the specified settings.
@@ -540,6 +543,12 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		
 		synchronized(ChannelNG.this) {
 
+			if(canCoalesce(buf)) {
+				lastMessage = coalesce(buf, type);
+			} else {
+			
+			coalescedData = null;
+			
 			do {
 			
 				if(isLocalEOF.get() || isClosed()) {
@@ -597,6 +606,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 				
 			} while(Objects.isNull(lastMessage));
 			
+			}
 		}
 		
 		if(!Objects.isNull(lastMessage)) {
@@ -625,6 +635,67 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		}
 	}
 	
+	private boolean canCoalesce(ByteBuffer buf) {
+		return isDataCoalescing() 
+				&& buf.remaining() <= remoteWindow.getMaximumPacketSize() / 2
+				&& buf.remaining() <= remoteWindow.getWindowSpace().longValue();
+	}
+	
+	/**
+	 * Copy a small write into the data message for this channel that is still waiting in the
+	 * outgoing queue, or queue a new message for it when there is none, it has already been
+	 * written or it is full. At most one full message is left for the caller to wait on, so 
+	 * a writer that is faster than the transport is still held back.
+	 */
+	private ChannelData coalesce(ByteBuffer buf, int type) throws IOException {
+		
+		if(isLocalEOF.get() || isClosed()) {
+			throw new IOException("Channel has been closed");
+		}
+		
+		long window = remoteWindow.getWindowSpace().longValue();
+		remoteWindow.consume(buf.remaining());
+		
+		for (ChannelEventListener listener : new ArrayList<>(eventListeners)) {
+			listener.onChannelDataOut(this, buf);
+		}
+		
+		ChannelData pending = coalescedData;
+		if(Objects.nonNull(pending) && pending.type == type && pending.append(buf)) {
+			return null;
+		}
+		
+		connection.sendMessage(coalescedData = new ChannelData(type, window, buf, remoteWindow.getMaximumPacketSize()));
+		
+		return Objects.nonNull(pending) && !pending.isMessageSent() ? pending : null;
+	}
+	
+	/**
+	 * Is data written to this channel merged into larger packets? Unless set on the channel,
+	 * this is the default of the context, see {@link SshContext#setChannelDataCoalescing(boolean)}.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isDataCoalescing() {
+		return Objects.nonNull(dataCoalescing) ? dataCoalescing : getContext().isChannelDataCoalescing();
+	}
+	
+	/**
+	 * Merge small writes to this channel into the data message that is still waiting in the
+	 * outgoing queue, up to the maximum packet size of the remote side. Data is only held 
+	 * for as long as the transport is busy writing other packets, a write to an otherwise idle 
+	 * connection is sent straight away. Interactive channels should leave this off so that each 
+	 * keystroke or echo is sent on its own.
+	 * 
+	 * @param dataCoalescing
+	 */
+	public void setDataCoalescing(boolean dataCoalescing) {
+		this.dataCoalescing = dataCoalescing;
+		if(!dataCoalescing) {
+			coalescedData = null;
+		}
+	}
+	
 	/**
 	 * Get the current configuration from the underlying connection.
 	 * 
@@ -731,6 +802,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		} else {
 			requests.add(future);
 		}
+		coalescedData = null;
 		connection.sendMessage(new ChannelRequest(type, wantreply, requestdata));
 	}
 	
@@ -739,6 +811,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		if(wantreply) {
 			requests.add(new ChannelRequestFuture());
 		}
+		coalescedData = null;
 		connection.sendMessage(new ChannelRequest(type, wantreply, requestdata));
 	}
 	
@@ -831,6 +904,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		}
 
 		if (doSend && connection.isConnected()) {
+			coalescedData = null;
 			connection.sendMessage(new ChannelClose(receivedClose.get()));
 		}
 		
@@ -1028,6 +1102,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		if (isOpen() && !sentClose.get() && !isLocalEOF.get()) {
 			isLocalEOF.set(true);
 			remoteWindow.close();
+			coalescedData = null;
 			connection.sendMessage(new ChannelEOF());
 			onLocalEOF();
 		}
@@ -1062,6 +1137,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	 * @param succeeded
 	 */
 	protected void sendRequestResponse(boolean succeeded) {
+		coalescedData = null;
 		if (succeeded) {
 			connection.sendMessage(new RequestSuccess());
 		} else {
@@ -1077,7 +1153,29 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	protected void sendWindowAdjust() {
 
 		synchronized (localWindow) {
-			sendWindowAdjust(localWindow.getAdjustCount());	
+			if(localWindow.isAutoTuning()) {
+				localWindow.autoTune(Objects.nonNull(cache) ? cache.remaining() : 0);
+				if(Objects.nonNull(cache)) {
+					cache.ensureCapacity(localWindow.getMaximumWindowSpace().intValue());
+				}
+			}
+			UnsignedInteger32 count = localWindow.getAdjustCount();
+			if(count.longValue() > 0) {
+				sendWindowAdjust(count);
+			}
+		}
+	}
+
+	/**
+	 * Let the local window grow beyond its maximum, up to the limit given, when the remote
+	 * side can send faster than window adjusts make the round trip, for example over links
+	 * with high latency. See {@link ChannelDataWindow#enableAutoTuning(UnsignedInteger32)}.
+	 * 
+	 * @param limit largest window
+	 */
+	public void enableWindowAutoTuning(UnsignedInteger32 limit) {
+		synchronized (localWindow) {
+			localWindow.enableAutoTuning(limit);
 		}
 	}
 
@@ -1086,7 +1184,10 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			if(Log.isTraceEnabled()) {
 				log("Increasing", "window space by " + String.valueOf(count) + " bytes");
 			}
-			connection.sendMessage(new WindowAdjust(this, count.longValue(), localWindow.getWindowSpace().longValue()));
+			/* Adjusts made before the last one was written go out as one message */
+			if(Objects.isNull(pendingAdjust) || !pendingAdjust.add(count.longValue())) {
+				connection.sendMessage(pendingAdjust = new WindowAdjust(this, count.longValue(), localWindow.getWindowSpace().longValue()));
+			}
 			localWindow.adjust(count);		
 		}
 	}
@@ -1138,6 +1239,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		long count;
 		ChannelNG<T> channel;
 		long window;
+		boolean written;
 
 		WindowAdjust(ChannelNG<T> channel, long count, long window) {
 			this.channel = channel;
@@ -1145,10 +1247,19 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			this.window = window;
 		}
 
-		public boolean writeMessageIntoBuffer(ByteBuffer buf) {
+		synchronized boolean add(long count) {
+			if(written || this.count + count > UnsignedInteger32.MAX_VALUE) {
+				return false;
+			}
+			this.count += count;
+			return true;
+		}
+		
+		public synchronized boolean writeMessageIntoBuffer(ByteBuffer buf) {
 			buf.put((byte) ConnectionProtocol.SSH_MSG_CHANNEL_WINDOW_ADJUST);
 			buf.putInt(remoteid);
 			buf.putInt((int)count);
+			written = true;
 			return true;
 		}
 
@@ -1189,6 +1300,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 	}
 
 	static int sequence = 0;
+	static final int COALESCING_BUFFER_SIZE = 4096;
 
 	class ChannelData implements SshMessage {
 
@@ -1198,6 +1310,8 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 		int count;
 		long remoteWindow;
 		boolean sent;
+		boolean written;
+		int capacity;
 		
 		ChannelData(ByteBuffer msg, int type, long remoteWindow) {
 			this.msg = msg;
@@ -1205,8 +1319,40 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			this.remoteWindow = remoteWindow;
 			this.count = msg.remaining();
 		}
+		
+		/**
+		 * A message that owns a copy of its data so that later writes can be appended to 
+		 * it, up to the capacity given, until it is written.
+		 */
+		ChannelData(int type, long remoteWindow, ByteBuffer data, int capacity) {
+			this.type = type;
+			this.remoteWindow = remoteWindow;
+			this.capacity = capacity;
+			this.msg = ByteBuffer.allocate(Math.min(capacity, Math.max(COALESCING_BUFFER_SIZE, data.remaining())));
+			append(data);
+		}
+		
+		synchronized boolean append(ByteBuffer data) {
+			if(written || count + data.remaining() > capacity) {
+				return false;
+			}
+			if(msg.remaining() < data.remaining()) {
+				ByteBuffer tmp = ByteBuffer.allocate(Math.min(capacity, Math.max(msg.capacity() * 2, count + data.remaining())));
+				msg.flip();
+				tmp.put(msg);
+				msg = tmp;
+			}
+			count += data.remaining();
+			msg.put(data);
+			return true;
+		}
 
-		public boolean writeMessageIntoBuffer(ByteBuffer buf) {
+		public synchronized boolean writeMessageIntoBuffer(ByteBuffer buf) {
+			
+			if(capacity > 0) {
+				msg.flip();
+			}
+			written = true;
 
 			/*
 			 * byte SSH_MSG_CHANNEL_DATA uint32 recipient channel string data
@@ -1374,7 +1520,7 @@ public abstract class ChannelNG<T extends SshContext> implements Channel {
 			Log.trace("Checking window space on channel=" + getLocalId() + " window=" + localWindow.getWindowSpace()
 						+ (Objects.nonNull(cache) ? " cached=" + cache.remaining() : ""));
 		}
-		return localWindow.getWindowSpace().longValue() + (Objects.nonNull(cache) ? cache.remaining() : 0) <= localWindow.getMinimumWindowSpace().longValue();
+		return localWindow.getWindowSpace().longValue() + (Objects.nonNull(cache) ? cache.remaining() : 0) <= localWindow.getAdjustThreshold();
 	}
 	
 	protected class ChannelInputStream extends InputStream {
@@ -58,6 +58,7 @@ public class Connection<T extends SshContext> implements EventTrigger, SshConnec
 	ConnectionProtocol<T> connection;
 	String username;
 	boolean closed = false;
+	boolean counted = false;
 	Date startTime = new Date();
 	HashMap<String,Object> properties = new HashMap<String,Object>();
 	InetSocketAddress remoteAddress;
@@ -26,10 +26,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.logger.Log.Level;
@@ -38,12 +38,22 @@ import com.sshtools.common.ssh.SshConnectionManager;
 
 /**
  * Holds and manages Connection objects.
+ * <p>
+ * Connections are held in concurrent maps, so registering and unregistering transports 
+ * and looking up connections by session identifier never take a lock shared with other 
+ * connections. A connection can also be found by its session identifier through a single 
+ * index shared by all managers. The number of connections and of authenticated users are 
+ * counted as connections come and go rather than by iterating over them.
  */
 public class ConnectionManager<T extends SshContext> implements SshConnectionManager {
 
-    private HashMap<String, Connection<T>> activeConnections = new HashMap<>();
+    private final ConcurrentHashMap<String, Connection<T>> activeConnections = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> loggedOnUsers = new ConcurrentHashMap<>();
+    private final AtomicInteger numberOfConnections = new AtomicInteger();
+    private final AtomicInteger numberOfAuthenticatedConnections = new AtomicInteger();
     
-    private static Map<String,ConnectionManager<?>> instances = new HashMap<>();
+    private static final Map<String,ConnectionManager<?>> instances = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,Connection<?>> allConnections = new ConcurrentHashMap<>();
     
     public static final String DEFAULT_NAME = "default";
     
@@ -58,22 +68,15 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
     
     public ConnectionManager(String name, Level level) {
     	
-    	if(instances.containsKey(name)) {
+    	if(instances.putIfAbsent(name, this) != null) {
     		throw new IllegalArgumentException(String.format("There is already a connection manager registered named %s", name));
     	}
     	this.name = name;
-    	instances.put(name, this);
     	ctx = new ConnectionLoggingContext(level, this);
     }
 
     public static SshConnection searchConnectionsById(String uuid) {
-    	for(ConnectionManager<?> mgr : instances.values()) {
-    		SshConnection con = mgr.getConnectionById(uuid);
-    		if(!Objects.isNull(con)) {
-    			return con;
-    		}
-    	}
-    	return null;
+    	return getConnection(uuid);
     }
     
     public String getName() {
@@ -103,16 +106,10 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
 	}
 	
     public static Connection<?> getConnection(String id) {
-    	for(ConnectionManager<?> instance : instances.values()) {
-    		Connection<?> c = instance.getConnectionById(id);
-    		if(c!=null) {
-    			return c;
-    		}
-    	}
-    	return null;
+    	return Objects.isNull(id) ? null : allConnections.get(id);
     }
     
-    public synchronized Connection<T> registerConnection(ConnectionProtocol<T> connection) {
+    public Connection<T> registerConnection(ConnectionProtocol<T> connection) {
     	
     	if(Log.isDebugEnabled()) {
     		Log.debug("Connection {} is now authenticated", connection.getSessionIdentifier());
@@ -123,7 +120,16 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
     		throw new IllegalArgumentException("Cannot set connection instance on non-existent transport!");
     	}
 
-    	con.connection = connection;
+    	synchronized(con) {
+	    	con.connection = connection;
+	    	if(!con.closed && !con.counted) {
+	    		con.counted = true;
+	    		numberOfAuthenticatedConnections.incrementAndGet();
+	    		if(Objects.nonNull(con.getUsername())) {
+	    			loggedOnUsers.merge(con.getUsername(), 1, Integer::sum);
+	    		}
+	    	}
+    	}
     	
     	if(Log.isDebugEnabled()) {
     		Log.debug("Notifying future that authentication is complete");
@@ -133,28 +139,35 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
     }
 
     public Connection<T> getConnectionById(String sessionid) {
-    	if(sessionid != null && activeConnections.containsKey(sessionid)) {
-        	return activeConnections.get(sessionid);
-        }
-        return null;
+    	return Objects.isNull(sessionid) ? null : activeConnections.get(sessionid);
     }
 
-	public synchronized Collection<SshConnection> getAllConnections() {
+    /**
+     * Get the connections of this manager. The collection is a live view that may be 
+     * iterated while connections are added and removed, it reflects some or all of the 
+     * changes made during iteration.
+     */
+	public Collection<SshConnection> getAllConnections() {
         return Collections.unmodifiableCollection(activeConnections.values());
     }
 
-    public synchronized Connection<T> registerTransport(TransportProtocol<T> transport, T sshContext) {
+    public Connection<T> registerTransport(TransportProtocol<T> transport, T sshContext) {
     	Connection<T> con = new Connection<T>(transport.getContext());
     	con.transport = transport;
     	con.remoteAddress = (InetSocketAddress)transport.getRemoteAddress();
     	con.localAddress = (InetSocketAddress)transport.getLocalAddress();
     	con.addEventListener(sshContext.getEventListener());
-        activeConnections.put(con.getSessionId(), con);
+    	
+    	int count = numberOfConnections.get();
+    	if(Objects.isNull(activeConnections.put(con.getSessionId(), con))) {
+    		count = numberOfConnections.incrementAndGet();
+    	}
+    	allConnections.put(con.getSessionId(), con);
        
 		if(Log.isDebugEnabled()) {
 				Log.debug("There {} now {} active connections on {} connection manager",
-						(activeConnections.size() > 1 ? "are" : "is"),
-						activeConnections.size(),
+						(count > 1 ? "are" : "is"),
+						count,
 						getName());
 		}
 		
@@ -167,10 +180,23 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
         return con;
     }
     
-    public synchronized void unregisterTransport(TransportProtocol<T> transport) {
+    public void unregisterTransport(TransportProtocol<T> transport) {
     	Connection<T> con = activeConnections.remove(transport.getUUID());
     	if(Objects.nonNull(con)) {
-	    	con.close();
+    		numberOfConnections.decrementAndGet();
+    		allConnections.remove(con.getSessionId(), con);
+    		boolean counted;
+    		synchronized(con) {
+    			counted = con.counted;
+    			con.counted = false;
+    			con.close();
+    		}
+    		if(counted) {
+    			numberOfAuthenticatedConnections.decrementAndGet();
+    			if(Objects.nonNull(con.getUsername())) {
+    				loggedOnUsers.computeIfPresent(con.getUsername(), (u, c) -> c > 1 ? c - 1 : null);
+    			}
+    		}
 	    	ctx.close(con);
     	}
     }
@@ -181,24 +207,20 @@ public class ConnectionManager<T extends SshContext> implements SshConnectionMan
        * @return String[]
      */
     public String[] getLoggedOnUsers() {
-
-      HashSet<String> users = new HashSet<String>();
-      
-      for(Connection<T> c : activeConnections.values()) {
-    	  
-    	  if(c.isAuthenticated())
-    		  users.add(c.getUsername());
-      }
-
-      String[] result = new String[users.size()];
-      users.toArray(result);
-
-      return result;
+    	return loggedOnUsers.keySet().toArray(new String[0]);
     }
 
-
 	public Integer getNumberOfConnections() {
-		return activeConnections.size();
+		return numberOfConnections.get();
+	}
+
+	/**
+	 * Get the number of connections that have completed authentication.
+	 * 
+	 * @return authenticated connections
+	 */
+	public int getNumberOfAuthenticatedConnections() {
+		return numberOfAuthenticatedConnections.get();
 	}
 
 }
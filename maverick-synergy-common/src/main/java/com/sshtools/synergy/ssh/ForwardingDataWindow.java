@@ -22,39 +22,334 @@ package com.sshtools.synergy.ssh;
  * #L%
  */
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 
+import com.sshtools.common.logger.Log;
+import com.sshtools.common.util.ByteBufferPool;
+
+/**
+ * The buffer between a forwarding socket and its channel. Rather than holding a buffer of
+ * the full window size for the life of the channel, data is held in segments taken from a
+ * {@link ByteBufferPool} as it arrives, and each segment is returned to the pool as soon as
+ * it has been drained, so an idle channel holds no buffers at all.
+ * <p>
+ * Segments are accounted against a {@link ForwardingMemoryBudget}. A window can always take
+ * its first segment, but only grows beyond that while the budget is not under pressure. Data
+ * put into the window by the channel has already been allowed for by the advertised window,
+ * so it is always accepted.
+ */
 public class ForwardingDataWindow extends CachingDataWindow {
 
-	ForwardingDataWindow(int maximumWindowSpace) {
-		super(maximumWindowSpace, true);
+	static final ByteBufferPool DEFAULT_POOL = new ByteBufferPool(65536 + 4096, false);
+
+	int maximumWindowSpace;
+	final ArrayDeque<ByteBuffer> segments = new ArrayDeque<>();
+	ByteBufferPool pool = DEFAULT_POOL;
+	ForwardingMemoryBudget budget;
+	int remaining;
+
+	public ForwardingDataWindow(int maximumWindowSpace) {
+		super(true);
+		this.maximumWindowSpace = maximumWindowSpace;
+	}
+
+	/**
+	 * Let the window hold more data once the advertised window has grown through
+	 * auto-tuning. Segments are still only taken as data arrives, and the auto-tuned
+	 * window is already limited by the memory budget. The limit is not lowered again
+	 * when the window shrinks, as data sent under the larger window may still arrive.
+	 * 
+	 * @param size size
+	 */
+	@Override
+	public synchronized void ensureCapacity(int size) {
+		if(size > maximumWindowSpace) {
+			maximumWindowSpace = size;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Set where segments are taken from and accounted against. This must be called
+	 * before any data is held.
+	 * 
+	 * @param pool pool
+	 * @param budget budget or <code>null</code>
+	 */
+	public synchronized void setAllocator(ByteBufferPool pool, ForwardingMemoryBudget budget) {
+		if(remaining > 0) {
+			throw new IllegalStateException("The allocator cannot be changed once data is held");
+		}
+		dispose();
+		this.pool = pool;
+		this.budget = budget;
 	}
 
 	public synchronized int write(SocketChannel socketChannel) throws IOException {
-		if(Boolean.getBoolean("maverick.disableMaximumWrite")) {
-			return socketChannel.write(cache);
-		} else {
-			int c = 0;
-			while(true) {
-				int r = socketChannel.write(cache);
-				if(r<=0) {
+		int c = 0;
+		try {
+			while(!segments.isEmpty()) {
+				ByteBuffer head = segments.peekFirst();
+				int r = head.hasRemaining() ? socketChannel.write(head) : 0;
+				if(r > 0) {
+					c += r;
+					remaining -= r;
+				}
+				if(!head.hasRemaining()) {
+					release(segments.removeFirst());
+				} else if(r <= 0 || Boolean.getBoolean("maverick.disableMaximumWrite")) {
 					break;
 				}
-				c+=r;
 			}
-			return c;
+		} finally {
+			notifyAll();
 		}
+		return c;
 	}
 	
 	public synchronized int read(SocketChannel socketChannel) throws IOException {
-		
-		cache.compact();
-		
+		int total = 0;
 		try {
-			return socketChannel.read(cache);
+			while(remaining < maximumWindowSpace) {
+				ByteBuffer tail = writableSegment(false);
+				if(tail == null) {
+					break;
+				}
+				int start = tail.position();
+				tail.position(tail.limit());
+				tail.limit(Math.min(tail.capacity(), tail.position() + maximumWindowSpace - remaining));
+				int r;
+				try {
+					r = socketChannel.read(tail);
+				} finally {
+					tail.limit(tail.position());
+					tail.position(start);
+				}
+				if(r < 0) {
+					return total > 0 ? total : -1;
+				}
+				total += r;
+				remaining += r;
+				if(r == 0 || tail.limit() < tail.capacity()) {
+					break;
+				}
+			}
+			return total;
 		} finally {
-			cache.flip();
+			trim();
+		}
+	}
+
+	/**
+	 * Move up to <code>count</code> bytes of cached data into a buffer without blocking.
+	 * 
+	 * @param buffer buffer
+	 * @param count maximum number of bytes
+	 * @return number of bytes moved
+	 */
+	public synchronized int transferTo(ByteBuffer buffer, int count) {
+		count = Math.min(count, Math.min(buffer.remaining(), remaining));
+		int moved = 0;
+		while(moved < count) {
+			ByteBuffer head = segments.peekFirst();
+			int c = Math.min(count - moved, head.remaining());
+			int limit = head.limit();
+			head.limit(head.position() + c);
+			buffer.put(head);
+			head.limit(limit);
+			moved += c;
+			if(!head.hasRemaining()) {
+				release(segments.removeFirst());
+			}
+		}
+		remaining -= moved;
+		notifyAll();
+		return moved;
+	}
+
+	/**
+	 * Check whether the window can accept any more data from the socket, either because
+	 * it holds a full window of data or because it cannot grow while its budget is under
+	 * pressure.
+	 * 
+	 * @return full
+	 */
+	public synchronized boolean isFull() {
+		if(remaining >= maximumWindowSpace) {
+			return true;
+		}
+		if(segments.isEmpty() || budget == null) {
+			return false;
+		}
+		ByteBuffer tail = segments.peekLast();
+		if(tail.limit() < tail.capacity() || (segments.size() == 1 && tail.position() > 0)) {
+			return false;
+		}
+		return budget.isUnderPressure() || !budget.hasRoom(pool.getCapacity());
+	}
+
+	@Override
+	public synchronized void put(ByteBuffer data) throws EOFException {
+		
+		if(!open) {
+			throw new EOFException();
+		}
+		
+		if(blocking) {
+			long start = System.currentTimeMillis();
+			while(maximumWindowSpace - remaining < data.remaining()) {
+				try {
+					wait(1000);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException("Interrupted during cache put wait");
+				}
+				if(System.currentTimeMillis() - start > timeout) {
+					throw new IllegalStateException(String.format("Timeout trying to put %d bytes into cache with %d remaining", 
+							data.remaining(),
+							maximumWindowSpace - remaining));
+				}
+			}
+		}
+		
+		if(data.remaining() > maximumWindowSpace - remaining) {
+			throw new BufferOverflowException();
+		}
+		
+		int count = data.remaining();
+		while(data.hasRemaining()) {
+			ByteBuffer tail = writableSegment(true);
+			int start = tail.position();
+			tail.position(tail.limit());
+			tail.limit(tail.capacity());
+			int limit = data.limit();
+			data.limit(data.position() + Math.min(data.remaining(), tail.remaining()));
+			tail.put(data);
+			data.limit(limit);
+			tail.limit(tail.position());
+			tail.position(start);
+		}
+		remaining += count;
+		
+		if(Log.isTraceEnabled()) {
+			Log.trace("Written {} bytes to forwarding data window remaining={} segments={}", 
+					count, remaining, segments.size());
+		}
+		
+		notifyAll();
+	}
+
+	@Override
+	public synchronized int get(byte[] tmp, int offset, int length) throws EOFException {
+		ByteBuffer buffer = ByteBuffer.wrap(tmp, offset, length);
+		return get(buffer);
+	}
+
+	@Override
+	public synchronized int get(ByteBuffer buffer) throws EOFException {
+		
+		if(!isOpen()) {
+			dispose();
+			throw new EOFException();
+		}
+		
+		if(blocking) {
+			while(remaining == 0 && open) {
+				try {
+					wait(1000);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+		
+		return transferTo(buffer, buffer.remaining());
+	}
+
+	@Override
+	public synchronized boolean hasRemaining() {
+		return remaining > 0;
+	}
+
+	@Override
+	public synchronized int remaining() {
+		return remaining;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open || remaining > 0;
+	}
+
+	@Override
+	public synchronized void close() {
+		open = false;
+		if(remaining == 0) {
+			dispose();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Return all segments to the pool, discarding any data that is still held.
+	 */
+	public synchronized void dispose() {
+		while(!segments.isEmpty()) {
+			release(segments.removeFirst());
+		}
+		remaining = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Get the number of bytes of pooled memory currently held.
+	 * 
+	 * @return bytes
+	 */
+	public synchronized int getAllocated() {
+		return segments.size() * pool.getCapacity();
+	}
+
+	private ByteBuffer writableSegment(boolean force) {
+		ByteBuffer tail = segments.peekLast();
+		if(tail != null) {
+			if(tail.limit() < tail.capacity()) {
+				return tail;
+			}
+			if(segments.size() == 1 && tail.position() > 0) {
+				tail.compact();
+				tail.flip();
+				return tail;
+			}
+		}
+		int size = pool.getCapacity();
+		if(budget != null) {
+			if(force || segments.isEmpty()) {
+				budget.allocate(size);
+			} else if(budget.isUnderPressure() || !budget.reserve(size)) {
+				return null;
+			}
+		}
+		tail = pool.get();
+		tail.limit(0);
+		segments.addLast(tail);
+		return tail;
+	}
+
+	private void trim() {
+		ByteBuffer tail = segments.peekLast();
+		if(tail != null && !tail.hasRemaining()) {
+			release(segments.removeLast());
+		}
+	}
+
+	private void release(ByteBuffer segment) {
+		pool.add(segment);
+		if(budget != null) {
+			budget.release(pool.getCapacity());
 		}
 	}
 }
@@ -0,0 +1,201 @@
+package com.sshtools.synergy.ssh;
+
+/*-
+ * #%L
+ * Common API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.forwarding.ForwardingPolicy;
+import com.sshtools.common.ssh.SshConnection;
+
+/**
+ * Accounts for the memory held by forwarding buffers against a limit. Budgets form a
+ * chain, typically a budget for each connection whose parent is a single budget for the
+ * whole engine, and memory is only reserved when every budget in the chain has room for it.
+ * A limit of zero or less means the budget is unlimited, but memory is still counted.
+ * <p>
+ * When a budget is under pressure forwarding channels stop growing their buffers and
+ * advertise smaller windows to the remote side until memory is released.
+ */
+public class ForwardingMemoryBudget {
+
+	/**
+	 * The proportion of the limit in use above which a budget is under pressure.
+	 */
+	public static final double PRESSURE_THRESHOLD = 0.75D;
+
+	private static final String CONNECTION_BUDGET = ForwardingMemoryBudget.class.getName();
+
+	private final ForwardingMemoryBudget parent;
+	private final AtomicLong used = new AtomicLong();
+	private volatile long limit;
+
+	/**
+	 * Create a budget with no parent.
+	 *
+	 * @param limit limit in bytes, zero or less for unlimited
+	 */
+	public ForwardingMemoryBudget(long limit) {
+		this(limit, null);
+	}
+
+	/**
+	 * Create a budget that also reserves memory from a parent budget.
+	 *
+	 * @param limit limit in bytes, zero or less for unlimited
+	 * @param parent parent or <code>null</code>
+	 */
+	public ForwardingMemoryBudget(long limit, ForwardingMemoryBudget parent) {
+		this.limit = limit;
+		this.parent = parent;
+	}
+
+	/**
+	 * Get the budget for a connection, creating it the first time with the limit
+	 * from the connection's {@link ForwardingPolicy}
+	 * and the engine's budget as its parent.
+	 *
+	 * @param con connection
+	 * @return budget
+	 */
+	public static ForwardingMemoryBudget getConnectionBudget(SshConnection con) {
+		synchronized(con) {
+			ForwardingMemoryBudget budget = (ForwardingMemoryBudget) con.getProperty(CONNECTION_BUDGET);
+			if(budget == null) {
+				ForwardingMemoryBudget parent = null;
+				if(con.getContext() instanceof SshContext && ((SshContext) con.getContext()).getEngine() != null) {
+					parent = ((SshContext) con.getContext()).getEngine().getContext().getForwardingMemoryBudget();
+				}
+				budget = new ForwardingMemoryBudget(con.getContext().getPolicy(ForwardingPolicy.class)
+						.getForwardingConnectionMemoryLimit(), parent);
+				con.setProperty(CONNECTION_BUDGET, budget);
+			}
+			return budget;
+		}
+	}
+
+	/**
+	 * Reserve memory if this budget and all of its parents have room for it.
+	 *
+	 * @param bytes bytes
+	 * @return <code>true</code> if the memory was reserved
+	 */
+	public boolean reserve(long bytes) {
+		if(!tryReserve(bytes)) {
+			return false;
+		}
+		if(parent != null && !parent.reserve(bytes)) {
+			used.addAndGet(-bytes);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check if this budget and all of its parents have room for more memory
+	 * without reserving it.
+	 *
+	 * @param bytes bytes
+	 * @return has room
+	 */
+	public boolean hasRoom(long bytes) {
+		long l = limit;
+		return (l <= 0 || used.get() + bytes <= l) && (parent == null || parent.hasRoom(bytes));
+	}
+
+	/**
+	 * Reserve memory regardless of the limit. This is used for data the remote side
+	 * is already entitled to send, which must be accepted even when over budget.
+	 *
+	 * @param bytes bytes
+	 */
+	public void allocate(long bytes) {
+		used.addAndGet(bytes);
+		if(parent != null) {
+			parent.allocate(bytes);
+		}
+	}
+
+	/**
+	 * Release memory previously reserved or allocated.
+	 *
+	 * @param bytes bytes
+	 */
+	public void release(long bytes) {
+		used.addAndGet(-bytes);
+		if(parent != null) {
+			parent.release(bytes);
+		}
+	}
+
+	/**
+	 * Check if this budget or any of its parents is using more than {@link #PRESSURE_THRESHOLD}
+	 * of its limit.
+	 *
+	 * @return under pressure
+	 */
+	public boolean isUnderPressure() {
+		long l = limit;
+		return (l > 0 && used.get() > l * PRESSURE_THRESHOLD) || (parent != null && parent.isUnderPressure());
+	}
+
+	/**
+	 * Get the memory currently held against this budget.
+	 *
+	 * @return bytes
+	 */
+	public long getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * Get the limit.
+	 *
+	 * @return limit in bytes, zero or less for unlimited
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Set the limit. Memory already held is not released, but no more is reserved
+	 * until usage falls below the new limit.
+	 *
+	 * @param limit limit in bytes, zero or less for unlimited
+	 */
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	private boolean tryReserve(long bytes) {
+		while(true) {
+			long current = used.get();
+			long l = limit;
+			if(l > 0 && current + bytes > l) {
+				return false;
+			}
+			if(used.compareAndSet(current, current + bytes)) {
+				return true;
+			}
+		}
+	}
+}
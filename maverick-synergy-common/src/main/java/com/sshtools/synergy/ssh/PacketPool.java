@@ -23,33 +23,26 @@ package com.sshtools.synergy.ssh;
  */
 
 import java.io.IOException;
-import java.util.Vector;
 
 import com.sshtools.common.ssh.Packet;
 
+/**
+ * @deprecated Use {@link com.sshtools.common.ssh.PacketPool}, which this class now delegates to.
+ */
+@Deprecated(since = "3.1.3", forRemoval = true)
 public class PacketPool {
 
-	Vector<Packet> packets = new Vector<Packet>();
-
-	static PacketPool instance;
+	static PacketPool instance = new PacketPool();
 
 	public static PacketPool getInstance() {
-		return (instance == null ? instance = new PacketPool() : instance);
+		return instance;
 	}
 
 	public Packet getPacket() throws IOException {
-		synchronized (packets) {
-			if (packets.size() == 0)
-				return new Packet();
-			Packet p = (Packet) packets.remove(0);
-			return p;
-		}
+		return com.sshtools.common.ssh.PacketPool.getInstance().getPacket();
 	}
 	
 	public void putPacket(Packet p) {
-		synchronized (packets) {
-			p.reset();
-			packets.add(p);
-		}
+		com.sshtools.common.ssh.PacketPool.getInstance().putPacket(p);
 	}
 }
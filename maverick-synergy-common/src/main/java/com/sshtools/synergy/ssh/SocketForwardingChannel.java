@@ -27,14 +27,20 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.common.forwarding.ForwardingPolicy;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.nio.WriteOperationRequest;
+import com.sshtools.common.ssh.ChannelEventListener;
 import com.sshtools.common.ssh.ChannelOpenException;
 import com.sshtools.common.ssh.ConnectionAwareTask;
 import com.sshtools.common.ssh.SshConnection;
+import com.sshtools.common.sshd.SshMessage;
+import com.sshtools.common.util.ByteBufferPool;
+import com.sshtools.common.util.UnsignedInteger32;
 import com.sshtools.synergy.nio.ProtocolEngine;
 import com.sshtools.synergy.nio.SelectorThread;
 import com.sshtools.synergy.nio.SocketHandler;
@@ -64,10 +70,15 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	boolean closePending = false;
 
 	ForwardingDataWindow toChannel;
+	ForwardingMemoryBudget budget;
 	
 	long totalIn;
 	long totalOut;
 	AtomicBoolean socketEOF = new AtomicBoolean(false);
+	AtomicBoolean dataQueued = new AtomicBoolean(false);
+	AtomicBoolean eofQueued = new AtomicBoolean(false);
+	/** guarded by toChannel */
+	boolean disposePending;
 	
 	/**
 	 * Construct the forwarding channel.
@@ -77,15 +88,100 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	public SocketForwardingChannel(String channeltype, SshConnection con) {
 		super(channeltype,  
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxPacketSize(),
-				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize(),
+				getInitialWindowSize(con),
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize(), 
 				con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMinWindowSize());
+		budget = ForwardingMemoryBudget.getConnectionBudget(con);
+		ByteBufferPool pool = getBufferPool(con);
 		toChannel = new ForwardingDataWindow(con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize().intValue());
+		toChannel.setAllocator(pool, budget);
+		if(cache instanceof ForwardingDataWindow) {
+			((ForwardingDataWindow)cache).setAllocator(pool, budget);
+		}
+		long limit = con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxAutoTunedWindowSize().longValue();
+		if(budget.getLimit() > 0) {
+			limit = Math.min(limit, budget.getLimit());
+		}
+		if(limit > con.getContext().getPolicy(ForwardingPolicy.class).getForwardingMaxWindowSize().longValue()) {
+			enableWindowAutoTuning(new UnsignedInteger32(limit));
+		}
+	}
+
+	/**
+	 * Channels opened while the memory budget is under pressure start with the minimum window.
+	 */
+	private static UnsignedInteger32 getInitialWindowSize(SshConnection con) {
+		ForwardingPolicy policy = con.getContext().getPolicy(ForwardingPolicy.class);
+		return ForwardingMemoryBudget.getConnectionBudget(con).isUnderPressure() 
+				? policy.getForwardingMinWindowSize() : policy.getForwardingMaxWindowSize();
+	}
+
+	private static ByteBufferPool getBufferPool(SshConnection con) {
+		if(con.getContext() instanceof SshContext && ((SshContext)con.getContext()).getEngine() != null) {
+			return ((SshContext)con.getContext()).getEngine().getContext().getBufferPool();
+		}
+		return ForwardingDataWindow.DEFAULT_POOL;
 	}
 
 	protected CachingDataWindow createCache(int maximumWindowSpace) {
 		return new ForwardingDataWindow(maximumWindowSpace);
 	}
+
+	@Override
+	protected void disposeCache(CachingDataWindow cachingWindow) {
+		super.disposeCache(cachingWindow);
+		((ForwardingDataWindow)cachingWindow).dispose();
+		disposeChannelBuffer();
+	}
+
+	/**
+	 * Return the segments holding data from the socket to the pool. If a CHANNEL_DATA 
+	 * message is queued, it has already been framed for data in them, so they are 
+	 * kept until the message has been written.
+	 */
+	private void disposeChannelBuffer() {
+		synchronized(toChannel) {
+			disposePending = dataQueued.get();
+			if(!disposePending) {
+				toChannel.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Clear the queued flag once a CHANNEL_DATA message has been written or found not
+	 * to be needed, completing any disposal that was waiting for it.
+	 */
+	private void clearDataQueued() {
+		synchronized(toChannel) {
+			dataQueued.set(false);
+			if(disposePending) {
+				disposePending = false;
+				toChannel.dispose();
+			}
+		}
+	}
+
+	/**
+	 * While the memory budget is under pressure, only enough window is advertised to bring
+	 * the window and the data still waiting to be written to the socket up to the minimum
+	 * window size, rather than the maximum.
+	 */
+	@Override
+	protected void sendWindowAdjust() {
+		synchronized (localWindow) {
+			if(!budget.isUnderPressure()) {
+				super.sendWindowAdjust();
+				return;
+			}
+			long count = localWindow.getMinimumWindowSpace().longValue() 
+					- localWindow.getWindowSpace().longValue()
+					- (Objects.nonNull(cache) ? cache.remaining() : 0);
+			if(count > 0) {
+				sendWindowAdjust(new UnsignedInteger32(count));
+			}
+		}
+	}
 	
 	public void setSelectionKey(SelectionKey key) {
 		this.key = key;
@@ -350,15 +446,7 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 					if(Log.isDebugEnabled()) {
 						log("Received EOF from forwarding socket");
 					}
-					getConnectionProtocol().addOutgoingTask(new ConnectionAwareTask(con) {
-						protected void doTask() {
-							if(Log.isDebugEnabled()) {
-								log("The socket has returned EOF");
-							}
-							sendEOF();
-							evaluateClosure();
-						}
-					});
+					evaluateSocketEOF();
 					
 					return true;
 				}
@@ -370,7 +458,7 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 				if(Log.isDebugEnabled())
 					log("Processing FORWARDING READ read=" + numBytesRead);
 
-				getConnectionProtocol().addOutgoingTask(new QueueChannelDataTask(con, numBytesRead));
+				queueChannelData();
 			}
 
 		} catch (Throwable ex) {
@@ -378,19 +466,79 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 				log("processReadEvent() failed to read from socket", ex);
 
 			socketEOF.set(true);
+			evaluateSocketEOF();
+			
+			return true;
+		} 
+
+		return !isOpen() && (socketChannel==null || !socketChannel.isConnected());
+
+	}
+
+	/**
+	 * Frame the data read from the socket into a single SSH_MSG_CHANNEL_DATA message
+	 * of as much as the remote window and packet size allow, and post it straight to
+	 * the transport. The data stays in the socket buffer until the transport writes the
+	 * message into the outgoing packet. Only one message is queued at a time, the next
+	 * is queued once the previous has been written or the remote window is adjusted.
+	 */
+	void queueChannelData() {
+		
+		while(dataQueued.compareAndSet(false, true)) {
+			
+			int count = 0;
+			long window = 0;
+			if(isOpen() && !isLocalEOF()) {
+				synchronized(remoteWindow) {
+					window = remoteWindow.getWindowSpace().longValue();
+					count = (int) Math.min(Math.min(toChannel.remaining(), window), getRemotePacket());
+					if(count > 0) {
+						remoteWindow.consume(count);
+					}
+				}
+			}
+			
+			if(count > 0) {
+				lastActivity = System.currentTimeMillis();
+				connection.sendMessage(new ForwardingData(count, window));
+				return;
+			}
 			
+			clearDataQueued();
+			
+			/**
+			 * Data or window space may have arrived after we checked but
+			 * before the flag was cleared, in which case go round again.
+			 */
+			if(!isOpen() || isLocalEOF() || !toChannel.hasRemaining() 
+					|| remoteWindow.getWindowSpace().longValue() == 0) {
+				evaluateSocketEOF();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send EOF once the socket has reached EOF and all of its data has been framed.
+	 */
+	void evaluateSocketEOF() {
+		if(socketEOF.get() && !dataQueued.get() && !toChannel.hasRemaining() 
+				&& eofQueued.compareAndSet(false, true)) {
 			getConnectionProtocol().addOutgoingTask(new ConnectionAwareTask(con) {
 				protected void doTask() {
+					if(Log.isDebugEnabled()) {
+						log("The socket has returned EOF");
+					}
 					sendEOF();
 					evaluateClosure();
 				}
 			});
-			
-			return true;
-		} 
-
-		return !isOpen() && (socketChannel==null || !socketChannel.isConnected());
+		}
+	}
 
+	@Override
+	protected void onWindowAdjust(UnsignedInteger32 count) {
+		queueChannelData();
 	}
 
 	/**
@@ -460,6 +608,15 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 	
 	@Override
 	public boolean wantsRead() {
+		return !toChannel.isFull();
+	}
+	
+	/**
+	 * Reads only fill the socket buffer and frame a message for the transport, 
+	 * so they are done on the selector thread.
+	 */
+	@Override
+	public boolean isSelectorRead() {
 		return true;
 	}
 
@@ -476,39 +633,65 @@ public abstract class SocketForwardingChannel<T extends SshContext> extends Forw
 		this.selectorThread = thread;
 	}
 
-	class QueueChannelDataTask extends ConnectionAwareTask {
+	class ForwardingData implements SshMessage {
 
 		int count;
-		QueueChannelDataTask(SshConnection con, int count) {
-			super(con);
+		long remoteWindow;
+		
+		ForwardingData(int count, long remoteWindow) {
 			this.count = count;
+			this.remoteWindow = remoteWindow;
 		}
 
-		protected void doTask() {
+		public boolean writeMessageIntoBuffer(ByteBuffer buf) {
+
+			/*
+			 * byte SSH_MSG_CHANNEL_DATA uint32 recipient channel string data
+			 */
+			buf.put((byte) ConnectionProtocol.SSH_MSG_CHANNEL_DATA);
+			buf.putInt(remoteid);
+			int lengthPosition = buf.position();
+			buf.putInt(count);
 			
-			try {
-
-				byte[] tmp = new byte[getRemotePacket()];
-				int c;
-				while(count > 0) {
-						
-					c = Math.min(Math.min(count, tmp.length), toChannel.remaining());
-					toChannel.get(tmp, 0, c);
-					count -= c;
-					
-					sendData(tmp, 0, c);
+			boolean full = toChannel.isFull();
+			int position = buf.position();
+			int transferred = toChannel.transferTo(buf, count);
+			
+			if(transferred < count) {
+				/* Less data than was reserved is left. Frame what was actually 
+				 * written and give back the unused remote window */
+				buf.putInt(lengthPosition, transferred);
+				SocketForwardingChannel.this.remoteWindow.adjust(new UnsignedInteger32(count - transferred));
+				count = transferred;
+			}
+			
+			if(!eventListeners.isEmpty()) {
+				ByteBuffer data = buf.duplicate();
+				data.limit(buf.position());
+				data.position(position);
+				for (ChannelEventListener listener : new ArrayList<>(eventListeners)) {
+					listener.onChannelDataOut(SocketForwardingChannel.this, data.asReadOnlyBuffer());
 				}
-				
+			}
+			
+			clearDataQueued();
+			queueChannelData();
+			
+			if(full) {
 				changeInterestedOps();
-				
-				if(closePending && canClose()) {
-					close();
-				}
-				
-			} catch (IOException e) {
-				log("Channel I/O error", e);
-				close(e);
-			} 
+			}
+			
+			return true;
+		}
+
+		public void messageSent(Long sequenceNo) {
+			if(Log.isDebugEnabled()) {
+				logMessage(String.format("SSH_MSG_CHANNEL_DATA seq=%d len=%d", sequenceNo, count), remoteWindow);
+			}
+			
+			if(closePending && canClose()) {
+				close();
+			}
 		}
 	}
 
@@ -25,6 +25,7 @@ package com.sshtools.synergy.ssh;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -32,6 +33,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.Vector;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -131,6 +133,9 @@ public abstract class SshContext extends ProtocolContext implements
 	/** ZLIB compression **/
 	public static final String COMPRESSION_ZLIB = "zlib";
 
+	/** LZ4 compression, only supported between Maverick Synergy endpoints **/
+	public static final String COMPRESSION_LZ4 = "lz4@sshtools.com";
+
 	/**
 	 * Constant for the algorithm name "diffie-hellman-group1-sha1".
 	 */
@@ -234,6 +239,7 @@ public abstract class SshContext extends ProtocolContext implements
 	protected int maxChannels = 100;
 
 	protected int compressionLevel = 6;
+	protected boolean adaptiveCompression = false;
 	protected int maximumPacketLength = 131072 + 256; // Add overhead to support clients
 											// using 128k file blocks
 	protected long MAX_NUM_PACKETS_BEFORE_REKEY = 2147483647;
@@ -246,12 +252,15 @@ public abstract class SshContext extends ProtocolContext implements
 	protected boolean killTunnelsOnRemoteForwardingCancel = false;
 	
 	protected boolean sendIgnorePacketOnIdle = false;
+	protected boolean channelDataCoalescing = false;
 	protected int idleConnectionTimeout = 600;
 	protected int idleAuthenticationTimeoutSeconds = 30;
 	protected int keepAliveInterval = 30;
 	protected int keepAliveDataMaxLength = 128;
 
 	protected static ExecutorService executor;
+
+	private static final Map<ClassLoader, List<SshCompressionFactory<?>>> compressionFactories = new WeakHashMap<>();
 	
 	protected Locale locale = Locale.getDefault();
 	protected ByteBufferPool byteBufferPool = null;
@@ -304,8 +313,7 @@ public abstract class SshContext extends ProtocolContext implements
 			compressionsCS.add(new NoneCompressionFactory());
 			compressionsSC.add(new NoneCompressionFactory());
 			
-			for(var compress : ServiceLoader.load(SshCompressionFactory.class, 
-					JCEComponentManager.getDefaultInstance().getClassLoader())) {
+			for(var compress : getCompressionFactories(JCEComponentManager.getDefaultInstance().getClassLoader())) {
 				compressionsCS.add(compress);
 				compressionsSC.add(compress);
 			}
@@ -320,6 +328,22 @@ public abstract class SshContext extends ProtocolContext implements
 
 	}
 
+	/**
+	 * The compression factories available from a class loader. These are looked up
+	 * once rather than searching the class path for every new context.
+	 */
+	private static List<SshCompressionFactory<?>> getCompressionFactories(ClassLoader classLoader) {
+		synchronized(compressionFactories) {
+			return compressionFactories.computeIfAbsent(classLoader, (cl) -> {
+				var factories = new ArrayList<SshCompressionFactory<?>>();
+				for(var compress : ServiceLoader.load(SshCompressionFactory.class, cl)) {
+					factories.add(compress);
+				}
+				return Collections.unmodifiableList(factories);
+			});
+		}
+	}
+
 	/** Initialise the SshContext by setting the daemon */
 	public void init(SshEngine daemon) {
 		this.daemon = daemon;
@@ -890,6 +914,27 @@ public abstract class SshContext extends ProtocolContext implements
 		return compressionLevel;
 	}
 
+	/**
+	 * Set whether outgoing zlib compression samples the ratio achieved for each channel
+	 * and stores, rather than compresses, the data of channels that do not compress, such 
+	 * as transfers of archives. The stream remains valid zlib so this needs no support from
+	 * the remote side.
+	 * 
+	 * @param adaptiveCompression
+	 */
+	public void setAdaptiveCompression(boolean adaptiveCompression) {
+		this.adaptiveCompression = adaptiveCompression;
+	}
+
+	/**
+	 * Determines whether outgoing zlib compression adapts to the data of each channel.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isAdaptiveCompression() {
+		return adaptiveCompression;
+	}
+
 	public int getMaximumSocketsBacklogPerRemotelyForwardedConnection() {
 		return maximumSocketsBacklogPerRemotelyForwardedConnection;
 	}
@@ -1385,6 +1430,28 @@ public abstract class SshContext extends ProtocolContext implements
 		this.sendIgnorePacketOnIdle = sendIgnorePacketOnIdle;
 	}
 
+	/**
+	 * Determines whether channels merge small writes into larger packets by default.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isChannelDataCoalescing() {
+		return channelDataCoalescing;
+	}
+
+	/**
+	 * Merge small writes to a channel into the packet still waiting in the outgoing queue
+	 * for that channel, up to the maximum packet size of the remote side, instead of
+	 * sending a packet for every write. A write returns as soon as its data has been
+	 * queued. Channels that allocate a pseudo terminal always send every write immediately.
+	 * See {@link ChannelNG#setDataCoalescing(boolean)}.
+	 * 
+	 * @param channelDataCoalescing
+	 */
+	public void setChannelDataCoalescing(boolean channelDataCoalescing) {
+		this.channelDataCoalescing = channelDataCoalescing;
+	}
+
 	public boolean isHttpRedirect() {
 		return httpRedirect;
 	}
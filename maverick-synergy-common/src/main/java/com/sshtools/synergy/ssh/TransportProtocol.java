@@ -29,10 +29,13 @@ import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.Vector;
@@ -117,6 +120,7 @@ public abstract class TransportProtocol<T extends SshContext>
 
 	static final int SSH_MSG_KEX_INIT = 20;
 	static final int SSH_MSG_NEWKEYS = 21;
+	static final int SSH_MSG_USERAUTH_SUCCESS = 52;
 
 	// Message processing variables
 	boolean expectPacket = true;
@@ -130,7 +134,7 @@ public abstract class TransportProtocol<T extends SshContext>
 	int numIncomingBytesSinceKEX;
 	int numIncomingPacketsSinceKEX;
 
-	long lastActivity = System.currentTimeMillis();
+	volatile long lastActivity = System.currentTimeMillis();
 	long lastIdleEvent = System.currentTimeMillis();
 	boolean closed = false;
 	
@@ -202,6 +206,10 @@ public abstract class TransportProtocol<T extends SshContext>
 	SshHmac incomingMac;
 	SshCompression outgoingCompression;
 	SshCompression incomingCompression;
+	SshCompression delayedOutgoingCompression;
+	SshCompression delayedIncomingCompression;
+	boolean delayedCompressionStarted;
+	byte[] outgoingPayload = new byte[0];
 	
 	protected SshPublicKey hostKey;
 	
@@ -792,18 +800,7 @@ public abstract class TransportProtocol<T extends SshContext>
 				
 				
 				padlen = (incomingSwap[4] & 0xFF);
-				payloadIncoming = new byte[msglen - padlen - 1];
-
-				// Copy the payload into the final output buffer
-				System.arraycopy(incomingSwap, 5, payloadIncoming,
-						0, msglen - padlen - 1);
-
-				// Uncompress the message payload if necersary
-				if (incomingCompression != null) {
-					payloadIncoming = incomingCompression
-							.uncompress(payloadIncoming, 0,
-									payloadIncoming.length);
-				}
+				payloadIncoming = readPayload(msglen - padlen - 1);
 
 				return true;
 
@@ -909,18 +906,7 @@ public abstract class TransportProtocol<T extends SshContext>
 				}
 				
 				padlen = (incomingSwap[4] & 0xFF);
-				payloadIncoming = new byte[msglen - padlen - 1];
-
-				// Copy the payload into the final output buffer
-				System.arraycopy(incomingSwap, 5, payloadIncoming,
-						0, msglen - padlen - 1);
-
-				// Uncompress the message payload if necersary
-				if (incomingCompression != null) {
-					payloadIncoming = incomingCompression
-							.uncompress(payloadIncoming, 0,
-									payloadIncoming.length);
-				}
+				payloadIncoming = readPayload(msglen - padlen - 1);
 
 				return true;
 
@@ -1038,18 +1024,7 @@ public abstract class TransportProtocol<T extends SshContext>
 					}
 				}
 
-				payloadIncoming = new byte[msglen - padlen - 1];
-				
-				// Copy the payload into the final output buffer
-				System.arraycopy(incomingSwap, 5, payloadIncoming,
-						0, msglen - padlen - 1);
-
-				// Uncompress the message payload if necersary
-				if (incomingCompression != null) {
-					payloadIncoming = incomingCompression
-							.uncompress(payloadIncoming, 0,
-									payloadIncoming.length);
-				}
+				payloadIncoming = readPayload(msglen - padlen - 1);
 
 				return true;
 
@@ -1145,6 +1120,45 @@ public abstract class TransportProtocol<T extends SshContext>
 
 		return false;
 	}
+
+	/**
+	 * The earliest time at which {@link #idle()} could have something to do, taking
+	 * the idle timeouts, keep-alive interval and the idle timeout of the active service
+	 * into account.
+	 */
+	@Override
+	public long getIdleDeadline() {
+
+		if (currentState == TransportProtocol.DISCONNECTED)
+			return 0;
+
+		long activity = lastActivity;
+		long deadline = Long.MAX_VALUE;
+
+		if(!hasCompletedKeyExchange() && getContext().getIdleAuthenticationTimeoutSeconds() > 0) {
+			deadline = Math.min(deadline, activity + (getContext().getIdleAuthenticationTimeoutSeconds() + 1) * 1000L);
+		}
+		if(getContext().getIdleConnectionTimeoutSeconds() > 0) {
+			deadline = Math.min(deadline, activity + (getContext().getIdleConnectionTimeoutSeconds() + 1) * 1000L);
+		}
+		if(getContext().isSendIgnorePacketOnIdle() && getContext().getKeepAliveInterval() > 0) {
+			deadline = Math.min(deadline, Math.max(activity, lastKeepAlive) + (getContext().getKeepAliveInterval() + 1) * 1000L);
+		}
+		Service service = activeService;
+		if(service != null && service.getIdleTimeoutSeconds() > 0) {
+			deadline = Math.min(deadline, lastIdleEvent + service.getIdleTimeoutSeconds() * 1000L);
+		}
+		return deadline;
+	}
+
+	/**
+	 * Called when the active service changes so that the idle state of the transport
+	 * is evaluated against the timeout of the new service.
+	 */
+	protected void rescheduleIdleState() {
+		if (socketConnection != null)
+			socketConnection.getIdleStates().reschedule(this);
+	}
 	
 	/**
 	 * Called when the socket channel is reported to be ready for writing.
@@ -1249,35 +1263,138 @@ public abstract class TransportProtocol<T extends SshContext>
 
 	}
 	
+	/**
+	 * Move the message payload in the buffer to after the packet length and padding length 
+	 * fields, compressing it directly into the buffer when compression is in use.
+	 * 
+	 * @return length of the payload written
+	 */
+	private int writePayload(ByteBuffer outgoingMessage) throws IOException {
+		
+		int length = outgoingMessage.remaining();
+		boolean authenticated = length == 1 && outgoingMessage.get(outgoingMessage.position()) == SSH_MSG_USERAUTH_SUCCESS;
+		if(outgoingPayload.length < length) {
+			outgoingPayload = new byte[length];
+		}
+		outgoingMessage.get(outgoingPayload, 0, length);
+		outgoingMessage.clear();
+		outgoingMessage.position(5);
+		
+		if(Log.isTraceEnabled()) {
+			Log.raw(Level.TRACE, Utils.bytesToHex(outgoingPayload, 0, length, 32, true, true), true);
+		}
+		
+		if (outgoingCompression != null) {
+			length = outgoingCompression.compress(outgoingPayload, 0, length, outgoingMessage);
+		} else {
+			outgoingMessage.put(outgoingPayload, 0, length);
+		}
+		
+		if(authenticated && isServerMode()) {
+			startDelayedCompression();
+		}
+		return length;
+	}
+	
+	/**
+	 * Copy the payload of the packet just decoded, uncompressing it when compression is
+	 * in use.
+	 */
+	private byte[] readPayload(int length) throws IOException {
+		
+		byte[] payload;
+		if (incomingCompression != null) {
+			payload = incomingCompression.uncompress(incomingSwap, 5, length);
+		} else {
+			payload = new byte[length];
+			System.arraycopy(incomingSwap, 5, payload, 0, length);
+		}
+		
+		if(payload.length == 1 && payload[0] == SSH_MSG_USERAUTH_SUCCESS && !isServerMode()) {
+			startDelayedCompression();
+		}
+		return payload;
+	}
+	
+	/**
+	 * Set up the compression negotiated for the new keys, delaying it until the user has
+	 * been authenticated when the algorithm requires it.
+	 */
+	private void configureCompression(SshCompression compression, boolean outgoing) {
+		if(compression != null) {
+			compression.setAdaptive(outgoing && getContext().isAdaptiveCompression());
+		}
+		boolean delay = compression != null && compression.isDelayed() && !delayedCompressionStarted;
+		if(outgoing) {
+			outgoingCompression = delay ? null : compression;
+			delayedOutgoingCompression = delay ? compression : null;
+		} else {
+			incomingCompression = delay ? null : compression;
+			delayedIncomingCompression = delay ? compression : null;
+		}
+	}
+	
+	/**
+	 * The user has been authenticated so start any compression that was delayed, the 
+	 * server from the packet after it sends SSH_MSG_USERAUTH_SUCCESS and the client from 
+	 * the packet after it receives it. Both happen on the selector thread of the connection.
+	 */
+	private void startDelayedCompression() {
+		delayedCompressionStarted = true;
+		if(delayedOutgoingCompression != null) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Starting delayed outgoing compression {}", delayedOutgoingCompression.getAlgorithm());
+			}
+			outgoingCompression = delayedOutgoingCompression;
+			delayedOutgoingCompression = null;
+		}
+		if(delayedIncomingCompression != null) {
+			if(Log.isDebugEnabled()) {
+				Log.debug("Starting delayed incoming compression {}", delayedIncomingCompression.getAlgorithm());
+			}
+			incomingCompression = delayedIncomingCompression;
+			delayedIncomingCompression = null;
+		}
+	}
+	
+	/**
+	 * Get the compression in use for outgoing packets.
+	 * 
+	 * @return compression or null if packets are not compressed
+	 */
+	public SshCompression getOutgoingCompression() {
+		return outgoingCompression;
+	}
+	
+	/**
+	 * Get the compression in use for incoming packets.
+	 * 
+	 * @return compression or null if packets are not compressed
+	 */
+	public SshCompression getIncomingCompression() {
+		return incomingCompression;
+	}
+	
 	private void encodeChaCha20Poly1305FormatPacket(ByteBuffer outgoingMessage) throws IOException {
 		
 		ChaCha20Poly1305 cipher = (ChaCha20Poly1305) encryption;
 		
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
-
 		int padding = 4;
 		int cipherlen = 8;
 		
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
+		// Write the message payload, compressing it if necessary
+		int payloadLength = writePayload(outgoingMessage);
 
 		// Determine the padding length
-		padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+		padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 
 		// Write the packet length field
-		outgoingMessage.put(cipher.writePacketLength(payload.length + 1 + padding, new UnsignedInteger64(outgoingSequence)));
+		outgoingMessage.duplicate().position(0).put(cipher.writePacketLength(payloadLength + 1 + padding, new UnsignedInteger64(outgoingSequence)));
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
+		outgoingMessage.put(4, (byte) padding);
 
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 1 + cipher.getMacLength() + 4;
+		outgoingBytes += payloadLength + padding + 1 + cipher.getMacLength() + 4;
 
 		// Create some random data for the padding
 		byte[] pad = new byte[padding];
@@ -1310,10 +1427,6 @@ public abstract class TransportProtocol<T extends SshContext>
 		 * Wrap the message payload into the binary packet
 		 * format
 		 */
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
-
 		int padding = 4;
 		int cipherlen = 8;
 
@@ -1322,24 +1435,19 @@ public abstract class TransportProtocol<T extends SshContext>
 			cipherlen = encryption.getBlockSize();
 		}
 
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
+		// Write the message payload, compressing it if necessary
+		int payloadLength = writePayload(outgoingMessage);
 
 		// Determine the padding length
-		padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+		padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 
 		// Write the packet length field
-		outgoingMessage.putInt(payload.length + 1 + padding);
+		outgoingMessage.putInt(0, payloadLength + 1 + padding);
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
+		outgoingMessage.put(4, (byte) padding);
 
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 1;
+		outgoingBytes += payloadLength + padding + 1;
 
 		// Create some random data for the padding
 		byte[] pad = new byte[padding];
@@ -1350,40 +1458,33 @@ public abstract class TransportProtocol<T extends SshContext>
 
 		outgoingMessage.flip();
 		
-		// Get the unencrypted packet data
-		byte[] packet;
+		// Get the unencrypted packet data, leaving room for the MAC
+		int macLength = outgoingMac == null ? 0 : outgoingMac.getMacLength();
+		int packetLength = outgoingMessage.remaining();
 		if(encryption!=null && encryption.isMAC()) {
-			packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
-		} else {
-			packet = new byte[outgoingMessage.remaining()];
+			packetLength += encryption.getMacLength();
 		}
+		byte[] packet = new byte[packetLength + macLength];
 		
-		outgoingMessage.get(packet);
-		byte[] mac = null;
+		outgoingMessage.get(packet, 0, outgoingMessage.remaining());
 
 		// Perfrom encrpytion
 		if (encryption != null) {
-			encryption.transform(packet, 4, packet, 4, packet.length-4);
+			encryption.transform(packet, 4, packet, 4, packetLength-4);
 		}
 		
-		// Generate the MAC
+		// Generate the MAC directly after the packet
 		if (outgoingMac != null) {
-			mac = new byte[outgoingMac.getMacLength()];
 			outgoingMac.generate(outgoingSequence, packet, 0,
-					packet.length, mac, 0);
+					packetLength, packet, packetLength);
+			outgoingBytes += macLength;
 		}
 
 		// Reset the message
 		outgoingMessage.clear();
 
-		// Write the packet data
+		// Write the packet data and MAC
 		outgoingMessage.put(packet);
-
-		// Combine the packet and MAC
-		if (mac != null && mac.length > 0) {
-			outgoingMessage.put(mac);
-			outgoingBytes += mac.length;
-		}
 		
 	}
 
@@ -1393,14 +1494,6 @@ public abstract class TransportProtocol<T extends SshContext>
 		 * Wrap the message payload into the binary packet
 		 * format
 		 */
-		byte[] payload = new byte[outgoingMessage.remaining()];
-		outgoingMessage.get(payload);
-		outgoingMessage.clear();
-
-		if(Log.isTraceEnabled()) {
-			Log.raw(Level.TRACE, Utils.bytesToHex(payload, 0, payload.length, 32, true, true), true);
-		}
-		
 		int padding = 4;
 		int cipherlen = 8;
 
@@ -1409,29 +1502,24 @@ public abstract class TransportProtocol<T extends SshContext>
 			cipherlen = encryption.getBlockSize();
 		}
 
-		// Compress the payload if necersary
-		if (outgoingCompression != null) {
-			payload = outgoingCompression.compress(payload, 0,
-					payload.length);
-		}
+		// Write the message payload, compressing it if necessary
+		int payloadLength = writePayload(outgoingMessage);
 
 		// Determine the padding length
 		if(encryption!=null && encryption.isMAC()) {
-			padding += ((cipherlen - ((payload.length + 1 + padding) % cipherlen)) % cipherlen);
+			padding += ((cipherlen - ((payloadLength + 1 + padding) % cipherlen)) % cipherlen);
 		} else {
-			padding += ((cipherlen - ((payload.length + 5 + padding) % cipherlen)) % cipherlen);
+			padding += ((cipherlen - ((payloadLength + 5 + padding) % cipherlen)) % cipherlen);
 		}
 		
 		// Write the packet length field
-		int msglen = payload.length + 1 + padding;
-		outgoingMessage.putInt(msglen);
+		int msglen = payloadLength + 1 + padding;
+		outgoingMessage.putInt(0, msglen);
 
 		// Write the padding length
-		outgoingMessage.put((byte) padding);
+		outgoingMessage.put(4, (byte) padding);
 
-		// Write the message payload
-		outgoingMessage.put(payload, 0, payload.length);
-		outgoingBytes += payload.length + padding + 5;
+		outgoingBytes += payloadLength + padding + 5;
 
 		// Create some random data for the padding
 		byte[] pad = new byte[padding];
@@ -1441,22 +1529,21 @@ public abstract class TransportProtocol<T extends SshContext>
 		outgoingMessage.put(pad);
 
 		outgoingMessage.flip();
-		// Get the unencrypted packet data
-		byte[] packet;
-		
+		// Get the unencrypted packet data, leaving room for the MAC
+		int macLength = outgoingMac == null ? 0 : outgoingMac.getMacLength();
+		int packetLength = outgoingMessage.remaining();
 		if(encryption!=null && encryption.isMAC()) {
-			packet = new byte[outgoingMessage.remaining() + encryption.getMacLength()];
-		} else {
-			packet = new byte[outgoingMessage.remaining()];
+			packetLength += encryption.getMacLength();
 		}
+		byte[] packet = new byte[packetLength + macLength];
+		
 		outgoingMessage.get(packet, 0, outgoingMessage.remaining());
-		byte[] mac = null;
 
-		// Generate the MAC
+		// Generate the MAC directly after the packet
 		if (outgoingMac != null) {
-			mac = new byte[outgoingMac.getMacLength()];
 			outgoingMac.generate(outgoingSequence, packet, 0,
-					packet.length, mac, 0);
+					packetLength, packet, packetLength);
+			outgoingBytes += macLength;
 		}
 
 		// Perfrom encrpytion
@@ -1464,21 +1551,15 @@ public abstract class TransportProtocol<T extends SshContext>
 			if(encryption.isMAC()) {
 				encryption.transform(packet, 0, packet, 0, msglen+4);
 			} else {
-				encryption.transform(packet);
+				encryption.transform(packet, 0, packet, 0, packetLength);
 			}
 		}
 
 		// Reset the message
 		outgoingMessage.clear();
 
-		// Write the packet data
+		// Write the packet data and MAC
 		outgoingMessage.put(packet);
-
-		// Combine the packet and MAC
-		if (mac != null && mac.length > 0) {
-			outgoingMessage.put(mac);
-			outgoingBytes += mac.length;
-		}
 		
 	}
 
@@ -2148,9 +2229,44 @@ public abstract class TransportProtocol<T extends SshContext>
 		return sshContext;
 	}
 
+	/**
+	 * Results of component negotiation. Connections from the same client software
+	 * offer the same lists, so the result for each pair of lists is remembered
+	 * rather than being worked out again for every key exchange. Lists longer than
+	 * {@link #MAX_NEGOTIATED_LIST_LENGTH} are not remembered, so that a peer cannot 
+	 * fill the cache with arbitrarily large keys.
+	 */
+	@SuppressWarnings("serial")
+	private static final Map<List<String>, String> negotiatedComponents = Collections.synchronizedMap(
+			new LinkedHashMap<List<String>, String>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<String>, String> eldest) {
+					return size() > MAX_NEGOTIATED_COMPONENTS;
+				}
+			});
+	
+	private static final int MAX_NEGOTIATED_COMPONENTS = 1024;
+	private static final int MAX_NEGOTIATED_LIST_LENGTH = 2048;
+
 	protected String selectNegotiatedComponent(String clientlist, String serverlist)
 			throws IOException {
 
+		if(clientlist.length() > MAX_NEGOTIATED_LIST_LENGTH || serverlist.length() > MAX_NEGOTIATED_LIST_LENGTH) {
+			return negotiateComponent(clientlist, serverlist);
+		}
+		
+		List<String> key = List.of(clientlist, serverlist);
+		String negotiated = negotiatedComponents.get(key);
+		if(negotiated == null) {
+			negotiated = negotiateComponent(clientlist, serverlist);
+			negotiatedComponents.put(key, negotiated);
+		}
+		return negotiated;
+	}
+	
+	private String negotiateComponent(String clientlist, String serverlist)
+			throws IOException {
+
 		String originalClient = clientlist;
 		String originalServer = serverlist;
 		Vector<String> r = new Vector<String>();
@@ -2265,16 +2381,18 @@ public abstract class TransportProtocol<T extends SshContext>
 					outgoingMac.init(makeSshKey('F', outgoingMac.getMacSize()));
 				}
 				
-				outgoingCompression = null;
+				SshCompression compression = null;
 
 				if (!compressionSC.equals(SshContext.COMPRESSION_NONE)) {
-					outgoingCompression = (SshCompression) sshContext
+					compression = (SshCompression) sshContext
 							.supportedCompressionsSC().getInstance(
 									compressionSC);
-					outgoingCompression.init(SshCompression.DEFLATER,
+					compression.init(SshCompression.DEFLATER,
 							getSshContext().getCompressionLevel());
 				}
 				
+				configureCompression(compression, true);
+				
 				if(isKexStrict) {
 					if(Log.isDebugEnabled()) {
 						Log.debug("Resetting OUTGOING sequence from {} to zero for strict transport protocol requirements", outgoingSequence);
@@ -2331,15 +2449,17 @@ public abstract class TransportProtocol<T extends SshContext>
 					incomingMacLength = decryption.getMacLength();
 				}
 				
-				incomingCompression = null;
+				SshCompression compression = null;
 
 				if (!compressionCS.equals(SshContext.COMPRESSION_NONE)) {
-					incomingCompression = (SshCompression) sshContext
+					compression = (SshCompression) sshContext
 							.supportedCompressionsCS().getInstance(
 									compressionCS);
-					incomingCompression.init(SshCompression.INFLATER,
+					compression.init(SshCompression.INFLATER,
 							getSshContext().getCompressionLevel());
 				}
+				
+				configureCompression(compression, false);
 
 				incomingCipherLength = decryption.getBlockSize();
 
@@ -2390,16 +2510,18 @@ public abstract class TransportProtocol<T extends SshContext>
 					outgoingMac.init(makeSshKey('E', outgoingMac.getMacSize()));
 				}
 				
-				outgoingCompression = null;
+				SshCompression compression = null;
 
-				if (!compressionSC.equals(SshContext.COMPRESSION_NONE)) {
-					outgoingCompression = (SshCompression) sshContext
-							.supportedCompressionsSC().getInstance(
+				if (!compressionCS.equals(SshContext.COMPRESSION_NONE)) {
+					compression = (SshCompression) sshContext
+							.supportedCompressionsCS().getInstance(
 									compressionCS);
-					outgoingCompression.init(SshCompression.DEFLATER,
+					compression.init(SshCompression.DEFLATER,
 							getSshContext().getCompressionLevel());
 				}
 				
+				configureCompression(compression, true);
+				
 				if(isKexStrict) {
 					if(Log.isDebugEnabled()) {
 						Log.debug("Resetting OUTGOING sequence from {} to zero for strict transport protocol requirements", outgoingSequence);
@@ -2450,15 +2572,17 @@ public abstract class TransportProtocol<T extends SshContext>
 					incomingMacLength = decryption.getMacLength();
 				}
 				
-				incomingCompression = null;
+				SshCompression compression = null;
 
-				if (!compressionCS.equals(SshContext.COMPRESSION_NONE)) {
-					incomingCompression = (SshCompression) sshContext
-							.supportedCompressionsCS().getInstance(
+				if (!compressionSC.equals(SshContext.COMPRESSION_NONE)) {
+					compression = (SshCompression) sshContext
+							.supportedCompressionsSC().getInstance(
 									compressionSC);
-					incomingCompression.init(SshCompression.INFLATER,
+					compression.init(SshCompression.INFLATER,
 							getSshContext().getCompressionLevel());
 				}
+				
+				configureCompression(compression, false);
 
 				incomingCipherLength = decryption.getBlockSize();
 
@@ -2879,9 +3003,6 @@ public abstract class TransportProtocol<T extends SshContext>
 			Log.trace("Resetting idle state");
 		}
 		lastActivity = System.currentTimeMillis();
-		if (getContext().getIdleConnectionTimeoutSeconds() > 0
-				&& socketConnection != null)
-			socketConnection.getIdleStates().reset(this);
 	}
 
 	public boolean isSelectorThread() {
@@ -57,6 +57,7 @@ import com.sshtools.common.ssh.SshConnection;
 import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.components.SshKeyPair;
 import com.sshtools.common.ssh.components.jce.JCEComponentManager;
+import com.sshtools.synergy.nio.AdmissionController;
 import com.sshtools.synergy.nio.ProtocolContextFactory;
 import com.sshtools.synergy.nio.SshEngine;
 import com.sshtools.synergy.nio.SshEngineContext;
@@ -216,9 +217,30 @@ public abstract class AbstractSshServer implements Closeable {
 	}
 	
 	public void setIPPolicy(IPPolicy ipPolicy) {
+		AdmissionController admissionController = getAdmissionController();
+		if(admissionController != null && admissionController.getIPPolicy() == this.ipPolicy) {
+			admissionController.setIPPolicy(ipPolicy);
+		}
 		this.ipPolicy = ipPolicy;
 	}
 	
+	public AdmissionController getAdmissionController() {
+		return engine.getContext().getAdmissionController();
+	}
+	
+	/**
+	 * Install a controller that decides whether connections are admitted as they are accepted.
+	 * A controller without an {@link IPPolicy} is given this server's policy.
+	 * 
+	 * @param admissionController controller, or <code>null</code> to accept every connection
+	 */
+	public void setAdmissionController(AdmissionController admissionController) {
+		if(admissionController != null && admissionController.getIPPolicy() == null) {
+			admissionController.setIPPolicy(ipPolicy);
+		}
+		engine.getContext().setAdmissionController(admissionController);
+	}
+	
 	public void enableSCP() {
 		enableScp = true;
 	}
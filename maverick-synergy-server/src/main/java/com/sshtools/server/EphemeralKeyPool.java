@@ -0,0 +1,337 @@
+package com.sshtools.server;
+
+/*-
+ * #%L
+ * Server API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.common.logger.Log;
+
+/**
+ * A bounded pool of pre-generated, single use ephemeral key pairs for the server's
+ * key exchanges. When installed on an {@link SshServerContext} with
+ * {@link SshServerContext#setEphemeralKeyPool(EphemeralKeyPool)}, the Diffie-Hellman
+ * group, ECDH and RSA key exchanges take their ephemeral keys from the pool instead of
+ * generating them inside the handshake. Each key exchange algorithm has its own queue,
+ * created the first time the algorithm is used and topped back up to the configured
+ * depth by low priority background threads after every key is taken. When a queue is
+ * empty, the key is generated inline exactly as it would be without a pool.
+ * <p>
+ * A key is removed from its queue when it is taken and is never handed out twice.
+ * <p>
+ * The pool owns its refill threads, call {@link #close()} when it is no longer needed.
+ */
+public class EphemeralKeyPool implements Closeable {
+
+	/**
+	 * Default number of keys held for each key exchange algorithm
+	 */
+	public static final int DEFAULT_DEPTH = 8;
+
+	/**
+	 * Default number of background refill threads
+	 */
+	public static final int DEFAULT_REFILL_THREADS = 1;
+
+	/**
+	 * Generates a single ephemeral key. Implementations are called from the refill
+	 * threads as well as from connection threads, so they must not share any
+	 * state that is not thread safe, such as a <code>KeyPairGenerator</code>.
+	 *
+	 * @param <T> type of key
+	 */
+	@FunctionalInterface
+	public interface EphemeralKeyGenerator<T> {
+		T generate() throws Exception;
+	}
+
+	public final static class EphemeralKeyPoolBuilder {
+		private int depth = DEFAULT_DEPTH;
+		private int refillThreads = DEFAULT_REFILL_THREADS;
+
+		/**
+		 * Create a new {@link EphemeralKeyPoolBuilder}.
+		 *
+		 * @return builder
+		 */
+		public static EphemeralKeyPoolBuilder create() {
+			return new EphemeralKeyPoolBuilder();
+		}
+
+		/**
+		 * Set the number of keys held for each key exchange algorithm.
+		 *
+		 * @param depth depth
+		 * @return this for chaining
+		 */
+		public EphemeralKeyPoolBuilder withDepth(int depth) {
+			if(depth < 1) {
+				throw new IllegalArgumentException("Depth must be at least 1.");
+			}
+			this.depth = depth;
+			return this;
+		}
+
+		/**
+		 * Set the number of background threads used to refill the pool. Each algorithm
+		 * is refilled by at most one thread at a time.
+		 *
+		 * @param refillThreads refill threads
+		 * @return this for chaining
+		 */
+		public EphemeralKeyPoolBuilder withRefillThreads(int refillThreads) {
+			if(refillThreads < 1) {
+				throw new IllegalArgumentException("Refill threads must be at least 1.");
+			}
+			this.refillThreads = refillThreads;
+			return this;
+		}
+
+		/**
+		 * Build a new {@link EphemeralKeyPool}.
+		 *
+		 * @return pool
+		 */
+		public EphemeralKeyPool build() {
+			return new EphemeralKeyPool(this);
+		}
+	}
+
+	private final class Slot<T> {
+		final String name;
+		final EphemeralKeyGenerator<T> generator;
+		final ArrayBlockingQueue<T> keys;
+		final AtomicBoolean refilling = new AtomicBoolean();
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+
+		Slot(String name, EphemeralKeyGenerator<T> generator) {
+			this.name = name;
+			this.generator = generator;
+			this.keys = new ArrayBlockingQueue<>(depth);
+		}
+
+		void scheduleRefill() {
+			if(closed.get() || keys.remainingCapacity() == 0 || !refilling.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				executor.execute(this::refill);
+			} catch(RejectedExecutionException e) {
+				refilling.set(false);
+			}
+		}
+
+		void refill() {
+			boolean failed = false;
+			try {
+				while(!closed.get() && keys.remainingCapacity() > 0) {
+					if(!keys.offer(generator.generate())) {
+						break;
+					}
+				}
+			} catch(Throwable e) {
+				failed = true;
+				Log.error("Failed to generate ephemeral key for {}", e, name);
+			} finally {
+				refilling.set(false);
+			}
+			/* A key may have been taken after the loop finished but before
+			 * the flag was cleared, so check again. A failing generator is
+			 * retried on the next take rather than spinning here. */
+			if(!failed) {
+				scheduleRefill();
+			}
+		}
+	}
+
+	private final int depth;
+	private final ExecutorService executor;
+	private final ConcurrentHashMap<String, Slot<?>> slots = new ConcurrentHashMap<>();
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	EphemeralKeyPool(EphemeralKeyPoolBuilder builder) {
+		this.depth = builder.depth;
+		var count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(builder.refillThreads, (r) -> {
+			var t = new Thread(r, "EphemeralKeyPool-" + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+	}
+
+	/**
+	 * Take a key for the named algorithm. If the pool holds no key for the
+	 * algorithm, one is generated inline using the supplied generator. The first
+	 * generator supplied for a name is retained by the pool and used to refill it.
+	 *
+	 * @param <T> type of key
+	 * @param name name of algorithm, i.e. the curve or group the key belongs to
+	 * @param generator generator
+	 * @return key
+	 * @throws IOException if the key could not be generated
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T take(String name, EphemeralKeyGenerator<T> generator) throws IOException {
+		var slot = (Slot<T>) slots.computeIfAbsent(name, (n) -> new Slot<>(n, generator));
+		var key = slot.keys.poll();
+		if(key != null) {
+			slot.hits.incrementAndGet();
+		} else {
+			slot.misses.incrementAndGet();
+			if(Log.isDebugEnabled()) {
+				Log.debug("Ephemeral key pool for {} is empty, generating inline", name);
+			}
+		}
+		slot.scheduleRefill();
+		if(key != null) {
+			return key;
+		}
+		try {
+			return generator.generate();
+		} catch(IOException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Get the maximum number of keys held for each algorithm.
+	 *
+	 * @return depth
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get the names of the algorithms the pool currently holds keys for.
+	 *
+	 * @return names
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(slots.keySet());
+	}
+
+	/**
+	 * Get the number of keys currently available for an algorithm.
+	 *
+	 * @param name name
+	 * @return available keys
+	 */
+	public int getAvailable(String name) {
+		var slot = slots.get(name);
+		return slot == null ? 0 : slot.keys.size();
+	}
+
+	/**
+	 * Get the number of keys that were taken from the pool for an algorithm.
+	 *
+	 * @param name name
+	 * @return hits
+	 */
+	public long getHits(String name) {
+		var slot = slots.get(name);
+		return slot == null ? 0 : slot.hits.get();
+	}
+
+	/**
+	 * Get the number of keys that had to be generated inline for an algorithm
+	 * because the pool was empty.
+	 *
+	 * @param name name
+	 * @return misses
+	 */
+	public long getMisses(String name) {
+		var slot = slots.get(name);
+		return slot == null ? 0 : slot.misses.get();
+	}
+
+	/**
+	 * Get the proportion of keys for an algorithm that had to be generated inline.
+	 *
+	 * @param name name
+	 * @return miss rate between 0 and 1
+	 */
+	public double getMissRate(String name) {
+		return missRate(getHits(name), getMisses(name));
+	}
+
+	/**
+	 * Get the total number of keys taken from the pool.
+	 *
+	 * @return hits
+	 */
+	public long getHits() {
+		return slots.values().stream().mapToLong((s) -> s.hits.get()).sum();
+	}
+
+	/**
+	 * Get the total number of keys that had to be generated inline.
+	 *
+	 * @return misses
+	 */
+	public long getMisses() {
+		return slots.values().stream().mapToLong((s) -> s.misses.get()).sum();
+	}
+
+	/**
+	 * Get the proportion of all keys that had to be generated inline.
+	 *
+	 * @return miss rate between 0 and 1
+	 */
+	public double getMissRate() {
+		return missRate(getHits(), getMisses());
+	}
+
+	/**
+	 * Stop the refill threads and discard all keys held by the pool. Any further
+	 * keys are generated inline.
+	 */
+	@Override
+	public void close() {
+		if(closed.compareAndSet(false, true)) {
+			executor.shutdownNow();
+			for(var slot : slots.values()) {
+				slot.keys.clear();
+			}
+		}
+	}
+
+	private static double missRate(long hits, long misses) {
+		var total = hits + misses;
+		return total == 0 ? 0 : (double) misses / total;
+	}
+}
@@ -0,0 +1,310 @@
+package com.sshtools.server;
+
+/*-
+ * #%L
+ * Server API
+ * %%
+ * Copyright (C) 2002 - 2024 JADAPTIVE Limited
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sshtools.common.ssh.components.DiffieHellmanGroups;
+
+/**
+ * Offline generation and screening of safe primes for <code>diffie-hellman-group-exchange</code>,
+ * writing OpenSSH format moduli files that can be loaded at server startup with
+ * {@link DiffieHellmanGroups#loadGroups(InputStream, boolean)}. Finding large safe primes takes
+ * minutes to hours, so this is intended to be run ahead of time rather than by a running server.
+ * <p>
+ * Candidates q are sieved against small primes together with p = 2q + 1, then both are tested
+ * with Miller-Rabin. Only candidates where p mod 24 = 11 are considered so that 2 is always a
+ * suitable generator.
+ * <pre>
+ * ModuliGenerator generate &lt;bits[,bits...]&gt; &lt;count&gt; [output] [threads]
+ * ModuliGenerator screen &lt;input&gt; [output]
+ * </pre>
+ */
+public class ModuliGenerator {
+
+	static final int SIEVE_LIMIT = 1 << 16;
+	static final int WINDOW = 1 << 16;
+	static final BigInteger TWELVE = BigInteger.valueOf(12);
+	static final BigInteger TWO = BigInteger.valueOf(2);
+	static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+	static final int[] SMALL_PRIMES;
+	static final long[] INVERSE_12;
+
+	static {
+		BitSet composite = new BitSet(SIEVE_LIMIT);
+		List<Integer> primes = new ArrayList<>();
+		for(int i = 2; i < SIEVE_LIMIT; i++) {
+			if(!composite.get(i)) {
+				/* 2 and 3 divide neither q = 5 mod 12 nor p = 2q + 1 */
+				if(i > 3) {
+					primes.add(i);
+				}
+				for(long j = (long) i * i; j < SIEVE_LIMIT; j += i) {
+					composite.set((int) j);
+				}
+			}
+		}
+		SMALL_PRIMES = new int[primes.size()];
+		INVERSE_12 = new long[primes.size()];
+		for(int i = 0; i < SMALL_PRIMES.length; i++) {
+			SMALL_PRIMES[i] = primes.get(i);
+			INVERSE_12[i] = TWELVE.modInverse(BigInteger.valueOf(SMALL_PRIMES[i])).longValue();
+		}
+	}
+
+	private final SecureRandom random = new SecureRandom();
+	private final int certainty;
+
+	public ModuliGenerator() {
+		this(100);
+	}
+
+	/**
+	 * Create a generator that tests primes with the given certainty, as used by
+	 * {@link BigInteger#isProbablePrime(int)}.
+	 *
+	 * @param certainty certainty
+	 */
+	public ModuliGenerator(int certainty) {
+		this.certainty = certainty;
+	}
+
+	/**
+	 * Generate a safe prime p of exactly <code>bits</code> bits, where (p - 1) / 2
+	 * is also prime and p mod 24 = 11.
+	 *
+	 * @param bits size of prime
+	 * @return safe prime
+	 */
+	public BigInteger generateSafePrime(int bits) {
+		if(bits < 64) {
+			throw new IllegalArgumentException("Safe primes must be at least 64 bits.");
+		}
+		while(true) {
+			BigInteger q0 = new BigInteger(bits - 1, random).setBit(bits - 2);
+			q0 = q0.subtract(q0.mod(TWELVE)).add(BigInteger.valueOf(5));
+
+			BitSet rejected = sieve(q0);
+			for(int i = rejected.nextClearBit(0); i < WINDOW; i = rejected.nextClearBit(i + 1)) {
+				BigInteger q = q0.add(BigInteger.valueOf(12L * i));
+				BigInteger p = q.shiftLeft(1).setBit(0);
+				if(p.bitLength() != bits) {
+					break;
+				}
+				/* A single Fermat test on each of q and p rejects nearly all remaining 
+				 * candidates before the more expensive primality tests */
+				if(!TWO.modPow(q.subtract(BigInteger.ONE), q).equals(BigInteger.ONE)
+						|| !TWO.modPow(p.subtract(BigInteger.ONE), p).equals(BigInteger.ONE)) {
+					continue;
+				}
+				if(q.isProbablePrime(certainty) && p.isProbablePrime(certainty)) {
+					return p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check that a modulus is a safe prime.
+	 *
+	 * @param p modulus
+	 * @return safe prime
+	 */
+	public boolean isSafePrime(BigInteger p) {
+		return p.testBit(0) && p.shiftRight(1).isProbablePrime(certainty) && p.isProbablePrime(certainty);
+	}
+
+	/**
+	 * Mark the offsets i in the window where q0 + 12i or 2(q0 + 12i) + 1 has a small factor.
+	 */
+	private static BitSet sieve(BigInteger q0) {
+		BitSet rejected = new BitSet(WINDOW);
+		for(int j = 0; j < SMALL_PRIMES.length; j++) {
+			long s = SMALL_PRIMES[j];
+			long r = q0.mod(BigInteger.valueOf(s)).longValue();
+			long half = (s + 1) / 2;
+			mark(rejected, ((s - r) % s) * INVERSE_12[j] % s, s);
+			mark(rejected, ((2 * s - half - r) % s) * INVERSE_12[j] % s, s);
+		}
+		return rejected;
+	}
+
+	private static void mark(BitSet rejected, long first, long step) {
+		for(long i = first; i < WINDOW; i += step) {
+			rejected.set((int) i);
+		}
+	}
+
+	/**
+	 * Format a modulus as a line of an OpenSSH moduli file.
+	 *
+	 * @param p safe prime
+	 * @return line
+	 */
+	public String format(BigInteger p) {
+		return String.format("%s %d %d %d %d 2 %s",
+				TIMESTAMP.format(ZonedDateTime.now(ZoneOffset.UTC)),
+				DiffieHellmanGroups.TYPE_SAFE,
+				DiffieHellmanGroups.TESTS_SIEVE | DiffieHellmanGroups.TESTS_MILLER_RABIN,
+				certainty,
+				p.bitLength() - 1,
+				p.toString(16).toUpperCase());
+	}
+
+	/**
+	 * Generate safe primes of each size using a number of threads, writing each
+	 * one to the output as soon as it is found.
+	 *
+	 * @param out output
+	 * @param count number of primes of each size
+	 * @param threads threads
+	 * @param sizes sizes in bits
+	 * @throws InterruptedException
+	 */
+	public void generate(PrintWriter out, int count, int threads, int... sizes) throws InterruptedException {
+		for(int bits : sizes) {
+			AtomicInteger remaining = new AtomicInteger(count);
+			List<Thread> workers = new ArrayList<>();
+			for(int i = 0; i < threads; i++) {
+				Thread t = new Thread(() -> {
+					while(remaining.get() > 0) {
+						BigInteger p = generateSafePrime(bits);
+						if(remaining.getAndDecrement() > 0) {
+							synchronized(out) {
+								out.println(format(p));
+								out.flush();
+							}
+						}
+					}
+				}, "ModuliGenerator-" + i);
+				t.setPriority(Thread.MIN_PRIORITY);
+				workers.add(t);
+				t.start();
+			}
+			for(Thread t : workers) {
+				t.join();
+			}
+		}
+	}
+
+	/**
+	 * Re-test every modulus in an OpenSSH moduli file, writing those that are
+	 * safe primes with a valid generator to the output.
+	 *
+	 * @param in input moduli file
+	 * @param out output
+	 * @return number of moduli written
+	 * @throws IOException
+	 */
+	public int screen(InputStream in, PrintWriter out) throws IOException {
+		int written = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+		String line;
+		while((line = reader.readLine()) != null) {
+			line = line.trim();
+			String[] parts = line.split("\\s+");
+			if(line.startsWith("#") || parts.length != 7) {
+				continue;
+			}
+			try {
+				BigInteger g = new BigInteger(parts[5], 16);
+				BigInteger p = new BigInteger(parts[6], 16);
+				if(Integer.parseInt(parts[1]) != DiffieHellmanGroups.TYPE_SAFE
+						|| Integer.parseInt(parts[4]) != p.bitLength() - 1
+						|| g.compareTo(TWO) < 0
+						|| g.compareTo(p.subtract(BigInteger.ONE)) >= 0
+						|| !isSafePrime(p)) {
+					continue;
+				}
+				out.println(String.format("%s %s %d %d %s %s %s",
+						parts[0], parts[1],
+						(Integer.parseInt(parts[2]) | DiffieHellmanGroups.TESTS_MILLER_RABIN) & ~DiffieHellmanGroups.TESTS_COMPOSITE,
+						certainty, parts[4], parts[5], parts[6]));
+				written++;
+			} catch(NumberFormatException e) {
+			}
+		}
+		out.flush();
+		return written;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		if(args.length < 2) {
+			System.err.println("Usage: ModuliGenerator generate <bits[,bits...]> <count> [output] [threads]");
+			System.err.println("       ModuliGenerator screen <input> [output]");
+			System.exit(1);
+		}
+
+		ModuliGenerator generator = new ModuliGenerator();
+		switch(args[0]) {
+		case "generate":
+		{
+			String[] s = args[1].split(",");
+			int[] sizes = new int[s.length];
+			for(int i = 0; i < s.length; i++) {
+				sizes[i] = Integer.parseInt(s[i]);
+			}
+			int count = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+			int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			try(PrintWriter out = createWriter(args.length > 3 ? args[3] : "-")) {
+				generator.generate(out, count, threads, sizes);
+			}
+			break;
+		}
+		case "screen":
+			try(InputStream in = new FileInputStream(args[1]);
+					PrintWriter out = createWriter(args.length > 2 ? args[2] : "-")) {
+				System.err.println(String.format("%d moduli passed screening", generator.screen(in, out)));
+			}
+			break;
+		default:
+			System.err.println("Unknown command " + args[0]);
+			System.exit(1);
+		}
+	}
+
+	private static PrintWriter createWriter(String filename) throws IOException {
+		OutputStream out = filename.equals("-") ? System.out : new FileOutputStream(filename, true);
+		return new PrintWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII));
+	}
+}
@@ -108,7 +108,7 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 	
 	boolean hasTimedOut = false;
 	boolean haltIncomingData = false;
-	long lastActivity = System.currentTimeMillis();
+	volatile long lastActivity = System.currentTimeMillis();
 	boolean agentForwardingRequested;
 	boolean singleSession = false;
 	ChannelOutputStream stderrOutputStream = new ChannelOutputStream(this, SSH_EXTENDED_DATA_STDERR);
@@ -304,7 +304,11 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 		return false;
 	}
 
-
+	@Override
+	public long getIdleDeadline() {
+		int timeout = getContext().getPolicy(ShellPolicy.class).getSessionTimeout();
+		return timeout > 0 ? lastActivity + (timeout + 1) * 1000L : -1;
+	}
 	
 	/**
 	 * Process session requests and invoke the relevant abstract methods of this
@@ -340,6 +344,9 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 				success = allocatePseudoTerminal(term, cols, rows, width,
 						height, new TerminalModes.TerminalModesBuilder().fromBytes(bar.readBinaryString()).build());
 				
+				/* Interactive, each write is sent as soon as it is made */
+				setDataCoalescing(false);
+				
 				if(Log.isDebugEnabled())
 					Log.debug(term + " pseudo terminal requested");
 				if(Log.isDebugEnabled())
@@ -590,9 +597,6 @@ public abstract class SessionChannelNG extends ChannelNG<SshServerContext> imple
 
 	private void resetIdleState() {
 		lastActivity = System.currentTimeMillis();
-		if (getContext().getPolicy(ShellPolicy.class).getSessionTimeout() > 0)
-			getConnectionProtocol().getTransport().getSocketConnection().getIdleStates()
-					.reset(this);
 	}
 
 	/**
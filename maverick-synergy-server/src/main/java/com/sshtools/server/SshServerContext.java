@@ -40,6 +40,7 @@ import com.sshtools.common.auth.AuthenticationMechanismFactory;
 import com.sshtools.common.auth.DefaultAuthenticationMechanismFactory;
 import com.sshtools.common.auth.DefaultPublicKeyAuthenticationVerifier;
 import com.sshtools.common.auth.PublicKeyAuthenticationVerifier;
+import com.sshtools.common.auth.SignatureVerificationPool;
 import com.sshtools.common.logger.Log;
 import com.sshtools.common.publickey.InvalidPassphraseException;
 import com.sshtools.common.publickey.SshKeyPairGenerator;
@@ -59,6 +60,7 @@ import com.sshtools.common.ssh.components.jce.OpenSshRsaCertificate;
 import com.sshtools.common.ssh.components.jce.OpenSshRsaSha256Certificate;
 import com.sshtools.common.ssh.components.jce.OpenSshRsaSha512Certificate;
 import com.sshtools.common.ssh.components.jce.Ssh2RsaPublicKey;
+import com.sshtools.server.EphemeralKeyPool.EphemeralKeyGenerator;
 import com.sshtools.server.components.SshKeyExchangeServer;
 import com.sshtools.server.components.SshKeyExchangeServerFactory;
 import com.sshtools.synergy.nio.ConnectRequestFuture;
@@ -92,6 +94,8 @@ public class SshServerContext extends SshContext {
 	int maxDHGroupSize = 2048;
 
 	private boolean forceServerPreferences = false;
+
+	private EphemeralKeyPool ephemeralKeyPool;
 	
 	private static ComponentFactory<SshKeyExchange<SshServerContext>> verifiedKeyExchanges;
 	
@@ -692,4 +696,65 @@ public class SshServerContext extends SshContext {
 	public void setForceServerPreferences(boolean serverControlledKeyExchange) {
 		this.forceServerPreferences = serverControlledKeyExchange;
 	}
+
+	/**
+	 * Get the pool of pre-generated ephemeral keys used by key exchange, or
+	 * <code>null</code> if keys are generated during each key exchange.
+	 */
+	public EphemeralKeyPool getEphemeralKeyPool() {
+		return ephemeralKeyPool;
+	}
+
+	/**
+	 * Set a pool of pre-generated ephemeral keys for key exchange to draw from. The
+	 * pool may be shared by many contexts. Set to <code>null</code> (the default) to
+	 * generate keys during each key exchange.
+	 * @param ephemeralKeyPool
+	 */
+	public void setEphemeralKeyPool(EphemeralKeyPool ephemeralKeyPool) {
+		this.ephemeralKeyPool = ephemeralKeyPool;
+	}
+
+	/**
+	 * Get the pool used to verify <code>publickey</code> authentication signatures, or
+	 * <code>null</code> if signatures are verified on the connection's event queue.
+	 */
+	public SignatureVerificationPool getSignatureVerificationPool() {
+		return hasPolicy(SignatureVerificationPool.class) ? getPolicy(SignatureVerificationPool.class) : null;
+	}
+
+	/**
+	 * Set a pool of threads to verify <code>publickey</code> authentication signatures
+	 * on. The pool may be shared by many contexts. Set to <code>null</code> (the default)
+	 * to verify signatures on the connection's event queue.
+	 * @param signatureVerificationPool
+	 */
+	public void setSignatureVerificationPool(SignatureVerificationPool signatureVerificationPool) {
+		setPolicy(SignatureVerificationPool.class, signatureVerificationPool);
+	}
+
+	/**
+	 * Get a single use ephemeral key for key exchange, taking it from the
+	 * {@link EphemeralKeyPool} if one is configured, otherwise generating it with
+	 * the supplied generator.
+	 *
+	 * @param <T> type of key
+	 * @param name name of algorithm, i.e. the curve or group the key belongs to
+	 * @param generator generator
+	 * @return key
+	 * @throws IOException
+	 */
+	public <T> T takeEphemeralKey(String name, EphemeralKeyGenerator<T> generator) throws IOException {
+		var pool = ephemeralKeyPool;
+		if(pool != null) {
+			return pool.take(name, generator);
+		}
+		try {
+			return generator.generate();
+		} catch(IOException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
 }
@@ -311,6 +311,7 @@ public final class TransportProtocolServer extends TransportProtocol<SshServerCo
 
 				// Set the current service to the authentication protocol
 				activeService = new AuthenticationProtocolServer(this);
+				rescheduleIdleState();
 
 				final byte[] serviceNameBytes = getBytes(servicename, CHARSET_ENCODING);
 				// Inform the client that we have accepted the service
@@ -343,6 +344,7 @@ public final class TransportProtocolServer extends TransportProtocol<SshServerCo
 
 		this.activeService.stop();
 		this.activeService = activeService;
+		rescheduleIdleState();
 		activeService.start();
 
 	}
@@ -168,6 +168,10 @@ public abstract class DiffieHellmanEcdh extends SshKeyExchangeServer implements
 			
 			initCrypto();
 			
+			final String curve = this.curve;
+			keyPair = transport.getContext().takeEphemeralKey("ecdh-" + curve, () -> generateKeyPair(curve));
+			keyAgreement.init(keyPair.getPrivate());
+			
 			Q_C = reply.readBinaryString();
 			
 			ECPublicKey ec = (ECPublicKey) keyPair.getPublic();
@@ -264,25 +268,30 @@ public abstract class DiffieHellmanEcdh extends SshKeyExchangeServer implements
 	private void initCrypto() throws InvalidKeyException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, SshException {
 		ComponentManager.getInstance().supportedDigests().getInstance(getHashAlgorithm());
 		
-		keyGen = JCEProvider.getProviderForAlgorithm(JCEProvider.getECDSAAlgorithmName())==null ? 
-				KeyPairGenerator.getInstance(JCEProvider.getECDSAAlgorithmName()) : 
-					KeyPairGenerator.getInstance(JCEProvider.getECDSAAlgorithmName(), 
-							JCEProvider.getProviderForAlgorithm(JCEProvider.getECDSAAlgorithmName()));
+		keyGen = createKeyPairGenerator();
 		keyAgreement = JCEProvider.getProviderForAlgorithm(JCEAlgorithms.JCE_ECDH)==null ? 
 				KeyAgreement.getInstance(JCEAlgorithms.JCE_ECDH) : 
 					KeyAgreement.getInstance(JCEAlgorithms.JCE_ECDH, 
 							JCEProvider.getProviderForAlgorithm(JCEAlgorithms.JCE_ECDH));
-
-		
-		ECGenParameterSpec namedSpec = new ECGenParameterSpec(curve);
-		keyGen.initialize(namedSpec);
-		keyPair = keyGen.generateKeyPair();
-		keyAgreement.init(keyPair.getPrivate());
+	}
+	
+	private static KeyPairGenerator createKeyPairGenerator() throws NoSuchAlgorithmException {
+		return JCEProvider.getProviderForAlgorithm(JCEProvider.getECDSAAlgorithmName())==null ? 
+				KeyPairGenerator.getInstance(JCEProvider.getECDSAAlgorithmName()) : 
+					KeyPairGenerator.getInstance(JCEProvider.getECDSAAlgorithmName(), 
+							JCEProvider.getProviderForAlgorithm(JCEProvider.getECDSAAlgorithmName()));
+	}
+	
+	private static KeyPair generateKeyPair(String curve) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		KeyPairGenerator keyGen = createKeyPairGenerator();
+		keyGen.initialize(new ECGenParameterSpec(curve));
+		return keyGen.generateKeyPair();
 	}
 	
 	public void test() throws IOException {
 		try {
 			initCrypto();
+			keyAgreement.init(generateKeyPair(curve).getPrivate());
 		} catch (InvalidKeyException | NoSuchAlgorithmException | InvalidAlgorithmParameterException | SshException e) {
 			throw new IOException(e.getMessage(), e);
 		}
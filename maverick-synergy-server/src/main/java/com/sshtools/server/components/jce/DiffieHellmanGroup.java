@@ -25,6 +25,7 @@ package com.sshtools.server.components.jce;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -123,11 +124,8 @@ public abstract class DiffieHellmanGroup extends SshKeyExchangeServer implements
 		try {
 			initCrypto();
 			
-			DHParameterSpec dhSkipParamSpec = new DHParameterSpec(p, g);
-
-			dhKeyPairGen.initialize(dhSkipParamSpec, JCEProvider.getSecureRandom());
-
-			KeyPair dhKeyPair = dhKeyPairGen.generateKeyPair();
+			final BigInteger p = this.p;
+			KeyPair dhKeyPair = transport.getContext().takeEphemeralKey("dh-" + p.bitLength(), () -> generateKeyPair(p));
 			dhKeyAgreement.init(dhKeyPair.getPrivate());
 			// y = ((DHPrivateKey)dhKeyPair.getPrivate()).getX();
 			f = ((DHPublicKey) dhKeyPair.getPublic()).getY();
@@ -136,6 +134,12 @@ public abstract class DiffieHellmanGroup extends SshKeyExchangeServer implements
 		}
 	}
 
+	private static KeyPair generateKeyPair(BigInteger p) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		KeyPairGenerator keyGen = JCEProvider.getDHKeyGenerator();
+		keyGen.initialize(new DHParameterSpec(p, g), JCEProvider.getSecureRandom());
+		return keyGen.generateKeyPair();
+	}
+
 	private void initCrypto() throws NoSuchAlgorithmException {
 		
 		dhKeyFactory = JCEProvider.getDHKeyFactory();
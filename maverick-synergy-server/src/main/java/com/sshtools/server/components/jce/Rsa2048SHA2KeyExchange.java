@@ -105,16 +105,20 @@ public class Rsa2048SHA2KeyExchange extends SshKeyExchangeServer implements Abst
 		try {
 			ComponentManager.getInstance().supportedDigests().getInstance(getHashAlgorithm());
 			initCrypto();
+			generateTransientKey();
 		} catch (Throwable e) {
 			throw new IllegalStateException(e.getMessage(), e);
 		}
 	}
 
-	void initCrypto() throws SshException, NoSuchAlgorithmException, NoSuchPaddingException {
-		transientKey = JCEComponentManager.getInstance().generateRsaKeyPair(2048, 2);
+	void initCrypto() throws NoSuchAlgorithmException, NoSuchPaddingException {
 		cipher = Cipher.getInstance(JCEProvider.getRSAOAEPSHA256AlgorithmName());
 	}
 
+	static SshKeyPair generateTransientKey() throws SshException {
+		return JCEComponentManager.getInstance().generateRsaKeyPair(2048, 2);
+	}
+
 	@Override
 	public void init(SshTransport<SshServerContext> transport, String clientId, String serverId,
 			byte[] clientKexInit, byte[] serverKexInit, SshPrivateKey prvkey, SshPublicKey pubkey,
@@ -136,6 +140,8 @@ public class Rsa2048SHA2KeyExchange extends SshKeyExchangeServer implements Abst
 			throw new IOException("JCE does not support " + getAlgorithm() + " key exchange");
 		}
 
+		transientKey = transport.getContext().takeEphemeralKey("rsa-2048", Rsa2048SHA2KeyExchange::generateTransientKey);
+
 		transport.postMessage(new SshMessage() {
 
 			@Override
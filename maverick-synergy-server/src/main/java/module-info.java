@@ -24,6 +24,7 @@ import com.sshtools.common.command.ExecutableCommand.ExecutableCommandFactory;
 import com.sshtools.server.components.SshKeyExchangeServerFactory;
 import com.sshtools.server.components.jce.Curve25519SHA256LibSshServer;
 import com.sshtools.server.components.jce.Curve25519SHA256Server;
+import com.sshtools.server.components.jce.Curve448SHA512Server;
 import com.sshtools.server.components.jce.DiffieHellmanEcdhNistp256;
 import com.sshtools.server.components.jce.DiffieHellmanEcdhNistp384;
 import com.sshtools.server.components.jce.DiffieHellmanEcdhNistp521;
@@ -50,6 +51,7 @@ module com.sshtools.synergy.server {
 	provides SshKeyExchangeServerFactory with
 			Curve25519SHA256LibSshServer.Curve25519SHA256LibSshServerFactory,
 			Curve25519SHA256Server.Curve25519SHA256ServerFactory,
+			Curve448SHA512Server.Curve448SHA512ServerFactory,
 			DiffieHellmanEcdhNistp256.DiffieHellmanEcdhNistp256Factory,
 			DiffieHellmanEcdhNistp384.DiffieHellmanEcdhNistp384Factory,
 			DiffieHellmanEcdhNistp521.DiffieHellmanEcdhNistp521Factory,